@@ -0,0 +1,155 @@
+package org.springframework.cloud.servicebroker.mongodb.cache;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournalRecord;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Node-local cache of broker metadata lookups. Entries live long because every change to the metadata
+ * collections, made on any node, is fed back through {@link #invalidate} by the {@link OplogInvalidator}.
+ * The cache is only used while that feed is {@link #setLive live}; otherwise lookups go to the repositories.
+ * <p>
+ * A lookup that raced with an invalidation must not put the value it read, so {@link #put} only accepts
+ * values read after the {@link #generation()} it is given.
+ */
+@Component
+public class MetadataCache {
+
+  private final boolean enabled;
+  private final long ttlMillis;
+  private final int maxEntries;
+  private final LongSupplier clock;
+
+  private final Map<JournalRecord.Kind, ConcurrentMap<String, Entry>> entries = new EnumMap<>(JournalRecord.Kind.class);
+  private final AtomicLong generation = new AtomicLong();
+  private volatile boolean live;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  @Autowired
+  public MetadataCache(@Value("${broker.cache.enabled:true}") boolean enabled,
+                       @Value("${broker.cache.ttl-millis:3600000}") long ttlMillis,
+                       @Value("${broker.cache.max-entries:100000}") int maxEntries) {
+    this(enabled, ttlMillis, maxEntries, System::currentTimeMillis);
+  }
+
+  MetadataCache(boolean enabled, long ttlMillis, int maxEntries, LongSupplier clock) {
+    this.enabled = enabled;
+    this.ttlMillis = ttlMillis;
+    this.maxEntries = maxEntries;
+    this.clock = clock;
+    for (JournalRecord.Kind kind : JournalRecord.Kind.values()) {
+      entries.put(kind, new ConcurrentHashMap<>());
+    }
+  }
+
+  /**
+   * @return a cache that never holds anything, for callers that are not managed by Spring
+   */
+  public static MetadataCache disabled() {
+    return new MetadataCache(false, 0, 0, System::currentTimeMillis);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @return the cached value, or null on a miss
+   */
+  public Object get(JournalRecord.Kind kind, String id) {
+    if (!enabled || !live) {
+      return null;
+    }
+    Entry entry = entries.get(kind).get(id);
+    if (entry == null || entry.expiresAt < clock.getAsLong()) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return entry.value;
+  }
+
+  /**
+   * @return the stamp to hand to {@link #put} for a value about to be read from the repository
+   */
+  public long generation() {
+    return generation.get();
+  }
+
+  public void put(JournalRecord.Kind kind, String id, Object value, long readAfter) {
+    if (!enabled || !live || value == null) {
+      return;
+    }
+    ConcurrentMap<String, Entry> cache = entries.get(kind);
+    if (cache.size() >= maxEntries) {
+      cache.clear();
+    }
+    cache.put(id, new Entry(value, clock.getAsLong() + ttlMillis));
+    if (generation.get() != readAfter) {
+      // an invalidation may have passed the read, drop what it may have missed
+      cache.remove(id);
+    }
+  }
+
+  public void invalidate(JournalRecord.Kind kind, String id) {
+    generation.incrementAndGet();
+    entries.get(kind).remove(id);
+  }
+
+  public void clear() {
+    generation.incrementAndGet();
+    for (ConcurrentMap<String, Entry> cache : entries.values()) {
+      cache.clear();
+    }
+  }
+
+  /**
+   * Start or stop serving lookups, as the invalidation feed comes and goes.
+   */
+  public void setLive(boolean live) {
+    this.live = live;
+  }
+
+  public boolean isLive() {
+    return live;
+  }
+
+  public int getSize() {
+    int size = 0;
+    for (ConcurrentMap<String, Entry> cache : entries.values()) {
+      size += cache.size();
+    }
+    return size;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  private static class Entry {
+
+    private final Object value;
+    private final long expiresAt;
+
+    Entry(Object value, long expiresAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+
+  }
+
+}
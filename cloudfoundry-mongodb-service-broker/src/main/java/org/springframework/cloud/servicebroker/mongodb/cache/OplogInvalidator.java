@@ -0,0 +1,175 @@
+package org.springframework.cloud.servicebroker.mongodb.cache;
+
+import com.mongodb.CursorType;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournalRecord;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstanceBinding;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds the {@link MetadataCache} with the changes every broker node makes to the metadata collections,
+ * by tailing the replica set oplog for their namespaces (change streams need a newer driver). The cache
+ * serves lookups only while the tail is open. When it breaks, the tail resumes after the last entry it
+ * saw, replaying the invalidations it missed, or clears the cache if the oplog has rolled past that entry.
+ * <p>
+ * Without a replica set there is no oplog, and the cache stays off.
+ */
+@Component
+public class OplogInvalidator implements DisposableBean {
+
+  private static final long RETRY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+  private Logger logger = LoggerFactory.getLogger(OplogInvalidator.class);
+
+  private final MongoClient client;
+  private final MetadataCache cache;
+  private final Map<String, JournalRecord.Kind> namespaces = new HashMap<>();
+  // drops and renames of the metadata collections are logged as commands on the database
+  private final String commands;
+
+  // the resume point, only touched by the tailing thread
+  private BsonTimestamp lastSeen;
+  private volatile boolean running;
+  private Thread tailer;
+
+  @Autowired
+  public OplogInvalidator(MongoClient client, MongoOperations operations, MetadataCache cache) {
+    this(client, operations.getCollection(operations.getCollectionName(ServiceInstance.class)).getDB().getName(),
+        operations.getCollectionName(ServiceInstance.class),
+        operations.getCollectionName(ServiceInstanceBinding.class), cache);
+  }
+
+  OplogInvalidator(MongoClient client, String database, String instances, String bindings, MetadataCache cache) {
+    this.client = client;
+    this.cache = cache;
+    this.commands = database + ".$cmd";
+    this.namespaces.put(database + "." + instances, JournalRecord.Kind.SERVICE_INSTANCE);
+    this.namespaces.put(database + "." + bindings, JournalRecord.Kind.SERVICE_INSTANCE_BINDING);
+  }
+
+  @PostConstruct
+  public void start() {
+    if (!cache.isEnabled()) {
+      return;
+    }
+    running = true;
+    tailer = new Thread(this::tailLoop, "oplog-invalidator");
+    tailer.setDaemon(true);
+    tailer.start();
+  }
+
+  @Override
+  public void destroy() {
+    running = false;
+    cache.setLive(false);
+    if (tailer != null) {
+      tailer.interrupt();
+    }
+  }
+
+  private void tailLoop() {
+    while (running) {
+      try {
+        MongoCollection<Document> oplog = client.getDatabase("local").getCollection("oplog.rs");
+        if (!resume(oplog)) {
+          return;
+        }
+        tail(oplog);
+      } catch (MongoException e) {
+        logger.warn("Oplog tail broke, metadata cache is off until it resumes: " + e.getMessage());
+      } finally {
+        cache.setLive(false);
+      }
+      try {
+        Thread.sleep(RETRY_MILLIS);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Work out where to tail from.
+   * @return false if the backend has no oplog
+   */
+  private boolean resume(MongoCollection<Document> oplog) {
+    Document newest = oplog.find().sort(new Document("$natural", -1)).limit(1).first();
+    if (newest == null) {
+      logger.info("No replica set oplog, metadata lookups are not cached");
+      return false;
+    }
+    Document oldest = oplog.find().sort(new Document("$natural", 1)).limit(1).first();
+    if (lastSeen == null || oldest == null || oldest.get("ts", BsonTimestamp.class).compareTo(lastSeen) > 0) {
+      // nothing to resume from, or the changes since are gone
+      cache.clear();
+      lastSeen = newest.get("ts", BsonTimestamp.class);
+    }
+    return true;
+  }
+
+  private void tail(MongoCollection<Document> oplog) {
+    List<String> watched = new ArrayList<>(namespaces.keySet());
+    watched.add(commands);
+    Document filter = new Document("ts", new Document("$gt", lastSeen))
+        .append("ns", new Document("$in", watched));
+    try (MongoCursor<Document> cursor = oplog.find(filter)
+        .cursorType(CursorType.TailableAwait)
+        .noCursorTimeout(true)
+        .oplogReplay(true)
+        .iterator()) {
+      boolean replaying = true;
+      while (running) {
+        Document entry = replaying ? cursor.tryNext() : cursor.next();
+        if (entry == null) {
+          // caught up with the changes missed while the tail was down
+          replaying = false;
+          cache.setLive(true);
+          continue;
+        }
+        apply(entry);
+        lastSeen = entry.get("ts", BsonTimestamp.class);
+      }
+    }
+  }
+
+  /**
+   * Invalidate the entry changed by an oplog entry, or everything if a whole collection changed.
+   */
+  void apply(Document entry) {
+    if (commands.equals(entry.getString("ns"))) {
+      cache.clear();
+      return;
+    }
+    JournalRecord.Kind kind = namespaces.get(entry.getString("ns"));
+    String op = entry.getString("op");
+    if (kind == null || op == null) {
+      return;
+    }
+    Document target = "u".equals(op) ? (Document) entry.get("o2") : (Document) entry.get("o");
+    Object id = target == null ? null : target.get("_id");
+    if (("i".equals(op) || "u".equals(op) || "d".equals(op)) && id != null) {
+      cache.invalidate(kind, id.toString());
+    } else {
+      cache.clear();
+    }
+  }
+
+}
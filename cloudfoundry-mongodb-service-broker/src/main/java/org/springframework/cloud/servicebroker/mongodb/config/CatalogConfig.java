@@ -5,10 +5,16 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import com.mongodb.client.model.IndexOptions;
+import org.bson.Document;
 import org.springframework.cloud.servicebroker.model.Catalog;
 import org.springframework.cloud.servicebroker.model.Plan;
 import org.springframework.cloud.servicebroker.model.ServiceDefinition;
+import org.springframework.cloud.servicebroker.mongodb.model.CollectionProfile;
+import org.springframework.cloud.servicebroker.mongodb.model.IndexAdvice;
+import org.springframework.cloud.servicebroker.mongodb.model.ProvisioningProfile;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -24,12 +30,27 @@ public class CatalogConfig {
 						"A simple MongoDB service broker implementation",
 						true,
 						false,
-						Collections.singletonList(
-								new Plan(getEnvOrDefault("PLAN_ID","mongo-plan"), //env variable
+						Arrays.asList(
+								new Plan(getStandardPlanId(),
 										"standard",
 										"This is a default mongo plan.  All services are created equally.",
-										getPlanMetadata(),
-										true)),
+										getPlanMetadata(getBullets()),
+										true),
+								new Plan(getHighThroughputPlanId(),
+										"high-throughput",
+										"A mongo plan tuned for write-heavy event data.",
+										getPlanMetadata(getHighThroughputBullets()),
+										false),
+								new Plan(getPooledPlanId(),
+										"pooled",
+										"Collections in a database shared with other small instances.",
+										getPlanMetadata(getPooledBullets()),
+										true),
+								new Plan(getShardedPlanId(),
+										"sharded",
+										"A mongo plan for large tenants, sharding declared collections across the cluster.",
+										getPlanMetadata(getShardedBullets()),
+										false)),
 						Arrays.asList("mongodb", "document"),
 						getServiceDefinitionMetadata(),
 						null,
@@ -49,9 +70,9 @@ public class CatalogConfig {
 		return sdMetadata;
 	}
 	
-	private Map<String,Object> getPlanMetadata() {
+	private Map<String,Object> getPlanMetadata(List<String> bullets) {
 		Map<String,Object> planMetadata = new HashMap<>();
-		planMetadata.put("bullets", getBullets());
+		planMetadata.put("bullets", bullets);
 		return planMetadata;
 	}
 
@@ -60,9 +81,100 @@ public class CatalogConfig {
 	private List<String> getBullets() {
 		return Arrays.asList("Shared MongoDB server", 
 				"100 MB Storage (not enforced)", 
-				"40 concurrent connections (not enforced)");
+				getStandardMaxConnections() + " concurrent connections per binding");
+	}
+
+	private List<String> getHighThroughputBullets() {
+		return Arrays.asList("Shared MongoDB server",
+				"Compressed, pre-indexed events collection",
+				"Capped log collection");
+	}
+
+	private List<String> getPooledBullets() {
+		return Arrays.asList("Shared MongoDB database",
+				"A prefixed data collection",
+				"Collections other than the plan's are not available",
+				getPooledMaxConnections() + " concurrent connections per binding");
+	}
+
+	private List<String> getShardedBullets() {
+		return Arrays.asList("Sharded MongoDB cluster",
+				"Collections sharded on hashed or ranged keys declared at provisioning",
+				"Chunks pre-split before the first write",
+				getStandardMaxConnections() + " concurrent connections per binding");
+	}
+
+/* Applied to the database of each new instance of the plan */
+
+	@Bean
+	public PlanProfiles planProfiles() {
+		return PlanProfiles.defaults()
+				.withProfile(getStandardPlanId(), getStandardProfile())
+				.withProfile(getHighThroughputPlanId(), getHighThroughputProfile())
+				.withProfile(getPooledPlanId(), getPooledProfile())
+				.withProfile(getShardedPlanId(), getShardedProfile());
+	}
+
+	private ProvisioningProfile getPooledProfile() {
+		return new ProvisioningProfile("pooled")
+				.withPooledDatabase(getEnvOrDefault("POOLED_DATABASE", "mongodb-service-broker-pool")) //env variable
+				.withMaxConnections(getPooledMaxConnections())
+				.withCollection(new CollectionProfile("data"));
+	}
+
+	private ProvisioningProfile getShardedProfile() {
+		return new ProvisioningProfile("sharded")
+				.withSharding(System.getenv("SHARDED_PRIMARY_SHARD"), System.getenv("SHARDED_ZONE")) //env variables, unset for any shard
+				.withConcerns(System.getenv("STANDARD_READ_CONCERN"), System.getenv("STANDARD_WRITE_CONCERN")) //env variables
+				.withMaxConnections(getStandardMaxConnections());
+	}
+
+	private ProvisioningProfile getStandardProfile() {
+		return new ProvisioningProfile("standard")
+				.withConcerns(System.getenv("STANDARD_READ_CONCERN"), System.getenv("STANDARD_WRITE_CONCERN")) //env variables
+				.withMaxConnections(getStandardMaxConnections())
+				.withIndexAdvice(IndexAdvice.valueOf(getEnvOrDefault("STANDARD_INDEX_ADVICE", "OFF"))) //env variable: OFF, RECOMMEND or AUTO_CREATE
+				.withHibernateAfter(TimeUnit.DAYS.toMillis(
+						Long.parseLong(getEnvOrDefault("STANDARD_HIBERNATE_AFTER_DAYS", "0")))); //env variable, idle days before hibernating, 0 never
+	}
+
+	private ProvisioningProfile getHighThroughputProfile() {
+		return new ProvisioningProfile("high-throughput")
+				.withCollection(new CollectionProfile("events")
+						.withBlockCompressor(getEnvOrDefault("HIGH_THROUGHPUT_BLOCK_COMPRESSOR", "zstd")) //env variable
+						.withIndexPrefixCompression(true)
+						.withValidator(new Document("createdAt", new Document("$type", "date")), "moderate", "warn")
+						.withIndex(new Document("createdAt", 1), new IndexOptions().name("createdAt_1"))
+						.withIndex(new Document("type", 1).append("createdAt", -1), new IndexOptions().name("type_1_createdAt_-1")))
+				.withCollection(new CollectionProfile("log")
+						.withBlockCompressor("snappy")
+						.withCapped(64L * 1024 * 1024, 0));
+	}
+
+	private int getStandardMaxConnections() {
+		return Integer.parseInt(getEnvOrDefault("STANDARD_MAX_CONNECTIONS", "40")); //env variable, 0 unlimited
+	}
+
+	private int getPooledMaxConnections() {
+		return Integer.parseInt(getEnvOrDefault("POOLED_MAX_CONNECTIONS", "10")); //env variable, 0 unlimited
+	}
+
+	private String getStandardPlanId() {
+		return getEnvOrDefault("PLAN_ID","mongo-plan"); //env variable
+	}
+
+	private String getHighThroughputPlanId() {
+		return getEnvOrDefault("HIGH_THROUGHPUT_PLAN_ID","mongo-plan-high-throughput"); //env variable
 	}
 	
+	private String getPooledPlanId() {
+		return getEnvOrDefault("POOLED_PLAN_ID","mongo-plan-pooled"); //env variable
+	}
+
+	private String getShardedPlanId() {
+		return getEnvOrDefault("SHARDED_PLAN_ID","mongo-plan-sharded"); //env variable
+	}
+
 	private String getEnvOrDefault(final String variable, final String defaultValue){
 		String value = System.getenv(variable);
 		if(value != null){
@@ -1,13 +1,19 @@
 package org.springframework.cloud.servicebroker.mongodb.config;
 
 import com.mongodb.*;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.mongodb.convert.ServiceInstanceBindingConverters;
+import org.springframework.cloud.servicebroker.mongodb.convert.ServiceInstanceConverters;
+import org.springframework.cloud.servicebroker.mongodb.trace.Tracer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.mongodb.config.AbstractMongoConfiguration;
+import org.springframework.data.mongodb.core.convert.CustomConversions;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
 
 import java.net.UnknownHostException;
+import java.util.Arrays;
 import java.util.Collections;
 
 @Configuration
@@ -31,10 +37,26 @@ public class MongoConfig extends AbstractMongoConfiguration {
   @Value("${mongodb.password:pass}")
   private String password;
 
+  @Autowired
+  private Tracer tracer;
+
   @Bean
   public MongoClient mongoClient() throws UnknownHostException {
     MongoCredential credential = MongoCredential.createScramSha1Credential(username, "admin", password.toCharArray());
-    return new MongoClient(new ServerAddress(host, port), Collections.singletonList(credential));
+    MongoClientOptions options = MongoClientOptions.builder()
+        .addCommandListener(tracer.commandListener())
+        .build();
+    return new MongoClient(new ServerAddress(host, port), Collections.singletonList(credential), options);
+  }
+
+  /**
+   * The broker metadata is mapped by hand rather than by reflection, see {@link ServiceInstanceConverters}.
+   */
+  @Override
+  public CustomConversions customConversions() {
+    return new CustomConversions(Arrays.asList(
+        new ServiceInstanceConverters.Writer(), new ServiceInstanceConverters.Reader(),
+        new ServiceInstanceBindingConverters.Writer(), new ServiceInstanceBindingConverters.Reader()));
   }
 
   @Override
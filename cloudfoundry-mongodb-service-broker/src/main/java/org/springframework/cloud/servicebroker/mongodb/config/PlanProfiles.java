@@ -0,0 +1,32 @@
+package org.springframework.cloud.servicebroker.mongodb.config;
+
+import org.springframework.cloud.servicebroker.mongodb.model.ProvisioningProfile;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The provisioning profile of each plan in the catalog.
+ */
+public class PlanProfiles {
+
+	private final Map<String, ProvisioningProfile> profiles = new HashMap<>();
+
+	public static PlanProfiles defaults() {
+		return new PlanProfiles();
+	}
+
+	public PlanProfiles withProfile(String planId, ProvisioningProfile profile) {
+		profiles.put(planId, profile);
+		return this;
+	}
+
+	/**
+	 * @return the profile of the plan, or the default profile for unknown plans
+	 */
+	public ProvisioningProfile forPlan(String planId) {
+		ProvisioningProfile profile = planId == null ? null : profiles.get(planId);
+		return profile == null ? ProvisioningProfile.DEFAULT : profile;
+	}
+
+}
@@ -0,0 +1,56 @@
+package org.springframework.cloud.servicebroker.mongodb.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.servicebroker.model.ErrorMessage;
+import org.springframework.cloud.servicebroker.mongodb.model.Adoption;
+import org.springframework.cloud.servicebroker.mongodb.service.DatabaseAdopter;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Operator endpoints to adopt databases provisioned outside the broker and follow the adoption. The mapping
+ * is posted as the body, one {@code database,organization_guid,space_guid,plan_id} line per database, e.g.
+ * {@code curl --data-binary @mapping.csv}. Starting an adoption that did not complete with the same mapping
+ * resumes it.
+ */
+@RestController
+@RequestMapping("/admin/adoption")
+public class AdoptionController {
+
+	private DatabaseAdopter adopter;
+
+	@Autowired
+	public AdoptionController(DatabaseAdopter adopter) {
+		this.adopter = adopter;
+	}
+
+	@RequestMapping(method = RequestMethod.GET)
+	public ResponseEntity<Adoption> status() {
+		Adoption adoption = adopter.getStatus();
+		if (adoption == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<>(adoption, HttpStatus.OK);
+	}
+
+	@RequestMapping(method = RequestMethod.POST)
+	public ResponseEntity<Void> start(@RequestBody String mapping,
+									  @RequestParam(value = "dryRun", defaultValue = "false") boolean dryRun) {
+		if (!adopter.start(mapping, dryRun)) {
+			return new ResponseEntity<>(HttpStatus.CONFLICT);
+		}
+		return new ResponseEntity<>(HttpStatus.ACCEPTED);
+	}
+
+	@ExceptionHandler(IllegalArgumentException.class)
+	public ResponseEntity<ErrorMessage> handleException(IllegalArgumentException ex) {
+		return new ResponseEntity<>(new ErrorMessage(ex.getMessage()), HttpStatus.BAD_REQUEST);
+	}
+
+}
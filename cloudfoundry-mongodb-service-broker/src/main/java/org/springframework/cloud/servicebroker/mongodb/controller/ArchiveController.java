@@ -0,0 +1,50 @@
+package org.springframework.cloud.servicebroker.mongodb.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournalRecord;
+import org.springframework.cloud.servicebroker.mongodb.journal.MetadataArchive;
+import org.springframework.cloud.servicebroker.mongodb.model.ArchivedRecord;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operator queries over the archived versions of the broker metadata, e.g. the instances deprovisioned
+ * during the last day: {@code GET /admin/archive/recent?kind=SERVICE_INSTANCE&reason=DELETED&hours=24}.
+ */
+@RestController
+@RequestMapping("/admin/archive")
+public class ArchiveController {
+
+	private MetadataArchive archive;
+
+	@Autowired
+	public ArchiveController(MetadataArchive archive) {
+		this.archive = archive;
+	}
+
+	@RequestMapping(value = "/instances/{instanceId}", method = RequestMethod.GET)
+	public List<ArchivedRecord> instance(@PathVariable String instanceId) {
+		return archive.history(JournalRecord.Kind.SERVICE_INSTANCE, instanceId);
+	}
+
+	@RequestMapping(value = "/bindings/{bindingId}", method = RequestMethod.GET)
+	public List<ArchivedRecord> binding(@PathVariable String bindingId) {
+		return archive.history(JournalRecord.Kind.SERVICE_INSTANCE_BINDING, bindingId);
+	}
+
+	@RequestMapping(value = "/recent", method = RequestMethod.GET)
+	public List<ArchivedRecord> recent(@RequestParam JournalRecord.Kind kind,
+									   @RequestParam(defaultValue = "DELETED") ArchivedRecord.Reason reason,
+									   @RequestParam(defaultValue = "24") int hours,
+									   @RequestParam(defaultValue = "100") int limit) {
+		long since = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(hours);
+		return archive.recent(kind, reason, since, limit);
+	}
+
+}
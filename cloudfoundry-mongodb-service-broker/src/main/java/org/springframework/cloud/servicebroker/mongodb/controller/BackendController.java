@@ -0,0 +1,64 @@
+package org.springframework.cloud.servicebroker.mongodb.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.servicebroker.mongodb.service.BackendClusters;
+import org.springframework.cloud.servicebroker.mongodb.throttle.AdaptiveConcurrencyLimiter;
+import org.springframework.cloud.servicebroker.mongodb.throttle.BackendCommandGuard;
+import org.springframework.cloud.servicebroker.mongodb.throttle.CommandCost;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Concurrency limits of the backend admin commands and how long each work class waits for them.
+ */
+@RestController
+@RequestMapping("/admin/backend")
+public class BackendController {
+
+	private BackendCommandGuard guard;
+
+	private BackendClusters clusters;
+
+	@Autowired
+	public BackendController(BackendCommandGuard guard, BackendClusters clusters) {
+		this.guard = guard;
+		this.clusters = clusters;
+	}
+
+	/**
+	 * The default cluster's, with the other clusters' under {@code clusters}.
+	 */
+	@RequestMapping(value = "/scheduling", method = RequestMethod.GET)
+	public Map<String, Object> scheduling() {
+		Map<String, Object> result = scheduling(guard);
+		Map<String, Object> others = new LinkedHashMap<>();
+		for (String name : clusters.getNames()) {
+			BackendCommandGuard clusterGuard = clusters.getGuard(name);
+			if (clusterGuard != null) {
+				others.put(name, scheduling(clusterGuard));
+			}
+		}
+		result.put("clusters", others);
+		return result;
+	}
+
+	private static Map<String, Object> scheduling(BackendCommandGuard guard) {
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("breaker", guard.getBreaker().getState());
+		for (CommandCost cost : CommandCost.values()) {
+			AdaptiveConcurrencyLimiter limiter = guard.getLimiter(cost);
+			Map<String, Object> limits = new LinkedHashMap<>();
+			limits.put("limit", limiter.getLimit());
+			limits.put("inFlight", limiter.getInFlight());
+			limits.put("classes", limiter.getQueueStats());
+			result.put(cost.name().toLowerCase(Locale.ROOT), limits);
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,56 @@
+package org.springframework.cloud.servicebroker.mongodb.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.servicebroker.mongodb.service.ConnectionCensus;
+import org.springframework.cloud.servicebroker.mongodb.service.ConnectionLimiter;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Client connections per binding, as last sampled on this node, and what the connection limits killed.
+ */
+@RestController
+@RequestMapping("/admin/connections")
+public class ConnectionController {
+
+	private ConnectionLimiter limiter;
+
+	@Autowired
+	public ConnectionController(ConnectionLimiter limiter) {
+		this.limiter = limiter;
+	}
+
+	@RequestMapping(method = RequestMethod.GET)
+	public Map<String, Object> connections() {
+		Map<String, Object> clusters = new LinkedHashMap<>();
+		for (Map.Entry<String, ConnectionCensus> entry : limiter.getCensuses().entrySet()) {
+			Map<String, Object> cluster = new LinkedHashMap<>();
+			cluster.put("sampledAt", entry.getValue().getSampledAt());
+			cluster.put("bindings", entry.getValue().getCounts());
+			clusters.put(entry.getKey(), cluster);
+		}
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("clusters", clusters);
+		result.put("killedOperations", limiter.getKilledOperations());
+		result.put("killedSessions", limiter.getKilledSessions());
+		return result;
+	}
+
+	@RequestMapping(value = "/bindings/{bindingId}", method = RequestMethod.GET)
+	public Map<String, Object> binding(@PathVariable String bindingId) {
+		int connections = 0;
+		for (ConnectionCensus census : limiter.getCensuses().values()) {
+			connections += census.getConnections(bindingId);
+		}
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("connections", connections);
+		result.put("overLimitSince", limiter.getOverSince(bindingId));
+		return result;
+	}
+
+}
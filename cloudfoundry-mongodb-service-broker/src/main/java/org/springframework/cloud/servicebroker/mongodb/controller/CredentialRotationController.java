@@ -0,0 +1,52 @@
+package org.springframework.cloud.servicebroker.mongodb.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.servicebroker.model.ErrorMessage;
+import org.springframework.cloud.servicebroker.mongodb.model.CredentialRotation;
+import org.springframework.cloud.servicebroker.mongodb.service.CredentialRotator;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Operator endpoints to rotate the passwords of every binding and follow the rotation. Starting a rotation
+ * that did not complete resumes it. Bound applications cannot connect with their old credentials once their
+ * password is rotated, until they are bound again, so a rotation is only started with {@code ?confirm=true}.
+ */
+@RestController
+@RequestMapping("/admin/credentials/rotation")
+public class CredentialRotationController {
+
+	private CredentialRotator rotator;
+
+	@Autowired
+	public CredentialRotationController(CredentialRotator rotator) {
+		this.rotator = rotator;
+	}
+
+	@RequestMapping(method = RequestMethod.GET)
+	public ResponseEntity<CredentialRotation> status() {
+		CredentialRotation rotation = rotator.getStatus();
+		if (rotation == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<>(rotation, HttpStatus.OK);
+	}
+
+	@RequestMapping(method = RequestMethod.POST)
+	public ResponseEntity<?> start(@RequestParam(value = "confirm", defaultValue = "false") boolean confirm) {
+		if (!confirm) {
+			return new ResponseEntity<>(new ErrorMessage("Bound applications cannot connect after their password "
+					+ "is rotated until they are bound again; start the rotation with confirm=true"),
+					HttpStatus.BAD_REQUEST);
+		}
+		if (!rotator.start()) {
+			return new ResponseEntity<>(HttpStatus.CONFLICT);
+		}
+		return new ResponseEntity<>(HttpStatus.ACCEPTED);
+	}
+
+}
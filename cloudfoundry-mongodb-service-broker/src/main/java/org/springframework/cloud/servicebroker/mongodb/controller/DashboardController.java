@@ -0,0 +1,61 @@
+package org.springframework.cloud.servicebroker.mongodb.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.servicebroker.mongodb.service.DashboardLinks;
+import org.springframework.cloud.servicebroker.mongodb.service.InstanceDashboards;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * The dashboard behind each instance's {@code dashboard_url}: a page, and the JSON it polls. Both are
+ * outside the broker's basic authentication and take the token of the dashboard URL instead.
+ */
+@RestController
+@RequestMapping("/dashboard/instances/{instanceId}")
+public class DashboardController {
+
+	private static final Resource PAGE = new ClassPathResource("dashboard/instance.html");
+
+	private DashboardLinks links;
+
+	private InstanceDashboards dashboards;
+
+	@Autowired
+	public DashboardController(DashboardLinks links, InstanceDashboards dashboards) {
+		this.links = links;
+		this.dashboards = dashboards;
+	}
+
+	@RequestMapping(method = RequestMethod.GET, produces = MediaType.TEXT_HTML_VALUE)
+	public ResponseEntity<Resource> page(@PathVariable String instanceId,
+										 @RequestParam(required = false) String token) {
+		if (!links.isValid(instanceId, token)) {
+			return new ResponseEntity<>(HttpStatus.FORBIDDEN);
+		}
+		return new ResponseEntity<>(PAGE, HttpStatus.OK);
+	}
+
+	@RequestMapping(value = "/stats", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<Map<String, Object>> stats(@PathVariable String instanceId,
+													 @RequestParam(required = false) String token) {
+		if (!links.isValid(instanceId, token)) {
+			return new ResponseEntity<>(HttpStatus.FORBIDDEN);
+		}
+		Map<String, Object> dashboard = dashboards.get(instanceId);
+		if (dashboard == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<>(dashboard, HttpStatus.OK);
+	}
+
+}
@@ -0,0 +1,48 @@
+package org.springframework.cloud.servicebroker.mongodb.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.servicebroker.exception.ServiceInstanceDoesNotExistException;
+import org.springframework.cloud.servicebroker.model.ErrorMessage;
+import org.springframework.cloud.servicebroker.mongodb.service.Hibernator;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Operator endpoints to hibernate a service instance ahead of its plan's idle period and to wake it
+ * without waiting for the next bind. Both run in the background; their progress is reported as the
+ * instance's last operation.
+ */
+@RestController
+@RequestMapping("/admin/instances/{instanceId}")
+public class HibernationController {
+
+	private Hibernator hibernator;
+
+	@Autowired
+	public HibernationController(Hibernator hibernator) {
+		this.hibernator = hibernator;
+	}
+
+	@RequestMapping(value = "/hibernate", method = RequestMethod.POST)
+	public ResponseEntity<Void> hibernate(@PathVariable String instanceId) {
+		hibernator.startHibernate(instanceId);
+		return new ResponseEntity<>(HttpStatus.ACCEPTED);
+	}
+
+	@RequestMapping(value = "/wake", method = RequestMethod.POST)
+	public ResponseEntity<Void> wake(@PathVariable String instanceId) {
+		hibernator.startWake(instanceId);
+		return new ResponseEntity<>(HttpStatus.ACCEPTED);
+	}
+
+	@ExceptionHandler(ServiceInstanceDoesNotExistException.class)
+	public ResponseEntity<ErrorMessage> handleException(ServiceInstanceDoesNotExistException ex) {
+		return new ResponseEntity<>(new ErrorMessage(ex.getMessage()), HttpStatus.NOT_FOUND);
+	}
+
+}
@@ -0,0 +1,38 @@
+package org.springframework.cloud.servicebroker.mongodb.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.servicebroker.mongodb.service.IndexAdvisor;
+import org.springframework.cloud.servicebroker.mongodb.service.IndexRecommendation;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Index recommendations for the slow queries of an instance whose plan profiles them, costliest first.
+ */
+@RestController
+@RequestMapping("/admin/instances/{instanceId}/index-recommendations")
+public class IndexAdvisorController {
+
+	private IndexAdvisor advisor;
+
+	@Autowired
+	public IndexAdvisorController(IndexAdvisor advisor) {
+		this.advisor = advisor;
+	}
+
+	@RequestMapping(method = RequestMethod.GET)
+	public ResponseEntity<List<IndexRecommendation>> recommendations(@PathVariable String instanceId) {
+		List<IndexRecommendation> recommendations = advisor.getRecommendations(instanceId);
+		if (recommendations == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<>(recommendations, HttpStatus.OK);
+	}
+
+}
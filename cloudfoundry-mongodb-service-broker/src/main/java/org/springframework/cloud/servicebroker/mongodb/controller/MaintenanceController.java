@@ -0,0 +1,38 @@
+package org.springframework.cloud.servicebroker.mongodb.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.servicebroker.mongodb.service.MaintenanceScheduler;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Progress of the compactions and index rebuilds run in the maintenance windows, with the space they reclaimed.
+ */
+@RestController
+@RequestMapping("/admin/maintenance")
+public class MaintenanceController {
+
+	private MaintenanceScheduler scheduler;
+
+	@Autowired
+	public MaintenanceController(MaintenanceScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	@RequestMapping(method = RequestMethod.GET)
+	public Map<String, Object> status() {
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("windowOpen", scheduler.isWindowOpen());
+		result.put("queued", scheduler.getQueued());
+		result.put("inFlight", scheduler.getInFlight());
+		result.put("reclaimedBytes", scheduler.getReclaimedBytes());
+		result.put("failed", scheduler.getFailed());
+		result.put("runs", scheduler.getRuns());
+		return result;
+	}
+
+}
@@ -0,0 +1,62 @@
+package org.springframework.cloud.servicebroker.mongodb.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.servicebroker.exception.ServiceInstanceDoesNotExistException;
+import org.springframework.cloud.servicebroker.model.ErrorMessage;
+import org.springframework.cloud.servicebroker.mongodb.service.BackendClusters;
+import org.springframework.cloud.servicebroker.mongodb.service.ClusterMigrator;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Set;
+
+/**
+ * Operator endpoints to list the backend clusters and to move a service instance onto another one.
+ * The migration runs in the background; its progress and lag are reported as the instance's last operation.
+ * The instance's database and users stay on the former cluster until the migration is finalized, once the
+ * applications have been bound again.
+ */
+@RestController
+@RequestMapping("/admin")
+public class MigrationController {
+
+	private BackendClusters clusters;
+
+	private ClusterMigrator migrator;
+
+	@Autowired
+	public MigrationController(BackendClusters clusters, ClusterMigrator migrator) {
+		this.clusters = clusters;
+		this.migrator = migrator;
+	}
+
+	@RequestMapping(value = "/clusters", method = RequestMethod.GET)
+	public ResponseEntity<Set<String>> clusters() {
+		return new ResponseEntity<>(clusters.getNames(), HttpStatus.OK);
+	}
+
+	@RequestMapping(value = "/instances/{instanceId}/migrate", method = RequestMethod.POST)
+	public ResponseEntity<Void> migrate(@PathVariable String instanceId, @RequestParam String cluster) {
+		migrator.startMigration(instanceId, cluster);
+		return new ResponseEntity<>(HttpStatus.ACCEPTED);
+	}
+
+	@RequestMapping(value = "/instances/{instanceId}/migrate/finalize", method = RequestMethod.POST)
+	public ResponseEntity<Void> finalizeMigration(@PathVariable String instanceId,
+												  @RequestParam("from") String formerCluster) {
+		migrator.finalizeMigration(instanceId, formerCluster);
+		return new ResponseEntity<>(HttpStatus.OK);
+	}
+
+	@ExceptionHandler(ServiceInstanceDoesNotExistException.class)
+	public ResponseEntity<ErrorMessage> handleException(ServiceInstanceDoesNotExistException ex) {
+		return new ResponseEntity<>(new ErrorMessage(ex.getMessage()), HttpStatus.NOT_FOUND);
+	}
+
+}
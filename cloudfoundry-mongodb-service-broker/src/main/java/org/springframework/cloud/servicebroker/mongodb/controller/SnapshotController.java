@@ -0,0 +1,85 @@
+package org.springframework.cloud.servicebroker.mongodb.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.servicebroker.exception.ServiceInstanceDoesNotExistException;
+import org.springframework.cloud.servicebroker.model.ErrorMessage;
+import org.springframework.cloud.servicebroker.mongodb.service.SnapshotService;
+import org.springframework.cloud.servicebroker.mongodb.snapshot.SnapshotManifest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Operator endpoints to snapshot a service instance before a risky change and to restore it afterwards.
+ * Snapshots and restores run in the background; their progress is reported as the instance's
+ * last operation.
+ */
+@RestController
+@RequestMapping("/admin/instances/{instanceId}/snapshots")
+public class SnapshotController {
+
+	private SnapshotService snapshots;
+
+	@Autowired
+	public SnapshotController(SnapshotService snapshots) {
+		this.snapshots = snapshots;
+	}
+
+	@RequestMapping(method = RequestMethod.GET)
+	public List<Map<String, Object>> list(@PathVariable String instanceId) {
+		List<Map<String, Object>> result = new ArrayList<>();
+		for (SnapshotManifest manifest : snapshots.list(instanceId)) {
+			result.add(manifest.toDocument());
+		}
+		return result;
+	}
+
+	@RequestMapping(method = RequestMethod.POST)
+	public ResponseEntity<Map<String, String>> create(@PathVariable String instanceId) {
+		String id = snapshots.startSnapshot(instanceId);
+		return new ResponseEntity<>(Collections.singletonMap("id", id), HttpStatus.ACCEPTED);
+	}
+
+	@RequestMapping(value = "/{snapshotId}", method = RequestMethod.GET)
+	public ResponseEntity<Map<String, Object>> get(@PathVariable String instanceId, @PathVariable String snapshotId) {
+		SnapshotManifest manifest = snapshots.find(instanceId, snapshotId);
+		if (manifest == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<>(manifest.toDocument(), HttpStatus.OK);
+	}
+
+	@RequestMapping(value = "/{snapshotId}/restore", method = RequestMethod.POST)
+	public ResponseEntity<Void> restore(@PathVariable String instanceId, @PathVariable String snapshotId) {
+		if (!snapshots.startRestore(instanceId, snapshotId)) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<>(HttpStatus.ACCEPTED);
+	}
+
+	@RequestMapping(value = "/{snapshotId}", method = RequestMethod.DELETE)
+	public ResponseEntity<Void> delete(@PathVariable String instanceId, @PathVariable String snapshotId) {
+		snapshots.delete(instanceId, snapshotId);
+		return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+	}
+
+	@ExceptionHandler(ServiceInstanceDoesNotExistException.class)
+	public ResponseEntity<ErrorMessage> handleException(ServiceInstanceDoesNotExistException ex) {
+		return new ResponseEntity<>(new ErrorMessage(ex.getMessage()), HttpStatus.NOT_FOUND);
+	}
+
+	@ExceptionHandler(IllegalArgumentException.class)
+	public ResponseEntity<ErrorMessage> handleException(IllegalArgumentException ex) {
+		return new ResponseEntity<>(new ErrorMessage(ex.getMessage()), HttpStatus.BAD_REQUEST);
+	}
+
+}
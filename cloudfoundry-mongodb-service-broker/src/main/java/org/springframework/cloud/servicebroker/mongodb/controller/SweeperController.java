@@ -0,0 +1,36 @@
+package org.springframework.cloud.servicebroker.mongodb.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.servicebroker.mongodb.service.TombstoneSweeper;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Progress of the sweeper that drops deprovisioned databases, e.g. while a space is torn down.
+ */
+@RestController
+@RequestMapping("/admin/sweeper")
+public class SweeperController {
+
+	private TombstoneSweeper sweeper;
+
+	@Autowired
+	public SweeperController(TombstoneSweeper sweeper) {
+		this.sweeper = sweeper;
+	}
+
+	@RequestMapping(method = RequestMethod.GET)
+	public Map<String, Object> status() {
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("backlog", sweeper.getBacklog());
+		result.put("inFlight", sweeper.getInFlight());
+		result.put("swept", sweeper.getSwept());
+		result.put("failed", sweeper.getFailed());
+		return result;
+	}
+
+}
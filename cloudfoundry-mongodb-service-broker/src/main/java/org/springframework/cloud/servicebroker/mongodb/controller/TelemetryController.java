@@ -0,0 +1,89 @@
+package org.springframework.cloud.servicebroker.mongodb.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.Aggregate;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.InstanceMetric;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.Metric;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.MetricSeries;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.TelemetryStore;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operator queries over the sampled capacity history, e.g. the biggest tenants of the last week:
+ * {@code GET /admin/telemetry/top?metric=DATA_SIZE&hours=168&limit=50}.
+ */
+@RestController
+@RequestMapping("/admin/telemetry")
+public class TelemetryController {
+
+	private TelemetryStore store;
+
+	@Autowired
+	public TelemetryController(TelemetryStore store) {
+		this.store = store;
+	}
+
+	@RequestMapping(value = "/top", method = RequestMethod.GET)
+	public List<InstanceMetric> top(@RequestParam Metric metric,
+									@RequestParam(defaultValue = "MAX") Aggregate aggregate,
+									@RequestParam(defaultValue = "24") int hours,
+									@RequestParam(defaultValue = "50") int limit) {
+		long now = System.currentTimeMillis();
+		return store.top(metric, now - TimeUnit.HOURS.toMillis(hours), now, aggregate, limit);
+	}
+
+	@RequestMapping(value = "/percentile", method = RequestMethod.GET)
+	public Map<String, Object> percentile(@RequestParam Metric metric,
+										  @RequestParam(defaultValue = "MAX") Aggregate aggregate,
+										  @RequestParam(defaultValue = "24") int hours,
+										  @RequestParam(defaultValue = "0.95") double p) {
+		long now = System.currentTimeMillis();
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("metric", metric);
+		result.put("percentile", p);
+		result.put("value", store.percentile(metric, now - TimeUnit.HOURS.toMillis(hours), now, aggregate, p));
+		return result;
+	}
+
+	@RequestMapping(value = "/instances/{instanceId}", method = RequestMethod.GET)
+	public ResponseEntity<Map<Metric, Map<String, Long>>> instance(@PathVariable String instanceId,
+																   @RequestParam(defaultValue = "24") int hours) {
+		MetricSeries series = store.getSeries(instanceId);
+		if (series == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<>(summarize(series, hours), HttpStatus.OK);
+	}
+
+	@RequestMapping(value = "/server", method = RequestMethod.GET)
+	public Map<Metric, Map<String, Long>> server(@RequestParam(defaultValue = "24") int hours) {
+		return summarize(store.getServerSeries(), hours);
+	}
+
+	private Map<Metric, Map<String, Long>> summarize(MetricSeries series, int hours) {
+		long now = System.currentTimeMillis();
+		long from = now - TimeUnit.HOURS.toMillis(hours);
+		Map<Metric, Map<String, Long>> result = new LinkedHashMap<>();
+		for (Metric metric : Metric.values()) {
+			Map<String, Long> values = new LinkedHashMap<>();
+			values.put("latest", series.aggregate(metric, from, now, Aggregate.LATEST));
+			values.put("mean", series.aggregate(metric, from, now, Aggregate.MEAN));
+			values.put("max", series.aggregate(metric, from, now, Aggregate.MAX));
+			values.put("p95", series.percentile(metric, from, now, 0.95));
+			result.put(metric, values);
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,121 @@
+package org.springframework.cloud.servicebroker.mongodb.convert;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.mongodb.coordination.LeaseManager;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstanceBinding;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rewrites metadata documents stored with property names and a {@code _class} hint into the compact form
+ * of {@link ServiceInstanceConverters} and {@link ServiceInstanceBindingConverters}, a batch at a time on the
+ * leading node. A document is only replaced if it has not changed since it was read, so a concurrent write
+ * wins and the document is picked up again if it is still in the old form.
+ */
+@Component
+public class LegacyDocumentMigration {
+
+  static final String JOB = "legacy-document-migration";
+
+  private static final DBObject LEGACY = new BasicDBObject("_class", new BasicDBObject("$exists", true));
+
+  private Logger logger = LoggerFactory.getLogger(LegacyDocumentMigration.class);
+
+  private final MongoOperations operations;
+  private final LeaseManager leases;
+  private final int batchSize;
+  private final List<Class<?>> entities = Arrays.asList(ServiceInstance.class, ServiceInstanceBinding.class);
+
+  private volatile boolean done;
+
+  @Autowired
+  public LegacyDocumentMigration(MongoOperations operations, LeaseManager leases,
+                                 @Value("${broker.migration.batch-size:500}") int batchSize) {
+    this.operations = operations;
+    this.leases = leases;
+    this.batchSize = batchSize;
+  }
+
+  private LegacyDocumentMigration() {
+    this.operations = null;
+    this.leases = null;
+    this.batchSize = 0;
+    this.done = true;
+  }
+
+  /**
+   * @return a migration with nothing left to do, for callers whose metadata has always been compact
+   */
+  public static LegacyDocumentMigration completed() {
+    return new LegacyDocumentMigration();
+  }
+
+  /**
+   * Jobs that look bindings up by their instance, which queries the compact field name, wait for this,
+   * on every node and not only on the one that runs the migration.
+   * @return true once no document in the old form is left
+   */
+  public boolean isDone() {
+    if (!done) {
+      done = entities.stream().noneMatch(entity ->
+          operations.getCollection(operations.getCollectionName(entity)).findOne(LEGACY) != null);
+    }
+    return done;
+  }
+
+  @Scheduled(initialDelayString = "${broker.migration.interval-millis:60000}",
+      fixedDelayString = "${broker.migration.interval-millis:60000}")
+  public void migrate() {
+    if (done || !leases.isLeader(JOB)) {
+      return;
+    }
+    try {
+      int migrated = 0;
+      for (Class<?> entity : entities) {
+        migrated += migrateBatch(entity);
+      }
+      if (migrated == 0) {
+        logger.info("All metadata documents are in the compact form");
+        done = true;
+      }
+    } catch (DataAccessException e) {
+      logger.warn("Metadata migration stopped, it resumes with the next batch: " + e.getMessage());
+    }
+  }
+
+  /**
+   * @return the number of old documents found, whether or not they could be replaced
+   */
+  int migrateBatch(Class<?> entity) {
+    DBCollection collection = operations.getCollection(operations.getCollectionName(entity));
+    int found = 0;
+    int replaced = 0;
+    try (DBCursor legacy = collection.find(LEGACY).limit(batchSize)) {
+      while (legacy.hasNext()) {
+        DBObject original = legacy.next();
+        found++;
+        DBObject compact = new BasicDBObject();
+        operations.getConverter().write(operations.getConverter().read(entity, original), compact);
+        replaced += collection.update(original, compact).getN();
+      }
+    }
+    if (found > 0) {
+      logger.info("Migrated " + replaced + " of " + found + " " + entity.getSimpleName() + " documents");
+    }
+    return found;
+  }
+
+}
@@ -0,0 +1,72 @@
+package org.springframework.cloud.servicebroker.mongodb.convert;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstanceBinding;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.data.convert.WritingConverter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.springframework.cloud.servicebroker.mongodb.convert.ServiceInstanceConverters.putIfSet;
+import static org.springframework.cloud.servicebroker.mongodb.convert.ServiceInstanceConverters.read;
+
+/**
+ * Hand-written mapping of {@link ServiceInstanceBinding} documents, see {@link ServiceInstanceConverters}.
+ */
+public final class ServiceInstanceBindingConverters {
+
+  public static final String SERVICE_INSTANCE_ID = "inst";
+  public static final String CREDENTIALS = "cred";
+  public static final String SYSLOG_DRAIN_URL = "drain";
+  public static final String APP_GUID = "app";
+  public static final String DATABASE = "db";
+  public static final String CLUSTER = "cl";
+
+  private ServiceInstanceBindingConverters() {
+  }
+
+  @WritingConverter
+  public static class Writer implements Converter<ServiceInstanceBinding, DBObject> {
+
+    @Override
+    public DBObject convert(ServiceInstanceBinding binding) {
+      BasicDBObject document = new BasicDBObject("_id", binding.getId());
+      putIfSet(document, SERVICE_INSTANCE_ID, binding.getServiceInstanceId());
+      document.put(CREDENTIALS, new BasicDBObject(binding.getCredentials()));
+      putIfSet(document, SYSLOG_DRAIN_URL, binding.getSyslogDrainUrl());
+      putIfSet(document, APP_GUID, binding.getAppGuid());
+      if (binding.getDatabase() != null && !binding.getDatabase().equals(binding.getServiceInstanceId())) {
+        document.put(DATABASE, binding.getDatabase());
+      }
+      putIfSet(document, CLUSTER, binding.getCluster());
+      return document;
+    }
+
+  }
+
+  @ReadingConverter
+  public static class Reader implements Converter<DBObject, ServiceInstanceBinding> {
+
+    @Override
+    public ServiceInstanceBinding convert(DBObject document) {
+      DBObject credentials = read(document, CREDENTIALS, "credentials");
+      return new ServiceInstanceBinding((String) document.get("_id"),
+          read(document, SERVICE_INSTANCE_ID, "serviceInstanceId"),
+          credentials == null ? null : toMap(credentials),
+          read(document, SYSLOG_DRAIN_URL, "syslogDrainUrl"),
+          read(document, APP_GUID, "appGuid"))
+          .withDatabase((String) document.get(DATABASE))
+          .withCluster((String) document.get(CLUSTER));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> toMap(DBObject credentials) {
+      return new HashMap<>(credentials.toMap());
+    }
+
+  }
+
+}
@@ -0,0 +1,130 @@
+package org.springframework.cloud.servicebroker.mongodb.convert;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.springframework.cloud.servicebroker.model.OperationState;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.data.convert.WritingConverter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hand-written mapping of {@link ServiceInstance} documents, which the mapping converter uses instead of
+ * reflection. Documents are written with compact field names and without a {@code _class} hint; documents
+ * written before, with the property names, are still read until {@link LegacyDocumentMigration} rewrites them.
+ */
+public final class ServiceInstanceConverters {
+
+  public static final String SERVICE_DEFINITION_ID = "svc";
+  public static final String PLAN_ID = "plan";
+  public static final String ORGANIZATION_GUID = "org";
+  public static final String SPACE_GUID = "space";
+  public static final String DASHBOARD_URL = "dash";
+  public static final String DATABASE = "db";
+  public static final String COLLECTION_PREFIX = "pfx";
+  public static final String ARCHIVE_ID = "arc";
+  public static final String HIBERNATED_AT = "hib";
+  public static final String HIBERNATED_ROLES = "hibr";
+  public static final String CLUSTER = "cl";
+  public static final String OPERATION_STATE = "ops";
+  public static final String OPERATION_DESCRIPTION = "opd";
+
+  private ServiceInstanceConverters() {
+  }
+
+  @WritingConverter
+  public static class Writer implements Converter<ServiceInstance, DBObject> {
+
+    @Override
+    public DBObject convert(ServiceInstance instance) {
+      BasicDBObject document = new BasicDBObject("_id", instance.getServiceInstanceId());
+      putIfSet(document, SERVICE_DEFINITION_ID, instance.getServiceDefinitionId());
+      putIfSet(document, PLAN_ID, instance.getPlanId());
+      putIfSet(document, ORGANIZATION_GUID, instance.getOrganizationGuid());
+      putIfSet(document, SPACE_GUID, instance.getSpaceGuid());
+      putIfSet(document, DASHBOARD_URL, instance.getDashboardUrl());
+      if (instance.isPooled()) {
+        document.put(DATABASE, instance.getDatabaseName());
+        document.put(COLLECTION_PREFIX, instance.getCollectionPrefix());
+      }
+      if (instance.isHibernated()) {
+        document.put(ARCHIVE_ID, instance.getArchiveId());
+        document.put(HIBERNATED_AT, instance.getHibernatedAt());
+        // user names may contain dots, so they are values rather than field names
+        BasicDBList roles = new BasicDBList();
+        for (Map.Entry<String, List<String>> user : instance.getHibernatedRoles().entrySet()) {
+          roles.add(new BasicDBObject("u", user.getKey()).append("r", user.getValue()));
+        }
+        if (!roles.isEmpty()) {
+          document.put(HIBERNATED_ROLES, roles);
+        }
+      }
+      putIfSet(document, CLUSTER, instance.getCluster());
+      if (instance.getOperationState() != null) {
+        document.put(OPERATION_STATE, instance.getOperationState().name());
+        putIfSet(document, OPERATION_DESCRIPTION, instance.getOperationDescription());
+      }
+      return document;
+    }
+
+  }
+
+  @ReadingConverter
+  public static class Reader implements Converter<DBObject, ServiceInstance> {
+
+    @Override
+    public ServiceInstance convert(DBObject document) {
+      ServiceInstance instance = new ServiceInstance((String) document.get("_id"),
+          read(document, SERVICE_DEFINITION_ID, "serviceDefinitionId"),
+          read(document, PLAN_ID, "planId"),
+          read(document, ORGANIZATION_GUID, "organizationGuid"),
+          read(document, SPACE_GUID, "spaceGuid"),
+          read(document, DASHBOARD_URL, "dashboardUrl"));
+      if (document.containsField(COLLECTION_PREFIX)) {
+        instance.withTenancy((String) document.get(DATABASE), (String) document.get(COLLECTION_PREFIX));
+      }
+      if (document.containsField(ARCHIVE_ID)) {
+        instance.withHibernation((String) document.get(ARCHIVE_ID), ((Number) document.get(HIBERNATED_AT)).longValue());
+      }
+      if (document.containsField(HIBERNATED_ROLES)) {
+        Map<String, List<String>> roles = new LinkedHashMap<>();
+        for (Object user : (List<?>) document.get(HIBERNATED_ROLES)) {
+          List<String> userRoles = new ArrayList<>();
+          for (Object role : (List<?>) ((DBObject) user).get("r")) {
+            userRoles.add((String) role);
+          }
+          roles.put((String) ((DBObject) user).get("u"), userRoles);
+        }
+        instance.withHibernatedRoles(roles);
+      }
+      if (document.containsField(OPERATION_STATE)) {
+        instance.withOperation(OperationState.valueOf((String) document.get(OPERATION_STATE)),
+            (String) document.get(OPERATION_DESCRIPTION));
+      }
+      return instance.withCluster((String) document.get(CLUSTER));
+    }
+
+  }
+
+  static void putIfSet(DBObject document, String field, Object value) {
+    if (value != null) {
+      document.put(field, value);
+    }
+  }
+
+  /**
+   * @return the value of the compact field, or of the property name in a document not migrated yet
+   */
+  @SuppressWarnings("unchecked")
+  static <T> T read(DBObject document, String field, String legacyField) {
+    Object value = document.get(field);
+    return (T) (value != null ? value : document.get(legacyField));
+  }
+
+}
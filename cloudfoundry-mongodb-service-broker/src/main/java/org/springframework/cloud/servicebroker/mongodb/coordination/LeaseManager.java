@@ -0,0 +1,203 @@
+package org.springframework.cloud.servicebroker.mongodb.coordination;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.mongodb.model.Lease;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Coordinates the broker nodes behind the router through {@link Lease} documents in the broker's metadata
+ * database. A lease is taken with a single {@code findAndModify} that only matches an expired lease, or
+ * inserts a new one, so at most one node holds it at any time. Held leases are renewed in the background;
+ * a node that stops renewing loses them when they expire.
+ * <p>
+ * Leases serve as leadership for singleton jobs ({@link #isLeader}), which only the leading node runs, and
+ * as exclusive locks on service instances ({@link #tryLock}).
+ */
+@Component
+public class LeaseManager {
+
+  private Logger logger = LoggerFactory.getLogger(LeaseManager.class);
+
+  private final MongoOperations operations;
+  private final String nodeId;
+  private final long leaseMillis;
+  private final LongSupplier clock;
+  private final AtomicLong localTokens = new AtomicLong();
+
+  private final ConcurrentMap<String, Lease> held = new ConcurrentHashMap<>();
+
+  @Autowired
+  public LeaseManager(MongoOperations operations,
+                      @Value("${broker.coordination.lease-millis:30000}") long leaseMillis) {
+    this(operations, nodeId(), leaseMillis, System::currentTimeMillis);
+  }
+
+  LeaseManager(MongoOperations operations, String nodeId, long leaseMillis, LongSupplier clock) {
+    this.operations = operations;
+    this.nodeId = nodeId;
+    this.leaseMillis = leaseMillis;
+    this.clock = clock;
+  }
+
+  /**
+   * @return a lease manager for a single node, which grants leases from memory, for callers that are not
+   * managed by Spring
+   */
+  public static LeaseManager standalone() {
+    return new LeaseManager(null, "standalone", Long.MAX_VALUE / 2, System::currentTimeMillis);
+  }
+
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  /**
+   * @return true if this node leads the job, taking over the leadership if nobody holds it
+   */
+  public boolean isLeader(String job) {
+    Lease lease = held.get(leaderName(job));
+    if (lease != null && isValid(lease)) {
+      return true;
+    }
+    return tryAcquire(leaderName(job)) != null;
+  }
+
+  /**
+   * Lock a service instance for an operation across all nodes.
+   * @return the lock to {@link #release}, or null if the instance is locked already
+   */
+  public Lease tryLock(String serviceInstanceId) {
+    return tryAcquire(lockName(serviceInstanceId));
+  }
+
+  /**
+   * @return true if any node, this one included, holds the lock of the instance
+   */
+  public boolean isLocked(String serviceInstanceId) {
+    String name = lockName(serviceInstanceId);
+    if (held.containsKey(name) || operations == null) {
+      return held.containsKey(name);
+    }
+    return operations.exists(query(where("_id").is(name).and("expiresAt").gt(new Date(clock.getAsLong()))),
+        Lease.class);
+  }
+
+  /**
+   * Check a lease before acting under it. A lease is only trusted until shortly before it expires, so
+   * that a node whose clock or renewals lag stops before another node can take over.
+   */
+  public boolean isValid(Lease lease) {
+    return clock.getAsLong() < lease.getExpiresAt() - leaseMillis / 5;
+  }
+
+  /**
+   * @return true if this node still holds the lease and may act under it, see {@link #isValid}
+   */
+  public boolean isHeld(Lease lease) {
+    return lease != null && held.get(lease.getName()) == lease && isValid(lease);
+  }
+
+  public void release(Lease lease) {
+    if (lease == null || !held.remove(lease.getName(), lease) || operations == null) {
+      return;
+    }
+    try {
+      operations.remove(owned(lease), Lease.class);
+    } catch (DataAccessException e) {
+      // it expires on its own
+      logger.warn("Could not release lease " + lease.getName() + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Extend every lease this node holds. Leases that were taken over in the meantime are dropped.
+   */
+  @Scheduled(fixedDelayString = "${broker.coordination.renew-interval-millis:10000}")
+  public void renew() {
+    if (operations == null) {
+      return;
+    }
+    for (Lease lease : held.values()) {
+      long expiresAt = clock.getAsLong() + leaseMillis;
+      try {
+        Lease renewed = operations.findAndModify(owned(lease), Update.update("expiresAt", new Date(expiresAt)),
+            Lease.class);
+        if (renewed == null) {
+          logger.warn("Lost lease " + lease.getName() + " to another node");
+          held.remove(lease.getName(), lease);
+        } else {
+          lease.withExpiresAt(expiresAt);
+        }
+      } catch (DataAccessException e) {
+        // the lease stops being valid locally before anybody else can take it
+        logger.warn("Could not renew lease " + lease.getName() + ": " + e.getMessage());
+      }
+    }
+  }
+
+  Lease tryAcquire(String name) {
+    long now = clock.getAsLong();
+    Lease current = held.get(name);
+    if (current != null && isValid(current)) {
+      return null;
+    }
+    if (operations == null) {
+      Lease lease = new Lease(name, nodeId, localTokens.incrementAndGet(), now, now + leaseMillis);
+      return held.putIfAbsent(name, lease) == null ? lease : null;
+    }
+
+    Query expired = query(where("_id").is(name).and("expiresAt").lt(new Date(now)));
+    Update take = new Update()
+        .set("owner", nodeId)
+        .set("acquiredAt", now)
+        .set("expiresAt", new Date(now + leaseMillis))
+        .inc("token", 1);
+    try {
+      Lease lease = operations.findAndModify(expired, take, FindAndModifyOptions.options().returnNew(true).upsert(true),
+          Lease.class);
+      held.put(name, lease);
+      return lease;
+    } catch (DuplicateKeyException e) {
+      // the lease exists and has not expired
+      return null;
+    }
+  }
+
+  private Query owned(Lease lease) {
+    return query(where("_id").is(lease.getName()).and("owner").is(nodeId).and("token").is(lease.getToken()));
+  }
+
+  private static String leaderName(String job) {
+    return "leader:" + job;
+  }
+
+  private static String lockName(String serviceInstanceId) {
+    return "instance:" + serviceInstanceId;
+  }
+
+  private static String nodeId() {
+    String instance = System.getenv("CF_INSTANCE_GUID");
+    return instance != null ? instance : UUID.randomUUID().toString();
+  }
+
+}
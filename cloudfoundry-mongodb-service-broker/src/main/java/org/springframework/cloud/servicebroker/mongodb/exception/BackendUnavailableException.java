@@ -0,0 +1,22 @@
+package org.springframework.cloud.servicebroker.mongodb.exception;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * Exception thrown when the broker sheds backend work because the mongo service is
+ * overloaded or failing, so that the platform retries the request later.
+ */
+public class BackendUnavailableException extends RetryableServiceException {
+
+	private static final long serialVersionUID = 5049712830741525113L;
+
+	public BackendUnavailableException(String message, long retryAfterSeconds) {
+		super(message, retryAfterSeconds);
+	}
+
+	@Override
+	public HttpStatus getStatus() {
+		return HttpStatus.SERVICE_UNAVAILABLE;
+	}
+
+}
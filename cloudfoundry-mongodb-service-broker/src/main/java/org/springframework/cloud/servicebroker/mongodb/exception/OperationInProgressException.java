@@ -0,0 +1,22 @@
+package org.springframework.cloud.servicebroker.mongodb.exception;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * Exception thrown when another asynchronous operation is still running against the service instance.
+ * Reported as 422, the status the service broker API uses for concurrent operations.
+ */
+public class OperationInProgressException extends RetryableServiceException {
+
+	private static final long serialVersionUID = 4861207729350175832L;
+
+	public OperationInProgressException(String serviceInstanceId) {
+		super("An operation is in progress for service instance " + serviceInstanceId, 10);
+	}
+
+	@Override
+	public HttpStatus getStatus() {
+		return HttpStatus.UNPROCESSABLE_ENTITY;
+	}
+
+}
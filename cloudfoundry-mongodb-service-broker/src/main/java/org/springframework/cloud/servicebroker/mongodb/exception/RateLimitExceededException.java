@@ -0,0 +1,21 @@
+package org.springframework.cloud.servicebroker.mongodb.exception;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * Exception thrown when an org or space provisions faster than its plan quota allows.
+ */
+public class RateLimitExceededException extends RetryableServiceException {
+
+	private static final long serialVersionUID = -2212816412771580355L;
+
+	public RateLimitExceededException(String message, long retryAfterSeconds) {
+		super(message, retryAfterSeconds);
+	}
+
+	@Override
+	public HttpStatus getStatus() {
+		return HttpStatus.TOO_MANY_REQUESTS;
+	}
+
+}
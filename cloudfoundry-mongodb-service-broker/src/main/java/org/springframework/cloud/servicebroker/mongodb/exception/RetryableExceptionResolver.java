@@ -0,0 +1,55 @@
+package org.springframework.cloud.servicebroker.mongodb.exception;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.servicebroker.model.ErrorMessage;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Renders {@link RetryableServiceException}s with their own status and a Retry-After header.
+ * The broker controllers handle every {@link Exception} as a 500, so this resolver has to run
+ * ahead of the controller exception handlers.
+ */
+@Component
+public class RetryableExceptionResolver implements HandlerExceptionResolver, Ordered {
+
+	private Logger logger = LoggerFactory.getLogger(RetryableExceptionResolver.class);
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@Override
+	public ModelAndView resolveException(HttpServletRequest request, HttpServletResponse response,
+										 Object handler, Exception ex) {
+		if (!(ex instanceof RetryableServiceException)) {
+			return null;
+		}
+		RetryableServiceException e = (RetryableServiceException) ex;
+		logger.info("Rejecting {} {} with {}: {}", request.getMethod(), request.getRequestURI(),
+				e.getStatus().value(), e.getMessage());
+		try {
+			response.setStatus(e.getStatus().value());
+			response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+			response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+			objectMapper.writeValue(response.getOutputStream(), new ErrorMessage(e.getMessage()));
+		} catch (IOException io) {
+			logger.warn("Failed to write error response", io);
+		}
+		return new ModelAndView();
+	}
+
+	@Override
+	public int getOrder() {
+		return Ordered.HIGHEST_PRECEDENCE;
+	}
+
+}
@@ -0,0 +1,26 @@
+package org.springframework.cloud.servicebroker.mongodb.exception;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * Base class for transient failures the platform should retry later. These are reported with
+ * their own HTTP status and a Retry-After header rather than as a generic broker error.
+ */
+public abstract class RetryableServiceException extends MongoServiceException {
+
+	private static final long serialVersionUID = -3311487424520851190L;
+
+	private final long retryAfterSeconds;
+
+	protected RetryableServiceException(String message, long retryAfterSeconds) {
+		super(message);
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	public abstract HttpStatus getStatus();
+
+	public long getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+
+}
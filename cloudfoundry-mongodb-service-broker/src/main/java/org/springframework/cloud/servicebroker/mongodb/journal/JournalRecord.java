@@ -0,0 +1,157 @@
+package org.springframework.cloud.servicebroker.mongodb.journal;
+
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstanceBinding;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * A single metadata mutation as it is laid out in a journal segment:
+ * <pre>
+ *   int length | long seq | byte kind | byte op | short idLength | id | int payloadLength | payload | int crc
+ * </pre>
+ * The length covers everything after itself, and the crc covers everything between the length and the crc,
+ * so a torn write at the tail of a segment is detected on recovery.
+ */
+public class JournalRecord {
+
+  static final int HEADER_SIZE = 4;
+
+  private static final int FIXED_SIZE = 8 + 1 + 1 + 2 + 4 + 4;
+
+  public enum Kind {
+    SERVICE_INSTANCE((byte) 1, ServiceInstance.class) {
+      @Override
+      String idOf(Object entity) {
+        return ((ServiceInstance) entity).getServiceInstanceId();
+      }
+    },
+    SERVICE_INSTANCE_BINDING((byte) 2, ServiceInstanceBinding.class) {
+      @Override
+      String idOf(Object entity) {
+        return ((ServiceInstanceBinding) entity).getId();
+      }
+    };
+
+    private final byte code;
+    private final Class<?> entityClass;
+
+    Kind(byte code, Class<?> entityClass) {
+      this.code = code;
+      this.entityClass = entityClass;
+    }
+
+    abstract String idOf(Object entity);
+
+    Class<?> getEntityClass() {
+      return entityClass;
+    }
+
+    static Kind valueOf(byte code) {
+      for (Kind kind : values()) {
+        if (kind.code == code) {
+          return kind;
+        }
+      }
+      throw new IllegalArgumentException("Unknown journal record kind: " + code);
+    }
+  }
+
+  public enum Op {
+    SAVE, DELETE
+  }
+
+  private final long seq;
+  private final Kind kind;
+  private final Op op;
+  private final String id;
+  private final byte[] payload;
+
+  JournalRecord(long seq, Kind kind, Op op, String id, byte[] payload) {
+    this.seq = seq;
+    this.kind = kind;
+    this.op = op;
+    this.id = id;
+    this.payload = payload == null ? new byte[0] : payload;
+  }
+
+  public long getSeq() {
+    return seq;
+  }
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  public Op getOp() {
+    return op;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  byte[] getPayload() {
+    return payload;
+  }
+
+  /**
+   * @return the serialized record, including the length header and trailing crc, ready to be copied into a segment
+   */
+  ByteBuffer toByteBuffer() {
+    byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+    int length = FIXED_SIZE + idBytes.length + payload.length;
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + length);
+    buffer.putInt(length)
+        .putLong(seq)
+        .put(kind.code)
+        .put((byte) op.ordinal())
+        .putShort((short) idBytes.length)
+        .put(idBytes)
+        .putInt(payload.length)
+        .put(payload);
+    CRC32 crc = new CRC32();
+    crc.update(buffer.array(), HEADER_SIZE, length - 4);
+    buffer.putInt((int) crc.getValue());
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Read the record at the current position of the buffer, advancing past it.
+   * @return the record, or null if the buffer holds no further complete and intact record
+   */
+  static JournalRecord read(ByteBuffer buffer) {
+    if (buffer.remaining() < HEADER_SIZE) {
+      return null;
+    }
+    int start = buffer.position();
+    int length = buffer.getInt();
+    if (length < FIXED_SIZE || length > buffer.remaining()) {
+      buffer.position(start);
+      return null;
+    }
+    byte[] body = new byte[length - 4];
+    buffer.get(body);
+    int expectedCrc = buffer.getInt();
+    CRC32 crc = new CRC32();
+    crc.update(body, 0, body.length);
+    if ((int) crc.getValue() != expectedCrc) {
+      buffer.position(start);
+      return null;
+    }
+
+    ByteBuffer in = ByteBuffer.wrap(body);
+    long seq = in.getLong();
+    Kind kind = Kind.valueOf(in.get());
+    Op op = Op.values()[in.get()];
+    byte[] idBytes = new byte[in.getShort()];
+    in.get(idBytes);
+    byte[] payload = new byte[in.getInt()];
+    in.get(payload);
+    return new JournalRecord(seq, kind, op, new String(idBytes, StandardCharsets.UTF_8), payload);
+  }
+
+}
@@ -0,0 +1,106 @@
+package org.springframework.cloud.servicebroker.mongodb.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fixed-size, memory-mapped journal file. Records are appended back to back; the zero-filled
+ * remainder of the file marks the end of the written data.
+ */
+class JournalSegment {
+
+  static final String SUFFIX = ".journal";
+
+  private final Path path;
+  private final long firstSeq;
+  private final FileChannel channel;
+  private final MappedByteBuffer buffer;
+  private long lastSeq;
+
+  private JournalSegment(Path path, long firstSeq, FileChannel channel, MappedByteBuffer buffer) {
+    this.path = path;
+    this.firstSeq = firstSeq;
+    this.channel = channel;
+    this.buffer = buffer;
+    this.lastSeq = firstSeq - 1;
+  }
+
+  static JournalSegment create(Path directory, long firstSeq, int size) throws IOException {
+    Path path = directory.resolve(String.format("%020d%s", firstSeq, SUFFIX));
+    FileChannel channel = FileChannel.open(path,
+        StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    return new JournalSegment(path, firstSeq, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+  }
+
+  /**
+   * Open an existing segment for recovery. The segment is not appended to afterwards.
+   */
+  static JournalSegment open(Path path) throws IOException {
+    String name = path.getFileName().toString();
+    long firstSeq = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    return new JournalSegment(path, firstSeq, channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+  }
+
+  /**
+   * Copy a serialized record into the segment.
+   * @return false if the segment does not have room for the record
+   */
+  boolean append(ByteBuffer record, long seq) {
+    // leave room for a zero length header so readers can always find the end
+    if (buffer.remaining() < record.remaining() + JournalRecord.HEADER_SIZE) {
+      return false;
+    }
+    buffer.put(record);
+    lastSeq = seq;
+    return true;
+  }
+
+  /**
+   * Read every intact record from the start of the segment, stopping at the first gap or torn record.
+   */
+  List<JournalRecord> readRecords() {
+    ByteBuffer view = buffer.duplicate();
+    view.position(0);
+    List<JournalRecord> records = new ArrayList<>();
+    JournalRecord record;
+    while ((record = JournalRecord.read(view)) != null) {
+      records.add(record);
+      lastSeq = record.getSeq();
+    }
+    return records;
+  }
+
+  void force() {
+    buffer.force();
+  }
+
+  void close() throws IOException {
+    channel.close();
+  }
+
+  void delete() throws IOException {
+    close();
+    Files.deleteIfExists(path);
+  }
+
+  long getFirstSeq() {
+    return firstSeq;
+  }
+
+  long getLastSeq() {
+    return lastSeq;
+  }
+
+  Path getPath() {
+    return path;
+  }
+
+}
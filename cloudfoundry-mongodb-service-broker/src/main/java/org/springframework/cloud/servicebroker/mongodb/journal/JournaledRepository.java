@@ -0,0 +1,81 @@
+package org.springframework.cloud.servicebroker.mongodb.journal;
+
+import org.springframework.cloud.servicebroker.mongodb.cache.MetadataCache;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+/**
+ * Front for a metadata repository that routes writes through the {@link MetadataJournal} when it is
+ * enabled, and otherwise straight to the repository. Reads see journaled writes that have not been
+ * applied to the repository yet, and are served from the {@link MetadataCache} when it holds the entity.
+ * The versions it deletes or overwrites go to the {@link MetadataArchive}.
+ *
+ * @param <T> the entity type managed by the repository
+ */
+public class JournaledRepository<T> {
+
+  private final MetadataJournal journal;
+  private final MetadataCache cache;
+  private final MetadataArchive archive;
+  private final JournalRecord.Kind kind;
+  private final MongoRepository<T, String> repository;
+
+  public JournaledRepository(MetadataJournal journal, JournalRecord.Kind kind, MongoRepository<T, String> repository) {
+    this(journal, MetadataCache.disabled(), kind, repository);
+  }
+
+  public JournaledRepository(MetadataJournal journal, MetadataCache cache, JournalRecord.Kind kind,
+                             MongoRepository<T, String> repository) {
+    this(journal, cache, MetadataArchive.disabled(), kind, repository);
+  }
+
+  public JournaledRepository(MetadataJournal journal, MetadataCache cache, MetadataArchive archive,
+                             JournalRecord.Kind kind, MongoRepository<T, String> repository) {
+    this.journal = journal;
+    this.cache = cache;
+    this.archive = archive;
+    this.kind = kind;
+    this.repository = repository;
+  }
+
+  @SuppressWarnings("unchecked")
+  public T findOne(String id) {
+    if (journal.isEnabled()) {
+      JournalRecord pending = journal.pending(kind, id);
+      if (pending != null) {
+        return pending.getOp() == JournalRecord.Op.DELETE ? null : (T) journal.decode(pending);
+      }
+    }
+    T cached = (T) cache.get(kind, id);
+    if (cached != null) {
+      return cached;
+    }
+    long generation = cache.generation();
+    T entity = repository.findOne(id);
+    cache.put(kind, id, entity, generation);
+    return entity;
+  }
+
+  public void save(T entity) {
+    String id = kind.idOf(entity);
+    T previous = archive.isEnabled() ? findOne(id) : null;
+    cache.invalidate(kind, id);
+    if (journal.isEnabled()) {
+      journal.save(kind, entity);
+    } else {
+      repository.save(entity);
+    }
+    archive.superseded(kind, previous);
+  }
+
+  public void delete(String id) {
+    T previous = archive.isEnabled() ? findOne(id) : null;
+    cache.invalidate(kind, id);
+    if (journal.isEnabled()) {
+      journal.delete(kind, id);
+    } else {
+      repository.delete(id);
+    }
+    archive.deleted(kind, previous);
+  }
+
+}
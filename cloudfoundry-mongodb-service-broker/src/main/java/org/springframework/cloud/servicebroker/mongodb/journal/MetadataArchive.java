@@ -0,0 +1,204 @@
+package org.springframework.cloud.servicebroker.mongodb.journal;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.mongodb.convert.ServiceInstanceBindingConverters;
+import org.springframework.cloud.servicebroker.mongodb.model.ArchivedRecord;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.UncategorizedMongoDbException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Keeps the history of the broker metadata without growing the live collections. The versions a
+ * {@link JournaledRepository} deletes or overwrites are queued here and written to the archive collection
+ * in batches, where a TTL index expires them after the retention period. Lookups of live records never
+ * touch the archive, which has its own queries by entity and by time.
+ * <p>
+ * Binding credentials are not archived. Versions still queued when a broker node dies are lost.
+ */
+@Component
+public class MetadataArchive implements DisposableBean {
+
+  static final String ARCHIVED_AT = "archivedAt";
+
+  private Logger logger = LoggerFactory.getLogger(MetadataArchive.class);
+
+  private final MongoOperations mongo;
+  private final boolean enabled;
+  private final long retentionSeconds;
+  private final int batchSize;
+  private final int maxQueued;
+  private final LongSupplier clock;
+
+  private final Queue<ArchivedRecord> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger queued = new AtomicInteger();
+
+  // set once the TTL index is in place, flushes wait for it
+  private volatile boolean retentionEnsured;
+
+  @Autowired
+  public MetadataArchive(MongoOperations mongo,
+                         @Value("${broker.archive.enabled:true}") boolean enabled,
+                         @Value("${broker.archive.retention-days:90}") int retentionDays,
+                         @Value("${broker.archive.batch-size:500}") int batchSize) {
+    this(mongo, enabled, TimeUnit.DAYS.toSeconds(retentionDays), batchSize, batchSize * 100,
+        System::currentTimeMillis);
+  }
+
+  MetadataArchive(MongoOperations mongo, boolean enabled, long retentionSeconds, int batchSize, int maxQueued,
+                  LongSupplier clock) {
+    this.mongo = mongo;
+    this.enabled = enabled;
+    this.retentionSeconds = retentionSeconds;
+    this.batchSize = batchSize;
+    this.maxQueued = maxQueued;
+    this.clock = clock;
+  }
+
+  /**
+   * @return an archive that keeps nothing, for callers that are not managed by Spring
+   */
+  public static MetadataArchive disabled() {
+    return new MetadataArchive(null, false, 0, 1, 0, System::currentTimeMillis);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Create the TTL index, or change its period if the retention was changed since. Done before the first
+   * write rather than at startup, so that a backend that is not reachable yet does not stop the broker;
+   * failures are logged and the next flush tries again.
+   *
+   * @return whether the index is in place
+   */
+  boolean ensureRetention() {
+    if (retentionEnsured) {
+      return true;
+    }
+    Index expiry = new Index().on(ARCHIVED_AT, Sort.Direction.ASC).expire(retentionSeconds);
+    try {
+      try {
+        mongo.indexOps(ArchivedRecord.class).ensureIndex(expiry);
+      } catch (UncategorizedMongoDbException e) {
+        // an index with another period exists
+        mongo.executeCommand(new BasicDBObject("collMod", mongo.getCollectionName(ArchivedRecord.class))
+            .append("index", new BasicDBObject("keyPattern", new BasicDBObject(ARCHIVED_AT, 1))
+                .append("expireAfterSeconds", retentionSeconds)));
+      }
+      retentionEnsured = true;
+    } catch (RuntimeException e) {
+      logger.warn("Could not set the retention of the metadata archive: " + e.getMessage());
+    }
+    return retentionEnsured;
+  }
+
+  void deleted(JournalRecord.Kind kind, Object entity) {
+    archive(kind, entity, ArchivedRecord.Reason.DELETED);
+  }
+
+  void superseded(JournalRecord.Kind kind, Object entity) {
+    archive(kind, entity, ArchivedRecord.Reason.SUPERSEDED);
+  }
+
+  private void archive(JournalRecord.Kind kind, Object entity, ArchivedRecord.Reason reason) {
+    if (!enabled || entity == null) {
+      return;
+    }
+    if (queued.get() >= maxQueued) {
+      logger.warn("Metadata archive is behind, not archiving " + kind + " " + kind.idOf(entity));
+      return;
+    }
+    DBObject document = new BasicDBObject();
+    mongo.getConverter().write(entity, document);
+    document.removeField(ServiceInstanceBindingConverters.CREDENTIALS);
+    queue.add(new ArchivedRecord(kind.name(), kind.idOf(entity), reason, clock.getAsLong(), document));
+    queued.incrementAndGet();
+  }
+
+  /**
+   * Write the queued versions to the archive collection, a batch at a time.
+   */
+  @Scheduled(fixedDelayString = "${broker.archive.flush-interval-millis:1000}")
+  public void flush() {
+    if (!enabled || queue.isEmpty()) {
+      return;
+    }
+    // versions are not written without their expiry, they wait in the queue for the index
+    if (!ensureRetention()) {
+      return;
+    }
+    List<ArchivedRecord> batch = new ArrayList<>(batchSize);
+    ArchivedRecord record;
+    while ((record = queue.poll()) != null) {
+      queued.decrementAndGet();
+      batch.add(record);
+      if (batch.size() == batchSize) {
+        insert(batch);
+        batch = new ArrayList<>(batchSize);
+      }
+    }
+    if (!batch.isEmpty()) {
+      insert(batch);
+    }
+  }
+
+  private void insert(List<ArchivedRecord> batch) {
+    try {
+      mongo.insert(batch, ArchivedRecord.class);
+    } catch (RuntimeException e) {
+      logger.warn("Could not archive " + batch.size() + " metadata versions: " + e.getMessage());
+    }
+  }
+
+  /**
+   * @return the archived versions of one instance or binding, newest first
+   */
+  public List<ArchivedRecord> history(JournalRecord.Kind kind, String entityId) {
+    Query history = query(where("kind").is(kind.name()).and("entityId").is(entityId))
+        .with(new Sort(Sort.Direction.DESC, ARCHIVED_AT));
+    return mongo.find(history, ArchivedRecord.class);
+  }
+
+  /**
+   * @return the versions archived since the given time for the reason, newest first
+   */
+  public List<ArchivedRecord> recent(JournalRecord.Kind kind, ArchivedRecord.Reason reason, long since, int limit) {
+    Query recent = query(where("kind").is(kind.name()).and("reason").is(reason).and(ARCHIVED_AT).gte(new Date(since)))
+        .with(new Sort(Sort.Direction.DESC, ARCHIVED_AT))
+        .limit(limit);
+    return mongo.find(recent, ArchivedRecord.class);
+  }
+
+  public int getQueued() {
+    return queued.get();
+  }
+
+  @Override
+  public void destroy() {
+    flush();
+  }
+
+}
@@ -0,0 +1,433 @@
+package org.springframework.cloud.servicebroker.mongodb.journal;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import org.bson.BasicBSONEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Optional write-behind journal for broker metadata. Mutations are appended to memory-mapped segment files
+ * and acknowledged once a background thread has forced them to disk; concurrent writers share a single
+ * force (group commit). A scheduled flusher applies acknowledged mutations to the metadata collections
+ * in bulk, and until then they are served from an in-memory index so callers always read their own writes.
+ * On startup any mutations newer than the last applied checkpoint are replayed from the segments.
+ */
+@Component
+public class MetadataJournal implements DisposableBean {
+
+  private static final String CHECKPOINT_FILE = "checkpoint";
+
+  private Logger logger = LoggerFactory.getLogger(MetadataJournal.class);
+
+  private final MongoOperations mongo;
+  private final boolean enabled;
+  private final Path directory;
+  private final int segmentSize;
+  private final long groupCommitMillis;
+
+  private final Object writeLock = new Object();
+  private final Object durableLock = new Object();
+
+  private final Map<JournalRecord.Kind, ConcurrentMap<String, JournalRecord>> index =
+      new EnumMap<>(JournalRecord.Kind.class);
+  private final ConcurrentSkipListSet<Long> unindexed = new ConcurrentSkipListSet<>();
+
+  // guarded by writeLock
+  private JournalSegment current;
+  private final Deque<JournalSegment> sealed = new ArrayDeque<>();
+  private final List<JournalSegment> unforced = new ArrayList<>();
+  private long nextSeq;
+
+  private volatile long writtenSeq;
+  private volatile long durableSeq;
+  private volatile long appliedSeq;
+  private volatile IOException syncFailure;
+  private volatile boolean running;
+  private Thread syncer;
+
+  @Autowired
+  public MetadataJournal(MongoOperations mongo,
+                         @Value("${broker.journal.enabled:false}") boolean enabled,
+                         @Value("${broker.journal.directory:journal}") String directory,
+                         @Value("${broker.journal.segment-size:16777216}") int segmentSize,
+                         @Value("${broker.journal.group-commit-millis:2}") long groupCommitMillis) {
+    this.mongo = mongo;
+    this.enabled = enabled;
+    this.directory = directory == null ? null : Paths.get(directory);
+    this.segmentSize = segmentSize;
+    this.groupCommitMillis = groupCommitMillis;
+    for (JournalRecord.Kind kind : JournalRecord.Kind.values()) {
+      index.put(kind, new ConcurrentHashMap<String, JournalRecord>());
+    }
+  }
+
+  /**
+   * @return a journal that passes every write straight through to the repositories
+   */
+  public static MetadataJournal disabled() {
+    return new MetadataJournal(null, false, null, 0, 0);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @PostConstruct
+  public void open() throws IOException {
+    if (!enabled) {
+      return;
+    }
+    Files.createDirectories(directory);
+    recover();
+
+    running = true;
+    syncer = new Thread(this::syncLoop, "metadata-journal-sync");
+    syncer.setDaemon(true);
+    syncer.start();
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    if (!enabled || !running) {
+      return;
+    }
+    synchronized (writeLock) {
+      // no record is appended after this
+      running = false;
+    }
+    synchronized (durableLock) {
+      durableLock.notifyAll();
+    }
+    syncer.join();
+    // records of writers still waiting are in the segments and would be replayed on the next start, so
+    // force and acknowledge them rather than fail writes that end up applied anyway
+    long target;
+    synchronized (writeLock) {
+      target = writtenSeq;
+      for (JournalSegment segment : unforced) {
+        segment.force();
+      }
+      unforced.clear();
+      current.force();
+    }
+    synchronized (durableLock) {
+      durableSeq = target;
+      durableLock.notifyAll();
+    }
+    flush();
+    synchronized (writeLock) {
+      current.close();
+      for (JournalSegment segment : sealed) {
+        segment.close();
+      }
+    }
+  }
+
+  /**
+   * Durably record a save of the entity. Returns once the record has been forced to disk.
+   */
+  void save(JournalRecord.Kind kind, Object entity) {
+    append(kind, JournalRecord.Op.SAVE, kind.idOf(entity), encode(entity));
+  }
+
+  /**
+   * Durably record a delete of the entity with the given id. Returns once the record has been forced to disk.
+   */
+  void delete(JournalRecord.Kind kind, String id) {
+    append(kind, JournalRecord.Op.DELETE, id, null);
+  }
+
+  /**
+   * @return the newest acknowledged but not yet applied mutation of the entity, or null if the
+   * metadata collection is up to date for it
+   */
+  JournalRecord pending(JournalRecord.Kind kind, String id) {
+    return index.get(kind).get(id);
+  }
+
+  Object decode(JournalRecord record) {
+    DBObject dbObject = new DefaultDBDecoder().decode(record.getPayload(), (DBCollection) null);
+    return mongo.getConverter().read(record.getKind().getEntityClass(), dbObject);
+  }
+
+  /**
+   * @return the number of mutations waiting to be applied to the metadata collections
+   */
+  public int getPendingCount() {
+    int count = 0;
+    for (ConcurrentMap<String, JournalRecord> records : index.values()) {
+      count += records.size();
+    }
+    return count;
+  }
+
+  /**
+   * Apply every acknowledged mutation to the metadata collections with one ordered bulk write per
+   * collection, then advance the checkpoint and discard segments that are no longer needed.
+   */
+  @Scheduled(fixedDelayString = "${broker.journal.flush-interval-millis:250}")
+  public void flush() {
+    if (!enabled) {
+      return;
+    }
+    long target = durableSeq;
+    if (!unindexed.isEmpty()) {
+      target = Math.min(target, unindexed.first() - 1);
+    }
+    if (target <= appliedSeq) {
+      return;
+    }
+
+    List<JournalRecord> applied = new ArrayList<>();
+    try {
+      for (Map.Entry<JournalRecord.Kind, ConcurrentMap<String, JournalRecord>> entry : index.entrySet()) {
+        BulkOperations ops = null;
+        for (JournalRecord record : entry.getValue().values()) {
+          if (record.getSeq() > target) {
+            continue;
+          }
+          if (ops == null) {
+            ops = mongo.bulkOps(BulkOperations.BulkMode.ORDERED, entry.getKey().getEntityClass());
+          }
+          ops.remove(query(where("_id").is(record.getId())));
+          if (record.getOp() == JournalRecord.Op.SAVE) {
+            ops.insert(decode(record));
+          }
+          applied.add(record);
+        }
+        if (ops != null) {
+          ops.execute();
+        }
+      }
+    } catch (RuntimeException e) {
+      logger.warn("Failed to apply metadata journal, will retry: " + e.getLocalizedMessage(), e);
+      return;
+    }
+
+    for (JournalRecord record : applied) {
+      index.get(record.getKind()).remove(record.getId(), record);
+    }
+    try {
+      writeCheckpoint(target);
+      appliedSeq = target;
+      purgeSegments(target);
+    } catch (IOException e) {
+      logger.warn("Failed to checkpoint metadata journal: " + e.getLocalizedMessage(), e);
+    }
+    logger.debug("Applied {} journaled metadata mutations up to seq {}", applied.size(), target);
+  }
+
+  private void append(JournalRecord.Kind kind, JournalRecord.Op op, String id, byte[] payload) {
+    JournalRecord record;
+    synchronized (writeLock) {
+      if (!running) {
+        throw new ServiceBrokerException("Metadata journal is not open");
+      }
+      record = new JournalRecord(nextSeq, kind, op, id, payload);
+      ByteBuffer bytes = record.toByteBuffer();
+      if (!current.append(bytes, record.getSeq())) {
+        roll();
+        if (!current.append(bytes, record.getSeq())) {
+          throw new ServiceBrokerException("Metadata record for " + id + " does not fit in a journal segment");
+        }
+      }
+      nextSeq++;
+      unindexed.add(record.getSeq());
+      writtenSeq = record.getSeq();
+    }
+
+    try {
+      awaitDurable(record.getSeq());
+      index.get(kind).merge(id, record, (older, newer) -> older.getSeq() > newer.getSeq() ? older : newer);
+    } finally {
+      unindexed.remove(record.getSeq());
+    }
+  }
+
+  private void awaitDurable(long seq) {
+    synchronized (durableLock) {
+      durableLock.notifyAll();
+      while (durableSeq < seq) {
+        if (syncFailure != null) {
+          throw new ServiceBrokerException("Metadata journal sync failed", syncFailure);
+        }
+        try {
+          durableLock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new ServiceBrokerException("Interrupted waiting for metadata journal", e);
+        }
+      }
+    }
+  }
+
+  private void syncLoop() {
+    while (running) {
+      try {
+        synchronized (durableLock) {
+          while (running && writtenSeq == durableSeq) {
+            durableLock.wait();
+          }
+        }
+        if (groupCommitMillis > 0) {
+          // give concurrent writers a moment to join this force
+          Thread.sleep(groupCommitMillis);
+        }
+
+        long target;
+        List<JournalSegment> segments;
+        synchronized (writeLock) {
+          target = writtenSeq;
+          segments = new ArrayList<>(unforced);
+          segments.add(current);
+          unforced.clear();
+        }
+        for (JournalSegment segment : segments) {
+          segment.force();
+        }
+
+        synchronized (durableLock) {
+          durableSeq = target;
+          durableLock.notifyAll();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        failWaiters(new IOException("Metadata journal sync interrupted", e));
+        return;
+      } catch (RuntimeException e) {
+        logger.error("Metadata journal sync failed", e);
+        failWaiters(new IOException(e));
+        return;
+      }
+    }
+  }
+
+  private void failWaiters(IOException failure) {
+    synchronized (durableLock) {
+      if (syncFailure == null) {
+        syncFailure = failure;
+      }
+      durableLock.notifyAll();
+    }
+  }
+
+  private void roll() {
+    try {
+      unforced.add(current);
+      sealed.add(current);
+      current = JournalSegment.create(directory, nextSeq, segmentSize);
+    } catch (IOException e) {
+      throw new ServiceBrokerException("Failed to roll metadata journal segment", e);
+    }
+  }
+
+  private void recover() throws IOException {
+    long checkpoint = readCheckpoint();
+    long lastSeq = checkpoint;
+    int replayed = 0;
+
+    List<Path> paths = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + JournalSegment.SUFFIX)) {
+      for (Path path : stream) {
+        paths.add(path);
+      }
+    }
+    paths.sort(null);
+
+    for (Path path : paths) {
+      JournalSegment segment = JournalSegment.open(path);
+      List<JournalRecord> records = segment.readRecords();
+      for (JournalRecord record : records) {
+        lastSeq = Math.max(lastSeq, record.getSeq());
+        if (record.getSeq() > checkpoint) {
+          index.get(record.getKind()).put(record.getId(), record);
+          replayed++;
+        }
+      }
+      // an empty segment, e.g. the current one of a restart without writes, would hold the name of the next
+      if (records.isEmpty() || segment.getLastSeq() <= checkpoint) {
+        segment.delete();
+      } else {
+        sealed.add(segment);
+      }
+    }
+
+    nextSeq = lastSeq + 1;
+    writtenSeq = lastSeq;
+    durableSeq = lastSeq;
+    appliedSeq = checkpoint;
+    current = JournalSegment.create(directory, nextSeq, segmentSize);
+    if (replayed > 0) {
+      logger.info("Recovered {} unapplied metadata mutations from journal {}", replayed, directory);
+    }
+  }
+
+  private void purgeSegments(long applied) throws IOException {
+    synchronized (writeLock) {
+      Iterator<JournalSegment> segments = sealed.iterator();
+      while (segments.hasNext()) {
+        JournalSegment segment = segments.next();
+        if (segment.getLastSeq() > applied || unforced.contains(segment)) {
+          break;
+        }
+        segment.delete();
+        segments.remove();
+      }
+    }
+  }
+
+  private long readCheckpoint() throws IOException {
+    Path path = directory.resolve(CHECKPOINT_FILE);
+    if (!Files.exists(path)) {
+      return 0;
+    }
+    return ByteBuffer.wrap(Files.readAllBytes(path)).getLong();
+  }
+
+  private void writeCheckpoint(long seq) throws IOException {
+    Path temp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+    Files.write(temp, ByteBuffer.allocate(8).putLong(seq).array());
+    Files.move(temp, directory.resolve(CHECKPOINT_FILE),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private byte[] encode(Object entity) {
+    BasicDBObject dbObject = new BasicDBObject();
+    mongo.getConverter().write(entity, dbObject);
+    return new BasicBSONEncoder().encode(dbObject);
+  }
+
+}
@@ -0,0 +1,154 @@
+package org.springframework.cloud.servicebroker.mongodb.model;
+
+/**
+ * Progress of the adoption of databases that were provisioned outside the broker. Databases are adopted
+ * in name order, and every database up to and including {@link #getCheckpoint()} is done, so an
+ * interrupted adoption with the same mapping resumes after it.
+ */
+public class Adoption {
+
+	public enum State {
+		RUNNING, COMPLETED, FAILED
+	}
+
+	public static final String ID = "adoption";
+
+	private String id = ID;
+	private State state;
+	private boolean dryRun;
+	private String mappingDigest;
+	private long startedAt;
+	private long updatedAt;
+	private String checkpoint;
+	private long adopted;
+	private long bindings;
+	private long conflictingUsers;
+	private long existing;
+	private long unmapped;
+	private long missing;
+	private long failed;
+
+	@SuppressWarnings("unused")
+	private Adoption() {}
+
+	public Adoption(String mappingDigest, boolean dryRun, long startedAt) {
+		this.state = State.RUNNING;
+		this.mappingDigest = mappingDigest;
+		this.dryRun = dryRun;
+		this.startedAt = startedAt;
+		this.updatedAt = startedAt;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * @return whether the databases are only matched against the mapping, without writing any records
+	 */
+	public boolean isDryRun() {
+		return dryRun;
+	}
+
+	/**
+	 * @return the SHA-256 of the mapping, which a resumed adoption has to be started with
+	 */
+	public String getMappingDigest() {
+		return mappingDigest;
+	}
+
+	public long getStartedAt() {
+		return startedAt;
+	}
+
+	public long getUpdatedAt() {
+		return updatedAt;
+	}
+
+	/**
+	 * @return the last database that, with every database before it, is done, or null if none is done yet
+	 */
+	public String getCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * @return the number of databases recorded as service instances, or that would be in a dry run
+	 */
+	public long getAdopted() {
+		return adopted;
+	}
+
+	/**
+	 * @return the number of users recorded as bindings of the adopted instances
+	 */
+	public long getBindings() {
+		return bindings;
+	}
+
+	/**
+	 * @return the number of users not recorded as bindings because a binding of another instance has their name
+	 */
+	public long getConflictingUsers() {
+		return conflictingUsers;
+	}
+
+	/**
+	 * @return the number of mapped databases that already have a service instance
+	 */
+	public long getExisting() {
+		return existing;
+	}
+
+	/**
+	 * @return the number of databases on the backend the mapping does not name
+	 */
+	public long getUnmapped() {
+		return unmapped;
+	}
+
+	/**
+	 * @return the number of databases the mapping names that are not on the backend, once the adoption ended
+	 */
+	public long getMissing() {
+		return missing;
+	}
+
+	/**
+	 * @return the number of databases that could not be adopted
+	 */
+	public long getFailed() {
+		return failed;
+	}
+
+	public Adoption withProgress(String checkpoint, long adopted, long bindings, long conflictingUsers, long existing,
+			long unmapped, long failed, long now) {
+		if (checkpoint != null) {
+			this.checkpoint = checkpoint;
+		}
+		this.adopted = adopted;
+		this.bindings = bindings;
+		this.conflictingUsers = conflictingUsers;
+		this.existing = existing;
+		this.unmapped = unmapped;
+		this.failed = failed;
+		this.updatedAt = now;
+		return this;
+	}
+
+	public Adoption withMissing(long missing) {
+		this.missing = missing;
+		return this;
+	}
+
+	public Adoption withState(State state, long now) {
+		this.state = state;
+		this.updatedAt = now;
+		return this;
+	}
+
+}
@@ -0,0 +1,68 @@
+package org.springframework.cloud.servicebroker.mongodb.model;
+
+import com.mongodb.DBObject;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * A deleted or superseded version of a broker metadata document, kept out of the live collections.
+ * The archive expires records by their archival time, see the MetadataArchive.
+ */
+@Document(collection = "metadataArchive")
+@CompoundIndexes({
+		@CompoundIndex(name = "history", def = "{'kind': 1, 'entityId': 1, 'archivedAt': -1}"),
+		@CompoundIndex(name = "recent", def = "{'kind': 1, 'reason': 1, 'archivedAt': -1}")
+})
+public class ArchivedRecord {
+
+	public enum Reason {
+		DELETED, SUPERSEDED
+	}
+
+	private String id;
+	private String kind;
+	private String entityId;
+	private Reason reason;
+	private Date archivedAt;
+	// the document as it was stored in the live collection
+	private DBObject document;
+
+	@SuppressWarnings("unused")
+	private ArchivedRecord() {}
+
+	public ArchivedRecord(String kind, String entityId, Reason reason, long archivedAt, DBObject document) {
+		this.kind = kind;
+		this.entityId = entityId;
+		this.reason = reason;
+		this.archivedAt = new Date(archivedAt);
+		this.document = document;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getKind() {
+		return kind;
+	}
+
+	public String getEntityId() {
+		return entityId;
+	}
+
+	public Reason getReason() {
+		return reason;
+	}
+
+	public Date getArchivedAt() {
+		return archivedAt;
+	}
+
+	public DBObject getDocument() {
+		return document;
+	}
+
+}
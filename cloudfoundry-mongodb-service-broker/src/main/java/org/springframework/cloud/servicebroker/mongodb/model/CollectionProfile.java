@@ -0,0 +1,157 @@
+package org.springframework.cloud.servicebroker.mongodb.model;
+
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A collection created as part of a {@link ProvisioningProfile}. Storage options left unset
+ * fall back to the server defaults.
+ */
+public class CollectionProfile {
+
+	private final String name;
+
+	private String blockCompressor;
+
+	private Boolean indexPrefixCompression;
+
+	private long cappedSizeBytes;
+
+	private long cappedMaxDocuments;
+
+	private Document validator;
+
+	private String validationLevel;
+
+	private String validationAction;
+
+	private final List<IndexModel> indexes = new ArrayList<>();
+
+	private Document shardKey;
+
+	private int initialChunks;
+
+	private final List<Document> splitPoints = new ArrayList<>();
+
+	public CollectionProfile(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the WiredTiger block compressor, e.g. snappy, zlib or zstd
+	 */
+	public String getBlockCompressor() {
+		return blockCompressor;
+	}
+
+	public Boolean getIndexPrefixCompression() {
+		return indexPrefixCompression;
+	}
+
+	public boolean isCapped() {
+		return cappedSizeBytes > 0;
+	}
+
+	public long getCappedSizeBytes() {
+		return cappedSizeBytes;
+	}
+
+	public long getCappedMaxDocuments() {
+		return cappedMaxDocuments;
+	}
+
+	public Document getValidator() {
+		return validator;
+	}
+
+	public String getValidationLevel() {
+		return validationLevel;
+	}
+
+	public String getValidationAction() {
+		return validationAction;
+	}
+
+	public List<IndexModel> getIndexes() {
+		return Collections.unmodifiableList(indexes);
+	}
+
+	/**
+	 * @return the key the collection is sharded on, or null if it is not sharded
+	 */
+	public Document getShardKey() {
+		return shardKey;
+	}
+
+	public boolean isSharded() {
+		return shardKey != null;
+	}
+
+	public boolean isHashedShardKey() {
+		return shardKey != null && shardKey.containsValue("hashed");
+	}
+
+	/**
+	 * @return how many chunks a collection with a hashed shard key starts with, or 0 for the server default
+	 */
+	public int getInitialChunks() {
+		return initialChunks;
+	}
+
+	/**
+	 * @return where the chunks of a collection with a ranged shard key are split before any data arrives
+	 */
+	public List<Document> getSplitPoints() {
+		return Collections.unmodifiableList(splitPoints);
+	}
+
+	public CollectionProfile withHashedShardKey(String field, int initialChunks) {
+		this.shardKey = new Document(field, "hashed");
+		this.initialChunks = initialChunks;
+		return this;
+	}
+
+	public CollectionProfile withRangedShardKey(Document key, List<Document> splitPoints) {
+		this.shardKey = key;
+		this.splitPoints.addAll(splitPoints);
+		return this;
+	}
+
+	public CollectionProfile withBlockCompressor(String blockCompressor) {
+		this.blockCompressor = blockCompressor;
+		return this;
+	}
+
+	public CollectionProfile withIndexPrefixCompression(boolean indexPrefixCompression) {
+		this.indexPrefixCompression = indexPrefixCompression;
+		return this;
+	}
+
+	public CollectionProfile withCapped(long sizeBytes, long maxDocuments) {
+		this.cappedSizeBytes = sizeBytes;
+		this.cappedMaxDocuments = maxDocuments;
+		return this;
+	}
+
+	public CollectionProfile withValidator(Document validator, String validationLevel, String validationAction) {
+		this.validator = validator;
+		this.validationLevel = validationLevel;
+		this.validationAction = validationAction;
+		return this;
+	}
+
+	public CollectionProfile withIndex(Document keys, IndexOptions options) {
+		this.indexes.add(new IndexModel(keys, options));
+		return this;
+	}
+
+}
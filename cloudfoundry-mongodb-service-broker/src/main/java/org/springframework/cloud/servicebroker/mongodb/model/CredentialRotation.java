@@ -0,0 +1,87 @@
+package org.springframework.cloud.servicebroker.mongodb.model;
+
+/**
+ * Progress of a rotation of every binding password. Databases are rotated in instance id order, and
+ * every database up to and including {@link #getCheckpoint()} is done, so an interrupted rotation
+ * resumes after it.
+ */
+public class CredentialRotation {
+
+	public enum State {
+		RUNNING, COMPLETED, FAILED
+	}
+
+	public static final String ID = "credential-rotation";
+
+	private String id = ID;
+	private State state;
+	private long startedAt;
+	private long updatedAt;
+	private String checkpoint;
+	private long rotated;
+	private long failed;
+
+	@SuppressWarnings("unused")
+	private CredentialRotation() {}
+
+	public CredentialRotation(long startedAt) {
+		this.state = State.RUNNING;
+		this.startedAt = startedAt;
+		this.updatedAt = startedAt;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public long getStartedAt() {
+		return startedAt;
+	}
+
+	public long getUpdatedAt() {
+		return updatedAt;
+	}
+
+	/**
+	 * @return the last service instance whose bindings, and those of every instance before it, are rotated,
+	 * or null if none is done yet
+	 */
+	public String getCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * @return the number of binding passwords rotated so far
+	 */
+	public long getRotated() {
+		return rotated;
+	}
+
+	/**
+	 * @return the number of binding passwords that could not be rotated
+	 */
+	public long getFailed() {
+		return failed;
+	}
+
+	public CredentialRotation withProgress(String checkpoint, long rotated, long failed, long now) {
+		if (checkpoint != null) {
+			this.checkpoint = checkpoint;
+		}
+		this.rotated = rotated;
+		this.failed = failed;
+		this.updatedAt = now;
+		return this;
+	}
+
+	public CredentialRotation withState(State state, long now) {
+		this.state = state;
+		this.updatedAt = now;
+		return this;
+	}
+
+}
@@ -0,0 +1,23 @@
+package org.springframework.cloud.servicebroker.mongodb.model;
+
+/**
+ * Whether the broker profiles the databases of a plan to recommend indexes for their slow queries.
+ */
+public enum IndexAdvice {
+
+	/**
+	 * The databases are not profiled.
+	 */
+	OFF,
+
+	/**
+	 * Recommendations are made available through the admin API only.
+	 */
+	RECOMMEND,
+
+	/**
+	 * The top recommendation of an instance is also built when the backend is quiet.
+	 */
+	AUTO_CREATE
+
+}
@@ -0,0 +1,63 @@
+package org.springframework.cloud.servicebroker.mongodb.model;
+
+import org.springframework.data.mongodb.core.index.Indexed;
+
+import java.util.Date;
+
+/**
+ * A named lease held by one broker node until it expires or is released. The token grows with every
+ * acquisition, so work done under an older lease can be told apart from work done under the current one.
+ */
+public class Lease {
+
+	private String id;
+	private String owner;
+	private long token;
+	private long acquiredAt;
+	// only removes leases abandoned long ago, expiry itself is decided by comparing with the current time
+	@Indexed(expireAfterSeconds = 3600)
+	private Date expiresAt;
+
+	@SuppressWarnings("unused")
+	private Lease() {}
+
+	public Lease(String name, String owner, long token, long acquiredAt, long expiresAt) {
+		this.id = name;
+		this.owner = owner;
+		this.token = token;
+		this.acquiredAt = acquiredAt;
+		this.expiresAt = new Date(expiresAt);
+	}
+
+	public String getName() {
+		return id;
+	}
+
+	/**
+	 * @return the id of the broker node holding the lease
+	 */
+	public String getOwner() {
+		return owner;
+	}
+
+	/**
+	 * @return the fencing token of this acquisition
+	 */
+	public long getToken() {
+		return token;
+	}
+
+	public long getAcquiredAt() {
+		return acquiredAt;
+	}
+
+	public long getExpiresAt() {
+		return expiresAt.getTime();
+	}
+
+	public Lease withExpiresAt(long expiresAt) {
+		this.expiresAt = new Date(expiresAt);
+		return this;
+	}
+
+}
@@ -0,0 +1,175 @@
+package org.springframework.cloud.servicebroker.mongodb.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How a plan's databases are laid out when they are created: the collections to create up front,
+ * with their storage options, validators and default indexes.
+ */
+public class ProvisioningProfile {
+
+	/**
+	 * Server defaults for everything; only a placeholder collection is created so the database exists.
+	 */
+	public static final ProvisioningProfile DEFAULT = new ProvisioningProfile("default");
+
+	private final String name;
+
+	private final List<CollectionProfile> collections = new ArrayList<>();
+
+	private String template;
+
+	private String pooledDatabase;
+
+	private long hibernateAfterMillis;
+
+	private String readConcern;
+
+	private String writeConcern;
+
+	private int maxConnections;
+
+	private IndexAdvice indexAdvice = IndexAdvice.OFF;
+
+	private boolean sharded;
+
+	private String primaryShard;
+
+	private String zone;
+
+	public ProvisioningProfile(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public List<CollectionProfile> getCollections() {
+		return Collections.unmodifiableList(collections);
+	}
+
+	/**
+	 * @return the database new instances are copied from, or null to create them from the collections
+	 */
+	public String getTemplate() {
+		return template;
+	}
+
+	public ProvisioningProfile withTemplate(String template) {
+		this.template = template;
+		return this;
+	}
+
+	/**
+	 * @return the database shared by the instances of the plan, or null if each instance gets its own.
+	 * Pooled instances get the profile's collections under a prefix of their own, and can only use those.
+	 */
+	public String getPooledDatabase() {
+		return pooledDatabase;
+	}
+
+	public boolean isPooled() {
+		return pooledDatabase != null;
+	}
+
+	public ProvisioningProfile withPooledDatabase(String pooledDatabase) {
+		this.pooledDatabase = pooledDatabase;
+		return this;
+	}
+
+	/**
+	 * @return how long an instance of the plan may go without reads or writes before it is hibernated,
+	 * or 0 if it never is
+	 */
+	public long getHibernateAfterMillis() {
+		return hibernateAfterMillis;
+	}
+
+	public ProvisioningProfile withHibernateAfter(long idleMillis) {
+		this.hibernateAfterMillis = idleMillis;
+		return this;
+	}
+
+	/**
+	 * @return the read concern level handed to the plan's bindings, or null for the server default
+	 */
+	public String getReadConcern() {
+		return readConcern;
+	}
+
+	/**
+	 * @return the {@code w} option handed to the plan's bindings, or null for the server default
+	 */
+	public String getWriteConcern() {
+		return writeConcern;
+	}
+
+	public ProvisioningProfile withConcerns(String readConcern, String writeConcern) {
+		this.readConcern = readConcern;
+		this.writeConcern = writeConcern;
+		return this;
+	}
+
+	/**
+	 * @return how many connections each binding of the plan may hold open to the backend, or 0 for no limit
+	 */
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public ProvisioningProfile withMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+		return this;
+	}
+
+	/**
+	 * @return whether slow queries on the plan's databases are profiled for index recommendations
+	 */
+	public IndexAdvice getIndexAdvice() {
+		return indexAdvice;
+	}
+
+	public ProvisioningProfile withIndexAdvice(IndexAdvice indexAdvice) {
+		this.indexAdvice = indexAdvice;
+		return this;
+	}
+
+	/**
+	 * @return whether sharding is enabled for the plan's databases, which needs a sharded backend.
+	 * Collections with a shard key are sharded when they are created, others stay on the primary shard.
+	 */
+	public boolean isSharded() {
+		return sharded;
+	}
+
+	/**
+	 * @return the shard the plan's databases and their unsharded collections are placed on,
+	 * or null to let the cluster pick one
+	 */
+	public String getPrimaryShard() {
+		return primaryShard;
+	}
+
+	/**
+	 * @return the zone the chunks of the plan's sharded collections are kept in, or null for any shard
+	 */
+	public String getZone() {
+		return zone;
+	}
+
+	public ProvisioningProfile withSharding(String primaryShard, String zone) {
+		this.sharded = true;
+		this.primaryShard = primaryShard;
+		this.zone = zone;
+		return this;
+	}
+
+	public ProvisioningProfile withCollection(CollectionProfile collection) {
+		this.collections.add(collection);
+		return this;
+	}
+
+}
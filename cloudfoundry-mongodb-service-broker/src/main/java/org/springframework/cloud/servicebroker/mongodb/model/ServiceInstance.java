@@ -5,10 +5,17 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import org.springframework.cloud.servicebroker.model.CreateServiceInstanceRequest;
 import org.springframework.cloud.servicebroker.model.DeleteServiceInstanceRequest;
+import org.springframework.cloud.servicebroker.model.OperationState;
 import org.springframework.cloud.servicebroker.model.UpdateServiceInstanceRequest;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 /**
- * An instance of a ServiceDefinition.
+ * An instance of a ServiceDefinition. Stored through the ServiceInstanceConverters; the field names
+ * declared here keep queries on the properties in line with them.
  *
  * @author sgreenberg@pivotal.io
  */
@@ -21,24 +28,58 @@ public class ServiceInstance {
 
 	@JsonSerialize
 	@JsonProperty("service_id")
+	@Field("svc")
 	private String serviceDefinitionId;
 
 	@JsonSerialize
 	@JsonProperty("plan_id")
+	@Field("plan")
 	private String planId;
 
 	@JsonSerialize
 	@JsonProperty("organization_guid")
+	@Field("org")
 	private String organizationGuid;
 
 	@JsonSerialize
 	@JsonProperty("space_guid")
+	@Field("space")
 	private String spaceGuid;
 
 	@JsonSerialize
 	@JsonProperty("dashboard_url")
+	@Field("dash")
 	private String dashboardUrl;
 
+	// set for instances of a pooled plan, which live in a shared database under a collection prefix
+	@Field("db")
+	private String database;
+
+	@Field("pfx")
+	private String collectionPrefix;
+
+	// set while the database is dropped and its data kept in an archive
+	@Field("arc")
+	private String archiveId;
+
+	@Field("hib")
+	private long hibernatedAt;
+
+	// the roles of the database's users, revoked while it is hibernated
+	@Field("hibr")
+	private Map<String, List<String>> hibernatedRoles;
+
+	// the backend cluster the instance was migrated to, null on the broker's own backend
+	@Field("cl")
+	private String cluster;
+
+	// set while an asynchronous provision runs and after it failed, so that every broker node reports it
+	@Field("ops")
+	private OperationState operationState;
+
+	@Field("opd")
+	private String operationDescription;
+
 	@SuppressWarnings("unused")
 	private ServiceInstance() {}
 
@@ -113,6 +154,64 @@ public class ServiceInstance {
 		return dashboardUrl;
 	}
 
+	/**
+	 * @return the database holding the instance's collections
+	 */
+	public String getDatabaseName() {
+		return database != null ? database : id;
+	}
+
+	/**
+	 * @return the prefix of the instance's collections in a pooled database, or null for a database of its own
+	 */
+	public String getCollectionPrefix() {
+		return collectionPrefix;
+	}
+
+	public boolean isPooled() {
+		return collectionPrefix != null;
+	}
+
+	public boolean isHibernated() {
+		return archiveId != null;
+	}
+
+	/**
+	 * @return the snapshot holding the data of a hibernated instance
+	 */
+	public String getArchiveId() {
+		return archiveId;
+	}
+
+	public long getHibernatedAt() {
+		return hibernatedAt;
+	}
+
+	/**
+	 * @return the roles the users of a hibernated instance had, by user name, to be given back when it wakes
+	 */
+	public Map<String, List<String>> getHibernatedRoles() {
+		return hibernatedRoles != null ? hibernatedRoles : Collections.emptyMap();
+	}
+
+	/**
+	 * @return the backend cluster holding the instance's database, or null for the default cluster
+	 */
+	public String getCluster() {
+		return cluster;
+	}
+
+	/**
+	 * @return the state of the provision while it runs in the background or after it failed, null once done
+	 */
+	public OperationState getOperationState() {
+		return operationState;
+	}
+
+	public String getOperationDescription() {
+		return operationDescription;
+	}
+
 	public ServiceInstance and() {
 		return this;
 	}
@@ -121,4 +220,32 @@ public class ServiceInstance {
 		this.dashboardUrl = dashboardUrl;
 		return this;
 	}
+
+	public ServiceInstance withCluster(String cluster) {
+		this.cluster = cluster;
+		return this;
+	}
+
+	public ServiceInstance withHibernation(String archiveId, long hibernatedAt) {
+		this.archiveId = archiveId;
+		this.hibernatedAt = hibernatedAt;
+		return this;
+	}
+
+	public ServiceInstance withHibernatedRoles(Map<String, List<String>> hibernatedRoles) {
+		this.hibernatedRoles = hibernatedRoles;
+		return this;
+	}
+
+	public ServiceInstance withOperation(OperationState operationState, String operationDescription) {
+		this.operationState = operationState;
+		this.operationDescription = operationDescription;
+		return this;
+	}
+
+	public ServiceInstance withTenancy(String database, String collectionPrefix) {
+		this.database = database;
+		this.collectionPrefix = collectionPrefix;
+		return this;
+	}
 }
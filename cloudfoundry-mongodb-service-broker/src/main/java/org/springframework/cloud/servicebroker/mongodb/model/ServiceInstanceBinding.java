@@ -1,20 +1,36 @@
 package org.springframework.cloud.servicebroker.mongodb.model;
 
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Field;
+
 import java.util.HashMap;
 import java.util.Map;
 
 /**
- * A binding to a service instance
+ * A binding to a service instance. Stored through the ServiceInstanceBindingConverters; the field
+ * names declared here keep queries on the properties in line with them.
  *
  * @author sgreenberg@pivotal.io
  */
 public class ServiceInstanceBinding {
 
 	private String id;
+	// credential rotation reads bindings in instance order
+	@Indexed
+	@Field("inst")
 	private String serviceInstanceId;
+	@Field("cred")
 	private Map<String,Object> credentials = new HashMap<>();
+	@Field("drain")
 	private String syslogDrainUrl;
+	@Field("app")
 	private String appGuid;
+	// the database the user is created in, if it is not the instance's own
+	@Field("db")
+	private String database;
+	// the backend cluster the user is created on, null on the broker's own backend
+	@Field("cl")
+	private String cluster;
 
 	public ServiceInstanceBinding(String id,
 								  String serviceInstanceId,
@@ -55,4 +71,25 @@ public class ServiceInstanceBinding {
 		return appGuid;
 	}
 
+	/**
+	 * @return the database the binding's user lives in
+	 */
+	public String getDatabase() {
+		return database != null ? database : serviceInstanceId;
+	}
+
+	public String getCluster() {
+		return cluster;
+	}
+
+	public ServiceInstanceBinding withCluster(String cluster) {
+		this.cluster = cluster;
+		return this;
+	}
+
+	public ServiceInstanceBinding withDatabase(String database) {
+		this.database = serviceInstanceId != null && serviceInstanceId.equals(database) ? null : database;
+		return this;
+	}
+
 }
\ No newline at end of file
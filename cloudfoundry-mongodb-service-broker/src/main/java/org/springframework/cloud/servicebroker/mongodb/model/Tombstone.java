@@ -0,0 +1,88 @@
+package org.springframework.cloud.servicebroker.mongodb.model;
+
+/**
+ * A deprovisioned service instance whose database and users have not been dropped yet.
+ * The id is the service instance id, which is also the name of its database unless the instance
+ * was pooled, in which case only its prefixed collections, role and users are dropped, on the backend
+ * cluster the instance lived on.
+ */
+public class Tombstone {
+
+	private String id;
+	private long createdAt;
+	private long notBefore;
+	private int attempts;
+	private String lastError;
+	private String database;
+	private String collectionPrefix;
+	private String cluster;
+
+	@SuppressWarnings("unused")
+	private Tombstone() {}
+
+	public Tombstone(String serviceInstanceId, long createdAt) {
+		this.id = serviceInstanceId;
+		this.createdAt = createdAt;
+		this.notBefore = createdAt;
+	}
+
+	public String getServiceInstanceId() {
+		return id;
+	}
+
+	public String getDatabase() {
+		return database != null ? database : id;
+	}
+
+	/**
+	 * @return the prefix of the instance's collections in a pooled database, or null for a database of its own
+	 */
+	public String getCollectionPrefix() {
+		return collectionPrefix;
+	}
+
+	public Tombstone withTenancy(String database, String collectionPrefix) {
+		this.database = database;
+		this.collectionPrefix = collectionPrefix;
+		return this;
+	}
+
+	/**
+	 * @return the backend cluster holding the data, or null for the default cluster
+	 */
+	public String getCluster() {
+		return cluster;
+	}
+
+	public Tombstone withCluster(String cluster) {
+		this.cluster = cluster;
+		return this;
+	}
+
+	public long getCreatedAt() {
+		return createdAt;
+	}
+
+	/**
+	 * @return the earliest time the next drop may be attempted
+	 */
+	public long getNotBefore() {
+		return notBefore;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public String getLastError() {
+		return lastError;
+	}
+
+	public Tombstone withFailedAttempt(String error, long retryAt) {
+		this.attempts++;
+		this.lastError = error;
+		this.notBefore = retryAt;
+		return this;
+	}
+
+}
@@ -0,0 +1,16 @@
+package org.springframework.cloud.servicebroker.mongodb.repository;
+
+import org.springframework.cloud.servicebroker.mongodb.model.Tombstone;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+
+/**
+ * Repository for Tombstone objects
+ */
+public interface MongoTombstoneRepository extends MongoRepository<Tombstone, String> {
+
+	List<Tombstone> findByNotBeforeLessThanEqual(long now, Pageable pageable);
+
+}
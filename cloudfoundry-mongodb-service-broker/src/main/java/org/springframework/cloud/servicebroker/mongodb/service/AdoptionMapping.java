@@ -0,0 +1,125 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.springframework.cloud.servicebroker.mongodb.config.PlanProfiles;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Where the adopted databases belong, one {@code database,organization_guid,space_guid,plan_id} line per
+ * database. Blank lines, lines starting with {@code #} and a {@code database,...} header are skipped. The
+ * database name becomes the service instance id, as it is for the instances the broker provisions.
+ */
+final class AdoptionMapping {
+
+  private static final Set<String> SYSTEM_DATABASES = new HashSet<>(Arrays.asList("admin", "local", "config"));
+
+  private final Map<String, Entry> entries;
+  private final String digest;
+
+  private AdoptionMapping(Map<String, Entry> entries, String digest) {
+    this.entries = entries;
+    this.digest = digest;
+  }
+
+  /**
+   * @param planIds the plans of the catalog
+   * @throws IllegalArgumentException naming the first line that is malformed, names an unknown or pooled plan,
+   * a system database, or a database named before
+   */
+  static AdoptionMapping parse(String mapping, Set<String> planIds, PlanProfiles profiles) {
+    Map<String, Entry> entries = new TreeMap<>();
+    String[] lines = mapping.split("\r?\n");
+    for (int i = 0; i < lines.length; i++) {
+      String line = lines[i].trim();
+      if (line.isEmpty() || line.startsWith("#") || (i == 0 && line.startsWith("database,"))) {
+        continue;
+      }
+      String[] fields = line.split("\\s*,\\s*");
+      if (fields.length != 4 || Arrays.stream(fields).anyMatch(String::isEmpty)) {
+        throw new IllegalArgumentException("Line " + (i + 1)
+            + " is not database,organization_guid,space_guid,plan_id: " + line);
+      }
+      String database = fields[0];
+      if (SYSTEM_DATABASES.contains(database)) {
+        throw new IllegalArgumentException("Line " + (i + 1) + " names a system database: " + database);
+      }
+      if (!planIds.contains(fields[3])) {
+        throw new IllegalArgumentException("Line " + (i + 1) + " names a plan not in the catalog: " + fields[3]);
+      }
+      if (profiles.forPlan(fields[3]).isPooled()) {
+        // pooled instances are collections in the plan's database, not databases of their own
+        throw new IllegalArgumentException("Line " + (i + 1) + " names a pooled plan: " + fields[3]);
+      }
+      if (entries.put(database, new Entry(fields[1], fields[2], fields[3])) != null) {
+        throw new IllegalArgumentException("Line " + (i + 1) + " names database " + database + " again");
+      }
+    }
+    return new AdoptionMapping(entries, digest(entries));
+  }
+
+  private static String digest(Map<String, Entry> entries) {
+    try {
+      MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+      for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+        Entry value = entry.getValue();
+        String line = String.join(",", entry.getKey(), value.organizationGuid, value.spaceGuid, value.planId);
+        sha256.update((line + "\n").getBytes(StandardCharsets.UTF_8));
+      }
+      StringBuilder hex = new StringBuilder();
+      for (byte b : sha256.digest()) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  Entry get(String database) {
+    return entries.get(database);
+  }
+
+  Set<String> getDatabases() {
+    return Collections.unmodifiableSet(entries.keySet());
+  }
+
+  /**
+   * @return the SHA-256 of the entries, independent of their order and formatting
+   */
+  String getDigest() {
+    return digest;
+  }
+
+  static final class Entry {
+    private final String organizationGuid;
+    private final String spaceGuid;
+    private final String planId;
+
+    private Entry(String organizationGuid, String spaceGuid, String planId) {
+      this.organizationGuid = organizationGuid;
+      this.spaceGuid = spaceGuid;
+      this.planId = planId;
+    }
+
+    String getOrganizationGuid() {
+      return organizationGuid;
+    }
+
+    String getSpaceGuid() {
+      return spaceGuid;
+    }
+
+    String getPlanId() {
+      return planId;
+    }
+  }
+
+}
@@ -0,0 +1,114 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoClientURI;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerInvalidParametersException;
+import org.springframework.cloud.servicebroker.mongodb.throttle.BackendCommandGuard;
+import org.springframework.cloud.servicebroker.mongodb.trace.Tracer;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The backend clusters service instances can live on. The broker's own backend is the {@value #DEFAULT}
+ * cluster, where instances are provisioned; others are named in {@code broker.clusters} as
+ * {@code name=mongodb://...} entries separated by whitespace, and instances are moved onto them by the
+ * {@link ClusterMigrator}. Instances and bindings on the default cluster record no cluster.
+ */
+@Component
+public class BackendClusters implements DisposableBean {
+
+  public static final String DEFAULT = "default";
+
+  private final MongoAdminService defaultCluster;
+  private final Map<String, MongoAdminService> clusters = new LinkedHashMap<>();
+  private final Map<String, BackendCommandGuard> guards = new LinkedHashMap<>();
+  private final List<MongoClient> clients = new ArrayList<>();
+
+  @Autowired
+  public BackendClusters(MongoAdminService defaultCluster, BackendCommandGuard guard, Tracer tracer,
+                         @Value("${broker.clusters:}") String clusters) {
+    this(defaultCluster);
+    for (String entry : clusters.trim().split("\\s+")) {
+      if (entry.isEmpty()) {
+        continue;
+      }
+      int separator = entry.indexOf('=');
+      if (separator <= 0 || DEFAULT.equals(entry.substring(0, separator))) {
+        throw new IllegalArgumentException("Not a name=uri cluster entry: " + entry);
+      }
+      MongoClient client = new MongoClient(new MongoClientURI(entry.substring(separator + 1),
+          MongoClientOptions.builder().addCommandListener(tracer.commandListener())));
+      this.clients.add(client);
+      // limits and a breaker of its own, a struggling cluster does not shed the commands of the others
+      BackendCommandGuard clusterGuard = guard.newGuard();
+      this.guards.put(entry.substring(0, separator), clusterGuard);
+      this.clusters.put(entry.substring(0, separator), new MongoAdminService(client, clusterGuard));
+    }
+  }
+
+  BackendClusters(MongoAdminService defaultCluster) {
+    this.defaultCluster = defaultCluster;
+  }
+
+  /**
+   * @return the default cluster alone, for callers that are not managed by Spring
+   */
+  public static BackendClusters single(MongoAdminService mongo) {
+    return new BackendClusters(mongo);
+  }
+
+  BackendClusters with(String name, MongoAdminService cluster) {
+    clusters.put(name, cluster);
+    return this;
+  }
+
+  /**
+   * @param name a cluster as recorded on an instance, null for the default one
+   */
+  public MongoAdminService admin(String name) {
+    if (name == null || DEFAULT.equals(name)) {
+      return defaultCluster;
+    }
+    MongoAdminService cluster = clusters.get(name);
+    if (cluster == null) {
+      throw new ServiceBrokerInvalidParametersException("Unknown backend cluster: " + name);
+    }
+    return cluster;
+  }
+
+  /**
+   * @return the guard of the commands sent to a cluster other than the default one, null if it has none
+   */
+  public BackendCommandGuard getGuard(String name) {
+    return guards.get(name);
+  }
+
+  public boolean exists(String name) {
+    return name == null || DEFAULT.equals(name) || clusters.containsKey(name);
+  }
+
+  /**
+   * @return the names of the clusters other than the default one
+   */
+  public Set<String> getNames() {
+    return Collections.unmodifiableSet(clusters.keySet());
+  }
+
+  @Override
+  public void destroy() {
+    for (MongoClient client : clients) {
+      client.close();
+    }
+  }
+
+}
@@ -0,0 +1,44 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.springframework.cloud.servicebroker.mongodb.exception.BackendUnavailableException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Lets long-running background work ride out load shedding by the backend guard. Shed commands
+ * never reached the server, so they are safe to send again.
+ */
+final class BackendRetry {
+
+  private static final int ATTEMPTS = 5;
+
+  private BackendRetry() {
+  }
+
+  static void run(Runnable step) {
+    call(() -> {
+      step.run();
+      return null;
+    });
+  }
+
+  static <T> T call(Supplier<T> step) {
+    for (int attempt = 1; ; attempt++) {
+      try {
+        return step.get();
+      } catch (BackendUnavailableException e) {
+        if (attempt == ATTEMPTS) {
+          throw e;
+        }
+        try {
+          TimeUnit.SECONDS.sleep(e.getRetryAfterSeconds());
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          throw e;
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,499 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import com.mongodb.MongoClientURI;
+import com.mongodb.client.MongoCursor;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerInvalidParametersException;
+import org.springframework.cloud.servicebroker.exception.ServiceInstanceDoesNotExistException;
+import org.springframework.cloud.servicebroker.mongodb.cache.MetadataCache;
+import org.springframework.cloud.servicebroker.mongodb.config.PlanProfiles;
+import org.springframework.cloud.servicebroker.mongodb.convert.LegacyDocumentMigration;
+import org.springframework.cloud.servicebroker.mongodb.exception.OperationInProgressException;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournalRecord;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournaledRepository;
+import org.springframework.cloud.servicebroker.mongodb.journal.MetadataArchive;
+import org.springframework.cloud.servicebroker.mongodb.journal.MetadataJournal;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstanceBinding;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceBindingRepository;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceRepository;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Moves a service instance database to another {@link BackendClusters backend cluster} while it is in use.
+ * The collections are copied in parallel, streamed as undecoded BSON into ordered bulk inserts, from a
+ * position in the source oplog recorded beforehand. The oplog is then replayed from that position until
+ * the target has caught up; every changed document is read again from the source and written whole, so
+ * replaying a change twice does no harm. For the cut over the database users lose their write access on
+ * the source, the last changes are replayed, the binding users are created on the target with the same names,
+ * passwords and roles, and the instance and its bindings are switched over, so only the hosts in the
+ * credentials change. Bindings cannot be created or deleted while the migration runs.
+ * <p>
+ * Progress and replication lag are reported as the instance's last operation. Cloud Controller keeps handing
+ * out the credentials each binding was created with, and restaging does not ask the broker again, so bound
+ * applications go on reading the source, without write access, until they are unbound and bound again. The
+ * source database and its users are therefore kept after the cut over, and only dropped when the operator
+ * {@link #finalizeMigration finalizes} the migration once the applications have moved.
+ */
+@Component
+public class ClusterMigrator implements DisposableBean {
+
+  private Logger logger = LoggerFactory.getLogger(ClusterMigrator.class);
+
+  private final BackendClusters clusters;
+  private final JournaledRepository<ServiceInstance> instances;
+  private final JournaledRepository<ServiceInstanceBinding> bindings;
+  private final MongoOperations metadata;
+  private final OperationTracker operations;
+  private final LegacyDocumentMigration legacyDocuments;
+  private final PlanProfiles profiles;
+  private final Executor executor;
+  private final Executor copiers;
+  private final int batchSize;
+  private final long catchUpTimeoutMillis;
+  private final LongSupplier clock;
+
+  @Autowired
+  public ClusterMigrator(BackendClusters clusters, MongoServiceInstanceRepository instanceRepository,
+                         MongoServiceInstanceBindingRepository bindingRepository, MongoOperations metadata,
+                         MetadataJournal journal, MetadataCache cache, MetadataArchive archive,
+                         OperationTracker operations, LegacyDocumentMigration legacyDocuments,
+                         PlanProfiles profiles,
+                         @Value("${broker.cluster-migration.copy-threads:4}") int copyThreads,
+                         @Value("${broker.cluster-migration.batch-size:1000}") int batchSize,
+                         @Value("${broker.cluster-migration.catch-up-timeout-millis:3600000}")
+                             long catchUpTimeoutMillis) {
+    this(clusters, new JournaledRepository<>(journal, cache, archive, JournalRecord.Kind.SERVICE_INSTANCE,
+        instanceRepository),
+        new JournaledRepository<>(journal, cache, archive, JournalRecord.Kind.SERVICE_INSTANCE_BINDING,
+            bindingRepository),
+        metadata, operations, legacyDocuments, profiles,
+        Executors.newCachedThreadPool(runnable -> {
+          Thread thread = new Thread(runnable, "cluster-migrator");
+          thread.setDaemon(true);
+          return thread;
+        }),
+        Executors.newFixedThreadPool(copyThreads, runnable -> {
+          Thread thread = new Thread(runnable, "cluster-migration-copy");
+          thread.setDaemon(true);
+          return thread;
+        }), batchSize, catchUpTimeoutMillis, System::currentTimeMillis);
+  }
+
+  ClusterMigrator(BackendClusters clusters, JournaledRepository<ServiceInstance> instances,
+                  JournaledRepository<ServiceInstanceBinding> bindings, MongoOperations metadata,
+                  OperationTracker operations, LegacyDocumentMigration legacyDocuments, PlanProfiles profiles,
+                  Executor executor, Executor copiers, int batchSize, long catchUpTimeoutMillis,
+                  LongSupplier clock) {
+    this.clusters = clusters;
+    this.instances = instances;
+    this.bindings = bindings;
+    this.metadata = metadata;
+    this.operations = operations;
+    this.legacyDocuments = legacyDocuments;
+    this.profiles = profiles;
+    this.executor = executor;
+    this.copiers = copiers;
+    this.batchSize = batchSize;
+    this.catchUpTimeoutMillis = catchUpTimeoutMillis;
+    this.clock = clock;
+  }
+
+  /**
+   * Start moving an instance to another cluster.
+   */
+  public void startMigration(String serviceInstanceId, String cluster) {
+    ServiceInstance instance = instances.findOne(serviceInstanceId);
+    if (instance == null) {
+      throw new ServiceInstanceDoesNotExistException(serviceInstanceId);
+    }
+    if (!clusters.exists(cluster)) {
+      throw new ServiceBrokerInvalidParametersException("Unknown backend cluster: " + cluster);
+    }
+    String target = BackendClusters.DEFAULT.equals(cluster) ? null : cluster;
+    if (Objects.equals(instance.getCluster(), target)) {
+      throw new ServiceBrokerInvalidParametersException(
+          "Service instance " + serviceInstanceId + " is already on cluster " + cluster);
+    }
+    if (instance.isPooled()) {
+      // the pooled database stays on the default cluster with all its tenants
+      throw new ServiceBrokerException("Instances of pooled plans cannot be migrated: " + serviceInstanceId);
+    }
+    if (profiles.forPlan(instance.getPlanId()).isSharded()) {
+      // the copy neither shards the collections nor places them in the plan's zone
+      throw new ServiceBrokerException("Instances of sharded plans cannot be migrated: " + serviceInstanceId);
+    }
+    if (instance.isHibernated()) {
+      throw new ServiceBrokerException("Service instance " + serviceInstanceId + " is hibernated, wake it first");
+    }
+    if (!legacyDocuments.isDone()) {
+      // bindings are looked up by the compact name of their instance field, old documents would be missed
+      throw new ServiceBrokerException("Metadata documents are still being rewritten in the compact form, "
+          + "migrate " + serviceInstanceId + " once that is done");
+    }
+    if (!operations.start(serviceInstanceId, "Migration to cluster " + cluster + " starting")) {
+      throw new OperationInProgressException(serviceInstanceId);
+    }
+    executor.execute(() -> migrate(instance, target));
+  }
+
+  void migrate(ServiceInstance instance, String target) {
+    String id = instance.getServiceInstanceId();
+    String name = target == null ? BackendClusters.DEFAULT : target;
+    MongoAdminService source = clusters.admin(instance.getCluster());
+    MongoAdminService destination = clusters.admin(target);
+    Map<String, List<String>> frozen = new LinkedHashMap<>();
+    boolean switched = false;
+    try {
+      BsonTimestamp position = source.getOplogPosition();
+      if (position == null) {
+        throw new ServiceBrokerException("the source cluster has no replica set oplog to catch up from");
+      }
+      if (destination.databaseExists(id)) {
+        throw new ServiceBrokerException("database " + id + " already exists on cluster " + name);
+      }
+      copy(source, destination, id, name);
+
+      Tail tail = new Tail(source, destination, id, name, position);
+      tail.catchUp(clock.getAsLong() + catchUpTimeoutMillis);
+
+      // writes stop here, until the applications use the new credentials
+      operations.checkLock(id);
+      operations.progress(id, "Migration to cluster " + name + ": cutting over, writes are paused");
+      // every user of the database, a user whose binding is still being saved included
+      for (String user : source.getUserNames(id)) {
+        List<String> roles = source.getUserRoles(id, user);
+        if (!roles.isEmpty()) {
+          frozen.put(user, roles);
+          source.setUserRoles(id, user, Collections.singletonList("read"));
+        }
+      }
+      // read after the freeze, so that no binding whose user can still write is missed
+      List<ServiceInstanceBinding> instanceBindings = metadata.find(
+          query(where("serviceInstanceId").is(id)), ServiceInstanceBinding.class);
+      // the changes made before the freeze
+      tail.catchUp(Long.MAX_VALUE);
+
+      Map<String, String> passwords = new HashMap<>();
+      for (ServiceInstanceBinding binding : instanceBindings) {
+        String password = passwordOf(binding);
+        List<String> roles = frozen.get(binding.getId());
+        destination.createUser(id, binding.getId(), password,
+            roles == null ? Collections.singletonList("readWrite") : roles);
+        passwords.put(binding.getId(), password);
+      }
+      operations.checkLock(id);
+      instances.save(instance.withCluster(target));
+      switched = true;
+      for (ServiceInstanceBinding binding : instanceBindings) {
+        switchBinding(binding, destination, target, passwords.get(binding.getId()));
+      }
+      logger.info("Migrated service instance " + id + " to cluster " + name);
+      operations.succeed(id, "Migrated to cluster " + name + ", the source is kept until the migration is finalized");
+    } catch (RuntimeException e) {
+      logger.warn("Could not migrate " + id + " to cluster " + name, e);
+      if (!switched) {
+        rollBack(source, destination, id, frozen);
+      }
+      operations.fail(id, "Migration to cluster " + name + " failed: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Drop the database and users a migrated instance left on its former cluster, once its applications have
+   * been bound again and use the new one.
+   */
+  public void finalizeMigration(String serviceInstanceId, String formerCluster) {
+    ServiceInstance instance = instances.findOne(serviceInstanceId);
+    if (instance == null) {
+      throw new ServiceInstanceDoesNotExistException(serviceInstanceId);
+    }
+    if (!clusters.exists(formerCluster)) {
+      throw new ServiceBrokerInvalidParametersException("Unknown backend cluster: " + formerCluster);
+    }
+    String former = BackendClusters.DEFAULT.equals(formerCluster) ? null : formerCluster;
+    if (Objects.equals(instance.getCluster(), former)) {
+      throw new ServiceBrokerInvalidParametersException(
+          "Service instance " + serviceInstanceId + " lives on cluster " + formerCluster);
+    }
+    if (!operations.start(serviceInstanceId, "Dropping the source of the migration on cluster " + formerCluster)) {
+      throw new OperationInProgressException(serviceInstanceId);
+    }
+    MongoAdminService source = clusters.admin(former);
+    try {
+      operations.checkLock(serviceInstanceId);
+      BackendRetry.run(() -> source.deleteAllUsers(serviceInstanceId));
+      BackendRetry.run(() -> source.deleteDatabase(serviceInstanceId));
+      operations.succeed(serviceInstanceId, "Dropped the source of the migration on cluster " + formerCluster);
+    } catch (RuntimeException e) {
+      operations.fail(serviceInstanceId, "Could not drop the source of the migration on cluster " + formerCluster
+          + ": " + e.getMessage());
+      throw e;
+    }
+  }
+
+  /**
+   * @return the password in the binding's connection string, so that only the host changes, or a new one for
+   * a binding without credentials, such as an adopted one
+   */
+  private static String passwordOf(ServiceInstanceBinding binding) {
+    Object uri = binding.getCredentials().get("uri");
+    if (uri != null) {
+      char[] password = new MongoClientURI(uri.toString()).getPassword();
+      if (password != null) {
+        return new String(password);
+      }
+    }
+    return Passwords.generate();
+  }
+
+  /**
+   * Copy the collections in parallel, then the views, which may be defined on any of them.
+   */
+  private void copy(MongoAdminService source, MongoAdminService destination, String id, String name) {
+    List<Document> collections = new ArrayList<>();
+    List<Document> views = new ArrayList<>();
+    for (Document collection : BackendRetry.call(() -> source.listCollections(id))) {
+      if (collection.getString("name").startsWith("system.")) {
+        continue;
+      }
+      ("view".equals(collection.getString("type")) ? views : collections).add(collection);
+    }
+    AtomicInteger copied = new AtomicInteger();
+    AtomicLong documents = new AtomicLong();
+    List<CompletableFuture<Void>> copies = new ArrayList<>();
+    for (Document collection : collections) {
+      copies.add(CompletableFuture.runAsync(() -> {
+        documents.addAndGet(copyCollection(source, destination, id, collection));
+        operations.progress(id, String.format("Migration to cluster %s: %d of %d collections copied, %d documents",
+            name, copied.incrementAndGet(), collections.size(), documents.get()));
+      }, copiers));
+    }
+    try {
+      CompletableFuture.allOf(copies.toArray(new CompletableFuture<?>[0])).join();
+    } catch (CompletionException e) {
+      throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+    }
+    for (Document view : views) {
+      BackendRetry.run(() -> destination.createCollection(id, view.getString("name"), options(view)));
+    }
+  }
+
+  /**
+   * @return the number of documents copied
+   */
+  private long copyCollection(MongoAdminService source, MongoAdminService destination, String id,
+                              Document collection) {
+    String name = collection.getString("name");
+    BackendRetry.run(() -> destination.createCollection(id, name, options(collection)));
+    long count = 0;
+    List<RawBsonDocument> batch = new ArrayList<>(batchSize);
+    try (MongoCursor<RawBsonDocument> cursor = BackendRetry.call(() -> source.openRawCursor(id, name))) {
+      while (cursor.hasNext()) {
+        batch.add(cursor.next());
+        if (batch.size() == batchSize) {
+          List<RawBsonDocument> full = batch;
+          BackendRetry.run(() -> destination.insertRaw(id, name, full));
+          count += full.size();
+          batch = new ArrayList<>(batchSize);
+        }
+      }
+    }
+    List<RawBsonDocument> last = batch;
+    BackendRetry.run(() -> destination.insertRaw(id, name, last));
+    count += last.size();
+    BackendRetry.run(() -> destination.createIndexes(id, name, source.listIndexes(id, name)));
+    return count;
+  }
+
+  private static Document options(Document collection) {
+    return collection.get("options") == null ? new Document() : (Document) collection.get("options");
+  }
+
+  /**
+   * Point a binding at the target cluster. A binding that cannot be saved keeps pointing at the source.
+   */
+  private void switchBinding(ServiceInstanceBinding binding, MongoAdminService destination, String target,
+                             String password) {
+    try {
+      Map<String, Object> credentials = new HashMap<>(binding.getCredentials());
+      credentials.put("uri", destination.getConnectionString(binding.getDatabase(), binding.getId(), password,
+          ConnectionOptions.optionsOf(binding.getCredentials().get("uri"))));
+      bindings.save(new ServiceInstanceBinding(binding.getId(), binding.getServiceInstanceId(), credentials,
+          binding.getSyslogDrainUrl(), binding.getAppGuid())
+          .withDatabase(binding.getDatabase())
+          .withCluster(target));
+    } catch (RuntimeException e) {
+      logger.error("Could not switch binding " + binding.getId() + " to cluster " + target, e);
+    }
+  }
+
+  private void rollBack(MongoAdminService source, MongoAdminService destination, String id,
+                        Map<String, List<String>> frozen) {
+    for (Map.Entry<String, List<String>> user : frozen.entrySet()) {
+      try {
+        BackendRetry.run(() -> source.setUserRoles(id, user.getKey(), user.getValue()));
+      } catch (RuntimeException e) {
+        logger.error("Could not give user " + user.getKey() + " of " + id + " its roles back", e);
+      }
+    }
+    if (!operations.holdsLock(id)) {
+      // another node may be migrating the instance to the same cluster by now
+      logger.warn("Not dropping the partial copy of " + id + ", its lock was lost");
+      return;
+    }
+    try {
+      destination.deleteAllUsers(id);
+      destination.deleteDatabase(id);
+    } catch (RuntimeException e) {
+      logger.warn("Could not drop the partial copy of " + id, e);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    for (Executor pool : new Executor[] {executor, copiers}) {
+      if (pool instanceof ExecutorService) {
+        ((ExecutorService) pool).shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * Replays the source oplog of one database onto the target.
+   */
+  class Tail {
+
+    private final MongoAdminService source;
+    private final MongoAdminService destination;
+    private final String database;
+    private final String name;
+    private BsonTimestamp applied;
+    private long changes;
+
+    Tail(MongoAdminService source, MongoAdminService destination, String database, String name,
+         BsonTimestamp from) {
+      this.source = source;
+      this.destination = destination;
+      this.database = database;
+      this.name = name;
+      this.applied = from;
+    }
+
+    /**
+     * Replay until no change is waiting, which the tailable cursor waits a moment for.
+     */
+    void catchUp(long deadline) {
+      try (MongoCursor<Document> cursor = source.tailOplog(database, applied)) {
+        Document entry;
+        while ((entry = cursor.tryNext()) != null) {
+          apply(entry);
+          if (changes % batchSize == 0) {
+            BsonTimestamp newest = source.getOplogPosition();
+            operations.progress(database, String.format(
+                "Migration to cluster %s: catching up, %d changes applied, %d seconds behind",
+                name, changes, newest == null ? 0 : newest.getTime() - applied.getTime()));
+            if (clock.getAsLong() > deadline) {
+              throw new ServiceBrokerException("the target did not catch up in time, writes are too frequent");
+            }
+          }
+        }
+      }
+    }
+
+    void apply(Document entry) {
+      String namespace = entry.getString("ns");
+      String collection = namespace.substring(database.length() + 1);
+      Document change = (Document) entry.get("o");
+      switch (entry.getString("op")) {
+        case "i":
+          if ("system.indexes".equals(collection)) {
+            // index builds on servers before 4.2
+            String indexed = change.getString("ns").substring(database.length() + 1);
+            Document index = new Document(change);
+            index.remove("ns");
+            index.remove("v");
+            BackendRetry.run(() -> destination.createIndexes(database, indexed, Collections.singletonList(index)));
+          } else {
+            copyDocument(collection, change.get("_id"));
+          }
+          break;
+        case "u":
+          copyDocument(collection, ((Document) entry.get("o2")).get("_id"));
+          break;
+        case "d":
+          BackendRetry.run(() -> destination.deleteDocument(database, collection, change.get("_id")));
+          break;
+        case "c":
+          applyCommand(change);
+          break;
+        default:
+          // no-ops
+          break;
+      }
+      applied = entry.get("ts", BsonTimestamp.class);
+      changes++;
+    }
+
+    /**
+     * Write the document as it is now on the source, or delete it if it is gone since.
+     */
+    private void copyDocument(String collection, Object id) {
+      RawBsonDocument current = BackendRetry.call(() -> source.findRaw(database, collection, id));
+      if (current == null) {
+        BackendRetry.run(() -> destination.deleteDocument(database, collection, id));
+      } else {
+        BackendRetry.run(() -> destination.upsertRaw(database, collection, current));
+      }
+    }
+
+    private void applyCommand(Document command) {
+      if (command.containsKey("create")) {
+        Document options = new Document(command);
+        options.remove("create");
+        BackendRetry.run(() -> destination.createCollection(database, command.getString("create"), options));
+      } else if (command.containsKey("drop")) {
+        BackendRetry.run(() -> destination.dropCollection(database, command.getString("drop")));
+      } else if (command.containsKey("createIndexes")) {
+        Document index = new Document(command);
+        index.remove("createIndexes");
+        index.remove("v");
+        BackendRetry.run(() -> destination.createIndexes(database, command.getString("createIndexes"),
+            Collections.singletonList(index)));
+      } else {
+        throw new ServiceBrokerException("cannot replay " + command.keySet().iterator().next()
+            + " during a migration, start it again");
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,156 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The client connections of a backend grouped by the user they authenticated as, from one {@code currentOp}
+ * sample. It is held as parallel arrays sorted by user, and by connection from newest to oldest within a
+ * user, so that a census of many thousands of connections is a handful of objects and a user is found by
+ * binary search. Connections of internal threads and of unauthenticated clients are left out.
+ */
+public class ConnectionCensus {
+
+  private static final ConnectionCensus EMPTY = new ConnectionCensus(0, new String[0], new int[] {0},
+      new long[0], new Object[0], new Document[0]);
+
+  private final long sampledAt;
+
+  // distinct users, sorted; the connections of users[i] are the entries offsets[i] until offsets[i + 1]
+  private final String[] users;
+  private final int[] offsets;
+
+  private final long[] connectionIds;
+  // null where the connection is idle, or outside a session
+  private final Object[] opIds;
+  private final Document[] sessionIds;
+
+  private ConnectionCensus(long sampledAt, String[] users, int[] offsets, long[] connectionIds, Object[] opIds,
+                           Document[] sessionIds) {
+    this.sampledAt = sampledAt;
+    this.users = users;
+    this.offsets = offsets;
+    this.connectionIds = connectionIds;
+    this.opIds = opIds;
+    this.sessionIds = sessionIds;
+  }
+
+  public static ConnectionCensus empty() {
+    return EMPTY;
+  }
+
+  /**
+   * @param inprog the {@code inprog} entries of {@code currentOp} with {@code $all}
+   */
+  public static ConnectionCensus of(List<Document> inprog, long sampledAt) {
+    List<Document> connections = new ArrayList<>(inprog.size());
+    for (Document op : inprog) {
+      if (op.get("connectionId") instanceof Number && userOf(op) != null) {
+        connections.add(op);
+      }
+    }
+    connections.sort(Comparator.comparing(ConnectionCensus::userOf)
+        .thenComparing(Comparator.comparingLong(ConnectionCensus::connectionIdOf).reversed()));
+
+    List<String> users = new ArrayList<>();
+    int[] offsets = new int[connections.size() + 1];
+    long[] connectionIds = new long[connections.size()];
+    Object[] opIds = new Object[connections.size()];
+    Document[] sessionIds = new Document[connections.size()];
+    for (int i = 0; i < connections.size(); i++) {
+      Document op = connections.get(i);
+      String user = userOf(op);
+      if (users.isEmpty() || !users.get(users.size() - 1).equals(user)) {
+        offsets[users.size()] = i;
+        users.add(user);
+      }
+      connectionIds[i] = connectionIdOf(op);
+      opIds[i] = Boolean.TRUE.equals(op.get("active")) ? op.get("opid") : null;
+      sessionIds[i] = op.get("lsid") instanceof Document ? (Document) op.get("lsid") : null;
+    }
+    offsets[users.size()] = connections.size();
+    return new ConnectionCensus(sampledAt, users.toArray(new String[users.size()]),
+        Arrays.copyOf(offsets, users.size() + 1), connectionIds, opIds, sessionIds);
+  }
+
+  public long getSampledAt() {
+    return sampledAt;
+  }
+
+  public int size() {
+    return users.length;
+  }
+
+  public String getUser(int index) {
+    return users[index];
+  }
+
+  public int getConnections(int index) {
+    return offsets[index + 1] - offsets[index];
+  }
+
+  /**
+   * @return the number of connections of the user, 0 if it has none
+   */
+  public int getConnections(String user) {
+    int index = Arrays.binarySearch(users, user);
+    return index < 0 ? 0 : getConnections(index);
+  }
+
+  /**
+   * @return connections per user, in user order
+   */
+  public Map<String, Integer> getCounts() {
+    Map<String, Integer> counts = new LinkedHashMap<>();
+    for (int i = 0; i < users.length; i++) {
+      counts.put(users[i], getConnections(i));
+    }
+    return counts;
+  }
+
+  /**
+   * @return the operations running on the user's newest connections beyond the limit
+   */
+  List<Object> getExcessOperations(int index, int limit) {
+    List<Object> excess = new ArrayList<>();
+    for (int i = offsets[index]; i < offsets[index + 1] - limit; i++) {
+      if (opIds[i] != null) {
+        excess.add(opIds[i]);
+      }
+    }
+    return excess;
+  }
+
+  /**
+   * @return the sessions in use on the user's newest connections beyond the limit
+   */
+  List<Document> getExcessSessions(int index, int limit) {
+    List<Document> excess = new ArrayList<>();
+    for (int i = offsets[index]; i < offsets[index + 1] - limit; i++) {
+      if (sessionIds[i] != null && !excess.contains(sessionIds[i])) {
+        excess.add(sessionIds[i]);
+      }
+    }
+    return excess.isEmpty() ? Collections.emptyList() : excess;
+  }
+
+  private static String userOf(Document op) {
+    Object users = op.get("effectiveUsers");
+    if (!(users instanceof List) || ((List<?>) users).isEmpty() || !(((List<?>) users).get(0) instanceof Document)) {
+      return null;
+    }
+    return ((Document) ((List<?>) users).get(0)).getString("user");
+  }
+
+  private static long connectionIdOf(Document op) {
+    return ((Number) op.get("connectionId")).longValue();
+  }
+
+}
@@ -0,0 +1,214 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.mongodb.config.PlanProfiles;
+import org.springframework.cloud.servicebroker.mongodb.coordination.LeaseManager;
+import org.springframework.cloud.servicebroker.mongodb.exception.MongoServiceException;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstanceBinding;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceBindingRepository;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceRepository;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Holds bindings to the connection limit of their plan. Every node samples the client connections of each
+ * backend cluster into a {@link ConnectionCensus} for the per-binding counts; the leading node also
+ * enforces the limits. A binding has to stay over its limit for the grace period before anything is
+ * killed, so that a pool briefly growing during a deploy is left alone. Then the operations and sessions
+ * on its newest connections beyond the limit are killed, which fails the requests the leaking pool keeps
+ * sending on them; the server cannot close a client's idle connections itself.
+ */
+@Component
+public class ConnectionLimiter {
+
+  static final String JOB = "connection-limiter";
+
+  private Logger logger = LoggerFactory.getLogger(ConnectionLimiter.class);
+
+  private final BackendClusters clusters;
+  private final MongoServiceInstanceBindingRepository bindingRepository;
+  private final MongoServiceInstanceRepository instanceRepository;
+  private final PlanProfiles profiles;
+  private final LeaseManager leases;
+  private final long graceMillis;
+  private final LongSupplier clock;
+  private final boolean enabled;
+
+  // when each binding was first seen over its limit, as sampled; only written by the scheduling thread
+  private final Map<String, Long> overSince = new ConcurrentHashMap<>();
+  // the instance of each binding seen connected, "" for users that are not bindings
+  private final Map<String, String> instanceOfUser = new ConcurrentHashMap<>();
+  private volatile Map<String, ConnectionCensus> censuses = Collections.emptyMap();
+  private volatile Map<String, Integer> instanceConnections = Collections.emptyMap();
+  private final AtomicLong killedOperations = new AtomicLong();
+  private final AtomicLong killedSessions = new AtomicLong();
+
+  @Autowired
+  public ConnectionLimiter(BackendClusters clusters, MongoServiceInstanceBindingRepository bindingRepository,
+                           MongoServiceInstanceRepository instanceRepository, PlanProfiles profiles,
+                           LeaseManager leases,
+                           @Value("${broker.connection-limits.grace-millis:120000}") long graceMillis,
+                           @Value("${broker.connection-limits.enabled:true}") boolean enabled) {
+    this(clusters, bindingRepository, instanceRepository, profiles, leases, graceMillis, System::currentTimeMillis,
+        enabled);
+  }
+
+  ConnectionLimiter(BackendClusters clusters, MongoServiceInstanceBindingRepository bindingRepository,
+                    MongoServiceInstanceRepository instanceRepository, PlanProfiles profiles, LeaseManager leases,
+                    long graceMillis, LongSupplier clock, boolean enabled) {
+    this.clusters = clusters;
+    this.bindingRepository = bindingRepository;
+    this.instanceRepository = instanceRepository;
+    this.profiles = profiles;
+    this.leases = leases;
+    this.graceMillis = graceMillis;
+    this.clock = clock;
+    this.enabled = enabled;
+  }
+
+  @Scheduled(initialDelayString = "${broker.connection-limits.sample-interval-millis:30000}",
+      fixedDelayString = "${broker.connection-limits.sample-interval-millis:30000}")
+  public void check() {
+    if (!enabled) {
+      return;
+    }
+    boolean leader = leases.isLeader(JOB);
+    List<String> names = new ArrayList<>();
+    names.add(BackendClusters.DEFAULT);
+    names.addAll(clusters.getNames());
+
+    Map<String, ConnectionCensus> sampled = new LinkedHashMap<>();
+    Map<String, Integer> limits = new HashMap<>();
+    Map<String, Integer> perInstance = new HashMap<>();
+    Set<String> users = new HashSet<>();
+    Set<String> over = new HashSet<>();
+    for (String name : names) {
+      MongoAdminService mongo = clusters.admin(name);
+      ConnectionCensus census;
+      try {
+        census = ConnectionCensus.of(mongo.getConnections(), clock.getAsLong());
+      } catch (MongoServiceException e) {
+        logger.warn("Could not sample the connections of cluster " + name + ": " + e.getLocalizedMessage());
+        continue;
+      }
+      sampled.put(name, census);
+      for (int i = 0; i < census.size(); i++) {
+        users.add(census.getUser(i));
+        String instanceId = getInstanceId(census.getUser(i));
+        if (!instanceId.isEmpty()) {
+          perInstance.merge(instanceId, census.getConnections(i), Integer::sum);
+        }
+      }
+      if (leader) {
+        enforce(mongo, census, limits, over);
+      }
+    }
+    overSince.keySet().retainAll(over);
+    instanceOfUser.keySet().retainAll(users);
+    censuses = sampled;
+    instanceConnections = perInstance;
+  }
+
+  private void enforce(MongoAdminService mongo, ConnectionCensus census, Map<String, Integer> limits,
+                       Set<String> over) {
+    for (int i = 0; i < census.size(); i++) {
+      String bindingId = census.getUser(i);
+      int connections = census.getConnections(i);
+      int limit = getLimit(bindingId, limits);
+      if (limit <= 0 || connections <= limit) {
+        continue;
+      }
+      over.add(bindingId);
+      long since = overSince.computeIfAbsent(bindingId, key -> census.getSampledAt());
+      if (census.getSampledAt() - since < graceMillis) {
+        continue;
+      }
+      List<Object> operations = census.getExcessOperations(i, limit);
+      List<Document> sessions = census.getExcessSessions(i, limit);
+      logger.info("Binding {} holds {} connections, over its limit of {} for {} ms: "
+          + "killing {} operations and {} sessions", bindingId, connections, limit, census.getSampledAt() - since,
+          operations.size(), sessions.size());
+      try {
+        mongo.killOperations(operations);
+        killedOperations.addAndGet(operations.size());
+        if (!sessions.isEmpty()) {
+          mongo.killSessions(sessions);
+          killedSessions.addAndGet(sessions.size());
+        }
+      } catch (MongoServiceException e) {
+        logger.warn("Could not kill the excess connections of binding " + bindingId + ": " + e.getLocalizedMessage());
+      }
+    }
+  }
+
+  /**
+   * @return the connection limit of the binding's plan, 0 for users that are not bindings
+   */
+  private int getLimit(String bindingId, Map<String, Integer> limits) {
+    String instanceId = getInstanceId(bindingId);
+    if (instanceId.isEmpty()) {
+      return 0;
+    }
+    return limits.computeIfAbsent(instanceId, id -> {
+      ServiceInstance instance = instanceRepository.findOne(id);
+      return instance == null ? 0 : profiles.forPlan(instance.getPlanId()).getMaxConnections();
+    });
+  }
+
+  /**
+   * @return the instance the user is a binding of, or "" if it is not a binding
+   */
+  private String getInstanceId(String user) {
+    return instanceOfUser.computeIfAbsent(user, key -> {
+      ServiceInstanceBinding binding = bindingRepository.findOne(key);
+      return binding == null ? "" : binding.getServiceInstanceId();
+    });
+  }
+
+  /**
+   * @return the connections the bindings of the instance held at the latest sample
+   */
+  public int getInstanceConnections(String instanceId) {
+    return instanceConnections.getOrDefault(instanceId, 0);
+  }
+
+  /**
+   * @return the latest census of each cluster that could be sampled
+   */
+  public Map<String, ConnectionCensus> getCensuses() {
+    return censuses;
+  }
+
+  /**
+   * @return when the binding was first seen over its limit, or null if it is within it
+   */
+  public Long getOverSince(String bindingId) {
+    return overSince.get(bindingId);
+  }
+
+  public long getKilledOperations() {
+    return killedOperations.get();
+  }
+
+  public long getKilledSessions() {
+    return killedSessions.get();
+  }
+
+}
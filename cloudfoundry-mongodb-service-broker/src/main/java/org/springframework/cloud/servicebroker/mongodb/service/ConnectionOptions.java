@@ -0,0 +1,116 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerInvalidParametersException;
+import org.springframework.cloud.servicebroker.mongodb.config.PlanProfiles;
+import org.springframework.cloud.servicebroker.mongodb.model.ProvisioningProfile;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The connection string options handed to a binding: the plan's default read and write concerns, and for
+ * analytics bindings a read preference that sends their reads to secondaries, optionally to the members
+ * tagged for analytics.
+ */
+@Component
+public class ConnectionOptions {
+
+  /**
+   * What a binding's user may do, chosen with the {@code role} bind parameter.
+   */
+  public enum Role {
+
+    READ_WRITE("readWrite"),
+    // read-only, reading from secondaries
+    ANALYTICS("analytics");
+
+    private final String parameter;
+
+    Role(String parameter) {
+      this.parameter = parameter;
+    }
+
+    public String getParameter() {
+      return parameter;
+    }
+
+    /**
+     * @param parameter the {@code role} bind parameter, may be null
+     */
+    public static Role fromParameter(Object parameter) {
+      if (parameter == null) {
+        return READ_WRITE;
+      }
+      for (Role role : values()) {
+        if (role.parameter.equals(parameter.toString())) {
+          return role;
+        }
+      }
+      throw new ServiceBrokerInvalidParametersException("Unknown binding role: " + parameter);
+    }
+
+  }
+
+  private final PlanProfiles profiles;
+  private final String analyticsReadPreference;
+  private final String analyticsReadPreferenceTags;
+
+  @Autowired
+  public ConnectionOptions(PlanProfiles profiles,
+                           @Value("${broker.bindings.analytics.read-preference:secondaryPreferred}")
+                               String analyticsReadPreference,
+                           @Value("${broker.bindings.analytics.read-preference-tags:}")
+                               String analyticsReadPreferenceTags) {
+    this.profiles = profiles;
+    this.analyticsReadPreference = analyticsReadPreference;
+    this.analyticsReadPreferenceTags = analyticsReadPreferenceTags;
+  }
+
+  /**
+   * @return options for the default plans, for callers that are not managed by Spring
+   */
+  public static ConnectionOptions defaults() {
+    return new ConnectionOptions(PlanProfiles.defaults(), "secondaryPreferred", "");
+  }
+
+  /**
+   * @return the options of a connection string issued before, in their order, but for the replica set name,
+   * which the hosts the string is issued for decide
+   */
+  static Map<String, String> optionsOf(Object uri) {
+    Map<String, String> options = new LinkedHashMap<>();
+    int query = uri == null ? -1 : uri.toString().indexOf('?');
+    if (query < 0) {
+      return options;
+    }
+    for (String option : uri.toString().substring(query + 1).split("&")) {
+      int separator = option.indexOf('=');
+      if (separator > 0 && !"replicaSet".equals(option.substring(0, separator))) {
+        options.put(option.substring(0, separator), option.substring(separator + 1));
+      }
+    }
+    return options;
+  }
+
+  public Map<String, String> forBinding(String planId, Role role) {
+    ProvisioningProfile profile = profiles.forPlan(planId);
+    Map<String, String> options = new LinkedHashMap<>();
+    if (profile.getReadConcern() != null) {
+      options.put("readConcernLevel", profile.getReadConcern());
+    }
+    if (role == Role.ANALYTICS) {
+      options.put("readPreference", analyticsReadPreference);
+      if (!analyticsReadPreferenceTags.isEmpty()) {
+        // a tag set such as nodeType:ANALYTICS, which hidden members cannot match
+        options.put("readPreferenceTags", analyticsReadPreferenceTags);
+      }
+    } else if (profile.getWriteConcern() != null) {
+      options.put("w", profile.getWriteConcern());
+    }
+    return options;
+  }
+
+}
@@ -0,0 +1,307 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.mongodb.cache.MetadataCache;
+import org.springframework.cloud.servicebroker.mongodb.convert.LegacyDocumentMigration;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournalRecord;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournaledRepository;
+import org.springframework.cloud.servicebroker.mongodb.journal.MetadataArchive;
+import org.springframework.cloud.servicebroker.mongodb.journal.MetadataJournal;
+import org.springframework.cloud.servicebroker.mongodb.model.CredentialRotation;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstanceBinding;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceBindingRepository;
+import org.springframework.cloud.servicebroker.mongodb.throttle.TokenBucket;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Replaces the password of every binding user with a generated one, e.g. to move an existing fleet off a
+ * shared password. Bindings are streamed in instance id order and rotated one database at a time, several
+ * databases in parallel, within an {@code updateUser}-per-second budget shared by all of them. Each new
+ * password is saved to its binding right after its user is updated, through the metadata journal so that a
+ * binding write still waiting in the journal cannot overwrite it. The {@link CredentialRotation} checkpoint
+ * only moves past a database when it and every database before it are done, so an interrupted or failed
+ * rotation resumes where it stopped when started again.
+ * <p>
+ * The rotation is an outage for every bound application: Cloud Controller keeps handing out the credentials
+ * each binding was created with, so once its user's password is replaced an application can no longer open
+ * connections until it is unbound and bound again. It is only started when the operator confirms that.
+ */
+@Component
+public class CredentialRotator implements DisposableBean {
+
+  private Logger logger = LoggerFactory.getLogger(CredentialRotator.class);
+
+  private final BackendClusters clusters;
+  private final JournaledRepository<ServiceInstanceBinding> bindings;
+  private final MongoOperations operations;
+  private final LegacyDocumentMigration legacyDocuments;
+  private final int parallelism;
+  private final TokenBucket budget;
+  private final Executor executor;
+  private final LongSupplier clock;
+
+  private final AtomicBoolean running = new AtomicBoolean();
+
+  @Autowired
+  public CredentialRotator(BackendClusters clusters, MongoServiceInstanceBindingRepository bindingRepository,
+                           MetadataJournal journal, MetadataCache cache, MetadataArchive archive,
+                           MongoOperations operations, LegacyDocumentMigration legacyDocuments,
+                           @Value("${broker.rotation.parallelism:4}") int parallelism,
+                           @Value("${broker.rotation.users-per-second:50}") double usersPerSecond) {
+    // one more thread than the parallelism for the rotation that hands out the databases
+    this(clusters, new JournaledRepository<>(journal, cache, archive, JournalRecord.Kind.SERVICE_INSTANCE_BINDING,
+        bindingRepository), operations, legacyDocuments, parallelism, usersPerSecond,
+        Executors.newFixedThreadPool(parallelism + 1, runnable -> {
+          Thread thread = new Thread(runnable, "credential-rotator");
+          thread.setDaemon(true);
+          return thread;
+        }), System::nanoTime);
+  }
+
+  CredentialRotator(MongoAdminService mongo, JournaledRepository<ServiceInstanceBinding> bindings,
+                    MongoOperations operations, LegacyDocumentMigration legacyDocuments, int parallelism,
+                    double usersPerSecond, Executor executor, LongSupplier clock) {
+    this(BackendClusters.single(mongo), bindings, operations, legacyDocuments, parallelism, usersPerSecond,
+        executor, clock);
+  }
+
+  CredentialRotator(BackendClusters clusters, JournaledRepository<ServiceInstanceBinding> bindings,
+                    MongoOperations operations, LegacyDocumentMigration legacyDocuments, int parallelism,
+                    double usersPerSecond, Executor executor, LongSupplier clock) {
+    this.clusters = clusters;
+    this.bindings = bindings;
+    this.operations = operations;
+    this.legacyDocuments = legacyDocuments;
+    this.parallelism = parallelism;
+    this.budget = new TokenBucket((int) Math.max(1, Math.round(usersPerSecond * 60)),
+        (int) Math.max(1, Math.floor(usersPerSecond)), clock.getAsLong());
+    this.executor = executor;
+    this.clock = clock;
+  }
+
+  /**
+   * Start rotating in the background, resuming the last rotation unless it completed.
+   * @return false if a rotation is already running
+   * @throws ServiceBrokerException while metadata documents in the old form are left
+   */
+  public boolean start() {
+    if (!legacyDocuments.isDone()) {
+      // bindings are streamed in the order of the compact name of their instance field, old documents lack it
+      throw new ServiceBrokerException(
+          "Metadata documents are still being rewritten in the compact form, rotate once that is done");
+    }
+    if (!running.compareAndSet(false, true)) {
+      return false;
+    }
+    try {
+      CredentialRotation previous = getStatus();
+      CredentialRotation rotation = previous == null || previous.getState() == CredentialRotation.State.COMPLETED
+          ? new CredentialRotation(System.currentTimeMillis())
+          : previous.withState(CredentialRotation.State.RUNNING, System.currentTimeMillis());
+      operations.save(rotation);
+      executor.execute(() -> {
+        try {
+          rotate(rotation);
+        } finally {
+          running.set(false);
+        }
+      });
+      return true;
+    } catch (RuntimeException e) {
+      running.set(false);
+      throw e;
+    }
+  }
+
+  /**
+   * @return the progress of the current or last rotation, or null if there has been none
+   */
+  public CredentialRotation getStatus() {
+    return operations.findById(CredentialRotation.ID, CredentialRotation.class);
+  }
+
+  public boolean isRunning() {
+    return running.get();
+  }
+
+  void rotate(CredentialRotation rotation) {
+    Progress progress = new Progress(rotation);
+    Semaphore slots = new Semaphore(parallelism);
+    Query query = rotation.getCheckpoint() == null
+        ? new Query()
+        : query(where("serviceInstanceId").gt(rotation.getCheckpoint()));
+    query.with(new Sort(Sort.Direction.ASC, "serviceInstanceId"));
+
+    boolean interrupted = false;
+    try (CloseableIterator<ServiceInstanceBinding> bindings =
+             operations.stream(query, ServiceInstanceBinding.class)) {
+      List<ServiceInstanceBinding> database = new ArrayList<>();
+      while (bindings.hasNext()) {
+        ServiceInstanceBinding binding = bindings.next();
+        if (!database.isEmpty()
+            && !database.get(0).getServiceInstanceId().equals(binding.getServiceInstanceId())) {
+          submit(database, progress, slots);
+          database = new ArrayList<>();
+        }
+        database.add(binding);
+      }
+      if (!database.isEmpty()) {
+        submit(database, progress, slots);
+      }
+      // wait for the last databases
+      slots.acquire(parallelism);
+      slots.release(parallelism);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      interrupted = true;
+    } catch (RuntimeException e) {
+      logger.warn("Credential rotation stopped", e);
+      progress.stall();
+    }
+    progress.finish(interrupted);
+  }
+
+  @Override
+  public void destroy() {
+    if (executor instanceof ExecutorService) {
+      ((ExecutorService) executor).shutdownNow();
+    }
+  }
+
+  private void submit(List<ServiceInstanceBinding> database, Progress progress, Semaphore slots)
+      throws InterruptedException {
+    slots.acquire();
+    String serviceInstanceId = database.get(0).getServiceInstanceId();
+    progress.submitted(serviceInstanceId);
+    try {
+      executor.execute(() -> {
+        try {
+          progress.completed(serviceInstanceId, rotateDatabase(serviceInstanceId, database, progress));
+        } finally {
+          slots.release();
+        }
+      });
+    } catch (RuntimeException e) {
+      slots.release();
+      progress.completed(serviceInstanceId, false);
+      throw e;
+    }
+  }
+
+  /**
+   * Update the users of one database, saving the credentials of each binding once its user is updated. A user
+   * whose update or save fails stops the database.
+   * @return true if every binding of the database was rotated
+   */
+  private boolean rotateDatabase(String serviceInstanceId, List<ServiceInstanceBinding> database,
+                                 Progress progress) {
+    int done = 0;
+    int updated = 0;
+    try {
+      for (ServiceInstanceBinding streamed : database) {
+        // the stream does not see binding writes still waiting in the journal
+        ServiceInstanceBinding binding = bindings.findOne(streamed.getId());
+        if (binding == null) {
+          // unbound since the rotation read it
+          done++;
+          continue;
+        }
+        awaitBudget();
+        String password = Passwords.generate();
+        MongoAdminService mongo = clusters.admin(binding.getCluster());
+        mongo.updateUserPassword(binding.getDatabase(), binding.getId(), password);
+        save(binding, mongo, password);
+        done++;
+        updated++;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      logger.warn("Could not rotate the credentials of " + serviceInstanceId + ": " + e.getMessage());
+    }
+    progress.rotated.addAndGet(updated);
+    progress.failed.addAndGet(database.size() - done);
+    return done == database.size();
+  }
+
+  private void save(ServiceInstanceBinding binding, MongoAdminService mongo, String password) {
+    // other credentials, such as the collection prefix of a pooled instance, stay as they are, and so do
+    // options such as the read preference of an analytics binding
+    Map<String, Object> credentials = new HashMap<>(binding.getCredentials());
+    credentials.put("uri", mongo.getConnectionString(binding.getDatabase(), binding.getId(), password,
+        ConnectionOptions.optionsOf(binding.getCredentials().get("uri"))));
+    try {
+      bindings.save(new ServiceInstanceBinding(binding.getId(), binding.getServiceInstanceId(), credentials,
+          binding.getSyslogDrainUrl(), binding.getAppGuid())
+          .withDatabase(binding.getDatabase())
+          .withCluster(binding.getCluster()));
+    } catch (RuntimeException e) {
+      // the user has a new password, which is lost with the write
+      logger.error("Could not save the rotated credentials of binding " + binding.getId(), e);
+      throw e;
+    }
+  }
+
+  private void awaitBudget() throws InterruptedException {
+    long wait;
+    while ((wait = budget.tryAcquire(clock.getAsLong())) > 0) {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    }
+  }
+
+  /**
+   * Checkpoints the databases by their service instance id.
+   */
+  private class Progress extends OrderedCheckpoints {
+
+    private final CredentialRotation rotation;
+    private final AtomicLong rotated;
+    private final AtomicLong failed = new AtomicLong();
+
+    Progress(CredentialRotation rotation) {
+      super("credential rotation");
+      this.rotation = rotation;
+      this.rotated = new AtomicLong(rotation.getRotated());
+    }
+
+    @Override
+    protected void write(String checkpoint) {
+      operations.save(rotation.withProgress(checkpoint, rotated.get(), failed.get(), System.currentTimeMillis()));
+    }
+
+    @Override
+    protected void finished(boolean failed) {
+      rotation.withProgress(null, rotated.get(), this.failed.get(), System.currentTimeMillis());
+      rotation.withState(failed
+          ? CredentialRotation.State.FAILED : CredentialRotation.State.COMPLETED, System.currentTimeMillis());
+      operations.save(rotation);
+    }
+
+  }
+
+}
@@ -0,0 +1,71 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * The dashboard URL of each service instance: {@code broker.dashboard.base-url} followed by the instance's
+ * page and a token signed with {@code broker.dashboard.secret}. Whoever the platform shows the URL to can
+ * view that instance's dashboard without the broker's credentials, and no other instance's.
+ */
+@Component
+public class DashboardLinks {
+
+  private final String baseUrl;
+  private final SecretKeySpec key;
+
+  @Autowired
+  public DashboardLinks(@Value("${broker.dashboard.base-url:}") String baseUrl,
+                        @Value("${broker.dashboard.secret:${security.user.password:}}") String secret) {
+    this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    if (!this.baseUrl.isEmpty() && secret.isEmpty()) {
+      throw new IllegalArgumentException("broker.dashboard.secret is required for dashboard URLs");
+    }
+    this.key = secret.isEmpty() ? null : new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+  }
+
+  /**
+   * @return links that are never handed out, for callers that are not managed by Spring
+   */
+  public static DashboardLinks disabled() {
+    return new DashboardLinks("", "");
+  }
+
+  /**
+   * @return the dashboard URL of the instance, or null if no base URL is configured
+   */
+  public String urlFor(String serviceInstanceId) {
+    if (baseUrl.isEmpty()) {
+      return null;
+    }
+    return baseUrl + "/dashboard/instances/" + serviceInstanceId + "?token=" + token(serviceInstanceId);
+  }
+
+  public boolean isValid(String serviceInstanceId, String token) {
+    if (baseUrl.isEmpty() || token == null) {
+      return false;
+    }
+    return MessageDigest.isEqual(token(serviceInstanceId).getBytes(StandardCharsets.UTF_8),
+        token.getBytes(StandardCharsets.UTF_8));
+  }
+
+  String token(String serviceInstanceId) {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(key);
+      return Base64.getUrlEncoder().withoutPadding()
+          .encodeToString(mac.doFinal(serviceInstanceId.getBytes(StandardCharsets.UTF_8)));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
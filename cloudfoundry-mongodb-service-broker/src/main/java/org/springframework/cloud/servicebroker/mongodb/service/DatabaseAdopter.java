@@ -0,0 +1,338 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.model.Catalog;
+import org.springframework.cloud.servicebroker.model.Plan;
+import org.springframework.cloud.servicebroker.model.ServiceDefinition;
+import org.springframework.cloud.servicebroker.mongodb.config.PlanProfiles;
+import org.springframework.cloud.servicebroker.mongodb.model.Adoption;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstanceBinding;
+import org.springframework.cloud.servicebroker.mongodb.throttle.WorkClass;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Records databases that were provisioned by hand before the broker as service instances, without touching
+ * their data. The database listing of the backend is read in name order and handed out in batches, several in
+ * parallel. Each database named in the {@link AdoptionMapping} becomes an instance of the mapped org, space and
+ * plan, and each of its users a binding of that instance, so that unbinding drops the user and credential
+ * rotation reaches it. The bindings of a batch are written with one unordered bulk insert and the instances
+ * after them, so a batch interrupted in between is adopted again when the adoption resumes. Passwords are not
+ * known, so the adopted bindings carry no credentials until they are rotated.
+ * <p>
+ * The {@link Adoption} checkpoint only moves past a batch when it and every batch before it are done, so a
+ * failed adoption started again with the same mapping resumes where it stopped. A dry run matches the
+ * databases and users the same way and counts what would be adopted, without writing any records.
+ */
+@Component
+public class DatabaseAdopter implements DisposableBean {
+
+  private Logger logger = LoggerFactory.getLogger(DatabaseAdopter.class);
+
+  private final MongoAdminService mongo;
+  private final MongoOperations operations;
+  private final Catalog catalog;
+  private final PlanProfiles profiles;
+  private final DashboardLinks dashboards;
+  private final int parallelism;
+  private final int batchSize;
+  private final Executor executor;
+
+  private final AtomicBoolean running = new AtomicBoolean();
+
+  @Autowired
+  public DatabaseAdopter(MongoAdminService mongo, MongoOperations operations, Catalog catalog, PlanProfiles profiles,
+                         DashboardLinks dashboards,
+                         @Value("${broker.adoption.parallelism:4}") int parallelism,
+                         @Value("${broker.adoption.batch-size:100}") int batchSize) {
+    // one more thread than the parallelism for the adoption that hands out the batches
+    this(mongo, operations, catalog, profiles, dashboards, parallelism, batchSize,
+        Executors.newFixedThreadPool(parallelism + 1, runnable -> {
+          Thread thread = new Thread(runnable, "database-adopter");
+          thread.setDaemon(true);
+          return thread;
+        }));
+  }
+
+  DatabaseAdopter(MongoAdminService mongo, MongoOperations operations, Catalog catalog, PlanProfiles profiles,
+                  DashboardLinks dashboards, int parallelism, int batchSize, Executor executor) {
+    this.mongo = mongo;
+    this.operations = operations;
+    this.catalog = catalog;
+    this.profiles = profiles;
+    this.dashboards = dashboards;
+    this.parallelism = parallelism;
+    this.batchSize = batchSize;
+    this.executor = executor;
+  }
+
+  /**
+   * Start adopting in the background. The last adoption is resumed if it did not complete and was started
+   * with the same mapping and mode.
+   * @return false if an adoption is already running
+   * @throws IllegalArgumentException if the mapping is malformed
+   */
+  public boolean start(String mapping, boolean dryRun) {
+    AdoptionMapping parsed = AdoptionMapping.parse(mapping, getPlanIds(), profiles);
+    if (!running.compareAndSet(false, true)) {
+      return false;
+    }
+    try {
+      Adoption previous = getStatus();
+      Adoption adoption = previous == null || previous.getState() == Adoption.State.COMPLETED
+          || previous.isDryRun() != dryRun || !previous.getMappingDigest().equals(parsed.getDigest())
+          ? new Adoption(parsed.getDigest(), dryRun, System.currentTimeMillis())
+          : previous.withState(Adoption.State.RUNNING, System.currentTimeMillis());
+      operations.save(adoption);
+      executor.execute(() -> {
+        try {
+          adopt(adoption, parsed);
+        } finally {
+          running.set(false);
+        }
+      });
+      return true;
+    } catch (RuntimeException e) {
+      running.set(false);
+      throw e;
+    }
+  }
+
+  /**
+   * @return the progress of the current or last adoption, or null if there has been none
+   */
+  public Adoption getStatus() {
+    return operations.findById(Adoption.ID, Adoption.class);
+  }
+
+  public boolean isRunning() {
+    return running.get();
+  }
+
+  void adopt(Adoption adoption, AdoptionMapping mapping) {
+    Progress progress = new Progress(adoption);
+    Semaphore slots = new Semaphore(parallelism);
+    boolean interrupted = false;
+    try (WorkClass.Scope work = WorkClass.BACKGROUND.enter()) {
+      List<String> databases = mongo.getDatabaseNames();
+      Set<String> missing = new HashSet<>(mapping.getDatabases());
+      missing.removeAll(databases);
+      progress.missing(missing.size());
+
+      List<String> batch = new ArrayList<>();
+      for (String database : databases) {
+        if (adoption.getCheckpoint() != null && database.compareTo(adoption.getCheckpoint()) <= 0) {
+          continue;
+        }
+        batch.add(database);
+        if (batch.size() == batchSize) {
+          submit(batch, mapping, progress, slots);
+          batch = new ArrayList<>();
+        }
+      }
+      if (!batch.isEmpty()) {
+        submit(batch, mapping, progress, slots);
+      }
+      // wait for the last batches
+      slots.acquire(parallelism);
+      slots.release(parallelism);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      interrupted = true;
+    } catch (RuntimeException e) {
+      logger.warn("Adoption stopped", e);
+      progress.stall();
+    }
+    progress.finish(interrupted);
+  }
+
+  @Override
+  public void destroy() {
+    if (executor instanceof ExecutorService) {
+      ((ExecutorService) executor).shutdownNow();
+    }
+  }
+
+  private void submit(List<String> batch, AdoptionMapping mapping, Progress progress, Semaphore slots)
+      throws InterruptedException {
+    slots.acquire();
+    String last = batch.get(batch.size() - 1);
+    progress.submitted(last);
+    try {
+      executor.execute(() -> {
+        try (WorkClass.Scope work = WorkClass.BACKGROUND.enter()) {
+          progress.completed(last, adoptBatch(batch, mapping, progress));
+        } finally {
+          slots.release();
+        }
+      });
+    } catch (RuntimeException e) {
+      slots.release();
+      progress.completed(last, false);
+      throw e;
+    }
+  }
+
+  /**
+   * Match a batch of databases against the mapping and write the records of the ones to adopt.
+   * @return true if every mapped database of the batch was adopted or already had an instance
+   */
+  private boolean adoptBatch(List<String> batch, AdoptionMapping mapping, Progress progress) {
+    List<String> mapped = new ArrayList<>();
+    for (String database : batch) {
+      if (mapping.get(database) == null) {
+        progress.unmapped.incrementAndGet();
+      } else {
+        mapped.add(database);
+      }
+    }
+    if (mapped.isEmpty()) {
+      return true;
+    }
+    try {
+      Set<String> existing = new HashSet<>();
+      for (ServiceInstance instance : operations.find(query(where("_id").in(mapped)), ServiceInstance.class)) {
+        existing.add(instance.getServiceInstanceId());
+      }
+      progress.existing.addAndGet(existing.size());
+
+      Map<String, List<String>> users = new LinkedHashMap<>();
+      Set<String> userNames = new HashSet<>();
+      for (String database : mapped) {
+        if (!existing.contains(database)) {
+          users.put(database, mongo.getUserNames(database));
+          userNames.addAll(users.get(database));
+        }
+      }
+      if (users.isEmpty()) {
+        return true;
+      }
+      // binding ids are global, a user name taken by a binding of another instance cannot be adopted
+      Map<String, String> bound = new HashMap<>();
+      for (ServiceInstanceBinding binding : operations.find(query(where("_id").in(userNames)),
+          ServiceInstanceBinding.class)) {
+        bound.put(binding.getId(), binding.getServiceInstanceId());
+      }
+
+      String serviceDefinitionId = catalog.getServiceDefinitions().get(0).getId();
+      List<ServiceInstance> instances = new ArrayList<>();
+      List<ServiceInstanceBinding> bindings = new ArrayList<>();
+      long conflicting = 0;
+      for (Map.Entry<String, List<String>> database : users.entrySet()) {
+        String id = database.getKey();
+        AdoptionMapping.Entry entry = mapping.get(id);
+        instances.add(new ServiceInstance(id, serviceDefinitionId, entry.getPlanId(), entry.getOrganizationGuid(),
+            entry.getSpaceGuid(), dashboards.urlFor(id)));
+        for (String user : database.getValue()) {
+          String boundTo = bound.putIfAbsent(user, id);
+          if (boundTo == null) {
+            bindings.add(new ServiceInstanceBinding(user, id, new HashMap<>(), null, null));
+          } else if (!boundTo.equals(id)) {
+            logger.warn("User {} of database {} is already bound to {}, not adopted", user, id, boundTo);
+            conflicting++;
+          }
+        }
+      }
+
+      if (!progress.adoption.isDryRun()) {
+        if (!bindings.isEmpty()) {
+          BulkOperations bulk = operations.bulkOps(BulkOperations.BulkMode.UNORDERED, ServiceInstanceBinding.class);
+          bulk.insert(bindings);
+          bulk.execute();
+        }
+        BulkOperations bulk = operations.bulkOps(BulkOperations.BulkMode.UNORDERED, ServiceInstance.class);
+        bulk.insert(instances);
+        bulk.execute();
+      }
+      progress.adopted.addAndGet(instances.size());
+      progress.bindings.addAndGet(bindings.size());
+      progress.conflicting.addAndGet(conflicting);
+      return true;
+    } catch (RuntimeException e) {
+      logger.warn("Could not adopt the databases " + mapped.get(0) + " to " + mapped.get(mapped.size() - 1)
+          + ": " + e.getMessage());
+      progress.failed.addAndGet(mapped.size());
+      return false;
+    }
+  }
+
+  private Set<String> getPlanIds() {
+    Set<String> planIds = new HashSet<>();
+    for (ServiceDefinition service : catalog.getServiceDefinitions()) {
+      for (Plan plan : service.getPlans()) {
+        planIds.add(plan.getId());
+      }
+    }
+    return planIds;
+  }
+
+  /**
+   * Checkpoints the batches by their last database.
+   */
+  private class Progress extends OrderedCheckpoints {
+
+    private final Adoption adoption;
+    private final AtomicLong adopted;
+    private final AtomicLong bindings;
+    private final AtomicLong conflicting;
+    private final AtomicLong existing;
+    private final AtomicLong unmapped;
+    private final AtomicLong failed = new AtomicLong();
+
+    Progress(Adoption adoption) {
+      super("adoption");
+      this.adoption = adoption;
+      this.adopted = new AtomicLong(adoption.getAdopted());
+      this.bindings = new AtomicLong(adoption.getBindings());
+      this.conflicting = new AtomicLong(adoption.getConflictingUsers());
+      this.existing = new AtomicLong(adoption.getExisting());
+      this.unmapped = new AtomicLong(adoption.getUnmapped());
+    }
+
+    synchronized void missing(long missing) {
+      adoption.withMissing(missing);
+    }
+
+    @Override
+    protected void write(String checkpoint) {
+      operations.save(adoption.withProgress(checkpoint, adopted.get(), bindings.get(), conflicting.get(),
+          existing.get(), unmapped.get(), failed.get(), System.currentTimeMillis()));
+    }
+
+    @Override
+    protected void finished(boolean failed) {
+      adoption.withProgress(null, adopted.get(), bindings.get(), conflicting.get(), existing.get(), unmapped.get(),
+          this.failed.get(), System.currentTimeMillis());
+      adoption.withState(failed ? Adoption.State.FAILED : Adoption.State.COMPLETED, System.currentTimeMillis());
+      operations.save(adoption);
+      logger.info("Adoption {}: {} databases adopted with {} bindings, {} already instances, {} unmapped, "
+          + "{} missing, {} failed{}", adoption.getState(), adopted.get(), bindings.get(), existing.get(),
+          unmapped.get(), adoption.getMissing(), this.failed.get(), adoption.isDryRun() ? " (dry run)" : "");
+    }
+
+  }
+
+}
@@ -0,0 +1,385 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.exception.ServiceInstanceDoesNotExistException;
+import org.springframework.cloud.servicebroker.mongodb.cache.MetadataCache;
+import org.springframework.cloud.servicebroker.mongodb.config.PlanProfiles;
+import org.springframework.cloud.servicebroker.mongodb.coordination.LeaseManager;
+import org.springframework.cloud.servicebroker.mongodb.exception.OperationInProgressException;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournalRecord;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournaledRepository;
+import org.springframework.cloud.servicebroker.mongodb.journal.MetadataArchive;
+import org.springframework.cloud.servicebroker.mongodb.journal.MetadataJournal;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceRepository;
+import org.springframework.cloud.servicebroker.mongodb.snapshot.SnapshotManifest;
+import org.springframework.cloud.servicebroker.mongodb.snapshot.SnapshotStore;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.Aggregate;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.CapacitySampler;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.Metric;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.MetricSeries;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.TelemetryStore;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.LongSupplier;
+
+/**
+ * Hibernates service instances that have gone without reads and writes for as long as their plan allows:
+ * the database is archived as a snapshot, the instance is marked as hibernated and the database is dropped,
+ * freeing the backend's cache and files. Plans only hibernate when they set a period. The next bind or an
+ * explicit wake restores the archive.
+ * <p>
+ * An application that reconnected to a dropped database would write to a new, empty one that the archive is
+ * then restored on top of, so the roles of the database's users are revoked before the last check for
+ * writes, and only given back when the instance wakes. The users themselves are kept, so bindings need no new
+ * credentials, but until the instance wakes, bound applications fail to authorize.
+ * <p>
+ * The archive is then the only copy of the data, so nothing is hibernated unless the {@link SnapshotStore}
+ * is durable, a persistent volume every broker node mounts; a container's own disk is lost on restage and
+ * is not seen by the other nodes. Archives of instances already hibernated are still woken either way.
+ * <p>
+ * Idleness is judged from the operation rates the {@link CapacitySampler} records. An instance has to be
+ * seen idle for the plan's whole period by the leading node, so a new leader starts counting afresh. Those
+ * rates are sampled on the primary, so instances with read-only users, e.g. of analytics bindings reading
+ * from secondaries, are only hibernated on request.
+ */
+@Component
+public class Hibernator implements DisposableBean {
+
+  static final String JOB = "hibernator";
+
+  private Logger logger = LoggerFactory.getLogger(Hibernator.class);
+
+  private final MongoAdminService mongo;
+  private final JournaledRepository<ServiceInstance> repository;
+  private final SnapshotService snapshots;
+  private final SnapshotStore store;
+  private final TelemetryStore telemetry;
+  private final PlanProfiles profiles;
+  private final OperationTracker operations;
+  private final LeaseManager leases;
+  private final Executor executor;
+  private final LongSupplier clock;
+  private final boolean enabled;
+  private final boolean archivable;
+
+  // when each instance was first seen idle, and when the last check ran; only touched by the scheduling thread
+  private final Map<String, Long> idleSince = new HashMap<>();
+  private long lastChecked;
+
+  @Autowired
+  public Hibernator(MongoAdminService mongo, MongoServiceInstanceRepository repository, MetadataJournal journal,
+                    MetadataCache cache, MetadataArchive archive, SnapshotService snapshots, SnapshotStore store, TelemetryStore telemetry,
+                    PlanProfiles profiles, OperationTracker operations, LeaseManager leases,
+                    @Value("${broker.hibernation.enabled:true}") boolean enabled) {
+    this(mongo, new JournaledRepository<>(journal, cache, archive, JournalRecord.Kind.SERVICE_INSTANCE, repository),
+        snapshots, store, telemetry, profiles, operations, leases,
+        Executors.newSingleThreadExecutor(runnable -> {
+          Thread thread = new Thread(runnable, "hibernator");
+          thread.setDaemon(true);
+          return thread;
+        }), System::currentTimeMillis, enabled);
+  }
+
+  Hibernator(MongoAdminService mongo, JournaledRepository<ServiceInstance> repository, SnapshotService snapshots,
+             SnapshotStore store, TelemetryStore telemetry, PlanProfiles profiles, OperationTracker operations,
+             LeaseManager leases, Executor executor, LongSupplier clock, boolean enabled) {
+    this.mongo = mongo;
+    this.repository = repository;
+    this.snapshots = snapshots;
+    this.store = store;
+    this.telemetry = telemetry;
+    this.profiles = profiles;
+    this.operations = operations;
+    this.leases = leases;
+    this.executor = executor;
+    this.clock = clock;
+    this.enabled = enabled;
+    this.archivable = store != null && store.isDurable();
+    if (enabled && !archivable) {
+      logger.warn("Not hibernating: broker.snapshot.directory " + store.getDirectory()
+          + " is not declared durable (broker.snapshot.durable) or is not an existing absolute path");
+    }
+  }
+
+  /**
+   * @return a hibernator that never hibernates anything, for callers that are not managed by Spring
+   */
+  public static Hibernator disabled() {
+    return new Hibernator(null, null, null, null, null, null, null, null, Runnable::run,
+        System::currentTimeMillis, false);
+  }
+
+  /**
+   * Hibernate the instances that have been idle for longer than their plan allows, one at a time.
+   */
+  @Scheduled(initialDelayString = "${broker.hibernation.check-interval-millis:300000}",
+      fixedDelayString = "${broker.hibernation.check-interval-millis:300000}")
+  public void check() {
+    if (!enabled || !archivable || !leases.isLeader(JOB)) {
+      idleSince.clear();
+      lastChecked = 0;
+      return;
+    }
+    long now = clock.getAsLong();
+    long from = lastChecked;
+    lastChecked = now;
+    if (from == 0) {
+      // nothing to compare with on the first check
+      return;
+    }
+    idleSince.keySet().retainAll(telemetry.getServiceInstanceIds());
+    for (String id : telemetry.getServiceInstanceIds()) {
+      if (!isIdle(telemetry.getSeries(id), from, now)) {
+        idleSince.remove(id);
+        continue;
+      }
+      long since = idleSince.computeIfAbsent(id, key -> from);
+      ServiceInstance instance = repository.findOne(id);
+      if (instance == null || instance.isPooled() || instance.isHibernated() || instance.getCluster() != null
+          || isSharded(instance)) {
+        continue;
+      }
+      long after = profiles.forPlan(instance.getPlanId()).getHibernateAfterMillis();
+      if (after > 0 && now - since >= after && !operations.isInProgress(id)) {
+        idleSince.remove(id);
+        executor.execute(() -> hibernate(instance, true));
+      }
+    }
+  }
+
+  /**
+   * Archives are restored into unsharded collections outside the plan's zone.
+   */
+  private boolean isSharded(ServiceInstance instance) {
+    return profiles.forPlan(instance.getPlanId()).isSharded();
+  }
+
+  private static boolean isIdle(MetricSeries series, long from, long to) {
+    return series != null
+        && series.aggregate(Metric.READ_OPS, from, to, Aggregate.MAX) == 0
+        && series.aggregate(Metric.WRITE_OPS, from, to, Aggregate.MAX) == 0;
+  }
+
+  /**
+   * Start hibernating an instance regardless of its activity.
+   */
+  public void startHibernate(String serviceInstanceId) {
+    ServiceInstance instance = repository.findOne(serviceInstanceId);
+    if (instance == null) {
+      throw new ServiceInstanceDoesNotExistException(serviceInstanceId);
+    }
+    if (instance.isPooled()) {
+      throw new ServiceBrokerException("Instances of pooled plans cannot be hibernated: " + serviceInstanceId);
+    }
+    if (isSharded(instance)) {
+      throw new ServiceBrokerException("Instances of sharded plans cannot be hibernated: " + serviceInstanceId);
+    }
+    if (!archivable) {
+      throw new ServiceBrokerException("Instances are not hibernated without a durable snapshot directory "
+          + "shared by the broker nodes, see broker.snapshot.durable");
+    }
+    if (instance.getCluster() != null) {
+      // archives are taken from the default cluster
+      throw new ServiceBrokerException("Service instance " + serviceInstanceId + " is on cluster "
+          + instance.getCluster() + " and cannot be hibernated");
+    }
+    if (operations.isInProgress(serviceInstanceId)) {
+      throw new OperationInProgressException(serviceInstanceId);
+    }
+    if (!instance.isHibernated()) {
+      executor.execute(() -> hibernate(instance));
+    }
+  }
+
+  /**
+   * Archive the database, record the archive and then drop the database. The archive is discarded if the
+   * instance was written to while it was taken.
+   */
+  void hibernate(ServiceInstance instance) {
+    hibernate(instance, false);
+  }
+
+  private void hibernate(ServiceInstance instance, boolean idle) {
+    String id = instance.getServiceInstanceId();
+    if (!archivable || isSharded(instance) || !operations.start(id, "Hibernating")) {
+      return;
+    }
+    SnapshotManifest manifest = null;
+    Map<String, List<String>> revoked = null;
+    try {
+      Map<String, List<String>> roles = getUserRoles(id);
+      if (idle && roles.values().stream().anyMatch(Hibernator::isReadOnly)) {
+        operations.succeed(id, "Not hibernated, read-only users may be reading from secondaries");
+        return;
+      }
+      long writes = writeCount(id);
+      manifest = store.create(id, clock.getAsLong());
+      snapshots.snapshot(manifest);
+      operations.checkLock(id);
+      revoked = roles;
+      revokeRoles(id, roles);
+      if (writeCount(id) != writes) {
+        revoked = null;
+        restoreRoles(id, roles);
+        discard(id, manifest.getId());
+        operations.succeed(id, "Not hibernated, the instance is in use");
+        return;
+      }
+      repository.save(instance.withHibernation(manifest.getId(), clock.getAsLong()).withHibernatedRoles(roles));
+      manifest = null;
+      revoked = null;
+      BackendRetry.run(() -> mongo.deleteDatabase(id));
+      logger.info("Hibernated idle service instance " + id);
+      operations.succeed(id, "Hibernated");
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Could not hibernate " + id, e);
+      if (revoked != null) {
+        restoreRoles(id, revoked);
+      }
+      if (manifest != null) {
+        discard(id, manifest.getId());
+      }
+      operations.fail(id, "Hibernation failed: " + e.getMessage());
+    }
+  }
+
+  private Map<String, List<String>> getUserRoles(String serviceInstanceId) {
+    Map<String, List<String>> roles = new LinkedHashMap<>();
+    for (String user : mongo.getUserNames(serviceInstanceId)) {
+      roles.put(user, mongo.getUserRoles(serviceInstanceId, user));
+    }
+    return roles;
+  }
+
+  private static boolean isReadOnly(List<String> roles) {
+    return !roles.isEmpty() && roles.stream().allMatch("read"::equals);
+  }
+
+  private void revokeRoles(String serviceInstanceId, Map<String, List<String>> roles) {
+    for (String user : roles.keySet()) {
+      BackendRetry.run(() -> mongo.setUserRoles(serviceInstanceId, user, Collections.emptyList()));
+    }
+  }
+
+  /**
+   * Give the users their roles back. Users that were dropped in the meantime, e.g. by an unbind, are skipped.
+   */
+  private void restoreRoles(String serviceInstanceId, Map<String, List<String>> roles) {
+    for (Map.Entry<String, List<String>> user : roles.entrySet()) {
+      try {
+        BackendRetry.run(() -> mongo.setUserRoles(serviceInstanceId, user.getKey(), user.getValue()));
+      } catch (RuntimeException e) {
+        logger.error("Could not give user " + user.getKey() + " of " + serviceInstanceId + " its roles back", e);
+      }
+    }
+  }
+
+  /**
+   * @return the cumulative writes to the database since the server started
+   */
+  private long writeCount(String serviceInstanceId) {
+    long[] counts = CapacitySampler.readOpCounters(mongo.getTop()).get(serviceInstanceId);
+    return counts == null ? 0 : counts[1];
+  }
+
+  /**
+   * Restore a hibernated instance in the background.
+   */
+  public void startWake(String serviceInstanceId) {
+    ServiceInstance instance = repository.findOne(serviceInstanceId);
+    if (instance == null) {
+      throw new ServiceInstanceDoesNotExistException(serviceInstanceId);
+    }
+    if (!instance.isHibernated()) {
+      return;
+    }
+    if (isSharded(instance)) {
+      throw new ServiceBrokerException("Service instance " + instance.getServiceInstanceId()
+          + " of a sharded plan cannot be restored from its archive");
+    }
+    if (!operations.start(serviceInstanceId, "Waking from hibernation")) {
+      throw new OperationInProgressException(serviceInstanceId);
+    }
+    executor.execute(() -> {
+      try {
+        restore(instance);
+      } catch (ServiceBrokerException ignore) {
+        // reported as the last operation
+      }
+    });
+  }
+
+  /**
+   * Restore a hibernated instance before it is used, e.g. by a new binding.
+   */
+  public void wake(ServiceInstance instance) {
+    if (!instance.isHibernated()) {
+      return;
+    }
+    if (!operations.start(instance.getServiceInstanceId(), "Waking from hibernation")) {
+      throw new OperationInProgressException(instance.getServiceInstanceId());
+    }
+    restore(instance);
+  }
+
+  private void restore(ServiceInstance instance) {
+    String id = instance.getServiceInstanceId();
+    try {
+      SnapshotManifest manifest = store.find(id, instance.getArchiveId());
+      if (manifest == null) {
+        throw new IOException("archive " + instance.getArchiveId() + " is missing from " + store.getDirectory());
+      }
+      snapshots.restore(manifest);
+      restoreRoles(id, instance.getHibernatedRoles());
+      repository.save(instance.withHibernation(null, 0).withHibernatedRoles(null));
+      discard(id, manifest.getId());
+      logger.info("Woke service instance " + id + " from hibernation");
+      operations.succeed(id, "Woken from hibernation");
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Could not wake " + id, e);
+      operations.fail(id, "Waking from hibernation failed: " + e.getMessage());
+      throw new ServiceBrokerException("Could not wake service instance " + id + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Delete the archive of a hibernated instance that is deprovisioned.
+   */
+  public void discard(ServiceInstance instance) {
+    if (instance.isHibernated()) {
+      discard(instance.getServiceInstanceId(), instance.getArchiveId());
+    }
+  }
+
+  private void discard(String serviceInstanceId, String archiveId) {
+    try {
+      store.delete(serviceInstanceId, archiveId);
+    } catch (IOException e) {
+      logger.warn("Could not delete archive " + archiveId + " of " + serviceInstanceId, e);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    if (executor instanceof ExecutorService) {
+      ((ExecutorService) executor).shutdownNow();
+    }
+  }
+
+}
@@ -0,0 +1,325 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.mongodb.config.PlanProfiles;
+import org.springframework.cloud.servicebroker.mongodb.coordination.LeaseManager;
+import org.springframework.cloud.servicebroker.mongodb.exception.MongoServiceException;
+import org.springframework.cloud.servicebroker.mongodb.model.IndexAdvice;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceRepository;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.Aggregate;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.Metric;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.MetricSeries;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.TelemetryStore;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Recommends indexes for the slow queries of instances whose plan asks for {@link IndexAdvice}. Their
+ * databases profile operations slower than {@code broker.index-advisor.slow-millis}; each check reads the
+ * profile entries recorded since the previous one and adds the queries that scanned far more documents
+ * than they returned to a model of {@link QueryShape query shapes}, ranked by the time they took.
+ * <p>
+ * In {@link IndexAdvice#AUTO_CREATE auto-create} mode the leading node also builds the top index an instance
+ * is missing, one per check and only while the backend runs well below its usual operation rate as recorded
+ * by the {@link TelemetryStore}. The model is kept in memory on every node, so a restarted node starts afresh.
+ */
+@Component
+public class IndexAdvisor {
+
+  static final String JOB = "index-advisor";
+
+  // a query that examined this many documents per document returned is worth an index
+  private static final int SCAN_RATIO = 10;
+
+  private Logger logger = LoggerFactory.getLogger(IndexAdvisor.class);
+
+  private final MongoAdminService mongo;
+  private final MongoServiceInstanceRepository repository;
+  private final PlanProfiles profiles;
+  private final TelemetryStore telemetry;
+  private final LeaseManager leases;
+  private final int slowMillis;
+  private final int batchSize;
+  private final int maxShapes;
+  private final int minOccurrences;
+  private final double lowLoadFraction;
+  private final LongSupplier clock;
+  private final boolean enabled;
+
+  private final Map<String, InstanceModel> models = new ConcurrentHashMap<>();
+
+  @Autowired
+  public IndexAdvisor(MongoAdminService mongo, MongoServiceInstanceRepository repository, PlanProfiles profiles,
+                      TelemetryStore telemetry, LeaseManager leases,
+                      @Value("${broker.index-advisor.slow-millis:100}") int slowMillis,
+                      @Value("${broker.index-advisor.batch-size:500}") int batchSize,
+                      @Value("${broker.index-advisor.max-shapes:100}") int maxShapes,
+                      @Value("${broker.index-advisor.min-occurrences:10}") int minOccurrences,
+                      @Value("${broker.index-advisor.low-load-fraction:0.5}") double lowLoadFraction,
+                      @Value("${broker.index-advisor.enabled:true}") boolean enabled) {
+    this(mongo, repository, profiles, telemetry, leases, slowMillis, batchSize, maxShapes, minOccurrences,
+        lowLoadFraction, System::currentTimeMillis, enabled);
+  }
+
+  IndexAdvisor(MongoAdminService mongo, MongoServiceInstanceRepository repository, PlanProfiles profiles,
+               TelemetryStore telemetry, LeaseManager leases, int slowMillis, int batchSize, int maxShapes,
+               int minOccurrences, double lowLoadFraction, LongSupplier clock, boolean enabled) {
+    this.mongo = mongo;
+    this.repository = repository;
+    this.profiles = profiles;
+    this.telemetry = telemetry;
+    this.leases = leases;
+    this.slowMillis = slowMillis;
+    this.batchSize = batchSize;
+    this.maxShapes = maxShapes;
+    this.minOccurrences = minOccurrences;
+    this.lowLoadFraction = lowLoadFraction;
+    this.clock = clock;
+    this.enabled = enabled;
+  }
+
+  @Scheduled(initialDelayString = "${broker.index-advisor.sample-interval-millis:600000}",
+      fixedDelayString = "${broker.index-advisor.sample-interval-millis:600000}")
+  public void check() {
+    if (!enabled) {
+      return;
+    }
+    Set<String> advised = new HashSet<>();
+    List<String> autoCreate = new ArrayList<>();
+    for (ServiceInstance instance : repository.findAll()) {
+      String id = instance.getServiceInstanceId();
+      IndexAdvice advice = profiles.forPlan(instance.getPlanId()).getIndexAdvice();
+      // pooled databases are shared, and the others are profiled where they live
+      if (advice == IndexAdvice.OFF || instance.isPooled() || instance.isHibernated()
+          || instance.getCluster() != null) {
+        stopProfiling(id);
+        continue;
+      }
+      advised.add(id);
+      try {
+        sample(id, models.computeIfAbsent(id, key -> new InstanceModel()));
+      } catch (MongoServiceException e) {
+        logger.warn("Could not sample the slow queries of " + id + ": " + e.getLocalizedMessage());
+        continue;
+      }
+      if (advice == IndexAdvice.AUTO_CREATE) {
+        autoCreate.add(id);
+      }
+    }
+    models.keySet().retainAll(advised);
+
+    if (!autoCreate.isEmpty() && leases.isLeader(JOB) && isLowLoad()) {
+      for (String id : autoCreate) {
+        try {
+          createTopIndex(id);
+        } catch (MongoServiceException e) {
+          logger.warn("Could not build the recommended index of " + id + ": " + e.getLocalizedMessage());
+        }
+      }
+    }
+  }
+
+  private void sample(String id, InstanceModel model) {
+    if (!model.profiling) {
+      mongo.setProfilingLevel(id, 1, slowMillis);
+      model.profiling = true;
+    }
+    List<Document> profiled;
+    do {
+      profiled = mongo.getProfiledOperations(id, model.sampledUntil, batchSize);
+      for (Document entry : profiled) {
+        model.sampledUntil = entry.getDate("ts");
+        QueryShape shape = QueryShape.of(entry);
+        if (shape != null && isUnindexed(entry)) {
+          model.record(shape, number(entry, "millis"), number(entry, "docsExamined"), returned(entry),
+              model.sampledUntil, maxShapes);
+        }
+      }
+    } while (profiled.size() == batchSize);
+  }
+
+  private void stopProfiling(String id) {
+    InstanceModel model = models.remove(id);
+    if (model != null && model.profiling) {
+      try {
+        mongo.setProfilingLevel(id, 0, slowMillis);
+      } catch (MongoServiceException e) {
+        logger.warn("Could not stop profiling " + id + ": " + e.getLocalizedMessage());
+      }
+    }
+  }
+
+  /**
+   * @return whether the latest operation rate of the backend is well below its 95th percentile of the last week
+   */
+  boolean isLowLoad() {
+    long now = clock.getAsLong();
+    MetricSeries server = telemetry.getServerSeries();
+    long latest = 0;
+    long usual = 0;
+    for (Metric metric : new Metric[] {Metric.READ_OPS, Metric.WRITE_OPS}) {
+      long value = server.aggregate(metric, now - TimeUnit.HOURS.toMillis(1), now, Aggregate.LATEST);
+      long p95 = server.percentile(metric, now - TimeUnit.DAYS.toMillis(7), now, 0.95);
+      if (value < 0 || p95 < 0) {
+        // nothing to judge by yet
+        return false;
+      }
+      latest += value;
+      usual += p95;
+    }
+    return latest <= usual * lowLoadFraction;
+  }
+
+  private void createTopIndex(String id) {
+    InstanceModel model = models.get(id);
+    for (IndexRecommendation recommendation : getRecommendations(id)) {
+      if (recommendation.isExisting() || recommendation.getOccurrences() < minOccurrences) {
+        continue;
+      }
+      QueryShape shape = recommendation.getShape();
+      logger.info("Building index {} recommended for {} after {} slow queries taking {} ms",
+          shape, id, recommendation.getOccurrences(), recommendation.getTotalMillis());
+      mongo.createIndexes(id, shape.getCollection(), Collections.singletonList(
+          new Document("key", shape.getKeys()).append("name", shape.getIndexName()).append("background", true)));
+      model.markCreated(shape);
+      return;
+    }
+  }
+
+  /**
+   * @return the recommendations for the instance, the costliest query shape first, or null if the instance
+   * is not advised
+   */
+  public List<IndexRecommendation> getRecommendations(String instanceId) {
+    return recommend(instanceId, true);
+  }
+
+  /**
+   * @return the slow query shapes profiled for the instance, costliest first, from memory alone; whether an
+   * index already serves them is not checked. Null if the instance is not advised.
+   */
+  public List<IndexRecommendation> getSlowQueries(String instanceId) {
+    return recommend(instanceId, false);
+  }
+
+  private List<IndexRecommendation> recommend(String instanceId, boolean checkIndexes) {
+    InstanceModel model = models.get(instanceId);
+    if (model == null) {
+      return null;
+    }
+    List<IndexRecommendation> recommendations = new ArrayList<>();
+    Map<String, List<Document>> indexes = new HashMap<>();
+    for (Map.Entry<QueryShape, ShapeStats> entry : model.snapshot().entrySet()) {
+      QueryShape shape = entry.getKey();
+      ShapeStats stats = entry.getValue();
+      boolean served = checkIndexes && indexes.computeIfAbsent(shape.getCollection(),
+          collection -> mongo.listIndexes(instanceId, collection)).stream()
+          .anyMatch(index -> shape.isServedBy((Document) index.get("key")));
+      recommendations.add(new IndexRecommendation(shape, stats.count, stats.totalMillis,
+          (double) stats.docsExamined / Math.max(1, stats.returned), stats.lastSeen, served, stats.created));
+    }
+    recommendations.sort(Comparator.comparingLong(IndexRecommendation::getTotalMillis).reversed());
+    return recommendations;
+  }
+
+  private static boolean isUnindexed(Document profiled) {
+    Object plan = profiled.get("planSummary");
+    return (plan != null && plan.toString().startsWith("COLLSCAN"))
+        || number(profiled, "docsExamined") > SCAN_RATIO * Math.max(1, returned(profiled));
+  }
+
+  private static long returned(Document profiled) {
+    return Math.max(number(profiled, "nreturned"),
+        Math.max(number(profiled, "nMatched"), number(profiled, "ndeleted")));
+  }
+
+  private static long number(Document document, String key) {
+    Object value = document.get(key);
+    return value instanceof Number ? ((Number) value).longValue() : 0;
+  }
+
+  private static final class ShapeStats {
+    private long count;
+    private long totalMillis;
+    private long docsExamined;
+    private long returned;
+    private Date lastSeen;
+    private boolean created;
+
+    private ShapeStats copy() {
+      ShapeStats copy = new ShapeStats();
+      copy.count = count;
+      copy.totalMillis = totalMillis;
+      copy.docsExamined = docsExamined;
+      copy.returned = returned;
+      copy.lastSeen = lastSeen;
+      copy.created = created;
+      return copy;
+    }
+  }
+
+  /**
+   * The query shapes of one instance; written by the scheduling thread, read by the admin API.
+   */
+  private static final class InstanceModel {
+
+    private boolean profiling;
+    private Date sampledUntil = new Date(0);
+    private final Map<QueryShape, ShapeStats> shapes = new HashMap<>();
+
+    synchronized void record(QueryShape shape, long millis, long docsExamined, long returned, Date seen,
+                             int maxShapes) {
+      ShapeStats stats = shapes.get(shape);
+      if (stats == null) {
+        if (shapes.size() >= maxShapes) {
+          // make room by forgetting the cheapest shape
+          QueryShape cheapest = Collections.min(shapes.entrySet(),
+              Comparator.comparingLong(entry -> entry.getValue().totalMillis)).getKey();
+          shapes.remove(cheapest);
+        }
+        stats = new ShapeStats();
+        shapes.put(shape, stats);
+      }
+      stats.count++;
+      stats.totalMillis += millis;
+      stats.docsExamined += docsExamined;
+      stats.returned += returned;
+      stats.lastSeen = seen;
+    }
+
+    synchronized void markCreated(QueryShape shape) {
+      ShapeStats stats = shapes.get(shape);
+      if (stats != null) {
+        stats.created = true;
+      }
+    }
+
+    synchronized Map<QueryShape, ShapeStats> snapshot() {
+      Map<QueryShape, ShapeStats> snapshot = new HashMap<>();
+      for (Map.Entry<QueryShape, ShapeStats> entry : shapes.entrySet()) {
+        snapshot.put(entry.getKey(), entry.getValue().copy());
+      }
+      return snapshot;
+    }
+
+  }
+
+}
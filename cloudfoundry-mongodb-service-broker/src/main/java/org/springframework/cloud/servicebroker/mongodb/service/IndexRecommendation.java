@@ -0,0 +1,81 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.bson.Document;
+
+import java.util.Date;
+
+/**
+ * An index the {@link IndexAdvisor} recommends for one shape of slow queries on an instance, with what
+ * the profiler saw of those queries.
+ */
+public class IndexRecommendation {
+
+  private final QueryShape shape;
+  private final long occurrences;
+  private final long totalMillis;
+  private final double docsExaminedPerReturned;
+  private final Date lastSeen;
+  private final boolean existing;
+  private final boolean created;
+
+  IndexRecommendation(QueryShape shape, long occurrences, long totalMillis, double docsExaminedPerReturned,
+                      Date lastSeen, boolean existing, boolean created) {
+    this.shape = shape;
+    this.occurrences = occurrences;
+    this.totalMillis = totalMillis;
+    this.docsExaminedPerReturned = docsExaminedPerReturned;
+    this.lastSeen = lastSeen;
+    this.existing = existing;
+    this.created = created;
+  }
+
+  QueryShape getShape() {
+    return shape;
+  }
+
+  public String getCollection() {
+    return shape.getCollection();
+  }
+
+  public Document getKeys() {
+    return shape.getKeys();
+  }
+
+  /**
+   * @return how many slow queries of the shape were profiled
+   */
+  public long getOccurrences() {
+    return occurrences;
+  }
+
+  public long getTotalMillis() {
+    return totalMillis;
+  }
+
+  public long getMeanMillis() {
+    return occurrences == 0 ? 0 : totalMillis / occurrences;
+  }
+
+  public double getDocsExaminedPerReturned() {
+    return docsExaminedPerReturned;
+  }
+
+  public Date getLastSeen() {
+    return lastSeen;
+  }
+
+  /**
+   * @return whether an index serving the shape exists by now, e.g. because the tenant built it
+   */
+  public boolean isExisting() {
+    return existing;
+  }
+
+  /**
+   * @return whether the broker built the index in auto-create mode
+   */
+  public boolean isCreated() {
+    return created;
+  }
+
+}
@@ -0,0 +1,120 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.servicebroker.mongodb.cache.MetadataCache;
+import org.springframework.cloud.servicebroker.mongodb.config.PlanProfiles;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournalRecord;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournaledRepository;
+import org.springframework.cloud.servicebroker.mongodb.journal.MetadataJournal;
+import org.springframework.cloud.servicebroker.mongodb.model.ProvisioningProfile;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceRepository;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.Aggregate;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.Metric;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.MetricSeries;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.TelemetryStore;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * What the dashboard of a service instance shows: storage and operation rates from the {@link TelemetryStore},
+ * connections from the {@link ConnectionLimiter} and slow queries from the {@link IndexAdvisor}. All of it
+ * was sampled in the background, so a page view never reaches the backend.
+ */
+@Component
+public class InstanceDashboards {
+
+  private static final int SLOW_QUERIES = 10;
+
+  private final JournaledRepository<ServiceInstance> repository;
+  private final PlanProfiles profiles;
+  private final TelemetryStore telemetry;
+  private final ConnectionLimiter connections;
+  private final IndexAdvisor advisor;
+  private final LongSupplier clock;
+
+  @Autowired
+  public InstanceDashboards(MongoServiceInstanceRepository repository, MetadataJournal journal, MetadataCache cache,
+                            PlanProfiles profiles, TelemetryStore telemetry, ConnectionLimiter connections,
+                            IndexAdvisor advisor) {
+    this(new JournaledRepository<>(journal, cache, JournalRecord.Kind.SERVICE_INSTANCE, repository), profiles,
+        telemetry, connections, advisor, System::currentTimeMillis);
+  }
+
+  InstanceDashboards(JournaledRepository<ServiceInstance> repository, PlanProfiles profiles,
+                     TelemetryStore telemetry, ConnectionLimiter connections, IndexAdvisor advisor,
+                     LongSupplier clock) {
+    this.repository = repository;
+    this.profiles = profiles;
+    this.telemetry = telemetry;
+    this.connections = connections;
+    this.advisor = advisor;
+    this.clock = clock;
+  }
+
+  /**
+   * @return the dashboard data of the instance, or null if it does not exist
+   */
+  public Map<String, Object> get(String serviceInstanceId) {
+    ServiceInstance instance = repository.findOne(serviceInstanceId);
+    if (instance == null) {
+      return null;
+    }
+    ProvisioningProfile profile = profiles.forPlan(instance.getPlanId());
+    long now = clock.getAsLong();
+    long from = now - TimeUnit.DAYS.toMillis(1);
+    MetricSeries series = telemetry.getSeries(serviceInstanceId);
+
+    Map<String, Object> dashboard = new LinkedHashMap<>();
+    dashboard.put("serviceInstanceId", serviceInstanceId);
+    dashboard.put("plan", profile.getName());
+    dashboard.put("hibernated", instance.isHibernated());
+    dashboard.put("sampledAt", series == null ? null : series.getLatestMillis());
+
+    Map<String, Object> storage = new LinkedHashMap<>();
+    for (Metric metric : new Metric[] {Metric.DATA_SIZE, Metric.STORAGE_SIZE, Metric.INDEX_SIZE, Metric.OBJECTS}) {
+      storage.put(metric.name(), series == null ? null : series.aggregate(metric, from, now, Aggregate.LATEST));
+    }
+    dashboard.put("storage", storage);
+
+    Map<String, Object> operations = new LinkedHashMap<>();
+    for (Metric metric : new Metric[] {Metric.READ_OPS, Metric.WRITE_OPS}) {
+      Map<String, Object> rates = new LinkedHashMap<>();
+      for (Aggregate aggregate : new Aggregate[] {Aggregate.LATEST, Aggregate.MEAN, Aggregate.MAX}) {
+        rates.put(aggregate.name(), series == null ? null : series.aggregate(metric, from, now, aggregate));
+      }
+      operations.put(metric.name(), rates);
+    }
+    dashboard.put("operationsPerMinute", operations);
+
+    Map<String, Object> connected = new LinkedHashMap<>();
+    connected.put("current", connections.getInstanceConnections(serviceInstanceId));
+    connected.put("limitPerBinding", profile.getMaxConnections());
+    dashboard.put("connections", connected);
+
+    List<IndexRecommendation> profiled = advisor.getSlowQueries(serviceInstanceId);
+    List<Map<String, Object>> slowQueries = null;
+    if (profiled != null) {
+      slowQueries = new ArrayList<>();
+      for (IndexRecommendation query : profiled.subList(0, Math.min(SLOW_QUERIES, profiled.size()))) {
+        Map<String, Object> shape = new LinkedHashMap<>();
+        shape.put("collection", query.getCollection());
+        shape.put("suggestedIndex", query.getKeys());
+        shape.put("count", query.getOccurrences());
+        shape.put("meanMillis", query.getMeanMillis());
+        shape.put("lastSeen", query.getLastSeen());
+        slowQueries.add(shape);
+      }
+    }
+    // null where the plan does not profile slow queries
+    dashboard.put("slowQueries", slowQueries);
+    return dashboard;
+  }
+
+}
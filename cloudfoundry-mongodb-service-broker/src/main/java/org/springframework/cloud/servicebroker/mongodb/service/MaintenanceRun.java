@@ -0,0 +1,93 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import java.util.Date;
+
+/**
+ * One {@code compact} or {@code reIndex} the {@link MaintenanceScheduler} ran on a collection, with its
+ * storage and cache footprint before and after.
+ */
+public class MaintenanceRun {
+
+  private final String serviceInstanceId;
+  private final String collection;
+  private final String command;
+  private final Date startedAt;
+  private final long millis;
+  private final long storageBytesBefore;
+  private final long storageBytesAfter;
+  private final long cachedBytesBefore;
+  private final long cachedBytesAfter;
+  private final String error;
+
+  MaintenanceRun(String serviceInstanceId, String collection, String command, Date startedAt, long millis,
+                 long storageBytesBefore, long storageBytesAfter, long cachedBytesBefore, long cachedBytesAfter,
+                 String error) {
+    this.serviceInstanceId = serviceInstanceId;
+    this.collection = collection;
+    this.command = command;
+    this.startedAt = startedAt;
+    this.millis = millis;
+    this.storageBytesBefore = storageBytesBefore;
+    this.storageBytesAfter = storageBytesAfter;
+    this.cachedBytesBefore = cachedBytesBefore;
+    this.cachedBytesAfter = cachedBytesAfter;
+    this.error = error;
+  }
+
+  public String getServiceInstanceId() {
+    return serviceInstanceId;
+  }
+
+  public String getCollection() {
+    return collection;
+  }
+
+  /**
+   * @return {@code compact}, or {@code reIndex} when only the indexes were fragmented
+   */
+  public String getCommand() {
+    return command;
+  }
+
+  public Date getStartedAt() {
+    return startedAt;
+  }
+
+  public long getMillis() {
+    return millis;
+  }
+
+  /**
+   * @return the storage of the collection and its indexes before the run, in bytes
+   */
+  public long getStorageBytesBefore() {
+    return storageBytesBefore;
+  }
+
+  public long getStorageBytesAfter() {
+    return storageBytesAfter;
+  }
+
+  public long getReclaimedBytes() {
+    return Math.max(0, storageBytesBefore - storageBytesAfter);
+  }
+
+  /**
+   * @return the bytes of the collection and its indexes in the WiredTiger cache before the run
+   */
+  public long getCachedBytesBefore() {
+    return cachedBytesBefore;
+  }
+
+  public long getCachedBytesAfter() {
+    return cachedBytesAfter;
+  }
+
+  /**
+   * @return why the run failed, or null if it succeeded
+   */
+  public String getError() {
+    return error;
+  }
+
+}
@@ -0,0 +1,406 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.mongodb.config.PlanProfiles;
+import org.springframework.cloud.servicebroker.mongodb.coordination.LeaseManager;
+import org.springframework.cloud.servicebroker.mongodb.exception.MongoServiceException;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceRepository;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.Aggregate;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.Metric;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.MetricSeries;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.TelemetryStore;
+import org.springframework.cloud.servicebroker.mongodb.throttle.WorkClass;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Defragments the databases of instances that deletes have left full of free space, which wastes disk and
+ * spreads their data over more pages than the cache would otherwise need. Inside the configured
+ * {@link MaintenanceWindows} the leading node samples {@code collStats} of every instance and queues those
+ * with collections whose reusable space is a large enough part of their files, most space first. A fragmented
+ * collection is compacted, which rebuilds its indexes too; when only the indexes are fragmented they are
+ * rebuilt with {@code reIndex}. Both block the database while they run, so at most
+ * {@code broker.maintenance.parallelism} instances are maintained at once on each cluster, nothing is
+ * started once the window closes, and instances serving more operations than
+ * {@code broker.maintenance.max-ops-per-minute} are left for a quieter time.
+ * <p>
+ * Neither command is replicated, so both run on one replica set member after the other, secondaries first.
+ * The primary, where they would block the applications, is left out unless
+ * {@code broker.maintenance.include-primary} is set; its space is reclaimed once a rebuilt secondary takes
+ * over, and until then the reclaimed space reported from the primary's {@code collStats} is none.
+ * <p>
+ * Pooled databases are shared with other tenants and sharded databases can only be compacted shard by shard,
+ * so instances of those plans are left alone. The last runs are kept in memory with the space they reclaimed.
+ */
+@Component
+public class MaintenanceScheduler implements DisposableBean {
+
+  static final String JOB = "maintenance-scheduler";
+
+  private static final int MAX_RUNS = 100;
+
+  private Logger logger = LoggerFactory.getLogger(MaintenanceScheduler.class);
+
+  private final BackendClusters clusters;
+  private final MongoServiceInstanceRepository repository;
+  private final PlanProfiles profiles;
+  private final TelemetryStore telemetry;
+  private final LeaseManager leases;
+  private final MaintenanceWindows windows;
+  private final int parallelism;
+  private final double minReusableRatio;
+  private final long minReusableBytes;
+  private final long maxOpsPerMinute;
+  private final long minIntervalMillis;
+  private final long resampleIntervalMillis;
+  private final boolean includePrimary;
+  private final Executor executor;
+  private final LongSupplier clock;
+  private final boolean enabled;
+
+  // only changed by the scheduling thread, read by the admin API
+  private final Deque<Candidate> queue = new ConcurrentLinkedDeque<>();
+  private long sampledAt;
+
+  private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+  private final Map<String, Integer> inFlightPerCluster = new ConcurrentHashMap<>();
+  private final Map<String, Long> maintainedAt = new ConcurrentHashMap<>();
+  private final Deque<MaintenanceRun> runs = new ArrayDeque<>();
+  private final AtomicLong reclaimedBytes = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+  @Autowired
+  public MaintenanceScheduler(BackendClusters clusters, MongoServiceInstanceRepository repository,
+                              PlanProfiles profiles, TelemetryStore telemetry, LeaseManager leases,
+                              @Value("${broker.maintenance.windows:}") String windows,
+                              @Value("${broker.maintenance.time-zone:UTC}") String timeZone,
+                              @Value("${broker.maintenance.parallelism:1}") int parallelism,
+                              @Value("${broker.maintenance.min-reusable-ratio:0.3}") double minReusableRatio,
+                              @Value("${broker.maintenance.min-reusable-bytes:67108864}") long minReusableBytes,
+                              @Value("${broker.maintenance.max-ops-per-minute:60}") long maxOpsPerMinute,
+                              @Value("${broker.maintenance.min-interval-days:7}") long minIntervalDays,
+                              @Value("${broker.maintenance.resample-interval-millis:3600000}")
+                                  long resampleIntervalMillis,
+                              @Value("${broker.maintenance.include-primary:false}") boolean includePrimary,
+                              @Value("${broker.maintenance.enabled:true}") boolean enabled) {
+    this(clusters, repository, profiles, telemetry, leases, MaintenanceWindows.parse(windows, ZoneId.of(timeZone)),
+        parallelism, minReusableRatio, minReusableBytes, maxOpsPerMinute, TimeUnit.DAYS.toMillis(minIntervalDays),
+        resampleIntervalMillis, includePrimary, Executors.newCachedThreadPool(runnable -> {
+          Thread thread = new Thread(runnable, "maintenance");
+          thread.setDaemon(true);
+          return thread;
+        }), System::currentTimeMillis, enabled);
+  }
+
+  MaintenanceScheduler(BackendClusters clusters, MongoServiceInstanceRepository repository, PlanProfiles profiles,
+                       TelemetryStore telemetry, LeaseManager leases, MaintenanceWindows windows, int parallelism,
+                       double minReusableRatio, long minReusableBytes, long maxOpsPerMinute, long minIntervalMillis,
+                       long resampleIntervalMillis, boolean includePrimary, Executor executor, LongSupplier clock,
+                       boolean enabled) {
+    this.clusters = clusters;
+    this.repository = repository;
+    this.profiles = profiles;
+    this.telemetry = telemetry;
+    this.leases = leases;
+    this.windows = windows;
+    this.parallelism = parallelism;
+    this.minReusableRatio = minReusableRatio;
+    this.minReusableBytes = minReusableBytes;
+    this.maxOpsPerMinute = maxOpsPerMinute;
+    this.minIntervalMillis = minIntervalMillis;
+    this.resampleIntervalMillis = resampleIntervalMillis;
+    this.includePrimary = includePrimary;
+    this.executor = executor;
+    this.clock = clock;
+    this.enabled = enabled;
+  }
+
+  /**
+   * Queue the fragmented instances once the window opens, and hand them out as the clusters have room.
+   */
+  @Scheduled(initialDelayString = "${broker.maintenance.check-interval-millis:300000}",
+      fixedDelayString = "${broker.maintenance.check-interval-millis:300000}")
+  public void check() {
+    if (!enabled || windows.isEmpty()) {
+      return;
+    }
+    long now = clock.getAsLong();
+    if (!windows.isOpen(now) || !leases.isLeader(JOB)) {
+      queue.clear();
+      return;
+    }
+    if (queue.isEmpty() && now - sampledAt >= resampleIntervalMillis) {
+      sampledAt = now;
+      queue.addAll(sampleCandidates(now));
+    }
+    for (Iterator<Candidate> candidates = queue.iterator(); candidates.hasNext(); ) {
+      Candidate candidate = candidates.next();
+      if (inFlightPerCluster.getOrDefault(candidate.cluster, 0) >= parallelism) {
+        continue;
+      }
+      candidates.remove();
+      inFlight.add(candidate.instanceId);
+      inFlightPerCluster.merge(candidate.cluster, 1, Integer::sum);
+      executor.execute(() -> maintain(candidate));
+    }
+  }
+
+  private List<Candidate> sampleCandidates(long now) {
+    List<Candidate> candidates = new ArrayList<>();
+    for (ServiceInstance instance : repository.findAll()) {
+      String id = instance.getServiceInstanceId();
+      if (instance.isPooled() || instance.isHibernated() || inFlight.contains(id)
+          || profiles.forPlan(instance.getPlanId()).isSharded()
+          || isRecentlyMaintained(id, now) || isTooSmall(id, now)) {
+        continue;
+      }
+      Candidate candidate = new Candidate(id, instance.getCluster());
+      try {
+        MongoAdminService mongo = clusters.admin(instance.getCluster());
+        for (Document collection : mongo.listCollections(id)) {
+          String name = collection.getString("name");
+          if ("view".equals(collection.getString("type")) || name.startsWith("system.")) {
+            continue;
+          }
+          Footprint footprint = Footprint.of(mongo.getCollectionStats(id, name));
+          if (isFragmented(footprint.collectionReusable, footprint.collectionFile)) {
+            candidate.add(name, "compact", footprint.collectionReusable + footprint.indexReusable);
+          } else if (isFragmented(footprint.indexReusable, footprint.indexFile)) {
+            candidate.add(name, "reIndex", footprint.indexReusable);
+          }
+        }
+      } catch (MongoServiceException e) {
+        logger.warn("Could not sample the storage of " + id + ": " + e.getLocalizedMessage());
+        continue;
+      }
+      if (!candidate.collections.isEmpty()) {
+        candidates.add(candidate);
+      }
+    }
+    candidates.sort(Comparator.comparingLong((Candidate candidate) -> candidate.reusableBytes).reversed());
+    logger.info("{} service instances are due for maintenance", candidates.size());
+    return candidates;
+  }
+
+  private boolean isFragmented(long reusable, long file) {
+    return reusable >= minReusableBytes && reusable >= file * minReusableRatio;
+  }
+
+  private boolean isRecentlyMaintained(String id, long now) {
+    Long last = maintainedAt.get(id);
+    return last != null && now - last < minIntervalMillis;
+  }
+
+  /**
+   * @return whether the sampled storage of the instance is too small to hold the reusable space asked for
+   */
+  private boolean isTooSmall(String id, long now) {
+    MetricSeries series = telemetry.getSeries(id);
+    if (series == null) {
+      return false;
+    }
+    long from = now - TimeUnit.DAYS.toMillis(1);
+    long storage = series.aggregate(Metric.STORAGE_SIZE, from, now, Aggregate.LATEST);
+    long indexes = series.aggregate(Metric.INDEX_SIZE, from, now, Aggregate.LATEST);
+    return storage >= 0 && indexes >= 0 && storage + indexes < minReusableBytes;
+  }
+
+  /**
+   * @return whether the instance served more operations than maintenance may block at its latest sample
+   */
+  boolean isActive(String id) {
+    MetricSeries series = telemetry.getSeries(id);
+    if (series == null) {
+      return false;
+    }
+    long now = clock.getAsLong();
+    long from = now - TimeUnit.HOURS.toMillis(1);
+    long reads = series.aggregate(Metric.READ_OPS, from, now, Aggregate.LATEST);
+    long writes = series.aggregate(Metric.WRITE_OPS, from, now, Aggregate.LATEST);
+    return Math.max(0, reads) + Math.max(0, writes) > maxOpsPerMinute;
+  }
+
+  private void maintain(Candidate candidate) {
+    try (WorkClass.Scope work = WorkClass.BACKGROUND.enter()) {
+      MongoAdminService mongo = clusters.admin(candidate.cluster);
+      for (int i = 0; i < candidate.collections.size(); i++) {
+        if (!windows.isOpen(clock.getAsLong()) || isActive(candidate.instanceId)) {
+          logger.info("Leaving the maintenance of {} for the next window", candidate.instanceId);
+          return;
+        }
+        run(mongo, candidate.instanceId, candidate.collections.get(i), candidate.commands.get(i));
+      }
+      maintainedAt.put(candidate.instanceId, clock.getAsLong());
+    } catch (RuntimeException e) {
+      logger.warn("Could not maintain " + candidate.instanceId + ": " + e.getLocalizedMessage());
+    } finally {
+      inFlight.remove(candidate.instanceId);
+      inFlightPerCluster.computeIfPresent(candidate.cluster, (cluster, count) -> count > 1 ? count - 1 : null);
+    }
+  }
+
+  private void run(MongoAdminService mongo, String id, String collection, String command) {
+    Footprint before = Footprint.of(mongo.getCollectionStats(id, collection));
+    long start = clock.getAsLong();
+    String error = null;
+    try {
+      if ("compact".equals(command)) {
+        mongo.compact(id, collection, includePrimary);
+      } else {
+        mongo.reIndex(id, collection, includePrimary);
+      }
+    } catch (MongoServiceException e) {
+      error = e.getLocalizedMessage();
+      failed.incrementAndGet();
+    }
+    long millis = clock.getAsLong() - start;
+    Footprint after = Footprint.of(mongo.getCollectionStats(id, collection));
+    MaintenanceRun run = new MaintenanceRun(id, collection, command, new Date(start), millis, before.storage,
+        after.storage, before.cached, after.cached, error);
+    reclaimedBytes.addAndGet(run.getReclaimedBytes());
+    logger.info("Ran {} on {}.{} in {} ms: storage {} -> {} bytes, cached {} -> {} bytes{}", command, id, collection,
+        millis, before.storage, after.storage, before.cached, after.cached, error == null ? "" : ", failed: " + error);
+    synchronized (runs) {
+      runs.addFirst(run);
+      if (runs.size() > MAX_RUNS) {
+        runs.removeLast();
+      }
+    }
+  }
+
+  public boolean isWindowOpen() {
+    return windows.isOpen(clock.getAsLong());
+  }
+
+  /**
+   * @return the instances waiting for maintenance in this window, most reusable space first
+   */
+  public List<String> getQueued() {
+    List<String> queued = new ArrayList<>();
+    for (Candidate candidate : queue) {
+      queued.add(candidate.instanceId);
+    }
+    return queued;
+  }
+
+  public Set<String> getInFlight() {
+    return inFlight;
+  }
+
+  /**
+   * @return the latest runs, newest first
+   */
+  public List<MaintenanceRun> getRuns() {
+    synchronized (runs) {
+      return new ArrayList<>(runs);
+    }
+  }
+
+  public long getReclaimedBytes() {
+    return reclaimedBytes.get();
+  }
+
+  public long getFailed() {
+    return failed.get();
+  }
+
+  @Override
+  public void destroy() {
+    if (executor instanceof ExecutorService) {
+      ((ExecutorService) executor).shutdownNow();
+    }
+  }
+
+  private static final class Candidate {
+    private final String instanceId;
+    private final String cluster;
+    private final List<String> collections = new ArrayList<>();
+    private final List<String> commands = new ArrayList<>();
+    private long reusableBytes;
+
+    private Candidate(String instanceId, String cluster) {
+      this.instanceId = instanceId;
+      this.cluster = cluster == null ? BackendClusters.DEFAULT : cluster;
+    }
+
+    private void add(String collection, String command, long reusable) {
+      collections.add(collection);
+      commands.add(command);
+      reusableBytes += reusable;
+    }
+  }
+
+  /**
+   * The WiredTiger files of a collection and its indexes, from {@code collStats}.
+   */
+  private static final class Footprint {
+    private long collectionFile;
+    private long collectionReusable;
+    private long indexFile;
+    private long indexReusable;
+    private long storage;
+    private long cached;
+
+    private static Footprint of(Document stats) {
+      Footprint footprint = new Footprint();
+      Document collection = document(stats.get("wiredTiger"));
+      footprint.collectionFile = blockManager(collection, "file size in bytes");
+      footprint.collectionReusable = blockManager(collection, "file bytes available for reuse");
+      footprint.cached = cache(collection);
+      Document indexes = document(stats.get("indexDetails"));
+      if (indexes != null) {
+        for (Object value : indexes.values()) {
+          Document index = document(value);
+          footprint.indexFile += blockManager(index, "file size in bytes");
+          footprint.indexReusable += blockManager(index, "file bytes available for reuse");
+          footprint.cached += cache(index);
+        }
+      }
+      footprint.storage = number(stats, "storageSize") + number(stats, "totalIndexSize");
+      return footprint;
+    }
+
+    private static long blockManager(Document wiredTiger, String key) {
+      return wiredTiger == null ? 0 : number(document(wiredTiger.get("block-manager")), key);
+    }
+
+    private static long cache(Document wiredTiger) {
+      return wiredTiger == null ? 0 : number(document(wiredTiger.get("cache")), "bytes currently in the cache");
+    }
+
+    private static Document document(Object value) {
+      return value instanceof Document ? (Document) value : null;
+    }
+
+    private static long number(Document document, String key) {
+      Object value = document == null ? null : document.get(key);
+      return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+  }
+
+}
@@ -0,0 +1,123 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The weekly windows maintenance may run in, as comma separated {@code [day[-day]] HH:mm-HH:mm} entries in
+ * a time zone, e.g. {@code "sat-sun 01:00-06:00, wed 02:00-04:00"}. Entries without days hold every day; a
+ * window that ends before it starts runs past midnight into the next day.
+ */
+final class MaintenanceWindows {
+
+  private final List<Window> windows;
+  private final ZoneId zone;
+
+  private MaintenanceWindows(List<Window> windows, ZoneId zone) {
+    this.windows = windows;
+    this.zone = zone;
+  }
+
+  /**
+   * @throws IllegalArgumentException if an entry is malformed
+   */
+  static MaintenanceWindows parse(String spec, ZoneId zone) {
+    List<Window> windows = new ArrayList<>();
+    for (String entry : spec.split(",")) {
+      entry = entry.trim();
+      if (entry.isEmpty()) {
+        continue;
+      }
+      String[] parts = entry.split("\\s+");
+      if (parts.length > 2) {
+        throw new IllegalArgumentException("Not a maintenance window: " + entry);
+      }
+      Set<DayOfWeek> days = parts.length == 2 ? parseDays(parts[0], entry) : EnumSet.allOf(DayOfWeek.class);
+      String[] times = parts[parts.length - 1].split("-");
+      if (times.length != 2) {
+        throw new IllegalArgumentException("Not a maintenance window: " + entry);
+      }
+      try {
+        windows.add(new Window(days, LocalTime.parse(times[0]), LocalTime.parse(times[1])));
+      } catch (DateTimeParseException e) {
+        throw new IllegalArgumentException("Not a maintenance window: " + entry, e);
+      }
+    }
+    return new MaintenanceWindows(windows, zone);
+  }
+
+  /**
+   * @return windows that never open
+   */
+  static MaintenanceWindows none() {
+    return new MaintenanceWindows(new ArrayList<>(), ZoneId.of("UTC"));
+  }
+
+  boolean isOpen(long timeMillis) {
+    ZonedDateTime time = Instant.ofEpochMilli(timeMillis).atZone(zone);
+    for (Window window : windows) {
+      if (window.contains(time.getDayOfWeek(), time.toLocalTime())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  boolean isEmpty() {
+    return windows.isEmpty();
+  }
+
+  private static Set<DayOfWeek> parseDays(String days, String entry) {
+    String[] range = days.split("-");
+    if (range.length > 2) {
+      throw new IllegalArgumentException("Not a maintenance window: " + entry);
+    }
+    DayOfWeek first = parseDay(range[0], entry);
+    DayOfWeek last = range.length == 2 ? parseDay(range[1], entry) : first;
+    Set<DayOfWeek> result = EnumSet.of(first);
+    for (DayOfWeek day = first; day != last; day = day.plus(1)) {
+      result.add(day.plus(1));
+    }
+    return result;
+  }
+
+  private static DayOfWeek parseDay(String day, String entry) {
+    String prefix = day.toUpperCase(Locale.ROOT);
+    for (DayOfWeek candidate : DayOfWeek.values()) {
+      if (prefix.length() >= 3 && candidate.name().startsWith(prefix)) {
+        return candidate;
+      }
+    }
+    throw new IllegalArgumentException("Not a day of the week in maintenance window: " + entry);
+  }
+
+  private static final class Window {
+    private final Set<DayOfWeek> days;
+    private final LocalTime start;
+    private final LocalTime end;
+
+    private Window(Set<DayOfWeek> days, LocalTime start, LocalTime end) {
+      this.days = days;
+      this.start = start;
+      this.end = end;
+    }
+
+    private boolean contains(DayOfWeek day, LocalTime time) {
+      if (start.isBefore(end)) {
+        return days.contains(day) && !time.isBefore(start) && time.isBefore(end);
+      }
+      // past midnight, the window belongs to the day it started on
+      return (days.contains(day) && !time.isBefore(start)) || (days.contains(day.minus(1)) && time.isBefore(end));
+    }
+  }
+
+}
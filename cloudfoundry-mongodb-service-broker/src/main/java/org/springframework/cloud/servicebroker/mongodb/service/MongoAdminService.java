@@ -1,19 +1,44 @@
 package org.springframework.cloud.servicebroker.mongodb.service;
 
+import com.mongodb.CursorType;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoCommandException;
 import com.mongodb.MongoException;
 import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.CreateCollectionOptions;
+import com.mongodb.client.model.IndexOptionDefaults;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.ValidationAction;
+import com.mongodb.client.model.ValidationLevel;
+import com.mongodb.client.model.ValidationOptions;
+import org.bson.BsonTimestamp;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.types.MaxKey;
+import org.bson.types.MinKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.servicebroker.mongodb.exception.MongoServiceException;
+import org.springframework.cloud.servicebroker.mongodb.model.CollectionProfile;
+import org.springframework.cloud.servicebroker.mongodb.model.ProvisioningProfile;
+import org.springframework.cloud.servicebroker.mongodb.throttle.BackendCommandGuard;
+import org.springframework.cloud.servicebroker.mongodb.throttle.CommandCost;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Pattern;
 
 /**
  * Utility class for manipulating a Mongo database.
@@ -23,40 +48,114 @@ import java.util.List;
 @Service
 public class MongoAdminService {
 
+  // what readWrite allows, on a single collection
+  private static final List<String> TENANT_ACTIONS = Arrays.asList("find", "insert", "update", "remove",
+      "createIndex", "dropIndex", "listIndexes", "collStats", "convertToCapped");
+
+  // what read allows, on a single collection
+  private static final List<String> TENANT_READ_ACTIONS = Arrays.asList("find", "listIndexes", "collStats");
+
+  // the error replSetGetStatus answers on a standalone server
+  private static final int NO_REPLICATION_ENABLED = 76;
+
   private Logger logger = LoggerFactory.getLogger(MongoAdminService.class);
 
   private MongoClient client;
 
-  @Autowired
+  private BackendCommandGuard guard;
+
+  // a connection to one member of the replica set, by host and port
+  private Function<String, MongoClient> members;
+
   public MongoAdminService(MongoClient client) {
+    this(client, BackendCommandGuard.withDefaults());
+  }
+
+  @Autowired
+  public MongoAdminService(MongoClient client, BackendCommandGuard guard) {
+    this(client, guard, member -> new MongoClient(new ServerAddress(member), client.getCredentialsList(),
+        client.getMongoClientOptions()));
+  }
+
+  MongoAdminService(MongoClient client, BackendCommandGuard guard, Function<String, MongoClient> members) {
     this.client = client;
+    this.guard = guard;
+    this.members = members;
   }
 
   boolean databaseExists(String databaseName) throws MongoServiceException {
     try {
-      List<String> databaseNames = new ArrayList<>();
-      client.listDatabaseNames().into(databaseNames);
+      List<String> databaseNames = guard.execute(CommandCost.CHEAP, "listDatabaseNames",
+          () -> client.listDatabaseNames().into(new ArrayList<>()));
       return databaseNames.contains(databaseName);
     } catch (MongoException e) {
       throw handleException(e);
     }
   }
 
+  /**
+   * @return the names of every database on the backend, in name order
+   */
+  List<String> getDatabaseNames() throws MongoServiceException {
+    try {
+      List<String> databaseNames = guard.execute(CommandCost.CHEAP, "listDatabaseNames",
+          () -> client.listDatabaseNames().into(new ArrayList<>()));
+      Collections.sort(databaseNames);
+      return databaseNames;
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
   void deleteDatabase(String databaseName) throws MongoServiceException {
     try {
-      client.dropDatabase(databaseName);
+      guard.run(CommandCost.EXPENSIVE, "dropDatabase", () -> client.dropDatabase(databaseName));
     } catch (MongoException e) {
       throw handleException(e);
     }
   }
 
   MongoDatabase createDatabase(String databaseName) throws MongoServiceException {
+    return createDatabase(databaseName, ProvisioningProfile.DEFAULT);
+  }
+
+  MongoDatabase createDatabase(String databaseName, ProvisioningProfile profile) throws MongoServiceException {
+    return createDatabase(databaseName, profile, Collections.emptyList());
+  }
+
+  /**
+   * Create the database with the collections, storage options and indexes of the profile, and the requested
+   * collections after them. Each collection's indexes are built with a single {@code createIndexes} command.
+   * For a sharded profile sharding is enabled for the database first, and collections with a shard key are
+   * sharded and pre-split before any data arrives, so that writes are spread over the shards from the start.
+   */
+  MongoDatabase createDatabase(String databaseName, ProvisioningProfile profile, List<CollectionProfile> requested)
+      throws MongoServiceException {
     try {
       MongoDatabase db = client.getDatabase(databaseName);
+      List<CollectionProfile> collections = new ArrayList<>(profile.getCollections());
+      collections.addAll(requested);
 
-      // save into a collection to force DB creation.
-      db.createCollection("foo");
-      db.getCollection("foo").insertOne(new Document("foo", "bar"));
+      guard.run(CommandCost.EXPENSIVE, "createDatabase", () -> {
+        if (profile.isSharded()) {
+          enableSharding(databaseName, profile);
+        }
+        if (collections.isEmpty()) {
+          // save into a collection to force DB creation.
+          db.createCollection("foo");
+          db.getCollection("foo").insertOne(new Document("foo", "bar"));
+          return;
+        }
+        for (CollectionProfile collection : collections) {
+          db.createCollection(collection.getName(), createCollectionOptions(collection));
+          if (!collection.getIndexes().isEmpty()) {
+            db.getCollection(collection.getName()).createIndexes(collection.getIndexes());
+          }
+          if (profile.isSharded() && collection.isSharded()) {
+            shardCollection(databaseName + "." + collection.getName(), collection, profile.getZone());
+          }
+        }
+      });
 
       return db;
     } catch (MongoException e) {
@@ -69,14 +168,418 @@ public class MongoAdminService {
     }
   }
 
+  private void enableSharding(String databaseName, ProvisioningProfile profile) {
+    MongoDatabase admin = client.getDatabase("admin");
+    admin.runCommand(new Document("enableSharding", databaseName));
+    if (profile.getPrimaryShard() != null) {
+      // the database is still empty, so there is nothing to copy
+      admin.runCommand(new Document("movePrimary", databaseName).append("to", profile.getPrimaryShard()));
+    }
+  }
+
+  /**
+   * Shard an empty collection. A hashed key gets its initial chunks spread over the shards by the server;
+   * a ranged key is split at the collection's split points and the balancer spreads the empty chunks.
+   * With a zone, the whole key range is kept on the zone's shards.
+   */
+  private void shardCollection(String namespace, CollectionProfile collection, String zone) {
+    MongoDatabase admin = client.getDatabase("admin");
+    Document shardCollection = new Document("shardCollection", namespace).append("key", collection.getShardKey());
+    if (collection.isHashedShardKey() && collection.getInitialChunks() > 0) {
+      shardCollection.append("numInitialChunks", collection.getInitialChunks());
+    }
+    admin.runCommand(shardCollection);
+    for (Document splitPoint : collection.getSplitPoints()) {
+      admin.runCommand(new Document("split", namespace).append("middle", splitPoint));
+    }
+    if (zone != null) {
+      Document min = new Document();
+      Document max = new Document();
+      for (String field : collection.getShardKey().keySet()) {
+        min.append(field, new MinKey());
+        max.append(field, new MaxKey());
+      }
+      admin.runCommand(new Document("updateZoneKeyRange", namespace)
+          .append("min", min).append("max", max).append("zone", zone));
+    }
+  }
+
+  /**
+   * Create the collections of the profile under the prefix in a pooled database, and the tenant roles that
+   * grant read and write, or only read, on exactly those collections. Privileges cannot name a collection
+   * prefix, so a tenant can only use the collections of its plan.
+   */
+  void createTenant(String databaseName, String prefix, ProvisioningProfile profile) throws MongoServiceException {
+    try {
+      MongoDatabase db = client.getDatabase(databaseName);
+      List<Document> privileges = new ArrayList<>();
+      List<Document> readPrivileges = new ArrayList<>();
+      guard.run(CommandCost.EXPENSIVE, "createTenant", () -> {
+        for (CollectionProfile collection : profile.getCollections()) {
+          String name = prefix + collection.getName();
+          db.createCollection(name, createCollectionOptions(collection));
+          if (!collection.getIndexes().isEmpty()) {
+            db.getCollection(name).createIndexes(collection.getIndexes());
+          }
+          Document resource = new Document("db", databaseName).append("collection", name);
+          privileges.add(new Document("resource", resource).append("actions", TENANT_ACTIONS));
+          readPrivileges.add(new Document("resource", resource).append("actions", TENANT_READ_ACTIONS));
+        }
+        db.runCommand(new Document("createRole", tenantRole(prefix))
+            .append("privileges", privileges)
+            .append("roles", Collections.emptyList()));
+        db.runCommand(new Document("createRole", tenantReadRole(prefix))
+            .append("privileges", readPrivileges)
+            .append("roles", Collections.emptyList()));
+      });
+    } catch (MongoException e) {
+      // try to clean up and fail
+      try {
+        dropTenant(databaseName, prefix);
+      } catch (MongoServiceException ignore) {
+      }
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * Drop the prefixed collections of a tenant in a pooled database, with its roles and the users holding them.
+   */
+  void dropTenant(String databaseName, String prefix) throws MongoServiceException {
+    try {
+      MongoDatabase db = client.getDatabase(databaseName);
+      List<String> roles = Arrays.asList(tenantRole(prefix), tenantReadRole(prefix));
+      // usersInfo only filters on newer servers, the user catalog can be queried directly
+      MongoCollection<Document> users = client.getDatabase("admin").getCollection("system.users");
+      guard.run(CommandCost.EXPENSIVE, "dropTenant", () -> {
+        Document holders = new Document("db", databaseName).append("roles.role", new Document("$in", roles));
+        for (Document user : users.find(holders)) {
+          db.runCommand(new Document("dropUser", user.getString("user")));
+        }
+        for (String name : db.listCollectionNames().into(new ArrayList<>())) {
+          if (name.startsWith(prefix)) {
+            db.getCollection(name).drop();
+          }
+        }
+        for (String role : roles) {
+          if (!((List<?>) db.runCommand(new Document("rolesInfo", role)).get("roles")).isEmpty()) {
+            db.runCommand(new Document("dropRole", role));
+          }
+        }
+      });
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * @return the role that grants a tenant of a pooled database its collections
+   */
+  static String tenantRole(String prefix) {
+    return "tenant:" + prefix;
+  }
+
+  /**
+   * @return the role that grants a tenant of a pooled database read access to its collections
+   */
+  static String tenantReadRole(String prefix) {
+    return "tenant-read:" + prefix;
+  }
+
+  static CreateCollectionOptions createCollectionOptions(CollectionProfile collection) {
+    CreateCollectionOptions options = new CreateCollectionOptions();
+    if (collection.getBlockCompressor() != null) {
+      options.storageEngineOptions(wiredTigerConfig("block_compressor=" + collection.getBlockCompressor()));
+    }
+    if (collection.getIndexPrefixCompression() != null) {
+      options.indexOptionDefaults(new IndexOptionDefaults()
+          .storageEngine(wiredTigerConfig("prefix_compression=" + collection.getIndexPrefixCompression())));
+    }
+    if (collection.isCapped()) {
+      options.capped(true).sizeInBytes(collection.getCappedSizeBytes());
+      if (collection.getCappedMaxDocuments() > 0) {
+        options.maxDocuments(collection.getCappedMaxDocuments());
+      }
+    }
+    if (collection.getValidator() != null) {
+      ValidationOptions validation = new ValidationOptions().validator(collection.getValidator());
+      if (collection.getValidationLevel() != null) {
+        validation.validationLevel(ValidationLevel.fromString(collection.getValidationLevel()));
+      }
+      if (collection.getValidationAction() != null) {
+        validation.validationAction(ValidationAction.fromString(collection.getValidationAction()));
+      }
+      options.validationOptions(validation);
+    }
+    return options;
+  }
+
+  private static Document wiredTigerConfig(String configString) {
+    return new Document("wiredTiger", new Document("configString", configString));
+  }
+
+  /**
+   * @return the output of {@code listCollections} for the database: name, type and creation options
+   */
+  List<Document> listCollections(String databaseName) throws MongoServiceException {
+    try {
+      MongoDatabase db = client.getDatabase(databaseName);
+      return guard.execute(CommandCost.CHEAP, "listCollections",
+          () -> db.listCollections().into(new ArrayList<>()));
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * Create a collection or view with the options reported by {@code listCollections}.
+   */
+  void createCollection(String databaseName, String collection, Document options) throws MongoServiceException {
+    try {
+      Document createCmd = new Document("create", collection);
+      createCmd.putAll(options);
+      MongoDatabase db = client.getDatabase(databaseName);
+      guard.execute(CommandCost.EXPENSIVE, "create", () -> db.runCommand(createCmd));
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * Copy every document of a collection into the same collection of another database, entirely on the
+   * server. The driver has no helper for {@code $merge} yet, so the aggregate command is sent as is.
+   */
+  void copyCollection(String sourceDatabase, String targetDatabase, String collection) throws MongoServiceException {
+    try {
+      Document mergeStage = new Document("$merge", new Document("into",
+          new Document("db", targetDatabase).append("coll", collection)));
+      Document aggregateCmd = new Document("aggregate", collection)
+          .append("pipeline", Collections.singletonList(mergeStage))
+          .append("cursor", new Document());
+      MongoDatabase db = client.getDatabase(sourceDatabase);
+      guard.execute(CommandCost.EXPENSIVE, "aggregate", () -> db.runCommand(aggregateCmd));
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * Build the secondary indexes of a collection in another database with one {@code createIndexes} command.
+   */
+  void copyIndexes(String sourceDatabase, String targetDatabase, String collection) throws MongoServiceException {
+    createIndexes(targetDatabase, collection, listIndexes(sourceDatabase, collection));
+  }
+
+  /**
+   * @return the specifications of the secondary indexes of a collection, ready to be passed to {@code createIndexes}
+   */
+  List<Document> listIndexes(String databaseName, String collection) throws MongoServiceException {
+    try {
+      MongoDatabase db = client.getDatabase(databaseName);
+      List<Document> indexes = guard.execute(CommandCost.CHEAP, "listIndexes",
+          () -> db.getCollection(collection).listIndexes().into(new ArrayList<>()));
+      indexes.removeIf(index -> "_id_".equals(index.getString("name")));
+      for (Document index : indexes) {
+        index.remove("ns");
+        index.remove("v");
+      }
+      return indexes;
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  void createIndexes(String databaseName, String collection, List<Document> indexes) throws MongoServiceException {
+    if (indexes.isEmpty()) {
+      return;
+    }
+    try {
+      Document createIndexesCmd = new Document("createIndexes", collection).append("indexes", indexes);
+      MongoDatabase db = client.getDatabase(databaseName);
+      guard.execute(CommandCost.EXPENSIVE, "createIndexes", () -> db.runCommand(createIndexesCmd));
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * Set the profiling level of a database: 0 off, 1 operations slower than the threshold, 2 everything.
+   * The threshold is server wide on the backends this broker supports.
+   */
+  void setProfilingLevel(String databaseName, int level, int slowMillis) throws MongoServiceException {
+    try {
+      MongoDatabase db = client.getDatabase(databaseName);
+      guard.execute(CommandCost.CHEAP, "profile",
+          () -> db.runCommand(new Document("profile", level).append("slowms", slowMillis)));
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * @return up to {@code limit} entries of the database's {@code system.profile} recorded after the given
+   * time, oldest first
+   */
+  List<Document> getProfiledOperations(String databaseName, Date after, int limit) throws MongoServiceException {
+    try {
+      MongoCollection<Document> profile = client.getDatabase(databaseName).getCollection("system.profile");
+      return guard.execute(CommandCost.CHEAP, "find system.profile",
+          () -> profile.find(new Document("ts", new Document("$gt", after)))
+              .sort(new Document("ts", 1))
+              .limit(limit)
+              .into(new ArrayList<>()));
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * Open a cursor over a collection that hands out documents as undecoded BSON.
+   */
+  MongoCursor<RawBsonDocument> openRawCursor(String databaseName, String collection) throws MongoServiceException {
+    try {
+      MongoCollection<RawBsonDocument> raw = client.getDatabase(databaseName)
+          .getCollection(collection, RawBsonDocument.class);
+      return guard.execute(CommandCost.CHEAP, "find", () -> raw.find().iterator());
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * Insert undecoded BSON documents in order with one bulk insert, the driver splits it as needed.
+   */
+  void insertRaw(String databaseName, String collection, List<RawBsonDocument> documents) throws MongoServiceException {
+    if (documents.isEmpty()) {
+      return;
+    }
+    try {
+      MongoCollection<RawBsonDocument> raw = client.getDatabase(databaseName)
+          .getCollection(collection, RawBsonDocument.class);
+      InsertManyOptions ordered = new InsertManyOptions().ordered(true);
+      guard.run(CommandCost.EXPENSIVE, "insert", () -> raw.insertMany(documents, ordered));
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * @return the document with the id as undecoded BSON, or null if there is none
+   */
+  RawBsonDocument findRaw(String databaseName, String collection, Object id) throws MongoServiceException {
+    try {
+      MongoCollection<RawBsonDocument> raw = client.getDatabase(databaseName)
+          .getCollection(collection, RawBsonDocument.class);
+      return guard.execute(CommandCost.CHEAP, "find", () -> raw.find(new Document("_id", id)).first());
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * Replace the document with the same id, or insert it if there is none.
+   */
+  void upsertRaw(String databaseName, String collection, RawBsonDocument document) throws MongoServiceException {
+    try {
+      MongoCollection<RawBsonDocument> raw = client.getDatabase(databaseName)
+          .getCollection(collection, RawBsonDocument.class);
+      Document byId = new Document("_id", document.get("_id"));
+      guard.run(CommandCost.CHEAP, "update", () -> raw.replaceOne(byId, document, new UpdateOptions().upsert(true)));
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  void deleteDocument(String databaseName, String collection, Object id) throws MongoServiceException {
+    try {
+      MongoCollection<Document> coll = client.getDatabase(databaseName).getCollection(collection);
+      guard.run(CommandCost.CHEAP, "delete", () -> coll.deleteOne(new Document("_id", id)));
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  void dropCollection(String databaseName, String collection) throws MongoServiceException {
+    try {
+      MongoCollection<Document> coll = client.getDatabase(databaseName).getCollection(collection);
+      guard.run(CommandCost.EXPENSIVE, "drop", coll::drop);
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * @return the timestamp of the newest replica set oplog entry, or null if the backend has no oplog
+   */
+  BsonTimestamp getOplogPosition() throws MongoServiceException {
+    try {
+      MongoCollection<Document> oplog = client.getDatabase("local").getCollection("oplog.rs");
+      Document newest = guard.execute(CommandCost.CHEAP, "find",
+          () -> oplog.find().sort(new Document("$natural", -1)).limit(1).first());
+      return newest == null ? null : newest.get("ts", BsonTimestamp.class);
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * Open a tailable cursor over the oplog entries of a database after a position, commands on the
+   * database included. The cursor waits a little for new entries before handing out none.
+   */
+  MongoCursor<Document> tailOplog(String databaseName, BsonTimestamp after) throws MongoServiceException {
+    try {
+      MongoCollection<Document> oplog = client.getDatabase("local").getCollection("oplog.rs");
+      Document filter = new Document("ts", new Document("$gt", after))
+          .append("ns", new Document("$regex", "^" + Pattern.quote(databaseName + ".")));
+      return guard.execute(CommandCost.CHEAP, "find", () -> oplog.find(filter)
+          .cursorType(CursorType.TailableAwait)
+          .noCursorTimeout(true)
+          .oplogReplay(true)
+          .iterator());
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
   void createUser(String database, String username, String password) throws MongoServiceException {
+    createUser(database, username, password, "readWrite");
+  }
+
+  /**
+   * Create a user of a pooled database that can only use the collections of one tenant.
+   */
+  void createTenantUser(String database, String prefix, String username, String password) throws MongoServiceException {
+    createUser(database, username, password, tenantRole(prefix));
+  }
+
+  /**
+   * Create a user that can read the database but not change it.
+   */
+  void createReadOnlyUser(String database, String username, String password) throws MongoServiceException {
+    createUser(database, username, password, "read");
+  }
+
+  void createTenantReadOnlyUser(String database, String prefix, String username, String password)
+      throws MongoServiceException {
+    createUser(database, username, password, tenantReadRole(prefix));
+  }
+
+  void createUser(String database, String username, String password, String role) throws MongoServiceException {
+    createUser(database, username, password, Collections.singletonList(role));
+  }
+
+  /**
+   * Create a user with roles of the database, such as those {@link #getUserRoles} returns.
+   */
+  void createUser(String database, String username, String password, List<String> roles)
+      throws MongoServiceException {
     try {
       Document createUserCmd = new Document("createUser", username)
           .append("pwd", password)
-          .append("roles", Collections.singletonList("readWrite"));
+          .append("roles", roles);
 
       MongoDatabase db = client.getDatabase(database);
-      Document result = db.runCommand(createUserCmd);
+      Document result = guard.execute(CommandCost.EXPENSIVE, "createUser", () -> db.runCommand(createUserCmd));
       boolean success = (result.getDouble("ok") == 1.0); // this is awful! i need to learn to interpret command results properly
       if (!success) {
         MongoServiceException e = new MongoServiceException(result.toString());
@@ -88,31 +591,310 @@ public class MongoAdminService {
     }
   }
 
+  /**
+   * Replace the password of an existing user, keeping its roles.
+   */
+  void updateUserPassword(String database, String username, String password) throws MongoServiceException {
+    try {
+      Document updateUserCmd = new Document("updateUser", username).append("pwd", password);
+      MongoDatabase db = client.getDatabase(database);
+      guard.execute(CommandCost.EXPENSIVE, "updateUser", () -> db.runCommand(updateUserCmd));
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * @return the names of the roles granted to a user, empty if there is no such user
+   */
+  List<String> getUserRoles(String database, String username) throws MongoServiceException {
+    try {
+      MongoDatabase db = client.getDatabase(database);
+      Document result = guard.execute(CommandCost.CHEAP, "usersInfo",
+          () -> db.runCommand(new Document("usersInfo", username)));
+      List<String> roles = new ArrayList<>();
+      for (Object user : (List<?>) result.get("users")) {
+        for (Object role : (List<?>) ((Document) user).get("roles")) {
+          roles.add(((Document) role).getString("role"));
+        }
+      }
+      return roles;
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * @return the names of the users defined in the database, in name order
+   */
+  List<String> getUserNames(String database) throws MongoServiceException {
+    try {
+      MongoDatabase db = client.getDatabase(database);
+      Document result = guard.execute(CommandCost.CHEAP, "usersInfo",
+          () -> db.runCommand(new Document("usersInfo", 1)));
+      List<String> users = new ArrayList<>();
+      for (Object user : (List<?>) result.get("users")) {
+        users.add(((Document) user).getString("user"));
+      }
+      Collections.sort(users);
+      return users;
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * Replace the roles of a user; existing connections of the user are held to the new roles.
+   */
+  void setUserRoles(String database, String username, List<String> roles) throws MongoServiceException {
+    try {
+      Document updateUserCmd = new Document("updateUser", username).append("roles", roles);
+      MongoDatabase db = client.getDatabase(database);
+      guard.execute(CommandCost.EXPENSIVE, "updateUser", () -> db.runCommand(updateUserCmd));
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
   void deleteUser(String database, String username) throws MongoServiceException {
     try {
       MongoDatabase db = client.getDatabase(database);
-      db.runCommand(new Document("dropUser", username));
+      guard.execute(CommandCost.EXPENSIVE, "dropUser", () -> db.runCommand(new Document("dropUser", username)));
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * Drop the users of a database, which outlive the database itself.
+   */
+  void deleteAllUsers(String database) throws MongoServiceException {
+    try {
+      MongoDatabase db = client.getDatabase(database);
+      guard.execute(CommandCost.EXPENSIVE, "dropAllUsersFromDatabase",
+          () -> db.runCommand(new Document("dropAllUsersFromDatabase", 1)));
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * @return the output of {@code dbStats} for the database, sizes in bytes
+   */
+  public Document getDatabaseStats(String databaseName) throws MongoServiceException {
+    try {
+      MongoDatabase db = client.getDatabase(databaseName);
+      return guard.execute(CommandCost.CHEAP, "dbStats", () -> db.runCommand(new Document("dbStats", 1)));
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * @return the output of {@code collStats} for the collection, sizes in bytes, with the WiredTiger statistics
+   * of the collection and of each of its indexes
+   */
+  Document getCollectionStats(String databaseName, String collection) throws MongoServiceException {
+    try {
+      MongoDatabase db = client.getDatabase(databaseName);
+      return guard.execute(CommandCost.CHEAP, "collStats", () -> db.runCommand(new Document("collStats", collection)
+          .append("indexDetails", true)));
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * Rewrite the collection and its indexes, releasing the space freed by deletes to the operating system.
+   * Operations on the database wait for it to finish.
+   * @see #onEachMember
+   */
+  void compact(String databaseName, String collection, boolean includePrimary) throws MongoServiceException {
+    onEachMember("compact", databaseName, new Document("compact", collection), includePrimary);
+  }
+
+  /**
+   * Drop and rebuild every index of the collection. Operations on the database wait for it to finish.
+   * @see #onEachMember
+   */
+  void reIndex(String databaseName, String collection, boolean includePrimary) throws MongoServiceException {
+    onEachMember("reIndex", databaseName, new Document("reIndex", collection), includePrimary);
+  }
+
+  /**
+   * Run a command that a replica set does not replicate on each data bearing member, one after the other over
+   * a connection of its own, so that only one member at a time is busy with it: the secondaries first, hidden
+   * and delayed ones included, and the primary last, where it blocks the applications, only if asked to. A
+   * standalone server runs it once.
+   */
+  private void onEachMember(String name, String databaseName, Document command, boolean includePrimary)
+      throws MongoServiceException {
+    try {
+      List<String> secondaries = new ArrayList<>();
+      String primary = null;
+      Document status = getReplicaSetStatus();
+      if (status == null) {
+        MongoDatabase db = client.getDatabase(databaseName);
+        guard.execute(CommandCost.EXPENSIVE, name, () -> db.runCommand(command));
+        return;
+      }
+      for (Object member : (List<?>) status.get("members")) {
+        Document state = (Document) member;
+        if ("SECONDARY".equals(state.getString("stateStr"))) {
+          secondaries.add(state.getString("name"));
+        } else if ("PRIMARY".equals(state.getString("stateStr"))) {
+          primary = state.getString("name");
+        }
+      }
+      for (String secondary : secondaries) {
+        runOnMember(name, secondary, databaseName, command);
+      }
+      if (includePrimary && primary != null) {
+        // a primary refuses to compact without force
+        runOnMember(name, primary, databaseName,
+            "compact".equals(name) ? new Document(command).append("force", true) : command);
+      }
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  private void runOnMember(String name, String member, String databaseName, Document command) {
+    try (MongoClient direct = members.apply(member)) {
+      MongoDatabase db = direct.getDatabase(databaseName);
+      guard.execute(CommandCost.EXPENSIVE, name, () -> db.runCommand(command));
+    }
+  }
+
+  /**
+   * @return the {@code replSetGetStatus} of the backend, null if it is a standalone server
+   */
+  private Document getReplicaSetStatus() {
+    try {
+      MongoDatabase admin = client.getDatabase("admin");
+      return guard.execute(CommandCost.CHEAP, "replSetGetStatus",
+          () -> admin.runCommand(new Document("replSetGetStatus", 1)));
+    } catch (MongoCommandException e) {
+      if (e.getErrorCode() == NO_REPLICATION_ENABLED) {
+        return null;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * @return the output of {@code top}: cumulative operation counts and times per namespace
+   */
+  public Document getTop() throws MongoServiceException {
+    return runAdminCommand("top");
+  }
+
+  /**
+   * @return the output of {@code serverStatus}
+   */
+  public Document getServerStatus() throws MongoServiceException {
+    return runAdminCommand("serverStatus");
+  }
+
+  /**
+   * @return the {@code inprog} entries of {@code currentOp}, one per client connection, idle ones included
+   */
+  public List<Document> getConnections() throws MongoServiceException {
+    try {
+      MongoDatabase admin = client.getDatabase("admin");
+      Document currentOp = guard.execute(CommandCost.CHEAP, "currentOp",
+          () -> admin.runCommand(new Document("currentOp", 1).append("$all", true)));
+      @SuppressWarnings("unchecked")
+      List<Document> inprog = (List<Document>) currentOp.get("inprog");
+      return inprog == null ? Collections.emptyList() : inprog;
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * Kill operations by the {@code opid} {@code currentOp} reported for them.
+   */
+  void killOperations(List<Object> opIds) throws MongoServiceException {
+    try {
+      MongoDatabase admin = client.getDatabase("admin");
+      for (Object opId : opIds) {
+        guard.execute(CommandCost.CHEAP, "killOp", () -> admin.runCommand(new Document("killOp", 1).append("op", opId)));
+      }
+    } catch (MongoException e) {
+      throw handleException(e);
+    }
+  }
+
+  /**
+   * Kill sessions, with their operations and cursors, by the {@code lsid} {@code currentOp} reported for them.
+   */
+  void killSessions(List<Document> sessionIds) throws MongoServiceException {
+    try {
+      MongoDatabase admin = client.getDatabase("admin");
+      guard.execute(CommandCost.CHEAP, "killSessions",
+          () -> admin.runCommand(new Document("killSessions", sessionIds)));
     } catch (MongoException e) {
       throw handleException(e);
     }
   }
 
   String getConnectionString(String database, String username, String password) {
-    return String.format("mongodb://%s:%s@%s/%s", username, password, getServerAddresses(), database);
+    return getConnectionString(database, username, password, Collections.emptyMap());
   }
 
-  private String getServerAddresses() {
-    StringBuilder builder = new StringBuilder();
-    for (ServerAddress address : client.getAllAddress()) {
-      builder.append(address.getHost())
-          .append(":")
-          .append(address.getPort())
-          .append(",");
+  /**
+   * The hosts are the members of the replica set as {@code isMaster} reports them, with the set's name, so
+   * that applications can reach secondaries and not only the hosts the broker was given.
+   * @param options connection string options, such as the read preference, in the order they are given
+   */
+  String getConnectionString(String database, String username, String password, Map<String, String> options) {
+    Document isMaster = runAdminCommand("isMaster");
+    Map<String, String> uriOptions = new LinkedHashMap<>();
+    if (isMaster.getString("setName") != null) {
+      uriOptions.put("replicaSet", isMaster.getString("setName"));
     }
-    if (builder.length() > 0) {
-      builder.deleteCharAt(builder.length() - 1);
+    uriOptions.putAll(options);
+    StringBuilder uri = new StringBuilder(String.format("mongodb://%s:%s@%s/%s", username, password,
+        getServerAddresses(isMaster), database));
+    char separator = '?';
+    for (Map.Entry<String, String> option : uriOptions.entrySet()) {
+      uri.append(separator).append(option.getKey()).append('=').append(option.getValue());
+      separator = '&';
+    }
+    return uri.toString();
+  }
+
+  /**
+   * @return the members that can serve reads, which leaves out arbiters and hidden members, or the configured
+   * hosts when the backend is not a replica set
+   */
+  private String getServerAddresses(Document isMaster) {
+    List<String> hosts = new ArrayList<>();
+    if (isMaster.getString("setName") != null) {
+      for (String members : new String[] {"hosts", "passives"}) {
+        if (isMaster.get(members) != null) {
+          for (Object host : (List<?>) isMaster.get(members)) {
+            hosts.add((String) host);
+          }
+        }
+      }
+    }
+    if (hosts.isEmpty()) {
+      for (ServerAddress address : client.getAllAddress()) {
+        hosts.add(address.getHost() + ":" + address.getPort());
+      }
+    }
+    return String.join(",", hosts);
+  }
+
+  private Document runAdminCommand(String command) throws MongoServiceException {
+    try {
+      MongoDatabase admin = client.getDatabase("admin");
+      return guard.execute(CommandCost.CHEAP, command, () -> admin.runCommand(new Document(command, 1)));
+    } catch (MongoException e) {
+      throw handleException(e);
     }
-    return builder.toString();
   }
 
   private MongoServiceException handleException(Exception e) {
@@ -1,23 +1,39 @@
 package org.springframework.cloud.servicebroker.mongodb.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
 import org.springframework.cloud.servicebroker.exception.ServiceInstanceBindingDoesNotExistException;
 import org.springframework.cloud.servicebroker.exception.ServiceInstanceBindingExistsException;
 import org.springframework.cloud.servicebroker.model.CreateServiceInstanceAppBindingResponse;
 import org.springframework.cloud.servicebroker.model.CreateServiceInstanceBindingRequest;
 import org.springframework.cloud.servicebroker.model.CreateServiceInstanceBindingResponse;
 import org.springframework.cloud.servicebroker.model.DeleteServiceInstanceBindingRequest;
+import org.springframework.cloud.servicebroker.model.OperationState;
+import org.springframework.cloud.servicebroker.mongodb.cache.MetadataCache;
+import org.springframework.cloud.servicebroker.mongodb.exception.OperationInProgressException;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournalRecord;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournaledRepository;
+import org.springframework.cloud.servicebroker.mongodb.journal.MetadataArchive;
+import org.springframework.cloud.servicebroker.mongodb.journal.MetadataJournal;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
 import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstanceBinding;
 import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceBindingRepository;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceRepository;
+import org.springframework.cloud.servicebroker.mongodb.throttle.WorkClass;
+import org.springframework.cloud.servicebroker.mongodb.trace.Tracer;
 import org.springframework.cloud.servicebroker.service.ServiceInstanceBindingService;
 import org.springframework.stereotype.Service;
 
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Mongo impl to bind services.  Binding a service does the following:
- * creates a new user in the database (currently uses a default pwd of "password"),
+ * creates a new user in the database with a generated password, limited to
+ * the instance's collections for instances of a pooled plan, after waking
+ * a hibernated instance; {@code "role": "analytics"} bindings get a read-only
+ * user and a connection string that reads from secondaries; users are created
+ * on the backend cluster the instance lives on,
  * saves the ServiceInstanceBinding info to the Mongo repository.
  *
  * @author sgreenberg@pivotal.io
@@ -25,52 +41,136 @@ import java.util.Map;
 @Service
 public class MongoServiceInstanceBindingService implements ServiceInstanceBindingService {
 
-	private MongoAdminService mongo;
+	private BackendClusters clusters;
 
-	private MongoServiceInstanceBindingRepository bindingRepository;
+	private JournaledRepository<ServiceInstanceBinding> bindingRepository;
 
-	@Autowired
-	public MongoServiceInstanceBindingService(MongoAdminService mongo,
-											  MongoServiceInstanceBindingRepository bindingRepository) {
-		this.mongo = mongo;
-		this.bindingRepository = bindingRepository;
-	}
+	// null if every instance has a database of its own
+	private JournaledRepository<ServiceInstance> instanceRepository;
 
-	@Override
-	public CreateServiceInstanceBindingResponse createServiceInstanceBinding(CreateServiceInstanceBindingRequest request) {
+	private Hibernator hibernator;
 
-		String bindingId = request.getBindingId();
-		String serviceInstanceId = request.getServiceInstanceId();
+	private OperationTracker operations;
 
-		ServiceInstanceBinding binding = bindingRepository.findOne(bindingId);
-		if (binding != null) {
-			throw new ServiceInstanceBindingExistsException(serviceInstanceId, bindingId);
-		}
+	private ConnectionOptions connectionOptions;
 
-		String password = "password";
+	private Tracer tracer;
 
-		mongo.createUser(serviceInstanceId, bindingId, password);
+	public MongoServiceInstanceBindingService(MongoAdminService mongo,
+											  MongoServiceInstanceBindingRepository bindingRepository) {
+		this(mongo, bindingRepository, new OperationTracker());
+	}
 
-		Map<String, Object> credentials =
-				Collections.singletonMap("uri", mongo.getConnectionString(serviceInstanceId, bindingId, password));
+	MongoServiceInstanceBindingService(MongoAdminService mongo,
+									   MongoServiceInstanceBindingRepository bindingRepository,
+									   OperationTracker operations) {
+		this.clusters = BackendClusters.single(mongo);
+		this.bindingRepository = new JournaledRepository<>(MetadataJournal.disabled(),
+				JournalRecord.Kind.SERVICE_INSTANCE_BINDING, bindingRepository);
+		this.hibernator = Hibernator.disabled();
+		this.operations = operations;
+		this.connectionOptions = ConnectionOptions.defaults();
+		this.tracer = Tracer.disabled();
+	}
 
-		binding = new ServiceInstanceBinding(bindingId, serviceInstanceId, credentials, null, request.getBoundAppGuid());
-		bindingRepository.save(binding);
+	@Autowired
+	public MongoServiceInstanceBindingService(BackendClusters clusters,
+											  MongoServiceInstanceBindingRepository bindingRepository,
+											  MongoServiceInstanceRepository instanceRepository,
+											  MetadataJournal journal, MetadataCache cache, MetadataArchive archive,
+											  Hibernator hibernator, OperationTracker operations,
+											  ConnectionOptions connectionOptions, Tracer tracer) {
+		this.clusters = clusters;
+		this.bindingRepository =
+				new JournaledRepository<>(journal, cache, archive, JournalRecord.Kind.SERVICE_INSTANCE_BINDING,
+						bindingRepository);
+		this.instanceRepository =
+				new JournaledRepository<>(journal, cache, archive, JournalRecord.Kind.SERVICE_INSTANCE, instanceRepository);
+		this.hibernator = hibernator;
+		this.operations = operations;
+		this.connectionOptions = connectionOptions;
+		this.tracer = tracer;
+	}
 
-		return new CreateServiceInstanceAppBindingResponse().withCredentials(credentials);
+	@Override
+	public CreateServiceInstanceBindingResponse createServiceInstanceBinding(CreateServiceInstanceBindingRequest request) {
+		try (Tracer.Scope trace = tracer.start("createServiceInstanceBinding " + request.getBindingId());
+			 WorkClass.Scope work = WorkClass.INTERACTIVE.enter()) {
+			String bindingId = request.getBindingId();
+			String serviceInstanceId = request.getServiceInstanceId();
+
+			ServiceInstanceBinding binding = bindingRepository.findOne(bindingId);
+			if (binding != null) {
+				throw new ServiceInstanceBindingExistsException(serviceInstanceId, bindingId);
+			}
+
+			ConnectionOptions.Role role = ConnectionOptions.Role.fromParameter(
+					request.getParameters() == null ? null : request.getParameters().get("role"));
+			String password = Passwords.generate();
+
+			ServiceInstance instance = instanceRepository == null ? null : instanceRepository.findOne(serviceInstanceId);
+			if (operations.isInProgress(serviceInstanceId)
+					|| instance != null && instance.getOperationState() == OperationState.IN_PROGRESS) {
+				// a migration would not copy the new user
+				throw new OperationInProgressException(serviceInstanceId);
+			}
+			if (instance != null && instance.getOperationState() == OperationState.FAILED) {
+				throw new ServiceBrokerException("Service instance " + serviceInstanceId + " failed to provision: "
+						+ instance.getOperationDescription());
+			}
+			if (instance != null && instance.isHibernated()) {
+				// the app is about to use the instance
+				hibernator.wake(instance);
+			}
+			// the user is created on the cluster the instance lives on
+			String cluster = instance == null ? null : instance.getCluster();
+			MongoAdminService mongo = clusters.admin(cluster);
+			String database = serviceInstanceId;
+			Map<String, Object> credentials = new HashMap<>();
+			if (instance != null && instance.isPooled()) {
+				// the user can only reach the instance's collections, the prefix tells the app their names
+				database = instance.getDatabaseName();
+				if (role == ConnectionOptions.Role.ANALYTICS) {
+					mongo.createTenantReadOnlyUser(database, instance.getCollectionPrefix(), bindingId, password);
+				} else {
+					mongo.createTenantUser(database, instance.getCollectionPrefix(), bindingId, password);
+				}
+				credentials.put("collectionPrefix", instance.getCollectionPrefix());
+			} else if (role == ConnectionOptions.Role.ANALYTICS) {
+				mongo.createReadOnlyUser(serviceInstanceId, bindingId, password);
+			} else {
+				mongo.createUser(serviceInstanceId, bindingId, password);
+			}
+			credentials.put("uri", mongo.getConnectionString(database, bindingId, password,
+					connectionOptions.forBinding(request.getPlanId(), role)));
+
+			binding = new ServiceInstanceBinding(bindingId, serviceInstanceId, credentials, null, request.getBoundAppGuid())
+					.withDatabase(database)
+					.withCluster(cluster);
+			bindingRepository.save(binding);
+
+			return new CreateServiceInstanceAppBindingResponse().withCredentials(credentials);
+		}
 	}
 
 	@Override
 	public void deleteServiceInstanceBinding(DeleteServiceInstanceBindingRequest request) {
-		String bindingId = request.getBindingId();
-		ServiceInstanceBinding binding = getServiceInstanceBinding(bindingId);
-
-		if (binding == null) {
-			throw new ServiceInstanceBindingDoesNotExistException(bindingId);
+		try (Tracer.Scope trace = tracer.start("deleteServiceInstanceBinding " + request.getBindingId());
+			 WorkClass.Scope work = WorkClass.INTERACTIVE.enter()) {
+			String bindingId = request.getBindingId();
+			ServiceInstanceBinding binding = getServiceInstanceBinding(bindingId);
+
+			if (binding == null) {
+				throw new ServiceInstanceBindingDoesNotExistException(bindingId);
+			}
+			if (operations.isInProgress(binding.getServiceInstanceId())) {
+				// a migration would recreate the user on the target
+				throw new OperationInProgressException(binding.getServiceInstanceId());
+			}
+
+			clusters.admin(binding.getCluster()).deleteUser(binding.getDatabase(), bindingId);
+			bindingRepository.delete(bindingId);
 		}
-
-		mongo.deleteUser(binding.getServiceInstanceId(), bindingId);
-		bindingRepository.delete(bindingId);
 	}
 
 	ServiceInstanceBinding getServiceInstanceBinding(String id) {
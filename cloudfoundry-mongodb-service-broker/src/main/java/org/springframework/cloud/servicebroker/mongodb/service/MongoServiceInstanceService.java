@@ -2,19 +2,40 @@ package org.springframework.cloud.servicebroker.mongodb.service;
 
 import com.mongodb.client.MongoDatabase;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerAsyncRequiredException;
 import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerInvalidParametersException;
 import org.springframework.cloud.servicebroker.exception.ServiceInstanceDoesNotExistException;
 import org.springframework.cloud.servicebroker.exception.ServiceInstanceExistsException;
+import org.springframework.cloud.servicebroker.exception.ServiceInstanceUpdateNotSupportedException;
 import org.springframework.cloud.servicebroker.model.*;
+import org.springframework.cloud.servicebroker.mongodb.cache.MetadataCache;
+import org.springframework.cloud.servicebroker.mongodb.config.PlanProfiles;
 import org.springframework.cloud.servicebroker.mongodb.exception.MongoServiceException;
+import org.springframework.cloud.servicebroker.mongodb.exception.OperationInProgressException;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournalRecord;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournaledRepository;
+import org.springframework.cloud.servicebroker.mongodb.journal.MetadataArchive;
+import org.springframework.cloud.servicebroker.mongodb.journal.MetadataJournal;
+import org.springframework.cloud.servicebroker.mongodb.model.CollectionProfile;
+import org.springframework.cloud.servicebroker.mongodb.model.ProvisioningProfile;
 import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
 import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceRepository;
+import org.springframework.cloud.servicebroker.mongodb.throttle.ProvisioningRateLimiter;
+import org.springframework.cloud.servicebroker.mongodb.throttle.WorkClass;
+import org.springframework.cloud.servicebroker.mongodb.trace.Tracer;
 import org.springframework.cloud.servicebroker.service.ServiceInstanceService;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
+import java.util.Objects;
+
 /**
  * Mongo impl to manage service instances.  Creating a service does the following:
- * creates a new database,
+ * creates a new database, laid out by the plan's profile or copied from a template,
+ * or for a pooled plan the profile's collections under a prefix in the plan's database,
+ * for a sharded plan with the collections declared in the provision parameters sharded on their keys,
+ * assigns the instance its dashboard URL,
  * saves the ServiceInstance info to the Mongo repository.
  *
  * @author sgreenberg@pivotal.io
@@ -24,42 +45,184 @@ public class MongoServiceInstanceService implements ServiceInstanceService {
 
   private MongoAdminService mongo;
 
-  private MongoServiceInstanceRepository repository;
+  private JournaledRepository<ServiceInstance> repository;
+
+  private ProvisioningRateLimiter rateLimiter;
+
+  private PlanProfiles profiles;
+
+  private TemplateSeeder seeder;
+
+  private OperationTracker operations;
+
+  private TombstoneSweeper sweeper;
+
+  private Hibernator hibernator;
+
+  private DashboardLinks dashboards;
+
+  private Tracer tracer;
 
-  @Autowired
   public MongoServiceInstanceService(MongoAdminService mongo, MongoServiceInstanceRepository repository) {
+    this(mongo, repository, MetadataJournal.disabled(), MetadataCache.disabled(), MetadataArchive.disabled(),
+        ProvisioningRateLimiter.unlimited(), PlanProfiles.defaults(), TemplateSeeder.none(mongo), new OperationTracker(), TombstoneSweeper.inline(mongo),
+        Hibernator.disabled(), DashboardLinks.disabled(), Tracer.disabled());
+  }
+
+  @Autowired
+  public MongoServiceInstanceService(MongoAdminService mongo, MongoServiceInstanceRepository repository,
+                                     MetadataJournal journal, MetadataCache cache, MetadataArchive archive,
+                                     ProvisioningRateLimiter rateLimiter, PlanProfiles profiles,
+                                     TemplateSeeder seeder, OperationTracker operations,
+                                     TombstoneSweeper sweeper, Hibernator hibernator, DashboardLinks dashboards,
+                                     Tracer tracer) {
     this.mongo = mongo;
-    this.repository = repository;
+    this.repository = new JournaledRepository<>(journal, cache, archive, JournalRecord.Kind.SERVICE_INSTANCE,
+        repository);
+    this.rateLimiter = rateLimiter;
+    this.profiles = profiles;
+    this.seeder = seeder;
+    this.operations = operations;
+    this.sweeper = sweeper;
+    this.hibernator = hibernator;
+    this.dashboards = dashboards;
+    this.tracer = tracer;
   }
 
   @Override
   public CreateServiceInstanceResponse createServiceInstance(CreateServiceInstanceRequest request) {
-    // make sure we haven't provisioned this before (check broker database)
-    ServiceInstance instance = repository.findOne(request.getServiceInstanceId());
-    if (instance != null) {
-      throw new ServiceInstanceExistsException(request.getServiceInstanceId(), request.getServiceDefinitionId());
-    }
+    try (Tracer.Scope trace = tracer.start("createServiceInstance " + request.getServiceInstanceId());
+         WorkClass.Scope work = WorkClass.PROVISION.enter()) {
+      // shed runaway provisioning before doing any work for it
+      rateLimiter.checkProvision(request.getPlanId(), request.getOrganizationGuid(), request.getSpaceGuid());
+
+      // make sure we haven't provisioned this before (check broker database)
+      ServiceInstance instance = repository.findOne(request.getServiceInstanceId());
+      if (instance != null) {
+        throw new ServiceInstanceExistsException(request.getServiceInstanceId(), request.getServiceDefinitionId());
+      }
 
-    instance = new ServiceInstance(request);
+      instance = new ServiceInstance(request).withDashboardUrl(dashboards.urlFor(request.getServiceInstanceId()));
+      String id = instance.getServiceInstanceId();
+      if (sweeper.isTombstoned(id)) {
+        // the old database with this id has not been dropped yet
+        throw new OperationInProgressException(id);
+      }
+      ProvisioningProfile profile = profiles.forPlan(request.getPlanId());
+      List<CollectionProfile> shardedCollections = ShardedCollections.fromParameters(request.getParameters(), profile);
+      if (profile.isPooled()) {
+        return createPooled(request, instance, profile);
+      }
+      String template = getTemplate(request, profile);
+      if (template != null && profile.isSharded()) {
+        throw new ServiceBrokerInvalidParametersException("Sharded plans cannot be seeded from a template");
+      }
 
-    if (mongo.databaseExists(instance.getServiceInstanceId())) {
-      // ensure the instance is empty
-      mongo.deleteDatabase(instance.getServiceInstanceId());
+      if (mongo.databaseExists(id)) {
+        // ensure the instance is empty
+        mongo.deleteDatabase(id);
+      }
+
+      if (template != null) {
+        // the record carries the operation while seeding, so any broker node can answer the platform's polls
+        String description = "Seeding from template " + template;
+        if (!operations.start(id, description)) {
+          throw new OperationInProgressException(id);
+        }
+        repository.save(instance.withOperation(OperationState.IN_PROGRESS, description));
+        seeder.seedAsync(template, id, () -> recordOperation(id, null, null),
+            failure -> recordOperation(id, OperationState.FAILED, failure));
+        return new CreateServiceInstanceResponse().withDashboardUrl(instance.getDashboardUrl()).withAsync(true);
+      }
+
+      MongoDatabase db = mongo.createDatabase(id, profile, shardedCollections);
+      if (db == null) {
+        throw new ServiceBrokerException("Failed to create new DB instance: " + instance.getServiceInstanceId());
+      }
+      //save to broker database for record keeping
+      repository.save(instance);
+
+      return new CreateServiceInstanceResponse().withDashboardUrl(instance.getDashboardUrl());
+    }
+  }
+
+  /**
+   * Instances of a pooled plan share the plan's database, each under a collection prefix of its own.
+   */
+  private CreateServiceInstanceResponse createPooled(CreateServiceInstanceRequest request, ServiceInstance instance,
+                                                     ProvisioningProfile profile) {
+    if (request.getParameters() != null && request.getParameters().containsKey("template")) {
+      throw new ServiceBrokerInvalidParametersException("Pooled plans cannot be seeded from a template");
     }
+    String prefix = instance.getServiceInstanceId() + ".";
+    mongo.createTenant(profile.getPooledDatabase(), prefix, profile);
+    repository.save(instance.withTenancy(profile.getPooledDatabase(), prefix));
+    return new CreateServiceInstanceResponse().withDashboardUrl(instance.getDashboardUrl());
+  }
 
-    MongoDatabase db = mongo.createDatabase(instance.getServiceInstanceId());
-    if (db == null) {
-      throw new ServiceBrokerException("Failed to create new DB instance: " + instance.getServiceInstanceId());
+  /**
+   * The template is taken from the {@code template} provision parameter, falling back to the plan's.
+   */
+  private String getTemplate(CreateServiceInstanceRequest request, ProvisioningProfile profile) {
+    Object parameter = request.getParameters() == null ? null : request.getParameters().get("template");
+    String template = parameter != null ? parameter.toString() : profile.getTemplate();
+    if (template == null) {
+      return null;
+    }
+    if (!seeder.isAllowed(template) || !mongo.databaseExists(template)) {
+      throw new ServiceBrokerInvalidParametersException("Unknown template database: " + template);
     }
-    //save to broker database for record keeping
-    repository.save(instance);
+    if (!request.isAsyncAccepted()) {
+      throw new ServiceBrokerAsyncRequiredException("Seeding from a template requires accepts_incomplete=true");
+    }
+    return template;
+  }
 
-    return new CreateServiceInstanceResponse();
+  private void recordOperation(String id, OperationState state, String description) {
+    ServiceInstance instance = repository.findOne(id);
+    if (instance != null) {
+      repository.save(instance.withOperation(state, description));
+    }
   }
 
+  /**
+   * The operation is answered from this node while it runs here. Otherwise, an instance whose lock another
+   * node holds is in progress there, and an asynchronous provision is answered from the instance's record,
+   * which is also what every node sees after a restart.
+   */
   @Override
   public GetLastServiceOperationResponse getLastOperation(GetLastServiceOperationRequest request) {
-    return new GetLastServiceOperationResponse().withOperationState(OperationState.SUCCEEDED);
+    try (Tracer.Scope trace = tracer.start("getLastOperation " + request.getServiceInstanceId())) {
+      String id = request.getServiceInstanceId();
+      GetLastServiceOperationResponse operation = operations.get(id);
+      if (operation != null && operation.getState() == OperationState.IN_PROGRESS) {
+        return operation;
+      }
+      // the operation may run on another broker node, which holds the instance's lock while it does
+      if (operations.isInProgress(id)) {
+        return new GetLastServiceOperationResponse().withOperationState(OperationState.IN_PROGRESS)
+            .withDescription("In progress on another broker node");
+      }
+      ServiceInstance instance = repository.findOne(id);
+      if (instance == null) {
+        // provisions only poll instances that were recorded, a missing record is one that failed
+        return new GetLastServiceOperationResponse().withOperationState(OperationState.FAILED)
+            .withDescription("Service instance " + id + " does not exist");
+      }
+      if (instance.getOperationState() == OperationState.IN_PROGRESS) {
+        // no node holds the lock any more, the one running the operation stopped
+        return new GetLastServiceOperationResponse().withOperationState(OperationState.FAILED)
+            .withDescription(instance.getOperationDescription() + " was interrupted");
+      }
+      if (instance.getOperationState() != null) {
+        return new GetLastServiceOperationResponse().withOperationState(instance.getOperationState())
+            .withDescription(instance.getOperationDescription());
+      }
+      if (operation != null) {
+        return operation;
+      }
+      return new GetLastServiceOperationResponse().withOperationState(OperationState.SUCCEEDED);
+    }
   }
 
   ServiceInstance getServiceInstance(String id) {
@@ -68,31 +231,58 @@ public class MongoServiceInstanceService implements ServiceInstanceService {
 
   @Override
   public DeleteServiceInstanceResponse deleteServiceInstance(DeleteServiceInstanceRequest request) throws MongoServiceException {
-    String instanceId = request.getServiceInstanceId();
-    //locate record in broker database
-    ServiceInstance instance = repository.findOne(instanceId);
-    if (instance == null) {
-      throw new ServiceInstanceDoesNotExistException(instanceId);
+    try (Tracer.Scope trace = tracer.start("deleteServiceInstance " + request.getServiceInstanceId());
+         WorkClass.Scope work = WorkClass.DEPROVISION.enter()) {
+      String instanceId = request.getServiceInstanceId();
+      //locate record in broker database
+      ServiceInstance instance = repository.findOne(instanceId);
+      if (instance == null) {
+        throw new ServiceInstanceDoesNotExistException(instanceId);
+      }
+      if (operations.isInProgress(instanceId)) {
+        throw new OperationInProgressException(instanceId);
+      }
+      // the database and its users are dropped later, at a pace the backend can take
+      sweeper.tombstone(instance);
+      hibernator.discard(instance);
+      // delete record from broker database
+      repository.delete(instanceId);
+      operations.clear(instanceId);
+      return new DeleteServiceInstanceResponse();
     }
-    // delete mongo database
-    mongo.deleteDatabase(instanceId);
-    // delete record from broker database
-    repository.delete(instanceId);
-    return new DeleteServiceInstanceResponse();
   }
 
   @Override
   public UpdateServiceInstanceResponse updateServiceInstance(UpdateServiceInstanceRequest request) {
-    String instanceId = request.getServiceInstanceId();
-    ServiceInstance instance = repository.findOne(instanceId);
-    if (instance == null) {
-      throw new ServiceInstanceDoesNotExistException(instanceId);
-    }
+    try (Tracer.Scope trace = tracer.start("updateServiceInstance " + request.getServiceInstanceId());
+         WorkClass.Scope work = WorkClass.PROVISION.enter()) {
+      String instanceId = request.getServiceInstanceId();
+      ServiceInstance instance = repository.findOne(instanceId);
+      if (instance == null) {
+        throw new ServiceInstanceDoesNotExistException(instanceId);
+      }
 
-    repository.delete(instanceId);
-    ServiceInstance updatedInstance = new ServiceInstance(request);
-    repository.save(updatedInstance);
-    return new UpdateServiceInstanceResponse();
+      // the data of an instance stays where it was provisioned
+      String pool = instance.isPooled() ? instance.getDatabaseName() : null;
+      if (!Objects.equals(pool, profiles.forPlan(request.getPlanId()).getPooledDatabase())) {
+        throw new ServiceInstanceUpdateNotSupportedException(
+            "Instances cannot move between dedicated and pooled plans: " + instanceId);
+      }
+      if (profiles.forPlan(instance.getPlanId()).isSharded() != profiles.forPlan(request.getPlanId()).isSharded()) {
+        throw new ServiceInstanceUpdateNotSupportedException(
+            "Instances cannot move between sharded and unsharded plans: " + instanceId);
+      }
+
+      // overwritten in place, the old version is archived as superseded
+      ServiceInstance updatedInstance = new ServiceInstance(request)
+          .withTenancy(pool, instance.getCollectionPrefix())
+          .withHibernation(instance.getArchiveId(), instance.getHibernatedAt())
+          .withCluster(instance.getCluster())
+          .withOperation(instance.getOperationState(), instance.getOperationDescription())
+          .withDashboardUrl(dashboards.urlFor(instanceId));
+      repository.save(updatedInstance);
+      return new UpdateServiceInstanceResponse();
+    }
   }
 
 }
@@ -0,0 +1,128 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.servicebroker.model.GetLastServiceOperationResponse;
+import org.springframework.cloud.servicebroker.model.OperationState;
+import org.springframework.cloud.servicebroker.mongodb.coordination.LeaseManager;
+import org.springframework.cloud.servicebroker.mongodb.exception.MongoServiceException;
+import org.springframework.cloud.servicebroker.mongodb.model.Lease;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * State of the asynchronous operations running against service instances, as reported to the
+ * platform when it polls the last operation. Instances without a tracked operation have none running.
+ * A running operation also holds the instance's lock from the {@link LeaseManager}, so no other broker
+ * node starts one for the same instance. The lock is only checked when it is taken, so long operations
+ * {@link #checkLock check} that they still hold it before each destructive step.
+ */
+@Component
+public class OperationTracker {
+
+  private final ConcurrentMap<String, GetLastServiceOperationResponse> operations = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<String, Lease> locks = new ConcurrentHashMap<>();
+
+  private final LeaseManager leases;
+
+  public OperationTracker() {
+    this(LeaseManager.standalone());
+  }
+
+  @Autowired
+  public OperationTracker(LeaseManager leases) {
+    this.leases = leases;
+  }
+
+  /**
+   * @return false if another operation is still in progress for the instance
+   */
+  public boolean start(String serviceInstanceId, String description) {
+    GetLastServiceOperationResponse started = response(OperationState.IN_PROGRESS, description);
+    GetLastServiceOperationResponse previous = operations.putIfAbsent(serviceInstanceId, started);
+    while (previous != null) {
+      if (previous.getState() == OperationState.IN_PROGRESS) {
+        return false;
+      }
+      if (operations.replace(serviceInstanceId, previous, started)) {
+        break;
+      }
+      previous = operations.putIfAbsent(serviceInstanceId, started);
+    }
+
+    Lease lock = leases.tryLock(serviceInstanceId);
+    if (lock == null) {
+      // another node runs an operation on the instance
+      if (previous == null) {
+        operations.remove(serviceInstanceId, started);
+      } else {
+        operations.replace(serviceInstanceId, started, previous);
+      }
+      return false;
+    }
+    locks.put(serviceInstanceId, lock);
+    return true;
+  }
+
+  public void progress(String serviceInstanceId, String description) {
+    operations.put(serviceInstanceId, response(OperationState.IN_PROGRESS, description));
+  }
+
+  public void succeed(String serviceInstanceId, String description) {
+    operations.put(serviceInstanceId, response(OperationState.SUCCEEDED, description));
+    leases.release(locks.remove(serviceInstanceId));
+  }
+
+  public void fail(String serviceInstanceId, String description) {
+    operations.put(serviceInstanceId, response(OperationState.FAILED, description));
+    leases.release(locks.remove(serviceInstanceId));
+  }
+
+  /**
+   * @return true if the operation this node runs on the instance still holds the instance's lock
+   */
+  public boolean holdsLock(String serviceInstanceId) {
+    return leases.isHeld(locks.get(serviceInstanceId));
+  }
+
+  /**
+   * Stop the operation on the instance if its lock lapsed, e.g. because renewals failed, since another node
+   * may have started an operation on the instance since.
+   * @throws MongoServiceException if this node no longer holds the lock
+   */
+  public void checkLock(String serviceInstanceId) {
+    if (!holdsLock(serviceInstanceId)) {
+      throw new MongoServiceException("the lock of service instance " + serviceInstanceId + " was lost");
+    }
+  }
+
+  /**
+   * @return true if an operation is running on the instance, on this node or any other
+   */
+  public boolean isInProgress(String serviceInstanceId) {
+    GetLastServiceOperationResponse operation = operations.get(serviceInstanceId);
+    if (operation != null && operation.getState() == OperationState.IN_PROGRESS) {
+      return true;
+    }
+    return leases.isLocked(serviceInstanceId);
+  }
+
+  /**
+   * @return the last operation of the instance, or null if none was tracked
+   */
+  public GetLastServiceOperationResponse get(String serviceInstanceId) {
+    return operations.get(serviceInstanceId);
+  }
+
+  public void clear(String serviceInstanceId) {
+    operations.remove(serviceInstanceId);
+    leases.release(locks.remove(serviceInstanceId));
+  }
+
+  private static GetLastServiceOperationResponse response(OperationState state, String description) {
+    return new GetLastServiceOperationResponse().withOperationState(state).withDescription(description);
+  }
+
+}
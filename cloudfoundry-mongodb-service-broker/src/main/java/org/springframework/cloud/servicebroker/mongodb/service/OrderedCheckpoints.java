@@ -0,0 +1,87 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tracks the units of a long running job, such as a batch of databases, in the order they were handed out to
+ * run in parallel, and checkpoints the last one before the first that is still running or failed. The job
+ * only moves its checkpoint past a unit when it and every unit before it are done, so an interrupted or failed
+ * job resumes where it stopped when started again. A failed unit stalls the job: it stays unfinished and holds
+ * the checkpoint back, and the job ends as failed.
+ */
+abstract class OrderedCheckpoints {
+
+  private Logger logger = LoggerFactory.getLogger(OrderedCheckpoints.class);
+
+  private final String job;
+  // in submission order, true once done; a failed unit stays false and holds the checkpoint back
+  private final Map<String, Boolean> units = new LinkedHashMap<>();
+  private boolean stalled;
+
+  /**
+   * @param job what the checkpoints are of, for the log
+   */
+  OrderedCheckpoints(String job) {
+    this.job = job;
+  }
+
+  synchronized void submitted(String unit) {
+    units.put(unit, false);
+  }
+
+  synchronized void completed(String unit, boolean success) {
+    if (!success) {
+      stalled = true;
+      save(null);
+      return;
+    }
+    units.put(unit, true);
+    String checkpoint = null;
+    for (Iterator<Map.Entry<String, Boolean>> it = units.entrySet().iterator(); it.hasNext(); ) {
+      Map.Entry<String, Boolean> done = it.next();
+      if (!done.getValue()) {
+        break;
+      }
+      checkpoint = done.getKey();
+      it.remove();
+    }
+    if (checkpoint != null) {
+      save(checkpoint);
+    }
+  }
+
+  synchronized void stall() {
+    stalled = true;
+  }
+
+  synchronized void finish(boolean interrupted) {
+    finished(stalled || interrupted);
+  }
+
+  /**
+   * Record the progress of the job, with the checkpoint if it moved.
+   * @param checkpoint the last unit that is done along with every unit before it, or null to keep the last one
+   */
+  protected abstract void write(String checkpoint);
+
+  /**
+   * Record the end of the job.
+   * @param failed whether a unit failed, the job stopped early or it was interrupted
+   */
+  protected abstract void finished(boolean failed);
+
+  private void save(String checkpoint) {
+    try {
+      write(checkpoint);
+    } catch (RuntimeException e) {
+      // a later unit saves it again, at worst a resumed job redoes some units
+      logger.warn("Could not checkpoint the " + job + ": " + e.getMessage());
+    }
+  }
+
+}
@@ -0,0 +1,23 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Generates binding passwords: 192 random bits, URL-safe base64 encoded so they can be embedded in a
+ * connection string as is.
+ */
+final class Passwords {
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private Passwords() {
+  }
+
+  static String generate() {
+    byte[] bytes = new byte[24];
+    RANDOM.nextBytes(bytes);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+  }
+
+}
@@ -0,0 +1,192 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.bson.Document;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The shape of a profiled query: its collection and the keys of the index that would serve it, the fields
+ * it matches by equality first, then the fields it sorts on, then the fields it matches on a range.
+ * Queries that differ only in their values have the same shape.
+ */
+final class QueryShape {
+
+  private static final Set<String> EQUALITY_OPERATORS = new TreeSet<>(Arrays.asList("$eq", "$in"));
+
+  private final String collection;
+  private final Document keys;
+  private final String id;
+
+  private QueryShape(String collection, Document keys) {
+    this.collection = collection;
+    this.keys = keys;
+    this.id = collection + " " + keys.toJson();
+  }
+
+  /**
+   * @param profiled an entry of {@code system.profile}
+   * @return the shape of the query, or null if no index on plain fields would serve it
+   */
+  static QueryShape of(Document profiled) {
+    String ns = profiled.getString("ns");
+    int dot = ns == null ? -1 : ns.indexOf('.');
+    if (dot < 0 || ns.startsWith("$cmd", dot + 1) || ns.startsWith("system.", dot + 1)) {
+      return null;
+    }
+    Document command = document(profiled.get("command"));
+    Document filter = null;
+    Document sort = null;
+    switch (String.valueOf(profiled.get("op"))) {
+      case "query":
+        // before 3.6 the find command is profiled as the query
+        Document find = command != null ? command : document(profiled.get("query"));
+        filter = find == null ? null : document(find.get("filter"));
+        sort = find == null ? null : document(find.get("sort"));
+        break;
+      case "update":
+      case "remove":
+        filter = command != null ? document(command.get("q")) : document(profiled.get("query"));
+        break;
+      case "command":
+        if (command == null) {
+          return null;
+        }
+        if (command.get("pipeline") instanceof List) {
+          List<?> pipeline = (List<?>) command.get("pipeline");
+          Document first = pipeline.isEmpty() ? null : document(pipeline.get(0));
+          filter = first == null ? null : document(first.get("$match"));
+          Document second = filter == null || pipeline.size() < 2 ? null : document(pipeline.get(1));
+          sort = second == null ? null : document(second.get("$sort"));
+        } else {
+          // count, distinct and findAndModify
+          filter = document(command.get("query"));
+          sort = document(command.get("sort"));
+        }
+        break;
+      default:
+        return null;
+    }
+
+    Set<String> equality = new TreeSet<>();
+    Set<String> range = new TreeSet<>();
+    if (filter != null) {
+      classify(filter, equality, range);
+    }
+    Document keys = new Document();
+    for (String field : equality) {
+      keys.put(field, 1);
+    }
+    if (sort != null) {
+      for (Map.Entry<String, Object> entry : sort.entrySet()) {
+        if (!keys.containsKey(entry.getKey()) && entry.getValue() instanceof Number) {
+          keys.put(entry.getKey(), ((Number) entry.getValue()).intValue() < 0 ? -1 : 1);
+        }
+      }
+    }
+    for (String field : range) {
+      keys.putIfAbsent(field, 1);
+    }
+    if (keys.isEmpty() || keys.keySet().iterator().next().equals("_id")) {
+      // the _id index serves it already
+      return null;
+    }
+    return new QueryShape(ns.substring(dot + 1), keys);
+  }
+
+  private static void classify(Document filter, Set<String> equality, Set<String> range) {
+    for (Map.Entry<String, Object> entry : filter.entrySet()) {
+      String field = entry.getKey();
+      if ("$and".equals(field) && entry.getValue() instanceof List) {
+        for (Object clause : (List<?>) entry.getValue()) {
+          if (clause instanceof Document) {
+            classify((Document) clause, equality, range);
+          }
+        }
+      } else if (field.startsWith("$")) {
+        // $or, $text, $where and $expr need more than one index on plain fields
+        continue;
+      } else if (isOperators(entry.getValue())) {
+        Set<String> operators = ((Document) entry.getValue()).keySet();
+        if (operators.stream().anyMatch(EQUALITY_OPERATORS::contains)) {
+          equality.add(field);
+        } else {
+          range.add(field);
+        }
+      } else {
+        equality.add(field);
+      }
+    }
+    range.removeAll(equality);
+  }
+
+  private static boolean isOperators(Object value) {
+    return value instanceof Document && !((Document) value).isEmpty()
+        && ((Document) value).keySet().iterator().next().startsWith("$");
+  }
+
+  private static Document document(Object value) {
+    return value instanceof Document ? (Document) value : null;
+  }
+
+  String getCollection() {
+    return collection;
+  }
+
+  Document getKeys() {
+    return keys;
+  }
+
+  /**
+   * @return the name {@code createIndex} would give the index
+   */
+  String getIndexName() {
+    StringBuilder name = new StringBuilder();
+    for (Map.Entry<String, Object> key : keys.entrySet()) {
+      if (name.length() > 0) {
+        name.append('_');
+      }
+      name.append(key.getKey()).append('_').append(key.getValue());
+    }
+    return name.toString();
+  }
+
+  /**
+   * @param index the {@code key} of an existing index
+   * @return whether the index starts with the keys of this shape, so that it serves its queries
+   */
+  boolean isServedBy(Document index) {
+    Iterator<Map.Entry<String, Object>> existing = index.entrySet().iterator();
+    for (Map.Entry<String, Object> key : keys.entrySet()) {
+      if (!existing.hasNext()) {
+        return false;
+      }
+      Map.Entry<String, Object> next = existing.next();
+      if (!next.getKey().equals(key.getKey()) || !(next.getValue() instanceof Number)
+          || Math.signum(((Number) next.getValue()).doubleValue()) != ((Number) key.getValue()).intValue()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof QueryShape && id.equals(((QueryShape) o).id);
+  }
+
+  @Override
+  public int hashCode() {
+    return id.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return id;
+  }
+
+}
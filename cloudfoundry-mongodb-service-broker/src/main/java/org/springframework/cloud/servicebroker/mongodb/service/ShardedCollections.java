@@ -0,0 +1,167 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.bson.Document;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerInvalidParametersException;
+import org.springframework.cloud.servicebroker.mongodb.model.CollectionProfile;
+import org.springframework.cloud.servicebroker.mongodb.model.ProvisioningProfile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The collections a tenant of a sharded plan declares in the {@code shardedCollections} provision parameter,
+ * each with a {@code name} and a shard {@code key}:
+ * <pre>
+ * {"shardedCollections": [
+ *   {"name": "events", "key": {"deviceId": "hashed"}, "initialChunks": 64},
+ *   {"name": "orders", "key": {"region": 1, "orderId": 1}, "splitPoints": [{"region": "eu", "orderId": 0}]}]}
+ * </pre>
+ * A hashed key names a single field and may set how many chunks the collection starts with; a ranged key
+ * may list the points its chunks are split at up front. The number of collections and of split points is
+ * capped, since each is a command provisioning waits for.
+ */
+final class ShardedCollections {
+
+  static final String PARAMETER = "shardedCollections";
+
+  // the most the server splits a hashed collection into up front
+  static final int MAX_INITIAL_CHUNKS = 8192;
+
+  // provisioning shards each collection and splits it at each point with a command of its own
+  static final int MAX_COLLECTIONS = 100;
+  static final int MAX_SPLIT_POINTS = 1000;
+
+  private ShardedCollections() {
+  }
+
+  /**
+   * @return the collections declared in the parameters, empty if there are none
+   * @throws ServiceBrokerInvalidParametersException if the declarations are malformed, or the plan is not sharded
+   */
+  static List<CollectionProfile> fromParameters(Map<String, Object> parameters, ProvisioningProfile profile) {
+    Object declared = parameters == null ? null : parameters.get(PARAMETER);
+    if (declared == null) {
+      return Collections.emptyList();
+    }
+    if (!profile.isSharded()) {
+      throw new ServiceBrokerInvalidParametersException("Plan " + profile.getName() + " does not shard collections");
+    }
+    if (!(declared instanceof List)) {
+      throw new ServiceBrokerInvalidParametersException(PARAMETER + " must be a list of collections");
+    }
+    if (((List<?>) declared).size() > MAX_COLLECTIONS) {
+      throw new ServiceBrokerInvalidParametersException(
+          PARAMETER + " may declare at most " + MAX_COLLECTIONS + " collections");
+    }
+    Set<String> names = new HashSet<>();
+    for (CollectionProfile collection : profile.getCollections()) {
+      names.add(collection.getName());
+    }
+    List<CollectionProfile> collections = new ArrayList<>();
+    for (Object entry : (List<?>) declared) {
+      if (!(entry instanceof Map)) {
+        throw new ServiceBrokerInvalidParametersException(PARAMETER + " must be a list of collections");
+      }
+      CollectionProfile collection = parse(toDocument((Map<?, ?>) entry));
+      if (!names.add(collection.getName())) {
+        throw new ServiceBrokerInvalidParametersException("Collection " + collection.getName() + " is declared twice");
+      }
+      collections.add(collection);
+    }
+    return collections;
+  }
+
+  private static CollectionProfile parse(Document entry) {
+    Object name = entry.get("name");
+    if (!(name instanceof String) || ((String) name).isEmpty() || ((String) name).contains("$")
+        || ((String) name).startsWith("system.")) {
+      throw new ServiceBrokerInvalidParametersException("Not a collection name: " + name);
+    }
+    Object key = entry.get("key");
+    if (!(key instanceof Document) || ((Document) key).isEmpty()) {
+      throw new ServiceBrokerInvalidParametersException("Collection " + name + " needs a shard key");
+    }
+    Document shardKey = (Document) key;
+    if (shardKey.containsValue("hashed")) {
+      if (shardKey.size() > 1) {
+        throw new ServiceBrokerInvalidParametersException(
+            "The hashed shard key of collection " + name + " must be a single field");
+      }
+      if (entry.containsKey("splitPoints")) {
+        throw new ServiceBrokerInvalidParametersException(
+            "Collection " + name + " has a hashed shard key, set initialChunks instead of splitPoints");
+      }
+      Object chunks = entry.get("initialChunks");
+      if (chunks != null && (!(chunks instanceof Number) || ((Number) chunks).intValue() < 1
+          || ((Number) chunks).intValue() > MAX_INITIAL_CHUNKS)) {
+        throw new ServiceBrokerInvalidParametersException(
+            "initialChunks of collection " + name + " must be between 1 and " + MAX_INITIAL_CHUNKS);
+      }
+      return new CollectionProfile((String) name).withHashedShardKey(shardKey.keySet().iterator().next(),
+          chunks == null ? 0 : ((Number) chunks).intValue());
+    }
+
+    for (Object direction : shardKey.values()) {
+      if (!(direction instanceof Number) || ((Number) direction).intValue() != 1) {
+        throw new ServiceBrokerInvalidParametersException(
+            "The shard key of collection " + name + " must map its fields to 1 or \"hashed\"");
+      }
+    }
+    if (entry.containsKey("initialChunks")) {
+      throw new ServiceBrokerInvalidParametersException(
+          "Collection " + name + " has a ranged shard key, set splitPoints instead of initialChunks");
+    }
+    List<Document> splitPoints = new ArrayList<>();
+    Object points = entry.get("splitPoints");
+    if (points != null && !(points instanceof List)) {
+      throw new ServiceBrokerInvalidParametersException("splitPoints of collection " + name + " must be a list");
+    }
+    if (points != null && ((List<?>) points).size() > MAX_SPLIT_POINTS) {
+      throw new ServiceBrokerInvalidParametersException(
+          "Collection " + name + " may have at most " + MAX_SPLIT_POINTS + " splitPoints");
+    }
+    for (Object point : points == null ? Collections.emptyList() : (List<?>) points) {
+      if (!(point instanceof Document) || !((Document) point).keySet().equals(shardKey.keySet())) {
+        throw new ServiceBrokerInvalidParametersException(
+            "The split points of collection " + name + " must have the fields of its shard key");
+      }
+      // the shard key fields in key order, as the server expects them
+      Document splitPoint = new Document();
+      for (String field : shardKey.keySet()) {
+        splitPoint.append(field, ((Document) point).get(field));
+      }
+      splitPoints.add(splitPoint);
+    }
+    return new CollectionProfile((String) name).withRangedShardKey(shardKey, splitPoints);
+  }
+
+  /**
+   * Provision parameters arrive as maps and lists; the driver only encodes nested documents.
+   */
+  private static Document toDocument(Map<?, ?> map) {
+    Document document = new Document();
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      document.append(String.valueOf(entry.getKey()), toValue(entry.getValue()));
+    }
+    return document;
+  }
+
+  private static Object toValue(Object value) {
+    if (value instanceof Map) {
+      return toDocument((Map<?, ?>) value);
+    }
+    if (value instanceof List) {
+      List<Object> values = new ArrayList<>();
+      for (Object element : (List<?>) value) {
+        values.add(toValue(element));
+      }
+      return values;
+    }
+    return value;
+  }
+
+}
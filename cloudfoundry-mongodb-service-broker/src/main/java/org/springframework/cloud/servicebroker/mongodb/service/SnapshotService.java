@@ -0,0 +1,276 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import com.mongodb.client.MongoCursor;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.exception.ServiceInstanceDoesNotExistException;
+import org.springframework.cloud.servicebroker.mongodb.cache.MetadataCache;
+import org.springframework.cloud.servicebroker.mongodb.config.PlanProfiles;
+import org.springframework.cloud.servicebroker.mongodb.exception.OperationInProgressException;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournalRecord;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournaledRepository;
+import org.springframework.cloud.servicebroker.mongodb.journal.MetadataJournal;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceRepository;
+import org.springframework.cloud.servicebroker.mongodb.snapshot.SegmentReader;
+import org.springframework.cloud.servicebroker.mongodb.snapshot.SegmentWriter;
+import org.springframework.cloud.servicebroker.mongodb.snapshot.SnapshotManifest;
+import org.springframework.cloud.servicebroker.mongodb.snapshot.SnapshotStore;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Snapshots a service instance database to local segment files and restores it from them. Documents are
+ * streamed as undecoded BSON from the cursor into the {@link SegmentWriter} and back from the
+ * {@link SegmentReader} into ordered bulk inserts, so they are never turned into Java objects. Both run in
+ * the background and report through the instance's {@link OperationTracker}.
+ */
+@Component
+public class SnapshotService implements DisposableBean {
+
+  private Logger logger = LoggerFactory.getLogger(SnapshotService.class);
+
+  private final MongoAdminService mongo;
+  private final JournaledRepository<ServiceInstance> repository;
+  private final SnapshotStore store;
+  private final OperationTracker operations;
+  private final PlanProfiles profiles;
+  private final Executor executor;
+
+  @Autowired
+  public SnapshotService(MongoAdminService mongo, MongoServiceInstanceRepository repository, MetadataJournal journal,
+                         MetadataCache cache, SnapshotStore store, OperationTracker operations,
+                         PlanProfiles profiles, @Value("${broker.snapshot.threads:1}") int threads) {
+    this(mongo, new JournaledRepository<>(journal, cache, JournalRecord.Kind.SERVICE_INSTANCE, repository), store,
+        operations, profiles, Executors.newFixedThreadPool(threads, runnable -> {
+          Thread thread = new Thread(runnable, "snapshot");
+          thread.setDaemon(true);
+          return thread;
+        }));
+  }
+
+  SnapshotService(MongoAdminService mongo, JournaledRepository<ServiceInstance> repository, SnapshotStore store,
+                  OperationTracker operations, PlanProfiles profiles, Executor executor) {
+    this.mongo = mongo;
+    this.repository = repository;
+    this.store = store;
+    this.operations = operations;
+    this.profiles = profiles;
+    this.executor = executor;
+  }
+
+  /**
+   * Start a snapshot of the instance database.
+   * @return the id of the new snapshot, listed once it is complete
+   */
+  public String startSnapshot(String serviceInstanceId) {
+    checkInstance(serviceInstanceId);
+    SnapshotManifest manifest;
+    try {
+      manifest = store.create(serviceInstanceId, System.currentTimeMillis());
+    } catch (IOException e) {
+      throw new ServiceBrokerException("Could not create snapshot directory: " + e.getMessage());
+    }
+    if (!operations.start(serviceInstanceId, "Snapshot " + manifest.getId() + " in progress")) {
+      deleteQuietly(manifest);
+      throw new OperationInProgressException(serviceInstanceId);
+    }
+    executor.execute(() -> {
+      try {
+        snapshot(manifest);
+        operations.succeed(serviceInstanceId, "Snapshot " + manifest.getId() + " completed");
+      } catch (IOException | RuntimeException e) {
+        logger.warn("Snapshot " + manifest.getId() + " of " + serviceInstanceId + " failed", e);
+        deleteQuietly(manifest);
+        operations.fail(serviceInstanceId, "Snapshot " + manifest.getId() + " failed: " + e.getMessage());
+      }
+    });
+    return manifest.getId();
+  }
+
+  /**
+   * Start replacing the contents of the instance database with a snapshot.
+   * @return false if the instance has no complete snapshot with the id
+   */
+  public boolean startRestore(String serviceInstanceId, String snapshotId) {
+    checkInstance(serviceInstanceId);
+    SnapshotManifest manifest = find(serviceInstanceId, snapshotId);
+    if (manifest == null) {
+      return false;
+    }
+    if (!operations.start(serviceInstanceId, "Restore of snapshot " + snapshotId + " in progress")) {
+      throw new OperationInProgressException(serviceInstanceId);
+    }
+    executor.execute(() -> {
+      try {
+        restore(manifest);
+        operations.succeed(serviceInstanceId, "Restored snapshot " + snapshotId);
+      } catch (IOException | RuntimeException e) {
+        // the database is left as far as the restore got, restoring again starts over
+        logger.warn("Restore of snapshot " + snapshotId + " into " + serviceInstanceId + " failed", e);
+        operations.fail(serviceInstanceId, "Restore of snapshot " + snapshotId + " failed: " + e.getMessage());
+      }
+    });
+    return true;
+  }
+
+  public List<SnapshotManifest> list(String serviceInstanceId) {
+    try {
+      return store.list(serviceInstanceId);
+    } catch (IOException e) {
+      throw new ServiceBrokerException("Could not list snapshots: " + e.getMessage());
+    }
+  }
+
+  public SnapshotManifest find(String serviceInstanceId, String snapshotId) {
+    try {
+      return store.find(serviceInstanceId, snapshotId);
+    } catch (IOException e) {
+      throw new ServiceBrokerException("Could not read snapshot " + snapshotId + ": " + e.getMessage());
+    }
+  }
+
+  public void delete(String serviceInstanceId, String snapshotId) {
+    ServiceInstance instance = repository.findOne(serviceInstanceId);
+    if (instance != null && snapshotId.equals(instance.getArchiveId())) {
+      throw new IllegalArgumentException("Snapshot " + snapshotId + " holds the data of the hibernated instance");
+    }
+    try {
+      store.delete(serviceInstanceId, snapshotId);
+    } catch (IOException e) {
+      throw new ServiceBrokerException("Could not delete snapshot " + snapshotId + ": " + e.getMessage());
+    }
+  }
+
+  void snapshot(SnapshotManifest manifest) throws IOException {
+    String databaseName = manifest.getServiceInstanceId();
+    List<Document> collections = BackendRetry.call(() -> mongo.listCollections(databaseName));
+    int number = 0;
+    for (Document collection : collections) {
+      String name = collection.getString("name");
+      if (name.startsWith("system.")) {
+        continue;
+      }
+      String type = collection.getString("type") == null ? "collection" : collection.getString("type");
+      Document options = collection.get("options") == null ? new Document() : (Document) collection.get("options");
+      if ("view".equals(type)) {
+        manifest.withCollection(new SnapshotManifest.Entry(name, type, options,
+            Collections.emptyList(), Collections.emptyList(), 0, 0));
+        continue;
+      }
+
+      List<Document> indexes = BackendRetry.call(() -> mongo.listIndexes(databaseName, name));
+      SegmentWriter writer = store.writer(manifest, number++);
+      try (MongoCursor<RawBsonDocument> cursor = BackendRetry.call(() -> mongo.openRawCursor(databaseName, name))) {
+        while (cursor.hasNext()) {
+          writer.write(cursor.next().getByteBuffer().asNIO());
+        }
+      } finally {
+        writer.close();
+      }
+      List<String> segments = new ArrayList<>();
+      for (Path segment : writer.getSegments()) {
+        segments.add(segment.getFileName().toString());
+      }
+      manifest.withCollection(new SnapshotManifest.Entry(name, type, options, indexes, segments,
+          writer.getDocuments(), writer.getRawBytes()));
+      operations.progress(databaseName, String.format("Snapshot %s: %s copied, %d documents",
+          manifest.getId(), name, writer.getDocuments()));
+    }
+    store.complete(manifest);
+  }
+
+  void restore(SnapshotManifest manifest) throws IOException {
+    String databaseName = manifest.getServiceInstanceId();
+    operations.checkLock(databaseName);
+    BackendRetry.run(() -> mongo.deleteDatabase(databaseName));
+
+    List<RawBsonDocument> batch = new ArrayList<>();
+    for (SnapshotManifest.Entry collection : manifest.getCollections()) {
+      if (collection.isView()) {
+        continue;
+      }
+      String name = collection.getName();
+      operations.checkLock(databaseName);
+      BackendRetry.run(() -> mongo.createCollection(databaseName, name, collection.getOptions()));
+      long restored = 0;
+      try (SegmentReader reader = store.reader(manifest, collection)) {
+        int length;
+        while ((length = reader.nextBlock()) >= 0) {
+          // the documents share the block buffer, which is only reused once the insert has returned
+          byte[] block = reader.getBlock();
+          batch.clear();
+          for (int offset = 0; offset < length; ) {
+            int size = SegmentReader.documentLength(block, offset);
+            batch.add(new RawBsonDocument(block, offset, size));
+            offset += size;
+          }
+          BackendRetry.run(() -> mongo.insertRaw(databaseName, name, batch));
+          restored += batch.size();
+        }
+      }
+      BackendRetry.run(() -> mongo.createIndexes(databaseName, name, collection.getIndexes()));
+      operations.progress(databaseName, String.format("Restore of snapshot %s: %s restored, %d documents",
+          manifest.getId(), name, restored));
+    }
+    // views last, they may be defined on any of the collections
+    for (SnapshotManifest.Entry view : manifest.getCollections()) {
+      if (view.isView()) {
+        BackendRetry.run(() -> mongo.createCollection(databaseName, view.getName(), view.getOptions()));
+      }
+    }
+  }
+
+  @Override
+  public void destroy() {
+    if (executor instanceof ExecutorService) {
+      ((ExecutorService) executor).shutdownNow();
+    }
+  }
+
+  private void checkInstance(String serviceInstanceId) {
+    ServiceInstance instance = repository.findOne(serviceInstanceId);
+    if (instance == null) {
+      throw new ServiceInstanceDoesNotExistException(serviceInstanceId);
+    }
+    if (instance.isPooled()) {
+      // snapshots copy whole databases
+      throw new ServiceBrokerException("Instances of pooled plans cannot be snapshotted: " + serviceInstanceId);
+    }
+    if (profiles.forPlan(instance.getPlanId()).isSharded()) {
+      // a restore would bring the collections back unsharded and outside the plan's zone
+      throw new ServiceBrokerException("Instances of sharded plans cannot be snapshotted: " + serviceInstanceId);
+    }
+    if (instance.isHibernated()) {
+      throw new ServiceBrokerException("Service instance " + serviceInstanceId + " is hibernated, wake it first");
+    }
+    if (instance.getCluster() != null) {
+      // snapshots are taken from the default cluster
+      throw new ServiceBrokerException("Service instance " + serviceInstanceId + " is on cluster "
+          + instance.getCluster() + " and cannot be snapshotted");
+    }
+  }
+
+  private void deleteQuietly(SnapshotManifest manifest) {
+    try {
+      store.delete(manifest.getServiceInstanceId(), manifest.getId());
+    } catch (IOException e) {
+      logger.warn("Could not delete snapshot " + manifest.getId(), e);
+    }
+  }
+
+}
@@ -0,0 +1,148 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.mongodb.exception.MongoServiceException;
+import org.springframework.cloud.servicebroker.mongodb.throttle.WorkClass;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Materializes new service instance databases from a template database. Collections are created with the
+ * template's options, filled with a server-side {@code $merge} and then indexed with one batched
+ * {@code createIndexes} per collection, so no document ever passes through the broker. Seeding runs in the
+ * background and reports its progress through the {@link OperationTracker}.
+ */
+@Component
+public class TemplateSeeder implements DisposableBean {
+
+  private Logger logger = LoggerFactory.getLogger(TemplateSeeder.class);
+
+  private final MongoAdminService mongo;
+  private final OperationTracker operations;
+  private final Set<String> allowedTemplates;
+  private final Executor executor;
+
+  @Autowired
+  public TemplateSeeder(MongoAdminService mongo, OperationTracker operations,
+                        @Value("${broker.templates.allowed:}") String[] allowedTemplates,
+                        @Value("${broker.templates.seed-threads:2}") int seedThreads) {
+    this(mongo, operations, Arrays.asList(allowedTemplates), Executors.newFixedThreadPool(seedThreads, runnable -> {
+      Thread thread = new Thread(runnable, "template-seeder");
+      thread.setDaemon(true);
+      return thread;
+    }));
+  }
+
+  TemplateSeeder(MongoAdminService mongo, OperationTracker operations, Collection<String> allowedTemplates,
+                 Executor executor) {
+    this.mongo = mongo;
+    this.operations = operations;
+    this.allowedTemplates = new HashSet<>(allowedTemplates);
+    this.allowedTemplates.remove("");
+    this.executor = executor;
+  }
+
+  /**
+   * @return a seeder that accepts no templates
+   */
+  public static TemplateSeeder none(MongoAdminService mongo) {
+    return new TemplateSeeder(mongo, new OperationTracker(), Collections.emptySet(), Runnable::run);
+  }
+
+  /**
+   * Only databases set aside as templates may be copied, never another tenant's instance.
+   */
+  public boolean isAllowed(String template) {
+    return allowedTemplates.contains(template);
+  }
+
+  /**
+   * Seed the database in the background. The instance's operation must already have been started;
+   * it is completed or failed here, after {@code onSuccess} or {@code onFailure} has recorded the outcome
+   * with the instance. On failure the partial database is dropped before {@code onFailure} is given the
+   * description of the failure.
+   */
+  public void seedAsync(String template, String databaseName, Runnable onSuccess, Consumer<String> onFailure) {
+    executor.execute(() -> {
+      // the platform is still waiting for the provision
+      try (WorkClass.Scope work = WorkClass.PROVISION.enter()) {
+        seed(template, databaseName);
+        onSuccess.run();
+        operations.succeed(databaseName, "Seeded from template " + template);
+      } catch (RuntimeException e) {
+        logger.warn("Could not seed " + databaseName + " from template " + template, e);
+        try {
+          mongo.deleteDatabase(databaseName);
+        } catch (MongoServiceException ignore) {
+        }
+        String description = "Seeding from template " + template + " failed: " + e.getMessage();
+        try {
+          onFailure.accept(description);
+        } catch (RuntimeException failure) {
+          logger.warn("Could not record the failed seed of " + databaseName, failure);
+        }
+        operations.fail(databaseName, description);
+      }
+    });
+  }
+
+  void seed(String template, String databaseName) {
+    List<Document> collections = new ArrayList<>();
+    List<Document> views = new ArrayList<>();
+    for (Document collection : BackendRetry.call(() -> mongo.listCollections(template))) {
+      if (collection.getString("name").startsWith("system.")) {
+        continue;
+      }
+      // views are created last, they may be defined on any of the collections
+      ("view".equals(collection.getString("type")) ? views : collections).add(collection);
+    }
+
+    int total = collections.size() + views.size();
+    int done = 0;
+    for (Document collection : collections) {
+      String name = collection.getString("name");
+      BackendRetry.run(() -> mongo.createCollection(databaseName, name, options(collection)));
+      // indexes are built after the copy, in bulk, rather than maintained document by document
+      BackendRetry.run(() -> mongo.copyCollection(template, databaseName, name));
+      BackendRetry.run(() -> mongo.copyIndexes(template, databaseName, name));
+      operations.progress(databaseName, progress(template, ++done, total));
+    }
+    for (Document view : views) {
+      BackendRetry.run(() -> mongo.createCollection(databaseName, view.getString("name"), options(view)));
+      operations.progress(databaseName, progress(template, ++done, total));
+    }
+  }
+
+  @Override
+  public void destroy() {
+    if (executor instanceof ExecutorService) {
+      ((ExecutorService) executor).shutdownNow();
+    }
+  }
+
+  private static Document options(Document collection) {
+    Document options = (Document) collection.get("options");
+    return options == null ? new Document() : options;
+  }
+
+  private static String progress(String template, int done, int total) {
+    return String.format("Seeding from template %s: %d of %d collections copied", template, done, total);
+  }
+
+}
@@ -0,0 +1,223 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.mongodb.coordination.LeaseManager;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.model.Tombstone;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoTombstoneRepository;
+import org.springframework.cloud.servicebroker.mongodb.throttle.TokenBucket;
+import org.springframework.cloud.servicebroker.mongodb.throttle.WorkClass;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Drops the databases and users of deprovisioned service instances in the background. Deprovisioning
+ * only records a {@link Tombstone}; the sweeper works through them oldest first with bounded parallelism
+ * and a drops-per-second budget, so a mass deprovision does not pile {@code dropDatabase} locks onto the
+ * backend. Tombstones are persistent, so sweeping resumes after a restart, and failed drops are retried
+ * with backoff. Only the broker node leading the sweep job sweeps.
+ */
+@Component
+public class TombstoneSweeper implements DisposableBean {
+
+  private static final long MAX_BACKOFF_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  static final String JOB = "tombstone-sweeper";
+
+  private Logger logger = LoggerFactory.getLogger(TombstoneSweeper.class);
+
+  private final BackendClusters clusters;
+  private final MongoTombstoneRepository repository;
+  private final LeaseManager leases;
+  private final int parallelism;
+  private final int batchSize;
+  private final TokenBucket budget;
+  private final Executor executor;
+  private final LongSupplier clock;
+
+  // only touched by the scheduling thread
+  private final Deque<Tombstone> queue = new ArrayDeque<>();
+
+  private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+  private volatile long backlog;
+  private final AtomicLong swept = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+  @Autowired
+  public TombstoneSweeper(BackendClusters clusters, MongoTombstoneRepository repository, LeaseManager leases,
+                          @Value("${broker.sweeper.parallelism:2}") int parallelism,
+                          @Value("${broker.sweeper.drops-per-second:1}") double dropsPerSecond,
+                          @Value("${broker.sweeper.batch-size:100}") int batchSize) {
+    this(clusters, repository, leases, parallelism, dropsPerSecond, batchSize,
+        Executors.newFixedThreadPool(parallelism, runnable -> {
+          Thread thread = new Thread(runnable, "tombstone-sweeper");
+          thread.setDaemon(true);
+          return thread;
+        }), System::nanoTime);
+  }
+
+  TombstoneSweeper(MongoAdminService mongo, MongoTombstoneRepository repository, LeaseManager leases,
+                   int parallelism, double dropsPerSecond, int batchSize, Executor executor, LongSupplier clock) {
+    this(BackendClusters.single(mongo), repository, leases, parallelism, dropsPerSecond, batchSize, executor, clock);
+  }
+
+  TombstoneSweeper(BackendClusters clusters, MongoTombstoneRepository repository, LeaseManager leases,
+                   int parallelism, double dropsPerSecond, int batchSize, Executor executor, LongSupplier clock) {
+    this.clusters = clusters;
+    this.repository = repository;
+    this.leases = leases;
+    this.parallelism = parallelism;
+    this.batchSize = batchSize;
+    // a burst of one second's budget at most, and never less than one drop
+    this.budget = new TokenBucket((int) Math.max(1, Math.round(dropsPerSecond * 60)),
+        (int) Math.max(1, Math.floor(dropsPerSecond)), clock.getAsLong());
+    this.executor = executor;
+    this.clock = clock;
+  }
+
+  /**
+   * @return a sweeper that drops databases as soon as they are tombstoned, for callers that are not
+   * managed by Spring
+   */
+  public static TombstoneSweeper inline(MongoAdminService mongo) {
+    return new TombstoneSweeper(mongo, null, LeaseManager.standalone(), 1, 1, 1, Runnable::run, System::nanoTime);
+  }
+
+  /**
+   * Record that the instance's database and users are to be dropped.
+   */
+  public void tombstone(String serviceInstanceId) {
+    tombstone(new Tombstone(serviceInstanceId, System.currentTimeMillis()));
+  }
+
+  /**
+   * Record that the instance's database, or its collections in a pooled database, are to be dropped.
+   */
+  public void tombstone(ServiceInstance instance) {
+    Tombstone tombstone = new Tombstone(instance.getServiceInstanceId(), System.currentTimeMillis());
+    if (instance.isPooled()) {
+      tombstone.withTenancy(instance.getDatabaseName(), instance.getCollectionPrefix());
+    }
+    tombstone(tombstone.withCluster(instance.getCluster()));
+  }
+
+  private void tombstone(Tombstone tombstone) {
+    if (repository == null) {
+      dropData(tombstone);
+      return;
+    }
+    repository.save(tombstone);
+  }
+
+  public boolean isTombstoned(String serviceInstanceId) {
+    return repository != null && repository.exists(serviceInstanceId);
+  }
+
+  /**
+   * Hand out as many due tombstones to the workers as the parallelism and the budget allow.
+   */
+  @Scheduled(fixedDelayString = "${broker.sweeper.interval-millis:1000}")
+  public void sweep() {
+    if (repository == null || !leases.isLeader(JOB)) {
+      queue.clear();
+      return;
+    }
+    long now = System.currentTimeMillis();
+    if (queue.isEmpty()) {
+      PageRequest oldestFirst = new PageRequest(0, batchSize, new Sort(Sort.Direction.ASC, "createdAt"));
+      for (Tombstone tombstone : repository.findByNotBeforeLessThanEqual(now, oldestFirst)) {
+        if (!inFlight.contains(tombstone.getServiceInstanceId())) {
+          queue.add(tombstone);
+        }
+      }
+    }
+    backlog = repository.count();
+
+    while (!queue.isEmpty() && inFlight.size() < parallelism) {
+      if (budget.tryAcquire(clock.getAsLong()) > 0) {
+        break;
+      }
+      Tombstone tombstone = queue.poll();
+      inFlight.add(tombstone.getServiceInstanceId());
+      executor.execute(() -> drop(tombstone));
+    }
+  }
+
+  /**
+   * @return the number of tombstones not swept yet, as of the last sweep
+   */
+  public long getBacklog() {
+    return backlog;
+  }
+
+  public int getInFlight() {
+    return inFlight.size();
+  }
+
+  public long getSwept() {
+    return swept.get();
+  }
+
+  public long getFailed() {
+    return failed.get();
+  }
+
+  @Override
+  public void destroy() {
+    if (executor instanceof ExecutorService) {
+      ((ExecutorService) executor).shutdownNow();
+    }
+  }
+
+  private void dropData(Tombstone tombstone) {
+    MongoAdminService mongo = clusters.admin(tombstone.getCluster());
+    if (tombstone.getCollectionPrefix() != null) {
+      mongo.dropTenant(tombstone.getDatabase(), tombstone.getCollectionPrefix());
+      return;
+    }
+    mongo.deleteAllUsers(tombstone.getDatabase());
+    mongo.deleteDatabase(tombstone.getDatabase());
+  }
+
+  private void drop(Tombstone tombstone) {
+    String id = tombstone.getServiceInstanceId();
+    try (WorkClass.Scope work = WorkClass.DEPROVISION.enter()) {
+      if (!leases.isLeader(JOB)) {
+        // another node took over the sweep, it drops the database
+        return;
+      }
+      dropData(tombstone);
+      repository.delete(id);
+      swept.incrementAndGet();
+    } catch (RuntimeException e) {
+      long backoff = Math.min(MAX_BACKOFF_MILLIS,
+          TimeUnit.SECONDS.toMillis(10) << Math.min(tombstone.getAttempts(), 20));
+      logger.warn("Could not drop database " + id + ", retrying in " + backoff + " ms: " + e.getMessage());
+      failed.incrementAndGet();
+      try {
+        repository.save(tombstone.withFailedAttempt(e.getMessage(), System.currentTimeMillis() + backoff));
+      } catch (RuntimeException ignore) {
+      }
+    } finally {
+      inFlight.remove(id);
+    }
+  }
+
+}
@@ -0,0 +1,144 @@
+package org.springframework.cloud.servicebroker.mongodb.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads back the blocks written by a {@link SegmentWriter}, segment after segment. Each block is
+ * inflated into a reusable buffer holding its documents back to back.
+ */
+public class SegmentReader implements Closeable {
+
+  private final List<Path> segments;
+  private int nextSegment;
+  private FileChannel channel;
+
+  private final ByteBuffer in = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+  private byte[] compressed = new byte[0];
+  private byte[] block = new byte[0];
+  private final Inflater inflater = new Inflater();
+  private final CRC32 crc = new CRC32();
+
+  public SegmentReader(List<Path> segments) {
+    this.segments = segments;
+  }
+
+  /**
+   * Read and verify the next block.
+   * @return the number of bytes of documents in {@link #getBlock()}, or -1 after the last block
+   */
+  public int nextBlock() throws IOException {
+    while (true) {
+      if (channel == null) {
+        if (nextSegment == segments.size()) {
+          return -1;
+        }
+        channel = FileChannel.open(segments.get(nextSegment++), StandardOpenOption.READ);
+      }
+      in.clear().limit(SegmentWriter.BLOCK_HEADER_SIZE);
+      if (!fill()) {
+        if (in.position() > 0) {
+          throw new IOException("Truncated block header in " + segments.get(nextSegment - 1));
+        }
+        channel.close();
+        channel = null;
+        continue;
+      }
+      in.flip();
+      int rawLength = in.getInt();
+      int compressedLength = in.getInt();
+      int checksum = in.getInt();
+      readCompressed(compressedLength);
+      return inflate(rawLength, compressedLength, checksum);
+    }
+  }
+
+  /**
+   * @return the buffer of the current block; it is reused by the next call to {@link #nextBlock()}
+   */
+  public byte[] getBlock() {
+    return block;
+  }
+
+  /**
+   * @return the length of the BSON document starting at the offset of a block
+   */
+  public static int documentLength(byte[] block, int offset) {
+    return (block[offset] & 0xff) | (block[offset + 1] & 0xff) << 8
+        | (block[offset + 2] & 0xff) << 16 | (block[offset + 3] & 0xff) << 24;
+  }
+
+  @Override
+  public void close() throws IOException {
+    inflater.end();
+    if (channel != null) {
+      channel.close();
+    }
+  }
+
+  private void readCompressed(int length) throws IOException {
+    if (compressed.length < length) {
+      compressed = new byte[length];
+    }
+    int read = 0;
+    while (read < length) {
+      in.clear().limit(Math.min(in.capacity(), length - read));
+      if (!fill()) {
+        throw new IOException("Truncated block in " + segments.get(nextSegment - 1));
+      }
+      in.flip();
+      int chunk = in.remaining();
+      in.get(compressed, read, chunk);
+      read += chunk;
+    }
+  }
+
+  private int inflate(int rawLength, int compressedLength, int checksum) throws IOException {
+    if (block.length < rawLength) {
+      block = new byte[rawLength];
+    }
+    inflater.reset();
+    inflater.setInput(compressed, 0, compressedLength);
+    try {
+      int inflated = 0;
+      while (inflated < rawLength && !inflater.finished()) {
+        int n = inflater.inflate(block, inflated, rawLength - inflated);
+        if (n == 0 && inflater.needsInput()) {
+          break;
+        }
+        inflated += n;
+      }
+      crc.reset();
+      crc.update(block, 0, inflated);
+      if (inflated != rawLength || (int) crc.getValue() != checksum) {
+        throw new IOException("Corrupt block in " + segments.get(nextSegment - 1));
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt block in " + segments.get(nextSegment - 1), e);
+    }
+    return rawLength;
+  }
+
+  /**
+   * Read until the buffer's limit.
+   * @return false if the segment ended first
+   */
+  private boolean fill() throws IOException {
+    while (in.hasRemaining()) {
+      if (channel.read(in) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,161 @@
+package org.springframework.cloud.servicebroker.mongodb.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a stream of raw BSON documents into rolling, deflate-compressed segment files. Documents are
+ * copied back to back into a reusable block; each full block is compressed and written through a direct
+ * buffer as
+ * <pre>
+ *   raw length | compressed length | crc32 of the raw bytes | compressed bytes
+ * </pre>
+ * A new segment is started once the current one has reached the segment size. Nothing is allocated per
+ * document, only blocks larger than the block size need a buffer of their own.
+ */
+public class SegmentWriter implements Closeable {
+
+  static final String SUFFIX = ".seg";
+  static final int BLOCK_HEADER_SIZE = 12;
+
+  private final Path directory;
+  private final String prefix;
+  private final long segmentSize;
+
+  private final byte[] block;
+  private int blockLength;
+  private byte[] compressed;
+  private final ByteBuffer out;
+  private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+  private final CRC32 crc = new CRC32();
+
+  private final List<Path> segments = new ArrayList<>();
+  private FileChannel channel;
+  private long segmentLength;
+  private long documents;
+  private long rawBytes;
+
+  public SegmentWriter(Path directory, String prefix, int blockSize, long segmentSize) {
+    this.directory = directory;
+    this.prefix = prefix;
+    this.segmentSize = segmentSize;
+    this.block = new byte[blockSize];
+    this.compressed = new byte[compressBound(blockSize)];
+    this.out = ByteBuffer.allocateDirect(Math.min(compressed.length + BLOCK_HEADER_SIZE, 1 << 20))
+        .order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Append one document, given as the remaining bytes of the buffer, e.g. the view of a raw BSON document.
+   */
+  public void write(ByteBuffer document) throws IOException {
+    int length = document.remaining();
+    if (length > block.length - blockLength) {
+      flushBlock();
+    }
+    if (length > block.length) {
+      // a document that does not fit any block is written as a block of its own
+      byte[] large = new byte[length];
+      document.duplicate().get(large);
+      writeBlock(large, length);
+    } else {
+      document.duplicate().get(block, blockLength, length);
+      blockLength += length;
+    }
+    documents++;
+    rawBytes += length;
+  }
+
+  public List<Path> getSegments() {
+    return segments;
+  }
+
+  public long getDocuments() {
+    return documents;
+  }
+
+  public long getRawBytes() {
+    return rawBytes;
+  }
+
+  /**
+   * Write the last partial block and force the current segment to disk.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      flushBlock();
+      closeSegment();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private void flushBlock() throws IOException {
+    if (blockLength > 0) {
+      writeBlock(block, blockLength);
+      blockLength = 0;
+    }
+  }
+
+  private void writeBlock(byte[] raw, int length) throws IOException {
+    if (channel == null || segmentLength >= segmentSize) {
+      closeSegment();
+      Path path = directory.resolve(String.format("%s-%05d%s", prefix, segments.size(), SUFFIX));
+      channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+      segments.add(path);
+      segmentLength = 0;
+    }
+
+    crc.reset();
+    crc.update(raw, 0, length);
+    if (compressed.length < compressBound(length)) {
+      compressed = new byte[compressBound(length)];
+    }
+    deflater.reset();
+    deflater.setInput(raw, 0, length);
+    deflater.finish();
+    int compressedLength = 0;
+    while (!deflater.finished()) {
+      compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+    }
+
+    out.clear();
+    out.putInt(length).putInt(compressedLength).putInt((int) crc.getValue());
+    int written = 0;
+    while (written < compressedLength) {
+      int chunk = Math.min(out.remaining(), compressedLength - written);
+      out.put(compressed, written, chunk);
+      written += chunk;
+      out.flip();
+      while (out.hasRemaining()) {
+        channel.write(out);
+      }
+      out.clear();
+    }
+    segmentLength += BLOCK_HEADER_SIZE + compressedLength;
+  }
+
+  private void closeSegment() throws IOException {
+    if (channel != null) {
+      channel.force(true);
+      channel.close();
+      channel = null;
+    }
+  }
+
+  private static int compressBound(int length) {
+    // deflate never grows incompressible input by more than a few bytes per 16k stored block
+    return length + (length >> 12) + 64;
+  }
+
+}
@@ -0,0 +1,145 @@
+package org.springframework.cloud.servicebroker.mongodb.snapshot;
+
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes a complete snapshot: every collection and view of the database with the options and
+ * indexes needed to recreate it, and the segment files holding its documents. It is written last,
+ * so a snapshot without a manifest is incomplete.
+ */
+public class SnapshotManifest {
+
+  private final String id;
+
+  private final String serviceInstanceId;
+
+  private final long createdAt;
+
+  private final List<Entry> collections = new ArrayList<>();
+
+  public SnapshotManifest(String id, String serviceInstanceId, long createdAt) {
+    this.id = id;
+    this.serviceInstanceId = serviceInstanceId;
+    this.createdAt = createdAt;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getServiceInstanceId() {
+    return serviceInstanceId;
+  }
+
+  public long getCreatedAt() {
+    return createdAt;
+  }
+
+  public List<Entry> getCollections() {
+    return Collections.unmodifiableList(collections);
+  }
+
+  public SnapshotManifest withCollection(Entry collection) {
+    this.collections.add(collection);
+    return this;
+  }
+
+  public Document toDocument() {
+    List<Document> entries = new ArrayList<>();
+    for (Entry entry : collections) {
+      entries.add(new Document("name", entry.name)
+          .append("type", entry.type)
+          .append("options", entry.options)
+          .append("indexes", entry.indexes)
+          .append("segments", entry.segments)
+          .append("documents", entry.documents)
+          .append("bytes", entry.bytes));
+    }
+    return new Document("id", id)
+        .append("serviceInstanceId", serviceInstanceId)
+        .append("createdAt", createdAt)
+        .append("collections", entries);
+  }
+
+  @SuppressWarnings("unchecked")
+  public static SnapshotManifest fromDocument(Document document) {
+    SnapshotManifest manifest = new SnapshotManifest(document.getString("id"),
+        document.getString("serviceInstanceId"), ((Number) document.get("createdAt")).longValue());
+    for (Document entry : (List<Document>) document.get("collections")) {
+      manifest.withCollection(new Entry(entry.getString("name"), entry.getString("type"),
+          (Document) entry.get("options"), (List<Document>) entry.get("indexes"),
+          (List<String>) entry.get("segments"), ((Number) entry.get("documents")).longValue(),
+          ((Number) entry.get("bytes")).longValue()));
+    }
+    return manifest;
+  }
+
+  /**
+   * One collection or view of the snapshot. Segment names are relative to the snapshot directory.
+   */
+  public static class Entry {
+
+    private final String name;
+
+    private final String type;
+
+    private final Document options;
+
+    private final List<Document> indexes;
+
+    private final List<String> segments;
+
+    private final long documents;
+
+    private final long bytes;
+
+    public Entry(String name, String type, Document options, List<Document> indexes, List<String> segments,
+                 long documents, long bytes) {
+      this.name = name;
+      this.type = type;
+      this.options = options;
+      this.indexes = indexes;
+      this.segments = segments;
+      this.documents = documents;
+      this.bytes = bytes;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public boolean isView() {
+      return "view".equals(type);
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    public Document getOptions() {
+      return options;
+    }
+
+    public List<Document> getIndexes() {
+      return indexes;
+    }
+
+    public List<String> getSegments() {
+      return segments;
+    }
+
+    public long getDocuments() {
+      return documents;
+    }
+
+    public long getBytes() {
+      return bytes;
+    }
+
+  }
+
+}
@@ -0,0 +1,168 @@
+package org.springframework.cloud.servicebroker.mongodb.snapshot;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Local directory of service instance snapshots, laid out as
+ * <pre>
+ *   directory/instance id/snapshot id/manifest.json
+ *   directory/instance id/snapshot id/collection number-segment number.seg
+ * </pre>
+ * Snapshot ids are UTC timestamps, so they sort by age.
+ * <p>
+ * The directory is node-local unless {@code broker.snapshot.durable} declares it a persistent volume mounted
+ * on every broker node. Only then are archives kept here the one copy of a database, see {@link #isDurable}.
+ */
+@Component
+public class SnapshotStore {
+
+  private static final String MANIFEST = "manifest.json";
+
+  private static final DateTimeFormatter IDS =
+      DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmssSSS'Z'").withZone(ZoneOffset.UTC);
+
+  private final Path directory;
+  private final int blockSize;
+  private final long segmentSize;
+  private final boolean durable;
+
+  @Autowired
+  public SnapshotStore(@Value("${broker.snapshot.directory:snapshots}") String directory,
+                       @Value("${broker.snapshot.block-size:1048576}") int blockSize,
+                       @Value("${broker.snapshot.segment-size:268435456}") long segmentSize,
+                       @Value("${broker.snapshot.durable:false}") boolean durable) {
+    this(Paths.get(directory), blockSize, segmentSize, durable);
+  }
+
+  public SnapshotStore(Path directory, int blockSize, long segmentSize) {
+    this(directory, blockSize, segmentSize, false);
+  }
+
+  public SnapshotStore(Path directory, int blockSize, long segmentSize, boolean durable) {
+    this.directory = directory;
+    this.blockSize = blockSize;
+    this.segmentSize = segmentSize;
+    this.durable = durable;
+  }
+
+  /**
+   * @return whether the directory was declared a persistent volume shared by the broker nodes, and is an
+   * existing, writable absolute path; a relative path lies on the container's ephemeral disk
+   */
+  public boolean isDurable() {
+    return durable && directory.isAbsolute() && Files.isDirectory(directory) && Files.isWritable(directory);
+  }
+
+  public Path getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Create the directory of a new snapshot.
+   * @return the manifest to fill in and {@link #complete} once every collection is written
+   */
+  public SnapshotManifest create(String serviceInstanceId, long now) throws IOException {
+    String id = IDS.format(Instant.ofEpochMilli(now));
+    Files.createDirectories(directory.resolve(serviceInstanceId));
+    Files.createDirectory(snapshotDirectory(serviceInstanceId, id));
+    return new SnapshotManifest(id, serviceInstanceId, now);
+  }
+
+  public SegmentWriter writer(SnapshotManifest manifest, int collection) {
+    return new SegmentWriter(snapshotDirectory(manifest.getServiceInstanceId(), manifest.getId()),
+        String.format("%04d", collection), blockSize, segmentSize);
+  }
+
+  public SegmentReader reader(SnapshotManifest manifest, SnapshotManifest.Entry collection) {
+    Path snapshot = snapshotDirectory(manifest.getServiceInstanceId(), manifest.getId());
+    return new SegmentReader(collection.getSegments().stream().map(snapshot::resolve).collect(Collectors.toList()));
+  }
+
+  /**
+   * Write the manifest, which marks the snapshot as complete.
+   */
+  public void complete(SnapshotManifest manifest) throws IOException {
+    Path snapshot = snapshotDirectory(manifest.getServiceInstanceId(), manifest.getId());
+    Path temp = snapshot.resolve(MANIFEST + ".tmp");
+    Files.write(temp, manifest.toDocument().toJson().getBytes(StandardCharsets.UTF_8));
+    Files.move(temp, snapshot.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * @return the complete snapshot, or null if there is none with the id
+   */
+  public SnapshotManifest find(String serviceInstanceId, String snapshotId) throws IOException {
+    Path manifest = snapshotDirectory(serviceInstanceId, snapshotId).resolve(MANIFEST);
+    if (!Files.isRegularFile(manifest)) {
+      return null;
+    }
+    String json = new String(Files.readAllBytes(manifest), StandardCharsets.UTF_8);
+    return SnapshotManifest.fromDocument(Document.parse(json));
+  }
+
+  /**
+   * @return the complete snapshots of the instance, newest first
+   */
+  public List<SnapshotManifest> list(String serviceInstanceId) throws IOException {
+    List<SnapshotManifest> snapshots = new ArrayList<>();
+    Path instance = directory.resolve(serviceInstanceId);
+    if (!Files.isDirectory(instance)) {
+      return snapshots;
+    }
+    try (DirectoryStream<Path> ids = Files.newDirectoryStream(instance)) {
+      for (Path id : ids) {
+        SnapshotManifest manifest = find(serviceInstanceId, id.getFileName().toString());
+        if (manifest != null) {
+          snapshots.add(manifest);
+        }
+      }
+    }
+    snapshots.sort(Comparator.comparing(SnapshotManifest::getId).reversed());
+    return snapshots;
+  }
+
+  /**
+   * Delete a snapshot, complete or not.
+   */
+  public void delete(String serviceInstanceId, String snapshotId) throws IOException {
+    Path snapshot = snapshotDirectory(serviceInstanceId, snapshotId);
+    if (!Files.exists(snapshot)) {
+      return;
+    }
+    try (Stream<Path> files = Files.walk(snapshot)) {
+      for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  private Path snapshotDirectory(String serviceInstanceId, String snapshotId) {
+    // ids come from request paths, they must not escape the snapshot directory
+    Path root = directory.normalize();
+    Path snapshot = root.resolve(serviceInstanceId).resolve(snapshotId).normalize();
+    if (!snapshot.startsWith(root) || snapshot.getNameCount() != root.getNameCount() + 2) {
+      throw new IllegalArgumentException("Invalid snapshot " + serviceInstanceId + "/" + snapshotId);
+    }
+    return snapshot;
+  }
+
+}
@@ -0,0 +1,10 @@
+package org.springframework.cloud.servicebroker.mongodb.telemetry;
+
+/**
+ * How the samples of a series within a query window are reduced to a single value.
+ */
+public enum Aggregate {
+
+  LATEST, MEAN, MAX
+
+}
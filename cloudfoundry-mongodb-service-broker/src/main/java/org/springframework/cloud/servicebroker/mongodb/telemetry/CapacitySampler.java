@@ -0,0 +1,177 @@
+package org.springframework.cloud.servicebroker.mongodb.telemetry;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.mongodb.exception.MongoServiceException;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceRepository;
+import org.springframework.cloud.servicebroker.mongodb.service.BackendClusters;
+import org.springframework.cloud.servicebroker.mongodb.service.MongoAdminService;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically samples {@code dbStats} for every service instance database, per-database operation
+ * counts from {@code top} and server-wide counts from {@code serverStatus}, and records them in the
+ * {@link TelemetryStore}. Operation counters are cumulative on the server, so they are stored as rates.
+ * Each instance is sampled on the cluster it lives on; the server-wide counts are those of the default one.
+ */
+@Component
+public class CapacitySampler {
+
+  static final String SERVER_KEY = "_server";
+
+  private Logger logger = LoggerFactory.getLogger(CapacitySampler.class);
+
+  private final BackendClusters clusters;
+  private final MongoServiceInstanceRepository repository;
+  private final TelemetryStore store;
+  private final boolean enabled;
+
+  // previous cumulative {reads, writes, sampled at} per cluster and database, only touched by the sampling thread
+  private final Map<String, long[]> previousOps = new HashMap<>();
+
+  @Autowired
+  public CapacitySampler(BackendClusters clusters, MongoServiceInstanceRepository repository, TelemetryStore store,
+                         @Value("${broker.telemetry.enabled:true}") boolean enabled) {
+    this.clusters = clusters;
+    this.repository = repository;
+    this.store = store;
+    this.enabled = enabled;
+  }
+
+  @Scheduled(initialDelayString = "${broker.telemetry.initial-delay-millis:60000}",
+      fixedDelayString = "${broker.telemetry.sample-interval-millis:300000}")
+  public void sample() {
+    if (!enabled) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    Map<String, List<ServiceInstance>> byCluster = new LinkedHashMap<>();
+    for (ServiceInstance instance : repository.findAll()) {
+      String cluster = instance.getCluster() == null ? BackendClusters.DEFAULT : instance.getCluster();
+      byCluster.computeIfAbsent(cluster, name -> new ArrayList<>()).add(instance);
+    }
+
+    Set<String> sampled = new HashSet<>();
+    Set<String> sampledKeys = new HashSet<>();
+    for (Map.Entry<String, List<ServiceInstance>> cluster : byCluster.entrySet()) {
+      if (!clusters.exists(cluster.getKey())) {
+        // no numbers beat numbers of another cluster's database of the same name
+        logger.warn("Not sampling {} service instances of unknown backend cluster {}", cluster.getValue().size(),
+            cluster.getKey());
+        continue;
+      }
+      MongoAdminService mongo = clusters.admin(cluster.getKey());
+      Map<String, long[]> ops = new HashMap<>();
+      try {
+        ops = readOpCounters(mongo.getTop());
+      } catch (MongoServiceException e) {
+        logger.warn("Could not sample operation counters of cluster " + cluster.getKey() + ": "
+            + e.getLocalizedMessage());
+      }
+      for (ServiceInstance instance : cluster.getValue()) {
+        String id = instance.getServiceInstanceId();
+        // counters of different clusters are unrelated, an instance that moved starts over
+        String key = cluster.getKey() + '/' + id;
+        sampled.add(id);
+        sampledKeys.add(key);
+        try {
+          store.record(id, now, toValues(mongo.getDatabaseStats(id), rates(key, ops.get(id), now)));
+        } catch (MongoServiceException e) {
+          logger.warn("Could not sample database " + id + ": " + e.getLocalizedMessage());
+        }
+      }
+    }
+    store.retain(sampled);
+    previousOps.keySet().removeIf(key -> !sampledKeys.contains(key) && !SERVER_KEY.equals(key));
+
+    try {
+      Document opcounters = (Document) clusters.admin(null).getServerStatus().get("opcounters");
+      long[] total = {
+          number(opcounters, "query") + number(opcounters, "getmore"),
+          number(opcounters, "insert") + number(opcounters, "update") + number(opcounters, "delete")};
+      store.recordServer(now, toValues(null, rates(SERVER_KEY, total, now)));
+    } catch (MongoServiceException e) {
+      logger.warn("Could not sample server status: " + e.getLocalizedMessage());
+    }
+    logger.debug("Sampled capacity of {} service instances in {} ms", sampled.size(),
+        System.currentTimeMillis() - now);
+  }
+
+  /**
+   * Sum the per-namespace counters from {@code top} into cumulative {reads, writes} per database.
+   */
+  public static Map<String, long[]> readOpCounters(Document top) {
+    Map<String, long[]> counters = new HashMap<>();
+    Document totals = (Document) top.get("totals");
+    if (totals == null) {
+      return counters;
+    }
+    for (Map.Entry<String, Object> entry : totals.entrySet()) {
+      int dot = entry.getKey().indexOf('.');
+      if (dot < 0 || !(entry.getValue() instanceof Document)) {
+        continue;
+      }
+      Document namespace = (Document) entry.getValue();
+      long[] counts = counters.computeIfAbsent(entry.getKey().substring(0, dot), db -> new long[2]);
+      counts[0] += count(namespace, "queries") + count(namespace, "getmore");
+      counts[1] += count(namespace, "insert") + count(namespace, "update") + count(namespace, "remove");
+    }
+    return counters;
+  }
+
+  /**
+   * @return {reads, writes} per minute since the previous sample of the key
+   */
+  private long[] rates(String key, long[] cumulative, long now) {
+    if (cumulative == null) {
+      return new long[2];
+    }
+    long[] previous = previousOps.put(key, new long[] {cumulative[0], cumulative[1], now});
+    if (previous == null || now <= previous[2]) {
+      return new long[2];
+    }
+    double minutes = (double) (now - previous[2]) / TimeUnit.MINUTES.toMillis(1);
+    return new long[] {
+        // counters restart from zero when the server does
+        Math.round(Math.max(0, cumulative[0] - previous[0]) / minutes),
+        Math.round(Math.max(0, cumulative[1] - previous[1]) / minutes)};
+  }
+
+  private static long[] toValues(Document stats, long[] rates) {
+    long[] values = new long[Metric.values().length];
+    if (stats != null) {
+      values[Metric.DATA_SIZE.ordinal()] = number(stats, "dataSize");
+      values[Metric.STORAGE_SIZE.ordinal()] = number(stats, "storageSize");
+      values[Metric.INDEX_SIZE.ordinal()] = number(stats, "indexSize");
+      values[Metric.OBJECTS.ordinal()] = number(stats, "objects");
+    }
+    values[Metric.READ_OPS.ordinal()] = rates[0];
+    values[Metric.WRITE_OPS.ordinal()] = rates[1];
+    return values;
+  }
+
+  private static long count(Document namespace, String key) {
+    Object value = namespace.get(key);
+    return value instanceof Document ? number((Document) value, "count") : 0;
+  }
+
+  static long number(Document document, String key) {
+    Object value = document == null ? null : document.get(key);
+    return value instanceof Number ? ((Number) value).longValue() : 0;
+  }
+
+}
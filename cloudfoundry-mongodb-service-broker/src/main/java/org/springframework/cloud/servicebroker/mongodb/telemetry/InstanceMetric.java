@@ -0,0 +1,29 @@
+package org.springframework.cloud.servicebroker.mongodb.telemetry;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The aggregated value of a metric for one service instance.
+ */
+public class InstanceMetric {
+
+  @JsonProperty("service_instance_id")
+  private final String serviceInstanceId;
+
+  @JsonProperty("value")
+  private final long value;
+
+  public InstanceMetric(String serviceInstanceId, long value) {
+    this.serviceInstanceId = serviceInstanceId;
+    this.value = value;
+  }
+
+  public String getServiceInstanceId() {
+    return serviceInstanceId;
+  }
+
+  public long getValue() {
+    return value;
+  }
+
+}
@@ -0,0 +1,38 @@
+package org.springframework.cloud.servicebroker.mongodb.telemetry;
+
+/**
+ * Capacity metrics sampled for each service instance database.
+ */
+public enum Metric {
+
+  /**
+   * Uncompressed size of the documents, in bytes.
+   */
+  DATA_SIZE,
+
+  /**
+   * Storage allocated for the documents, in bytes.
+   */
+  STORAGE_SIZE,
+
+  /**
+   * Storage allocated for indexes, in bytes.
+   */
+  INDEX_SIZE,
+
+  /**
+   * Number of documents.
+   */
+  OBJECTS,
+
+  /**
+   * Queries and getMores per minute.
+   */
+  READ_OPS,
+
+  /**
+   * Inserts, updates and removes per minute.
+   */
+  WRITE_OPS
+
+}
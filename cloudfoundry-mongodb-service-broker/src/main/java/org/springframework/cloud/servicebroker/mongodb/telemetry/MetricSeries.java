@@ -0,0 +1,220 @@
+package org.springframework.cloud.servicebroker.mongodb.telemetry;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Down-sampled history of every {@link Metric} for one service instance, kept off-heap in direct
+ * buffers. Each resolution tier has a ring of its own; each ring slot is laid out as
+ * <pre>
+ *   slot number + 1 | sample count | sum of metric 0 | ... | sum of metric n
+ * </pre>
+ * so recording a sample touches one slot per tier and only allocates when a ring grows.
+ * <p>
+ * A slot takes {@code (2 + metrics) * 8} bytes, 64 bytes with the six metrics. A tier's ring is allocated
+ * with its first sample at {@value #INITIAL_SLOTS} slots, or its capacity if that is smaller, and doubles as
+ * the samples span more slots, up to its capacity. A full series takes 64 bytes times the sum of the
+ * capacities, about 34 KB with the default 5 minute samples kept for a day, hourly ones for a week and daily
+ * ones for 90 days (288 + 168 + 90 slots), while an instance sampled for an hour takes about 3 KB. The
+ * broker's direct memory limit ({@code -XX:MaxDirectMemorySize}, the heap size unless set) has to hold
+ * the full series of every tracked instance.
+ */
+public class MetricSeries {
+
+  private static final int METRICS = Metric.values().length;
+  private static final int STRIDE = 2 + METRICS;
+  static final int INITIAL_SLOTS = 16;
+
+  private final long[] resolutions;
+  private final int[] capacities;
+  // null until the tier's first sample
+  private final LongBuffer[] rings;
+  // slot at the start of each ring that is still smaller than its capacity; a full ring is indexed by slot
+  private final long[] firstSlots;
+  private long latestMillis;
+
+  /**
+   * @param resolutions slot width of each tier in milliseconds, finest first
+   * @param capacities number of slots in each tier
+   */
+  public MetricSeries(long[] resolutions, int[] capacities) {
+    this.resolutions = resolutions;
+    this.capacities = capacities;
+    this.rings = new LongBuffer[capacities.length];
+    this.firstSlots = new long[capacities.length];
+  }
+
+  /**
+   * @param values one value per {@link Metric}, in ordinal order
+   */
+  public synchronized void record(long timeMillis, long[] values) {
+    for (int tier = 0; tier < resolutions.length; tier++) {
+      long slot = timeMillis / resolutions[tier];
+      LongBuffer slots = ringFor(tier, slot);
+      int base = base(tier, slot);
+      if (slots.get(base) != slot + 1) {
+        slots.put(base, slot + 1);
+        for (int i = 1; i < STRIDE; i++) {
+          slots.put(base + i, 0);
+        }
+      }
+      slots.put(base + 1, slots.get(base + 1) + 1);
+      for (int m = 0; m < METRICS; m++) {
+        slots.put(base + 2 + m, slots.get(base + 2 + m) + values[m]);
+      }
+    }
+    latestMillis = Math.max(latestMillis, timeMillis);
+  }
+
+  public synchronized long getLatestMillis() {
+    return latestMillis;
+  }
+
+  /**
+   * Reduce the samples recorded in the window to one value. The finest tier that still covers
+   * the start of the window is used.
+   * @return the aggregated value, or -1 if nothing was recorded in the window
+   */
+  public synchronized long aggregate(Metric metric, long fromMillis, long toMillis, Aggregate aggregate) {
+    int tier = tierFor(fromMillis);
+    long result = -1;
+    long total = 0;
+    int count = 0;
+    long from = fromMillis / resolutions[tier];
+    long to = toMillis / resolutions[tier];
+    for (long slot = Math.max(from, to - capacities[tier] + 1); slot <= to; slot++) {
+      long mean = mean(tier, slot, metric);
+      if (mean < 0) {
+        continue;
+      }
+      switch (aggregate) {
+        case LATEST:
+          result = mean;
+          break;
+        case MAX:
+          result = Math.max(result, mean);
+          break;
+        case MEAN:
+          total += mean;
+          count++;
+          result = total / count;
+          break;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the given percentile (0..1) of the slot means in the window, or -1 if nothing was recorded
+   */
+  public synchronized long percentile(Metric metric, long fromMillis, long toMillis, double percentile) {
+    int tier = tierFor(fromMillis);
+    long from = fromMillis / resolutions[tier];
+    long to = toMillis / resolutions[tier];
+    long[] means = new long[capacities[tier]];
+    int count = 0;
+    for (long slot = Math.max(from, to - capacities[tier] + 1); slot <= to; slot++) {
+      long mean = mean(tier, slot, metric);
+      if (mean >= 0) {
+        means[count++] = mean;
+      }
+    }
+    return percentileOf(means, count, percentile);
+  }
+
+  static long percentileOf(long[] values, int count, double percentile) {
+    if (count == 0) {
+      return -1;
+    }
+    Arrays.sort(values, 0, count);
+    int rank = (int) Math.ceil(percentile * count) - 1;
+    return values[Math.max(0, Math.min(count - 1, rank))];
+  }
+
+  /**
+   * @return the number of slots allocated across all tiers
+   */
+  synchronized int getAllocatedSlots() {
+    int allocated = 0;
+    for (LongBuffer ring : rings) {
+      allocated += ring == null ? 0 : ring.capacity() / STRIDE;
+    }
+    return allocated;
+  }
+
+  private long mean(int tier, long slot, Metric metric) {
+    int base = base(tier, slot);
+    if (base < 0 || rings[tier].get(base) != slot + 1) {
+      return -1;
+    }
+    LongBuffer slots = rings[tier];
+    return slots.get(base + 2 + metric.ordinal()) / slots.get(base + 1);
+  }
+
+  private int tierFor(long fromMillis) {
+    for (int tier = 0; tier < resolutions.length; tier++) {
+      if (fromMillis >= latestMillis - resolutions[tier] * (capacities[tier] - 1)) {
+        return tier;
+      }
+    }
+    return resolutions.length - 1;
+  }
+
+  /**
+   * @return the ring of the tier, allocated or grown so that it has a slot for the given one
+   */
+  private LongBuffer ringFor(int tier, long slot) {
+    LongBuffer ring = rings[tier];
+    int capacity = capacities[tier];
+    if (ring == null) {
+      firstSlots[tier] = slot;
+      rings[tier] = allocate(Math.min(INITIAL_SLOTS, capacity));
+    } else if (ring.capacity() < capacity * STRIDE) {
+      long index = slot - firstSlots[tier];
+      int length = ring.capacity() / STRIDE;
+      if (index < 0 || index >= capacity) {
+        // out of order or past a whole ring, only the full ring can tell which slots it replaces
+        grow(tier, capacity);
+      } else if (index >= length) {
+        grow(tier, (int) Math.min(capacity, Math.max(2L * length, index + 1)));
+      }
+    }
+    return rings[tier];
+  }
+
+  private void grow(int tier, int length) {
+    LongBuffer old = rings[tier];
+    LongBuffer ring = allocate(length);
+    boolean full = length == capacities[tier];
+    for (int i = 0; i < old.capacity() / STRIDE; i++) {
+      // a full ring is indexed by slot, the copies cannot collide as the old ring spans fewer slots
+      int to = full ? (int) ((firstSlots[tier] + i) % length) : i;
+      for (int j = 0; j < STRIDE; j++) {
+        ring.put(to * STRIDE + j, old.get(i * STRIDE + j));
+      }
+    }
+    rings[tier] = ring;
+  }
+
+  private static LongBuffer allocate(int length) {
+    return ByteBuffer.allocateDirect(length * STRIDE * 8).asLongBuffer();
+  }
+
+  /**
+   * @return the index of the slot in the tier's ring, or -1 if the ring has no room for it
+   */
+  private int base(int tier, long slot) {
+    LongBuffer ring = rings[tier];
+    if (ring == null) {
+      return -1;
+    }
+    int length = ring.capacity() / STRIDE;
+    if (length == capacities[tier]) {
+      return (int) (slot % length) * STRIDE;
+    }
+    long index = slot - firstSlots[tier];
+    return index < 0 || index >= length ? -1 : (int) index * STRIDE;
+  }
+
+}
@@ -0,0 +1,113 @@
+package org.springframework.cloud.servicebroker.mongodb.telemetry;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory capacity history for every service instance, plus the backend server as a whole.
+ * All queries are answered from the recorded series without touching the backend.
+ */
+@Component
+public class TelemetryStore {
+
+  private final long[] resolutions;
+  private final int[] capacities;
+  private final Map<String, MetricSeries> instances = new ConcurrentHashMap<>();
+  private final MetricSeries server;
+
+  @Autowired
+  public TelemetryStore(@Value("${broker.telemetry.sample-interval-millis:300000}") long sampleIntervalMillis,
+                        @Value("${broker.telemetry.raw-retention-hours:24}") int rawRetentionHours,
+                        @Value("${broker.telemetry.hourly-retention-days:7}") int hourlyRetentionDays,
+                        @Value("${broker.telemetry.daily-retention-days:90}") int dailyRetentionDays) {
+    this(new long[] {sampleIntervalMillis, TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(1)},
+        new int[] {
+            (int) (TimeUnit.HOURS.toMillis(rawRetentionHours) / sampleIntervalMillis),
+            (int) TimeUnit.DAYS.toHours(hourlyRetentionDays),
+            dailyRetentionDays});
+  }
+
+  TelemetryStore(long[] resolutions, int[] capacities) {
+    this.resolutions = resolutions;
+    this.capacities = capacities;
+    this.server = new MetricSeries(resolutions, capacities);
+  }
+
+  public void record(String serviceInstanceId, long timeMillis, long[] values) {
+    instances.computeIfAbsent(serviceInstanceId, id -> new MetricSeries(resolutions, capacities))
+        .record(timeMillis, values);
+  }
+
+  public void recordServer(long timeMillis, long[] values) {
+    server.record(timeMillis, values);
+  }
+
+  /**
+   * Forget every instance that is not in the given set, e.g. after deprovisioning.
+   */
+  public void retain(Set<String> serviceInstanceIds) {
+    instances.keySet().retainAll(serviceInstanceIds);
+  }
+
+  public MetricSeries getSeries(String serviceInstanceId) {
+    return instances.get(serviceInstanceId);
+  }
+
+  public MetricSeries getServerSeries() {
+    return server;
+  }
+
+  public Collection<String> getServiceInstanceIds() {
+    return Collections.unmodifiableSet(instances.keySet());
+  }
+
+  /**
+   * @return the instances with the largest aggregated value of the metric in the window, largest first
+   */
+  public List<InstanceMetric> top(Metric metric, long fromMillis, long toMillis, Aggregate aggregate, int limit) {
+    PriorityQueue<InstanceMetric> top = new PriorityQueue<>(Math.max(1, limit),
+        (a, b) -> Long.compare(a.getValue(), b.getValue()));
+    for (Map.Entry<String, MetricSeries> entry : instances.entrySet()) {
+      long value = entry.getValue().aggregate(metric, fromMillis, toMillis, aggregate);
+      if (value < 0) {
+        continue;
+      }
+      if (top.size() < limit) {
+        top.add(new InstanceMetric(entry.getKey(), value));
+      } else if (limit > 0 && value > top.peek().getValue()) {
+        top.poll();
+        top.add(new InstanceMetric(entry.getKey(), value));
+      }
+    }
+    List<InstanceMetric> result = new ArrayList<>(top);
+    result.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+    return result;
+  }
+
+  /**
+   * @return the given percentile (0..1) of the aggregated metric across all instances, or -1 if there is no data
+   */
+  public long percentile(Metric metric, long fromMillis, long toMillis, Aggregate aggregate, double percentile) {
+    long[] values = new long[instances.size()];
+    int count = 0;
+    for (MetricSeries series : instances.values()) {
+      long value = series.aggregate(metric, fromMillis, toMillis, aggregate);
+      if (value >= 0 && count < values.length) {
+        values[count++] = value;
+      }
+    }
+    return MetricSeries.percentileOf(values, count, percentile);
+  }
+
+}
@@ -0,0 +1,137 @@
+package org.springframework.cloud.servicebroker.mongodb.throttle;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrency limit that adapts to observed latency. Each completed command compares its latency with a
+ * slowly moving baseline: while latency stays within the tolerance of the baseline the limit grows by a
+ * small queue allowance, and as latency rises the limit shrinks proportionally (a gradient). Commands that
+ * fail because the backend is struggling cut the limit multiplicatively.
+ * <p>
+ * Commands waiting for a slot are granted one in {@link FairQueue weighted fair} order of their
+ * {@link WorkClass}, each class held to its share of the limit.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+  private static final double BASELINE_SMOOTHING = 0.01;
+  private static final double LIMIT_SMOOTHING = 0.2;
+  private static final double BACKOFF = 0.75;
+
+  private final String name;
+  private final int minLimit;
+  private final int maxLimit;
+  private final double tolerance;
+  private final FairQueue queue;
+
+  // guarded by this
+  private double limit;
+  private int inFlight;
+  private double baselineNanos;
+
+  public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, double tolerance) {
+    this(name, initialLimit, minLimit, maxLimit, tolerance, SchedulingProperties.unweighted());
+  }
+
+  public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, double tolerance,
+                                    SchedulingProperties scheduling) {
+    this.name = name;
+    this.queue = new FairQueue(scheduling);
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.tolerance = tolerance;
+    this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+  }
+
+  /**
+   * Wait up to the timeout for an in-flight slot, for work of the current thread's class.
+   * @return false if no slot became available in time
+   */
+  public boolean acquire(long timeout, TimeUnit unit) throws InterruptedException {
+    return acquire(WorkClass.current(), timeout, unit);
+  }
+
+  /**
+   * Wait up to the timeout for an in-flight slot, behind the waiters of other classes that are due first.
+   * @return false if no slot became available in time
+   */
+  public synchronized boolean acquire(WorkClass workClass, long timeout, TimeUnit unit) throws InterruptedException {
+    long remaining = unit.toNanos(timeout);
+    long deadline = System.nanoTime() + remaining;
+    FairQueue.Waiter waiter = queue.enqueue(workClass, System.nanoTime());
+    try {
+      while (!queue.isTurn(waiter, (int) limit, inFlight)) {
+        if (remaining <= 0) {
+          queue.abandon(waiter);
+          // the waiters behind may be due now
+          notifyAll();
+          return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        remaining = deadline - System.nanoTime();
+      }
+    } catch (InterruptedException e) {
+      queue.abandon(waiter);
+      notifyAll();
+      throw e;
+    }
+    queue.grant(waiter, System.nanoTime());
+    inFlight++;
+    if (inFlight < (int) limit) {
+      notifyAll();
+    }
+    return true;
+  }
+
+  public void release(long latencyNanos, boolean overloaded) {
+    release(WorkClass.current(), latencyNanos, overloaded);
+  }
+
+  /**
+   * Release a slot and feed the outcome of the command into the limit.
+   * @param workClass the class the slot was acquired for
+   * @param latencyNanos how long the command took
+   * @param overloaded whether the command failed in a way that indicates backend distress
+   */
+  public synchronized void release(WorkClass workClass, long latencyNanos, boolean overloaded) {
+    inFlight--;
+    queue.release(workClass);
+    if (overloaded) {
+      limit = Math.max(minLimit, limit * BACKOFF);
+    } else {
+      if (baselineNanos == 0) {
+        baselineNanos = latencyNanos;
+      } else {
+        baselineNanos += (latencyNanos - baselineNanos) * BASELINE_SMOOTHING;
+      }
+      double gradient = Math.max(0.5, Math.min(1.0, tolerance * baselineNanos / Math.max(1, latencyNanos)));
+      double target = limit * gradient + Math.sqrt(limit);
+      // only grow when the current limit is actually being used
+      if (target > limit && inFlight + 1 < (int) limit / 2) {
+        target = limit;
+      }
+      limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - LIMIT_SMOOTHING) + target * LIMIT_SMOOTHING));
+    }
+    notifyAll();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  /**
+   * @return queue depth, slots held and waiting times per work class
+   */
+  public synchronized Map<WorkClass, WorkClassStats> getQueueStats() {
+    return queue.stats((int) limit);
+  }
+
+}
@@ -0,0 +1,13 @@
+package org.springframework.cloud.servicebroker.mongodb.throttle;
+
+/**
+ * A unit of work against the mongo service, run under a {@link BackendCommandGuard}.
+ *
+ * @param <T> the result type
+ */
+@FunctionalInterface
+public interface BackendCommand<T> {
+
+  T run();
+
+}
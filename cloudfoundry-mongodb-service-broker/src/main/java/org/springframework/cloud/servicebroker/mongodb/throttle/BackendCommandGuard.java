@@ -0,0 +1,157 @@
+package org.springframework.cloud.servicebroker.mongodb.throttle;
+
+import com.mongodb.MongoException;
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.MongoWaitQueueFullException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.mongodb.exception.BackendUnavailableException;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Admission control for backend admin commands. Every command passes a shared {@link CircuitBreaker}
+ * and then takes a slot from the {@link AdaptiveConcurrencyLimiter} for its {@link CommandCost}, in turn
+ * with the commands of other {@link WorkClass work classes}.
+ * Commands that are shed either way fail fast with a retryable {@link BackendUnavailableException}.
+ */
+@Component
+public class BackendCommandGuard {
+
+  private Logger logger = LoggerFactory.getLogger(BackendCommandGuard.class);
+
+  private final Map<CommandCost, AdaptiveConcurrencyLimiter> limiters = new EnumMap<>(CommandCost.class);
+  private final CircuitBreaker breaker;
+  private final long acquireTimeoutMillis;
+  // a guard with the same settings, null when built from parts
+  private Supplier<BackendCommandGuard> settings;
+
+  @Autowired
+  public BackendCommandGuard(@Value("${broker.backend.cheap.initial-limit:20}") int cheapInitialLimit,
+                             @Value("${broker.backend.cheap.max-limit:200}") int cheapMaxLimit,
+                             @Value("${broker.backend.expensive.initial-limit:4}") int expensiveInitialLimit,
+                             @Value("${broker.backend.expensive.max-limit:32}") int expensiveMaxLimit,
+                             @Value("${broker.backend.latency-tolerance:2.0}") double latencyTolerance,
+                             @Value("${broker.backend.acquire-timeout-millis:1000}") long acquireTimeoutMillis,
+                             @Value("${broker.backend.breaker.failure-rate:0.5}") double failureRate,
+                             @Value("${broker.backend.breaker.minimum-requests:10}") int minimumRequests,
+                             @Value("${broker.backend.breaker.window-seconds:10}") int windowSeconds,
+                             @Value("${broker.backend.breaker.open-millis:5000}") long openMillis,
+                             SchedulingProperties scheduling) {
+    this(new AdaptiveConcurrencyLimiter("cheap", cheapInitialLimit, 1, cheapMaxLimit, latencyTolerance, scheduling),
+        new AdaptiveConcurrencyLimiter("expensive", expensiveInitialLimit, 1, expensiveMaxLimit, latencyTolerance,
+            scheduling),
+        new CircuitBreaker(failureRate, minimumRequests, windowSeconds, openMillis),
+        acquireTimeoutMillis);
+    this.settings = () -> new BackendCommandGuard(cheapInitialLimit, cheapMaxLimit, expensiveInitialLimit,
+        expensiveMaxLimit, latencyTolerance, acquireTimeoutMillis, failureRate, minimumRequests, windowSeconds,
+        openMillis, scheduling);
+  }
+
+  BackendCommandGuard(AdaptiveConcurrencyLimiter cheap, AdaptiveConcurrencyLimiter expensive,
+                      CircuitBreaker breaker, long acquireTimeoutMillis) {
+    this.limiters.put(CommandCost.CHEAP, cheap);
+    this.limiters.put(CommandCost.EXPENSIVE, expensive);
+    this.breaker = breaker;
+    this.acquireTimeoutMillis = acquireTimeoutMillis;
+  }
+
+  /**
+   * @return a guard with generous defaults, for callers that are not managed by Spring
+   */
+  public static BackendCommandGuard withDefaults() {
+    return new BackendCommandGuard(20, 200, 4, 32, 2.0, 1000, 0.5, 10, 10, 5000, new SchedulingProperties());
+  }
+
+  /**
+   * @return a guard with the same settings and limits and a breaker of its own, for another backend, so that
+   * a slow or failing backend does not hold up the commands sent to the others
+   */
+  public BackendCommandGuard newGuard() {
+    if (settings == null) {
+      throw new IllegalStateException("The guard was not built from settings");
+    }
+    return settings.get();
+  }
+
+  public <T> T execute(CommandCost cost, String name, BackendCommand<T> command) {
+    if (!breaker.allowRequest()) {
+      throw new BackendUnavailableException("MongoDB backend is failing, not sending " + name,
+          retryAfterSeconds(breaker.getRetryAfterMillis()));
+    }
+
+    AdaptiveConcurrencyLimiter limiter = limiters.get(cost);
+    WorkClass workClass = WorkClass.current();
+    try {
+      if (!limiter.acquire(workClass, acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+        breaker.releaseProbe();
+        logger.info("Shedding {} {}: {} of {} {} commands in flight", workClass, name, limiter.getInFlight(),
+            limiter.getLimit(), limiter.getName());
+        throw new BackendUnavailableException("MongoDB backend is busy, try " + name + " again later", 1);
+      }
+    } catch (InterruptedException e) {
+      breaker.releaseProbe();
+      Thread.currentThread().interrupt();
+      throw new BackendUnavailableException("Interrupted waiting to run " + name, 1);
+    }
+
+    long start = System.nanoTime();
+    boolean overloaded = false;
+    try {
+      return command.run();
+    } catch (MongoException e) {
+      overloaded = isOverloaded(e);
+      throw e;
+    } finally {
+      limiter.release(workClass, System.nanoTime() - start, overloaded);
+      if (overloaded) {
+        breaker.recordFailure();
+      } else {
+        breaker.recordSuccess();
+      }
+    }
+  }
+
+  public void run(CommandCost cost, String name, Runnable command) {
+    execute(cost, name, () -> {
+      command.run();
+      return null;
+    });
+  }
+
+  public AdaptiveConcurrencyLimiter getLimiter(CommandCost cost) {
+    return limiters.get(cost);
+  }
+
+  public CircuitBreaker getBreaker() {
+    return breaker;
+  }
+
+  /**
+   * Command errors such as an existing user say nothing about backend health; only connectivity,
+   * timeouts and replica set failover do.
+   */
+  private boolean isOverloaded(MongoException e) {
+    return e instanceof MongoSocketException
+        || e instanceof MongoTimeoutException
+        || e instanceof MongoExecutionTimeoutException
+        || e instanceof MongoWaitQueueFullException
+        || e instanceof MongoNotPrimaryException
+        || e instanceof MongoNodeIsRecoveringException;
+  }
+
+  private static long retryAfterSeconds(long millis) {
+    return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(millis + 999));
+  }
+
+}
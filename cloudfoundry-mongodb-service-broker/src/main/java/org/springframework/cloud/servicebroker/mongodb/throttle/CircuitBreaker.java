@@ -0,0 +1,146 @@
+package org.springframework.cloud.servicebroker.mongodb.throttle;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker over a rolling window of one second buckets. When the failure rate in the window
+ * crosses the threshold the breaker opens and rejects everything for the open interval, then lets a
+ * single probe through; the probe's outcome closes or re-opens the breaker.
+ */
+public class CircuitBreaker {
+
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private static final long BUCKET_MILLIS = 1000;
+
+  private final double failureRateThreshold;
+  private final int minimumRequests;
+  private final long openMillis;
+  private final LongSupplier clock;
+
+  // guarded by this
+  private final long[] bucketStart;
+  private final int[] successes;
+  private final int[] failures;
+  private State state = State.CLOSED;
+  private long openedAt;
+  private boolean probing;
+
+  public CircuitBreaker(double failureRateThreshold, int minimumRequests, int windowSeconds, long openMillis) {
+    this(failureRateThreshold, minimumRequests, windowSeconds, openMillis, System::currentTimeMillis);
+  }
+
+  CircuitBreaker(double failureRateThreshold, int minimumRequests, int windowSeconds, long openMillis,
+                 LongSupplier clock) {
+    this.failureRateThreshold = failureRateThreshold;
+    this.minimumRequests = minimumRequests;
+    this.openMillis = openMillis;
+    this.clock = clock;
+    this.bucketStart = new long[windowSeconds];
+    this.successes = new int[windowSeconds];
+    this.failures = new int[windowSeconds];
+  }
+
+  /**
+   * @return whether a command may be sent to the backend right now
+   */
+  public synchronized boolean allowRequest() {
+    if (state == State.OPEN) {
+      if (clock.getAsLong() - openedAt < openMillis) {
+        return false;
+      }
+      state = State.HALF_OPEN;
+      probing = false;
+    }
+    if (state == State.HALF_OPEN) {
+      if (probing) {
+        return false;
+      }
+      probing = true;
+    }
+    return true;
+  }
+
+  /**
+   * Give back the probe {@link #allowRequest()} handed out for a command that was not sent after all,
+   * so that the next command can probe the backend instead.
+   */
+  public synchronized void releaseProbe() {
+    if (state == State.HALF_OPEN) {
+      probing = false;
+    }
+  }
+
+  public synchronized void recordSuccess() {
+    if (state == State.HALF_OPEN) {
+      state = State.CLOSED;
+      clear();
+    }
+    successes[currentBucket()]++;
+  }
+
+  public synchronized void recordFailure() {
+    if (state == State.HALF_OPEN) {
+      open();
+      return;
+    }
+    failures[currentBucket()]++;
+
+    int total = 0;
+    int failed = 0;
+    long now = clock.getAsLong();
+    for (int i = 0; i < bucketStart.length; i++) {
+      if (now - bucketStart[i] < bucketStart.length * BUCKET_MILLIS) {
+        total += successes[i] + failures[i];
+        failed += failures[i];
+      }
+    }
+    if (state == State.CLOSED && total >= minimumRequests && failed >= total * failureRateThreshold) {
+      open();
+    }
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * @return milliseconds until an open breaker lets a probe through
+   */
+  public synchronized long getRetryAfterMillis() {
+    return state == State.OPEN ? Math.max(0, openMillis - (clock.getAsLong() - openedAt)) : 0;
+  }
+
+  private void open() {
+    state = State.OPEN;
+    openedAt = clock.getAsLong();
+    probing = false;
+    clear();
+  }
+
+  private void clear() {
+    for (int i = 0; i < bucketStart.length; i++) {
+      bucketStart[i] = 0;
+      successes[i] = 0;
+      failures[i] = 0;
+    }
+  }
+
+  /**
+   * @return the index of the bucket for the current second, reset if it still holds counts
+   * from an earlier pass around the ring
+   */
+  private int currentBucket() {
+    long second = clock.getAsLong() / BUCKET_MILLIS;
+    int i = (int) (second % bucketStart.length);
+    if (bucketStart[i] != second * BUCKET_MILLIS) {
+      bucketStart[i] = second * BUCKET_MILLIS;
+      successes[i] = 0;
+      failures[i] = 0;
+    }
+    return i;
+  }
+
+}
@@ -0,0 +1,19 @@
+package org.springframework.cloud.servicebroker.mongodb.throttle;
+
+/**
+ * How expensive a backend admin command is for the mongo service. Each cost class has its own
+ * concurrency budget so that a burst of database drops cannot starve cheap existence checks.
+ */
+public enum CommandCost {
+
+  /**
+   * Metadata lookups such as listing database names.
+   */
+  CHEAP,
+
+  /**
+   * Commands that take heavy locks or write to disk, such as creating or dropping databases and users.
+   */
+  EXPENSIVE
+
+}
@@ -0,0 +1,125 @@
+package org.springframework.cloud.servicebroker.mongodb.throttle;
+
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Weighted fair queue of the commands waiting for a slot of an {@link AdaptiveConcurrencyLimiter}, which
+ * guards it. Each waiter is tagged with the virtual time its class would finish at, advancing by the
+ * inverse of the class weight, and the lowest tag goes first among the classes below their cap. A busy
+ * class therefore gets slots in proportion to its weight but never all of them, and a class that was idle
+ * starts at the current virtual time rather than with credit saved up.
+ */
+final class FairQueue {
+
+  private static final Comparator<Waiter> BY_TAG =
+      Comparator.comparingDouble((Waiter waiter) -> waiter.tag).thenComparingLong(waiter -> waiter.seq);
+
+  static final class Waiter {
+
+    private final WorkClass workClass;
+    private final double tag;
+    private final long seq;
+    private final long enqueuedAt;
+
+    private Waiter(WorkClass workClass, double tag, long seq, long enqueuedAt) {
+      this.workClass = workClass;
+      this.tag = tag;
+      this.seq = seq;
+      this.enqueuedAt = enqueuedAt;
+    }
+
+  }
+
+  private final SchedulingProperties scheduling;
+  private final TreeSet<Waiter> waiters = new TreeSet<>(BY_TAG);
+  private final Map<WorkClass, ClassState> classes = new EnumMap<>(WorkClass.class);
+  private double virtualTime;
+  private long nextSeq;
+
+  FairQueue(SchedulingProperties scheduling) {
+    this.scheduling = scheduling;
+    for (WorkClass workClass : WorkClass.values()) {
+      classes.put(workClass, new ClassState());
+    }
+  }
+
+  Waiter enqueue(WorkClass workClass, long now) {
+    ClassState state = classes.get(workClass);
+    double tag = Math.max(virtualTime, state.lastTag) + 1.0 / scheduling.getWeight(workClass);
+    state.lastTag = tag;
+    state.queued++;
+    Waiter waiter = new Waiter(workClass, tag, nextSeq++, now);
+    waiters.add(waiter);
+    return waiter;
+  }
+
+  /**
+   * @return true if the waiter is the first one whose class is below its cap, and a slot is free
+   */
+  boolean isTurn(Waiter waiter, int limit, int inFlight) {
+    if (inFlight >= limit) {
+      return false;
+    }
+    for (Waiter first : waiters) {
+      if (classes.get(first.workClass).inFlight < cap(first.workClass, limit)) {
+        return first == waiter;
+      }
+    }
+    return false;
+  }
+
+  void grant(Waiter waiter, long now) {
+    waiters.remove(waiter);
+    virtualTime = Math.max(virtualTime, waiter.tag);
+    ClassState state = classes.get(waiter.workClass);
+    state.queued--;
+    state.inFlight++;
+    state.granted++;
+    long wait = now - waiter.enqueuedAt;
+    state.waitNanos += wait;
+    state.maxWaitNanos = Math.max(state.maxWaitNanos, wait);
+  }
+
+  void abandon(Waiter waiter) {
+    waiters.remove(waiter);
+    ClassState state = classes.get(waiter.workClass);
+    state.queued--;
+    state.shed++;
+  }
+
+  void release(WorkClass workClass) {
+    ClassState state = classes.get(workClass);
+    if (state.inFlight > 0) {
+      state.inFlight--;
+    }
+  }
+
+  Map<WorkClass, WorkClassStats> stats(int limit) {
+    Map<WorkClass, WorkClassStats> stats = new EnumMap<>(WorkClass.class);
+    for (Map.Entry<WorkClass, ClassState> entry : classes.entrySet()) {
+      ClassState state = entry.getValue();
+      stats.put(entry.getKey(), new WorkClassStats(state.queued, state.inFlight, cap(entry.getKey(), limit),
+          state.granted, state.shed,
+          state.granted == 0 ? 0 : state.waitNanos / 1e6 / state.granted, state.maxWaitNanos / 1e6));
+    }
+    return stats;
+  }
+
+  private int cap(WorkClass workClass, int limit) {
+    return Math.max(1, (int) Math.floor(limit * scheduling.getMaxShare(workClass)));
+  }
+
+  private static final class ClassState {
+    private double lastTag;
+    private int queued;
+    private int inFlight;
+    private long granted;
+    private long shed;
+    private long waitNanos;
+    private long maxWaitNanos;
+  }
+
+}
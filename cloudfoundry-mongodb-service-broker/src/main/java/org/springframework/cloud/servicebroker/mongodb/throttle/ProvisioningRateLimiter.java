@@ -0,0 +1,113 @@
+package org.springframework.cloud.servicebroker.mongodb.throttle;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.servicebroker.mongodb.exception.RateLimitExceededException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Per-plan provisioning quotas for each org and each space. Buckets are created on demand and
+ * dropped again once they have refilled, so memory is proportional to the number of orgs and
+ * spaces that provisioned recently, and never exceeds the configured number of tracked keys.
+ */
+@Component
+public class ProvisioningRateLimiter {
+
+  private Logger logger = LoggerFactory.getLogger(ProvisioningRateLimiter.class);
+
+  private final RateLimitProperties properties;
+  private final LongSupplier clock;
+  private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+  @Autowired
+  public ProvisioningRateLimiter(RateLimitProperties properties) {
+    this(properties, System::nanoTime);
+  }
+
+  ProvisioningRateLimiter(RateLimitProperties properties, LongSupplier clock) {
+    this.properties = properties;
+    this.clock = clock;
+  }
+
+  /**
+   * @return a limiter that lets every request through
+   */
+  public static ProvisioningRateLimiter unlimited() {
+    RateLimitProperties properties = new RateLimitProperties();
+    properties.setEnabled(false);
+    return new ProvisioningRateLimiter(properties);
+  }
+
+  /**
+   * Take a provisioning permit from both the org and the space bucket for the plan.
+   * @throws RateLimitExceededException if either quota is exhausted
+   */
+  public void checkProvision(String planId, String organizationGuid, String spaceGuid) {
+    if (!properties.isEnabled()) {
+      return;
+    }
+    RateLimitProperties.Quota quota = properties.getQuota(planId);
+    long now = clock.getAsLong();
+
+    TokenBucket org = bucket("org", planId, organizationGuid, quota.getOrgPerMinute(), quota.getOrgBurst(), now);
+    long wait = org == null ? 0 : org.tryAcquire(now);
+    if (wait > 0) {
+      throw rejected("organization", organizationGuid, wait);
+    }
+
+    TokenBucket space = bucket("space", planId, spaceGuid, quota.getSpacePerMinute(), quota.getSpaceBurst(), now);
+    wait = space == null ? 0 : space.tryAcquire(now);
+    if (wait > 0) {
+      if (org != null) {
+        org.refund();
+      }
+      throw rejected("space", spaceGuid, wait);
+    }
+  }
+
+  /**
+   * Drop buckets that have refilled; they would be recreated full anyway.
+   */
+  @Scheduled(fixedDelayString = "${broker.rate-limit.sweep-interval-millis:60000}")
+  public void evictFullBuckets() {
+    long now = clock.getAsLong();
+    buckets.entrySet().removeIf(entry -> entry.getValue().isFull(now));
+  }
+
+  int getTrackedKeys() {
+    return buckets.size();
+  }
+
+  private TokenBucket bucket(String scope, String planId, String guid, int perMinute, int burst, long now) {
+    if (guid == null || perMinute <= 0) {
+      return null;
+    }
+    String key = scope + ':' + planId + ':' + guid;
+    TokenBucket bucket = buckets.get(key);
+    if (bucket != null) {
+      return bucket;
+    }
+    if (buckets.size() >= properties.getMaxTrackedKeys()) {
+      evictFullBuckets();
+      if (buckets.size() >= properties.getMaxTrackedKeys()) {
+        logger.warn("Tracking {} rate limit buckets, not limiting {}", buckets.size(), key);
+        return null;
+      }
+    }
+    return buckets.computeIfAbsent(key, k -> new TokenBucket(perMinute, burst, now));
+  }
+
+  private RateLimitExceededException rejected(String scope, String guid, long waitNanos) {
+    long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+    return new RateLimitExceededException("Too many service instances provisioned in " + scope + " " + guid
+        + ", retry in " + seconds + " seconds", seconds);
+  }
+
+}
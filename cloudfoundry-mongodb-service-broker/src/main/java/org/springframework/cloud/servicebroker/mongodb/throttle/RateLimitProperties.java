@@ -0,0 +1,108 @@
+package org.springframework.cloud.servicebroker.mongodb.throttle;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Provisioning quotas, configured under {@code broker.rate-limit}. Plans without their own
+ * entry under {@code plans} use the default quota.
+ */
+@Component
+@ConfigurationProperties(prefix = "broker.rate-limit")
+public class RateLimitProperties {
+
+  private boolean enabled = true;
+
+  private int maxTrackedKeys = 100000;
+
+  private Quota defaults = new Quota();
+
+  private Map<String, Quota> plans = new HashMap<>();
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public int getMaxTrackedKeys() {
+    return maxTrackedKeys;
+  }
+
+  public void setMaxTrackedKeys(int maxTrackedKeys) {
+    this.maxTrackedKeys = maxTrackedKeys;
+  }
+
+  public Quota getDefaults() {
+    return defaults;
+  }
+
+  public void setDefaults(Quota defaults) {
+    this.defaults = defaults;
+  }
+
+  public Map<String, Quota> getPlans() {
+    return plans;
+  }
+
+  public void setPlans(Map<String, Quota> plans) {
+    this.plans = plans;
+  }
+
+  public Quota getQuota(String planId) {
+    Quota quota = planId == null ? null : plans.get(planId);
+    return quota == null ? defaults : quota;
+  }
+
+  /**
+   * Sustained provisions per minute and burst size, per org and per space. A rate of 0 disables that limit.
+   */
+  public static class Quota {
+
+    private int orgPerMinute = 120;
+
+    private int orgBurst = 30;
+
+    private int spacePerMinute = 30;
+
+    private int spaceBurst = 10;
+
+    public int getOrgPerMinute() {
+      return orgPerMinute;
+    }
+
+    public void setOrgPerMinute(int orgPerMinute) {
+      this.orgPerMinute = orgPerMinute;
+    }
+
+    public int getOrgBurst() {
+      return orgBurst;
+    }
+
+    public void setOrgBurst(int orgBurst) {
+      this.orgBurst = orgBurst;
+    }
+
+    public int getSpacePerMinute() {
+      return spacePerMinute;
+    }
+
+    public void setSpacePerMinute(int spacePerMinute) {
+      this.spacePerMinute = spacePerMinute;
+    }
+
+    public int getSpaceBurst() {
+      return spaceBurst;
+    }
+
+    public void setSpaceBurst(int spaceBurst) {
+      this.spaceBurst = spaceBurst;
+    }
+  }
+
+}
@@ -0,0 +1,78 @@
+package org.springframework.cloud.servicebroker.mongodb.throttle;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Weights and concurrency caps of the {@link WorkClass work classes}, configured under
+ * {@code broker.backend.scheduling.classes} by lower case class name. Settings left out keep the
+ * class defaults.
+ */
+@Component
+@ConfigurationProperties(prefix = "broker.backend.scheduling")
+public class SchedulingProperties {
+
+  private Map<String, ClassSettings> classes = new HashMap<>();
+
+  /**
+   * @return equal weights and no caps, so that commands are granted slots in the order they asked
+   */
+  public static SchedulingProperties unweighted() {
+    SchedulingProperties scheduling = new SchedulingProperties();
+    for (WorkClass workClass : WorkClass.values()) {
+      ClassSettings settings = new ClassSettings();
+      settings.setWeight(1.0);
+      settings.setMaxShare(1.0);
+      scheduling.getClasses().put(workClass.name().toLowerCase(Locale.ROOT), settings);
+    }
+    return scheduling;
+  }
+
+  public Map<String, ClassSettings> getClasses() {
+    return classes;
+  }
+
+  public void setClasses(Map<String, ClassSettings> classes) {
+    this.classes = classes;
+  }
+
+  public double getWeight(WorkClass workClass) {
+    ClassSettings settings = classes.get(workClass.name().toLowerCase(Locale.ROOT));
+    return settings == null || settings.getWeight() == null ? workClass.getDefaultWeight() : settings.getWeight();
+  }
+
+  public double getMaxShare(WorkClass workClass) {
+    ClassSettings settings = classes.get(workClass.name().toLowerCase(Locale.ROOT));
+    return settings == null || settings.getMaxShare() == null
+        ? workClass.getDefaultMaxShare() : settings.getMaxShare();
+  }
+
+  public static class ClassSettings {
+
+    private Double weight;
+
+    private Double maxShare;
+
+    public Double getWeight() {
+      return weight;
+    }
+
+    public void setWeight(Double weight) {
+      this.weight = weight;
+    }
+
+    public Double getMaxShare() {
+      return maxShare;
+    }
+
+    public void setMaxShare(Double maxShare) {
+      this.maxShare = maxShare;
+    }
+
+  }
+
+}
@@ -0,0 +1,57 @@
+package org.springframework.cloud.servicebroker.mongodb.throttle;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, implemented as the generic cell rate algorithm: the whole state is a single
+ * "theoretical arrival time" updated with compare-and-set. A bucket whose arrival time has passed is
+ * full, so it can be discarded and recreated later without changing any decision.
+ */
+public class TokenBucket {
+
+  private final long emissionIntervalNanos;
+  private final long burstToleranceNanos;
+  private final AtomicLong theoreticalArrival;
+
+  /**
+   * @param permitsPerMinute sustained rate
+   * @param burst number of permits that may be taken at once from a full bucket
+   * @param nowNanos the current time
+   */
+  public TokenBucket(int permitsPerMinute, int burst, long nowNanos) {
+    this.emissionIntervalNanos = TimeUnit.MINUTES.toNanos(1) / permitsPerMinute;
+    this.burstToleranceNanos = emissionIntervalNanos * (Math.max(1, burst) - 1);
+    this.theoreticalArrival = new AtomicLong(nowNanos);
+  }
+
+  /**
+   * Take a permit if one is available.
+   * @return 0 if a permit was taken, otherwise the nanoseconds until one becomes available
+   */
+  public long tryAcquire(long nowNanos) {
+    while (true) {
+      long current = theoreticalArrival.get();
+      long arrival = Math.max(current, nowNanos);
+      long wait = arrival - nowNanos - burstToleranceNanos;
+      if (wait > 0) {
+        return wait;
+      }
+      if (theoreticalArrival.compareAndSet(current, arrival + emissionIntervalNanos)) {
+        return 0;
+      }
+    }
+  }
+
+  /**
+   * Give back a permit taken by {@link #tryAcquire(long)}.
+   */
+  public void refund() {
+    theoreticalArrival.addAndGet(-emissionIntervalNanos);
+  }
+
+  public boolean isFull(long nowNanos) {
+    return theoreticalArrival.get() <= nowNanos;
+  }
+
+}
@@ -0,0 +1,84 @@
+package org.springframework.cloud.servicebroker.mongodb.throttle;
+
+/**
+ * Who is waiting for a backend admin command, from the most to the least urgent. The class is taken from
+ * the thread sending the command: broker calls mark their thread for their duration, and threads that
+ * are not marked, such as those of background jobs, send {@link #BACKGROUND} work.
+ */
+public enum WorkClass {
+
+  /**
+   * Binds and unbinds, which an application deploy waits for.
+   */
+  INTERACTIVE(8, 1.0),
+
+  /**
+   * Provisioning and updating instances, including seeding from a template.
+   */
+  PROVISION(4, 1.0),
+
+  /**
+   * Dropping the databases and users of deprovisioned instances.
+   */
+  DEPROVISION(2, 0.5),
+
+  /**
+   * Maintenance such as sampling, snapshots, hibernation, rotation and migration.
+   */
+  BACKGROUND(1, 0.5);
+
+  private static final ThreadLocal<WorkClass> CURRENT = new ThreadLocal<>();
+
+  private final double defaultWeight;
+  private final double defaultMaxShare;
+
+  WorkClass(double defaultWeight, double defaultMaxShare) {
+    this.defaultWeight = defaultWeight;
+    this.defaultMaxShare = defaultMaxShare;
+  }
+
+  /**
+   * @return the relative share of the backend the class gets while every class has work waiting
+   */
+  public double getDefaultWeight() {
+    return defaultWeight;
+  }
+
+  /**
+   * @return the largest fraction of a concurrency limit the class may hold at once
+   */
+  public double getDefaultMaxShare() {
+    return defaultMaxShare;
+  }
+
+  /**
+   * @return the class of the work the current thread does
+   */
+  public static WorkClass current() {
+    WorkClass current = CURRENT.get();
+    return current == null ? BACKGROUND : current;
+  }
+
+  /**
+   * Mark the current thread as doing work of this class until the scope is closed.
+   */
+  public Scope enter() {
+    WorkClass previous = CURRENT.get();
+    CURRENT.set(this);
+    return () -> {
+      if (previous == null) {
+        CURRENT.remove();
+      } else {
+        CURRENT.set(previous);
+      }
+    };
+  }
+
+  public interface Scope extends AutoCloseable {
+
+    @Override
+    void close();
+
+  }
+
+}
@@ -0,0 +1,64 @@
+package org.springframework.cloud.servicebroker.mongodb.throttle;
+
+/**
+ * A snapshot of how one {@link WorkClass} fares in the queue of a concurrency limiter.
+ */
+public class WorkClassStats {
+
+  private final int queued;
+  private final int inFlight;
+  private final int maxInFlight;
+  private final long granted;
+  private final long shed;
+  private final double meanWaitMillis;
+  private final double maxWaitMillis;
+
+  public WorkClassStats(int queued, int inFlight, int maxInFlight, long granted, long shed,
+                        double meanWaitMillis, double maxWaitMillis) {
+    this.queued = queued;
+    this.inFlight = inFlight;
+    this.maxInFlight = maxInFlight;
+    this.granted = granted;
+    this.shed = shed;
+    this.meanWaitMillis = meanWaitMillis;
+    this.maxWaitMillis = maxWaitMillis;
+  }
+
+  /**
+   * @return the commands waiting for a slot right now
+   */
+  public int getQueued() {
+    return queued;
+  }
+
+  public int getInFlight() {
+    return inFlight;
+  }
+
+  /**
+   * @return the cap of the class under the current limit
+   */
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  public long getGranted() {
+    return granted;
+  }
+
+  /**
+   * @return the commands that gave up waiting
+   */
+  public long getShed() {
+    return shed;
+  }
+
+  public double getMeanWaitMillis() {
+    return meanWaitMillis;
+  }
+
+  public double getMaxWaitMillis() {
+    return maxWaitMillis;
+  }
+
+}
@@ -0,0 +1,107 @@
+package org.springframework.cloud.servicebroker.mongodb.trace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timed step of a broker request: the request itself, or a backend command sent while serving it.
+ * Spans are only touched by the thread serving the request.
+ */
+public class Span {
+
+  private final String name;
+  private final long startNanos;
+  private final List<Span> children = new ArrayList<>();
+  private long durationNanos = -1;
+  private String server;
+  private String error;
+
+  Span(String name, long startNanos) {
+    this.name = name;
+    this.startNanos = startNanos;
+  }
+
+  Span child(String name, long startNanos) {
+    Span child = new Span(name, startNanos);
+    children.add(child);
+    return child;
+  }
+
+  void finish(long durationNanos) {
+    this.durationNanos = durationNanos;
+  }
+
+  Span withServer(String server) {
+    this.server = server;
+    return this;
+  }
+
+  Span withError(String error) {
+    this.error = error;
+    return this;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getStartNanos() {
+    return startNanos;
+  }
+
+  /**
+   * @return the duration, or -1 while the span is open
+   */
+  public long getDurationNanos() {
+    return durationNanos;
+  }
+
+  /**
+   * @return the host:port the command was sent to, or null for spans that are not backend commands
+   */
+  public String getServer() {
+    return server;
+  }
+
+  public String getError() {
+    return error;
+  }
+
+  public List<Span> getChildren() {
+    return Collections.unmodifiableList(children);
+  }
+
+  /**
+   * Render the span tree, one span per line with its offset from the start of this span.
+   */
+  public String format() {
+    StringBuilder builder = new StringBuilder();
+    format(builder, startNanos, 0);
+    return builder.toString();
+  }
+
+  private void format(StringBuilder builder, long originNanos, int depth) {
+    for (int i = 0; i < depth; i++) {
+      builder.append("  ");
+    }
+    builder.append(String.format("+%.1f ms %s", millis(startNanos - originNanos), name));
+    if (server != null) {
+      builder.append(" @ ").append(server);
+    }
+    builder.append(durationNanos < 0 ? " (open)" : String.format(" %.1f ms", millis(durationNanos)));
+    if (error != null) {
+      builder.append(" failed: ").append(error);
+    }
+    builder.append('\n');
+    for (Span child : children) {
+      child.format(builder, originNanos, depth + 1);
+    }
+  }
+
+  private static double millis(long nanos) {
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+}
@@ -0,0 +1,198 @@
+package org.springframework.cloud.servicebroker.mongodb.trace;
+
+import com.mongodb.event.CommandEvent;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Per-request traces of broker calls. A service method opens a {@link Scope} around the request, and
+ * every command the driver sends from the same thread until it is closed is recorded as a child
+ * {@link Span} through the {@link #commandListener()}, which is registered with the {@code MongoClient}.
+ * Requests taking longer than the slow-request threshold are logged with their whole span tree.
+ */
+@Component
+public class Tracer {
+
+  // bounds the memory of a request that sends an unexpected number of commands
+  static final int MAX_SPANS = 1000;
+
+  // commands whose first value is the collection they work on
+  private static final Set<String> COLLECTION_COMMANDS = new HashSet<>(Arrays.asList(
+      "find", "insert", "update", "delete", "findAndModify", "count", "distinct", "aggregate",
+      "create", "drop", "createIndexes", "listIndexes"));
+
+  private Logger logger = LoggerFactory.getLogger(Tracer.class);
+
+  private final long slowRequestNanos;
+  private final LongSupplier clock;
+  private final Consumer<Span> slowRequests;
+  private final ThreadLocal<Trace> current = new ThreadLocal<>();
+  private final CommandListener listener = new TracingCommandListener();
+  private final Scope noop = new Scope(null, null);
+
+  @Autowired
+  public Tracer(@Value("${broker.trace.slow-request-millis:2000}") long slowRequestMillis) {
+    this(slowRequestMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(slowRequestMillis), System::nanoTime, null);
+  }
+
+  Tracer(long slowRequestNanos, LongSupplier clock, Consumer<Span> slowRequests) {
+    this.slowRequestNanos = slowRequestNanos;
+    this.clock = clock;
+    this.slowRequests = slowRequests != null ? slowRequests
+        : root -> logger.warn("Slow request {}, {} ms:\n{}", root.getName(),
+            TimeUnit.NANOSECONDS.toMillis(root.getDurationNanos()), root.format());
+  }
+
+  /**
+   * @return a tracer that records nothing, for callers that are not managed by Spring
+   */
+  public static Tracer disabled() {
+    return new Tracer(-1);
+  }
+
+  /**
+   * Open a span, the root of a new trace unless one is already open on this thread.
+   * Use with try-with-resources.
+   */
+  public Scope start(String name) {
+    if (slowRequestNanos < 0) {
+      return noop;
+    }
+    long now = clock.getAsLong();
+    Trace trace = current.get();
+    if (trace == null) {
+      trace = new Trace(new Span(name, now));
+      current.set(trace);
+      return new Scope(trace, trace.root);
+    }
+    Span span = trace.stack.peek().child(name, now);
+    trace.stack.push(span);
+    return new Scope(trace, span);
+  }
+
+  /**
+   * @return the driver listener that records commands into the trace of the calling thread
+   */
+  public CommandListener commandListener() {
+    return listener;
+  }
+
+  public class Scope implements AutoCloseable {
+
+    private final Trace trace;
+    private final Span span;
+
+    private Scope(Trace trace, Span span) {
+      this.trace = trace;
+      this.span = span;
+    }
+
+    @Override
+    public void close() {
+      if (span == null) {
+        return;
+      }
+      span.finish(clock.getAsLong() - span.getStartNanos());
+      if (span != trace.root) {
+        trace.stack.pop();
+        return;
+      }
+      current.remove();
+      if (span.getDurationNanos() >= slowRequestNanos) {
+        if (trace.dropped > 0) {
+          span.child(trace.dropped + " more commands not recorded", span.getStartNanos());
+        }
+        slowRequests.accept(span);
+      }
+    }
+
+  }
+
+  private static class Trace {
+
+    private final Span root;
+    private final Deque<Span> stack = new ArrayDeque<>();
+    private final Map<Integer, Span> commands = new HashMap<>();
+    private int spans = 1;
+    private int dropped;
+
+    Trace(Span root) {
+      this.root = root;
+      this.stack.push(root);
+    }
+
+  }
+
+  private class TracingCommandListener implements CommandListener {
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+      Trace trace = current.get();
+      if (trace == null) {
+        return;
+      }
+      if (trace.spans >= MAX_SPANS) {
+        trace.dropped++;
+        return;
+      }
+      trace.spans++;
+      Span span = trace.stack.peek().child(describe(event), clock.getAsLong())
+          .withServer(event.getConnectionDescription().getServerAddress().toString());
+      trace.commands.put(event.getRequestId(), span);
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+      finish(event, event.getElapsedTime(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+      Span span = finish(event, event.getElapsedTime(TimeUnit.NANOSECONDS));
+      if (span != null) {
+        span.withError(event.getThrowable().getMessage());
+      }
+    }
+
+    /**
+     * Name the command after its namespace.
+     */
+    private String describe(CommandStartedEvent event) {
+      BsonValue target = event.getCommand().get(event.getCommandName());
+      String namespace = COLLECTION_COMMANDS.contains(event.getCommandName()) && target != null && target.isString()
+          ? event.getDatabaseName() + "." + target.asString().getValue()
+          : event.getDatabaseName();
+      return event.getCommandName() + " " + namespace;
+    }
+
+    private Span finish(CommandEvent event, long elapsedNanos) {
+      Trace trace = current.get();
+      Span span = trace == null ? null : trace.commands.remove(event.getRequestId());
+      if (span != null) {
+        span.finish(elapsedNanos);
+      }
+      return span;
+    }
+
+  }
+
+}
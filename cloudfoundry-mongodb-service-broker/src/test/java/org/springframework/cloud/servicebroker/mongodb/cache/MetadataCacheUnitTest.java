@@ -0,0 +1,120 @@
+package org.springframework.cloud.servicebroker.mongodb.cache;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cloud.servicebroker.mongodb.Fixtures;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournalRecord;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournaledRepository;
+import org.springframework.cloud.servicebroker.mongodb.journal.MetadataJournal;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceRepository;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MetadataCacheUnitTest {
+
+  private static final JournalRecord.Kind INSTANCE = JournalRecord.Kind.SERVICE_INSTANCE;
+
+  @Mock
+  private MongoServiceInstanceRepository repository;
+
+  private AtomicLong now;
+
+  private MetadataCache cache;
+
+  @Before
+  public void setup() {
+    MockitoAnnotations.initMocks(this);
+    now = new AtomicLong();
+    cache = new MetadataCache(true, 60_000, 100, now::get);
+    cache.setLive(true);
+  }
+
+  @Test
+  public void lookupsAreServedLocallyUntilInvalidated() {
+    ServiceInstance instance = Fixtures.getServiceInstance();
+    String id = instance.getServiceInstanceId();
+    when(repository.findOne(id)).thenReturn(instance);
+    JournaledRepository<ServiceInstance> instances =
+        new JournaledRepository<>(MetadataJournal.disabled(), cache, INSTANCE, repository);
+
+    assertSame(instance, instances.findOne(id));
+    assertSame(instance, instances.findOne(id));
+    verify(repository, times(1)).findOne(id);
+
+    cache.invalidate(INSTANCE, id);
+    instances.findOne(id);
+    verify(repository, times(2)).findOne(id);
+    assertEquals(1, cache.getHits());
+  }
+
+  @Test
+  public void localWritesInvalidate() {
+    ServiceInstance instance = Fixtures.getServiceInstance();
+    cache.put(INSTANCE, instance.getServiceInstanceId(), instance, cache.generation());
+    JournaledRepository<ServiceInstance> instances =
+        new JournaledRepository<>(MetadataJournal.disabled(), cache, INSTANCE, repository);
+
+    instances.delete(instance.getServiceInstanceId());
+
+    assertNull(cache.get(INSTANCE, instance.getServiceInstanceId()));
+  }
+
+  @Test
+  public void valueReadBeforeAnInvalidationIsNotCached() {
+    long generation = cache.generation();
+    cache.invalidate(INSTANCE, "instance");
+    cache.put(INSTANCE, "instance", "stale", generation);
+
+    assertNull(cache.get(INSTANCE, "instance"));
+  }
+
+  @Test
+  public void nothingIsServedWhileTheFeedIsDown() {
+    cache.put(INSTANCE, "instance", "value", cache.generation());
+    cache.setLive(false);
+
+    assertNull(cache.get(INSTANCE, "instance"));
+  }
+
+  @Test
+  public void entriesExpire() {
+    cache.put(INSTANCE, "instance", "value", cache.generation());
+    now.addAndGet(60_001);
+
+    assertNull(cache.get(INSTANCE, "instance"));
+  }
+
+  @Test
+  public void oplogEntriesInvalidateTheirDocument() {
+    OplogInvalidator invalidator =
+        new OplogInvalidator(null, "broker", "serviceInstance", "serviceInstanceBinding", cache);
+    cache.put(INSTANCE, "a", "a", cache.generation());
+    cache.put(INSTANCE, "b", "b", cache.generation());
+    cache.put(JournalRecord.Kind.SERVICE_INSTANCE_BINDING, "c", "c", cache.generation());
+
+    invalidator.apply(new Document("ns", "broker.serviceInstance").append("op", "d")
+        .append("o", new Document("_id", "a")));
+    invalidator.apply(new Document("ns", "broker.serviceInstance").append("op", "u")
+        .append("o2", new Document("_id", "b")).append("o", new Document("$set", new Document("planId", "p"))));
+
+    assertNull(cache.get(INSTANCE, "a"));
+    assertNull(cache.get(INSTANCE, "b"));
+    assertEquals("c", cache.get(JournalRecord.Kind.SERVICE_INSTANCE_BINDING, "c"));
+
+    invalidator.apply(new Document("ns", "broker.$cmd").append("op", "c")
+        .append("o", new Document("drop", "serviceInstanceBinding")));
+    assertEquals(0, cache.getSize());
+  }
+
+}
@@ -0,0 +1,191 @@
+package org.springframework.cloud.servicebroker.mongodb.convert;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.WriteResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cloud.servicebroker.model.OperationState;
+import org.springframework.cloud.servicebroker.mongodb.Fixtures;
+import org.springframework.cloud.servicebroker.mongodb.coordination.LeaseManager;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstanceBinding;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.convert.CustomConversions;
+import org.springframework.data.mongodb.core.convert.DbRefResolver;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MetadataConvertersUnitTest {
+
+  @Mock
+  private MongoOperations operations;
+
+  @Mock
+  private DBCollection collection;
+
+  @Mock
+  private LeaseManager leases;
+
+  private MappingMongoConverter converter;
+
+  @Before
+  public void setup() {
+    MockitoAnnotations.initMocks(this);
+    CustomConversions conversions = new CustomConversions(Arrays.asList(
+        new ServiceInstanceConverters.Writer(), new ServiceInstanceConverters.Reader(),
+        new ServiceInstanceBindingConverters.Writer(), new ServiceInstanceBindingConverters.Reader()));
+    MongoMappingContext context = new MongoMappingContext();
+    context.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+    converter = new MappingMongoConverter(mock(DbRefResolver.class), context);
+    converter.setCustomConversions(conversions);
+    converter.afterPropertiesSet();
+    when(operations.getConverter()).thenReturn(converter);
+  }
+
+  @Test
+  public void instancesAreWrittenCompactlyWithoutATypeHint() {
+    ServiceInstance instance = Fixtures.getServiceInstance();
+    DBObject document = new BasicDBObject();
+
+    converter.write(instance, document);
+
+    assertFalse(document.containsField("_class"));
+    assertEquals(instance.getServiceInstanceId(), document.get("_id"));
+    assertEquals(instance.getPlanId(), document.get(ServiceInstanceConverters.PLAN_ID));
+    ServiceInstance read = converter.read(ServiceInstance.class, document);
+    assertEquals(instance.getServiceDefinitionId(), read.getServiceDefinitionId());
+    assertEquals(instance.getSpaceGuid(), read.getSpaceGuid());
+  }
+
+  @Test
+  public void rolesOfHibernatedInstancesRoundTrip() {
+    ServiceInstance instance = Fixtures.getServiceInstance().withHibernation("archive", 1)
+        .withHibernatedRoles(Collections.singletonMap("app.user", Arrays.asList("readWrite", "dbAdmin")));
+    DBObject document = new BasicDBObject();
+
+    converter.write(instance, document);
+    ServiceInstance read = converter.read(ServiceInstance.class, document);
+
+    assertEquals("archive", read.getArchiveId());
+    assertEquals(Arrays.asList("readWrite", "dbAdmin"), read.getHibernatedRoles().get("app.user"));
+  }
+
+  @Test
+  public void operationOfInstancesRoundTrips() {
+    ServiceInstance instance = Fixtures.getServiceInstance()
+        .withOperation(OperationState.FAILED, "Seeding from template t failed");
+    DBObject document = new BasicDBObject();
+
+    converter.write(instance, document);
+    ServiceInstance read = converter.read(ServiceInstance.class, document);
+
+    assertEquals(OperationState.FAILED, read.getOperationState());
+    assertEquals("Seeding from template t failed", read.getOperationDescription());
+    DBObject done = new BasicDBObject();
+    converter.write(Fixtures.getServiceInstance(), done);
+    assertFalse(done.containsField(ServiceInstanceConverters.OPERATION_STATE));
+  }
+
+  @Test
+  public void bindingsRoundTrip() {
+    ServiceInstanceBinding binding = new ServiceInstanceBinding("binding", "instance",
+        Collections.singletonMap("uri", "mongodb://binding@host/instance"), null, "app");
+    DBObject document = new BasicDBObject();
+
+    converter.write(binding, document);
+    ServiceInstanceBinding read = converter.read(ServiceInstanceBinding.class, document);
+
+    assertFalse(document.containsField(ServiceInstanceBindingConverters.SYSLOG_DRAIN_URL));
+    assertEquals("instance", read.getServiceInstanceId());
+    assertEquals("mongodb://binding@host/instance", read.getCredentials().get("uri"));
+    assertEquals("app", read.getAppGuid());
+  }
+
+  @Test
+  public void documentsOfOlderVersionsAreRead() {
+    DBObject legacy = new BasicDBObject("_id", "binding")
+        .append("_class", ServiceInstanceBinding.class.getName())
+        .append("serviceInstanceId", "instance")
+        .append("credentials", new BasicDBObject("uri", "mongodb://old"));
+
+    ServiceInstanceBinding read = converter.read(ServiceInstanceBinding.class, legacy);
+
+    assertEquals("instance", read.getServiceInstanceId());
+    assertEquals("mongodb://old", read.getCredentials().get("uri"));
+  }
+
+  @Test
+  public void migrationOnlyReplacesUnchangedDocuments() {
+    DBObject legacy = new BasicDBObject("_id", "instance")
+        .append("_class", ServiceInstance.class.getName())
+        .append("planId", "plan");
+    DBCursor cursor = mock(DBCursor.class);
+    when(operations.getCollectionName(ServiceInstance.class)).thenReturn("serviceInstance");
+    when(operations.getCollection("serviceInstance")).thenReturn(collection);
+    when(collection.find(any(DBObject.class))).thenReturn(cursor);
+    when(cursor.limit(anyInt())).thenReturn(cursor);
+    when(cursor.hasNext()).thenReturn(true, false);
+    when(cursor.next()).thenReturn(legacy);
+    WriteResult result = mock(WriteResult.class);
+    when(collection.update(any(DBObject.class), any(DBObject.class))).thenReturn(result);
+
+    LegacyDocumentMigration migration = new LegacyDocumentMigration(operations, leases, 100);
+    assertEquals(1, migration.migrateBatch(ServiceInstance.class));
+
+    verify(collection).update(eq(legacy),
+        eq(new BasicDBObject("_id", "instance").append(ServiceInstanceConverters.PLAN_ID, "plan")));
+  }
+
+  @Test
+  public void everyNodeSeesWhenNoLegacyBindingIsLeft() {
+    DBCollection bindings = mock(DBCollection.class);
+    when(operations.getCollectionName(ServiceInstance.class)).thenReturn("serviceInstance");
+    when(operations.getCollectionName(ServiceInstanceBinding.class)).thenReturn("serviceInstanceBinding");
+    when(operations.getCollection("serviceInstance")).thenReturn(collection);
+    when(operations.getCollection("serviceInstanceBinding")).thenReturn(bindings);
+    DBObject legacy = new BasicDBObject("_id", "binding-id")
+        .append("_class", ServiceInstanceBinding.class.getName())
+        .append("serviceInstanceId", "service-instance-id");
+    when(bindings.findOne(any(DBObject.class))).thenReturn(legacy).thenReturn(null);
+
+    LegacyDocumentMigration migration = new LegacyDocumentMigration(operations, leases, 100);
+
+    assertFalse(migration.isDone());
+    assertTrue(migration.isDone());
+  }
+
+  @Test
+  public void migrationRunsOnTheLeaderUntilNothingIsLeft() {
+    when(leases.isLeader(LegacyDocumentMigration.JOB)).thenReturn(true);
+    when(operations.getCollectionName(any(Class.class))).thenReturn("metadata");
+    when(operations.getCollection(anyString())).thenReturn(collection);
+    DBCursor cursor = mock(DBCursor.class);
+    when(collection.find(any(DBObject.class))).thenReturn(cursor);
+    when(cursor.limit(anyInt())).thenReturn(cursor);
+
+    LegacyDocumentMigration migration = new LegacyDocumentMigration(operations, leases, 100);
+    migration.migrate();
+
+    assertTrue(migration.isDone());
+  }
+
+}
@@ -0,0 +1,159 @@
+package org.springframework.cloud.servicebroker.mongodb.coordination;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cloud.servicebroker.mongodb.model.Lease;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LeaseManagerUnitTest {
+
+  private static final long LEASE_MILLIS = 30_000;
+
+  @Mock
+  private MongoOperations operations;
+
+  private AtomicLong now;
+
+  private LeaseManager leases;
+
+  @Before
+  public void setup() {
+    MockitoAnnotations.initMocks(this);
+    now = new AtomicLong(1_000_000);
+    leases = new LeaseManager(operations, "node-1", LEASE_MILLIS, now::get);
+  }
+
+  @Test
+  public void lockIsTakenWithOneFindAndModify() {
+    granted("instance:instance", 7);
+
+    Lease lock = leases.tryLock("instance");
+
+    assertNotNull(lock);
+    assertEquals(7, lock.getToken());
+    assertTrue(leases.isLocked("instance"));
+    // a second operation on the same node does not get it either
+    assertNull(leases.tryLock("instance"));
+    verify(operations, times(1)).findAndModify(any(Query.class), any(Update.class),
+        any(FindAndModifyOptions.class), eq(Lease.class));
+  }
+
+  @Test
+  public void lockHeldByAnotherNodeIsNotTaken() {
+    when(operations.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+        eq(Lease.class))).thenThrow(new DuplicateKeyException("E11000 duplicate key error"));
+
+    assertNull(leases.tryLock("instance"));
+  }
+
+  @Test
+  public void leadershipIsOnlyCheckedAgainWhenTheLeaseRunsOut() {
+    granted("leader:job", 1);
+
+    assertTrue(leases.isLeader("job"));
+    now.addAndGet(LEASE_MILLIS / 2);
+    assertTrue(leases.isLeader("job"));
+    verify(operations, times(1)).findAndModify(any(Query.class), any(Update.class),
+        any(FindAndModifyOptions.class), eq(Lease.class));
+
+    // not trusted any more shortly before it expires
+    now.addAndGet(LEASE_MILLIS / 3);
+    when(operations.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+        eq(Lease.class))).thenThrow(new DuplicateKeyException("E11000 duplicate key error"));
+    assertFalse(leases.isLeader("job"));
+  }
+
+  @Test
+  public void renewalExtendsHeldLeases() {
+    granted("leader:job", 1);
+    leases.isLeader("job");
+    when(operations.findAndModify(any(Query.class), any(Update.class), eq(Lease.class)))
+        .thenReturn(new Lease("leader:job", "node-1", 1, 0, 0));
+
+    now.addAndGet(LEASE_MILLIS / 2);
+    leases.renew();
+    now.addAndGet(LEASE_MILLIS / 2);
+
+    assertTrue(leases.isLeader("job"));
+  }
+
+  @Test
+  public void lostLeasesAreDroppedOnRenewal() {
+    granted("instance:instance", 1);
+    leases.tryLock("instance");
+    when(operations.findAndModify(any(Query.class), any(Update.class), eq(Lease.class))).thenReturn(null);
+
+    leases.renew();
+
+    when(operations.exists(any(Query.class), eq(Lease.class))).thenReturn(true);
+    assertTrue(leases.isLocked("instance"));
+    verify(operations).exists(any(Query.class), eq(Lease.class));
+  }
+
+  @Test
+  public void lockIsNoLongerHeldWhenRenewalsLapse() {
+    granted("instance:instance", 1);
+    Lease lock = leases.tryLock("instance");
+    assertTrue(leases.isHeld(lock));
+    when(operations.findAndModify(any(Query.class), any(Update.class), eq(Lease.class)))
+        .thenThrow(new DataAccessResourceFailureException("metadata database unreachable"));
+
+    now.addAndGet(LEASE_MILLIS / 2);
+    leases.renew();
+    assertTrue(leases.isHeld(lock));
+    now.addAndGet(LEASE_MILLIS / 3);
+    assertFalse(leases.isHeld(lock));
+  }
+
+  @Test
+  public void releaseOnlyRemovesTheLeaseOfThisAcquisition() {
+    granted("instance:instance", 4);
+    Lease lock = leases.tryLock("instance");
+
+    leases.release(lock);
+
+    ArgumentCaptor<Query> removed = ArgumentCaptor.forClass(Query.class);
+    verify(operations).remove(removed.capture(), eq(Lease.class));
+    assertEquals(4L, removed.getValue().getQueryObject().get("token"));
+    assertEquals("node-1", removed.getValue().getQueryObject().get("owner"));
+  }
+
+  @Test
+  public void standaloneLocksAreExclusive() {
+    LeaseManager standalone = LeaseManager.standalone();
+
+    Lease lock = standalone.tryLock("instance");
+    assertNotNull(lock);
+    assertNull(standalone.tryLock("instance"));
+    standalone.release(lock);
+    assertNotNull(standalone.tryLock("instance"));
+    assertTrue(standalone.isLeader("job"));
+  }
+
+  private void granted(String name, long token) {
+    when(operations.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+        eq(Lease.class))).thenReturn(new Lease(name, "node-1", token, now.get(), now.get() + LEASE_MILLIS));
+  }
+
+}
@@ -0,0 +1,152 @@
+package org.springframework.cloud.servicebroker.mongodb.journal;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cloud.servicebroker.mongodb.Fixtures;
+import org.springframework.cloud.servicebroker.mongodb.cache.MetadataCache;
+import org.springframework.cloud.servicebroker.mongodb.convert.ServiceInstanceBindingConverters;
+import org.springframework.cloud.servicebroker.mongodb.convert.ServiceInstanceConverters;
+import org.springframework.cloud.servicebroker.mongodb.model.ArchivedRecord;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstanceBinding;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceBindingRepository;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceRepository;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.core.IndexOperations;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.convert.CustomConversions;
+import org.springframework.data.mongodb.core.convert.DbRefResolver;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MetadataArchiveUnitTest {
+
+  @Mock
+  private MongoOperations mongo;
+
+  @Mock
+  private IndexOperations indexes;
+
+  @Mock
+  private MongoServiceInstanceRepository instanceRepository;
+
+  @Mock
+  private MongoServiceInstanceBindingRepository bindingRepository;
+
+  private MetadataArchive archive;
+
+  @Before
+  public void setup() {
+    MockitoAnnotations.initMocks(this);
+    CustomConversions conversions = new CustomConversions(Arrays.asList(
+        new ServiceInstanceConverters.Writer(), new ServiceInstanceConverters.Reader(),
+        new ServiceInstanceBindingConverters.Writer(), new ServiceInstanceBindingConverters.Reader()));
+    MongoMappingContext context = new MongoMappingContext();
+    context.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+    MappingMongoConverter converter = new MappingMongoConverter(mock(DbRefResolver.class), context);
+    converter.setCustomConversions(conversions);
+    converter.afterPropertiesSet();
+    when(mongo.getConverter()).thenReturn(converter);
+    when(mongo.indexOps(ArchivedRecord.class)).thenReturn(indexes);
+    archive = new MetadataArchive(mongo, true, 3600, 2, 100, () -> 1000L);
+  }
+
+  @Test
+  public void overwrittenAndDeletedVersionsAreArchivedInBatches() {
+    ServiceInstance instance = Fixtures.getServiceInstance();
+    String id = instance.getServiceInstanceId();
+    when(instanceRepository.findOne(id)).thenReturn(instance);
+    JournaledRepository<ServiceInstance> instances = new JournaledRepository<>(MetadataJournal.disabled(),
+        MetadataCache.disabled(), archive,
+        JournalRecord.Kind.SERVICE_INSTANCE, instanceRepository);
+
+    instances.save(new ServiceInstance(id, "svc", "other-plan", "org", "space", null));
+    instances.save(new ServiceInstance(id, "svc", "third-plan", "org", "space", null));
+    instances.delete(id);
+    assertEquals(3, archive.getQueued());
+
+    archive.flush();
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<List<ArchivedRecord>> batches = (ArgumentCaptor) ArgumentCaptor.forClass(List.class);
+    verify(mongo, times(2)).insert(batches.capture(), eq(ArchivedRecord.class));
+    assertEquals(2, batches.getAllValues().get(0).size());
+    ArchivedRecord deleted = batches.getAllValues().get(1).get(0);
+    assertEquals(ArchivedRecord.Reason.DELETED, deleted.getReason());
+    assertEquals(id, deleted.getEntityId());
+    assertEquals(instance.getPlanId(), deleted.getDocument().get(ServiceInstanceConverters.PLAN_ID));
+    assertEquals(0, archive.getQueued());
+  }
+
+  @Test
+  public void bindingCredentialsAreNotArchived() {
+    ServiceInstanceBinding binding = Fixtures.getServiceInstanceBinding();
+    when(bindingRepository.findOne(binding.getId())).thenReturn(binding);
+    JournaledRepository<ServiceInstanceBinding> bindings = new JournaledRepository<>(MetadataJournal.disabled(),
+        MetadataCache.disabled(), archive,
+        JournalRecord.Kind.SERVICE_INSTANCE_BINDING, bindingRepository);
+
+    bindings.delete(binding.getId());
+    archive.flush();
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<List<ArchivedRecord>> batch = (ArgumentCaptor) ArgumentCaptor.forClass(List.class);
+    verify(mongo).insert(batch.capture(), eq(ArchivedRecord.class));
+    ArchivedRecord deleted = batch.getValue().get(0);
+    assertEquals("app-guid", deleted.getDocument().get(ServiceInstanceBindingConverters.APP_GUID));
+    assertFalse(deleted.getDocument().containsField(ServiceInstanceBindingConverters.CREDENTIALS));
+  }
+
+  @Test
+  public void versionsWaitForTheRetentionIndex() {
+    ServiceInstance instance = Fixtures.getServiceInstance();
+    when(instanceRepository.findOne(instance.getServiceInstanceId())).thenReturn(instance);
+    JournaledRepository<ServiceInstance> instances = new JournaledRepository<>(MetadataJournal.disabled(),
+        MetadataCache.disabled(), archive,
+        JournalRecord.Kind.SERVICE_INSTANCE, instanceRepository);
+    doThrow(new DataAccessResourceFailureException("metadata database unreachable")).doNothing()
+        .when(indexes).ensureIndex(any(IndexDefinition.class));
+
+    instances.delete(instance.getServiceInstanceId());
+    archive.flush();
+
+    verify(mongo, never()).insert(anyListOf(ArchivedRecord.class), eq(ArchivedRecord.class));
+    assertEquals(1, archive.getQueued());
+
+    archive.flush();
+
+    verify(mongo).insert(anyListOf(ArchivedRecord.class), eq(ArchivedRecord.class));
+    assertEquals(0, archive.getQueued());
+  }
+
+  @Test
+  public void nothingIsReadBackWhenTheArchiveIsOff() {
+    JournaledRepository<ServiceInstance> instances = new JournaledRepository<>(MetadataJournal.disabled(),
+        JournalRecord.Kind.SERVICE_INSTANCE, instanceRepository);
+
+    instances.delete("instance");
+
+    verify(instanceRepository, never()).findOne("instance");
+    verify(mongo, never()).insert(anyListOf(ArchivedRecord.class), eq(ArchivedRecord.class));
+  }
+
+}
@@ -0,0 +1,228 @@
+package org.springframework.cloud.servicebroker.mongodb.journal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.mongodb.Fixtures;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstanceBinding;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceBindingRepository;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceRepository;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.convert.DbRefResolver;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MetadataJournalUnitTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Mock
+	private MongoOperations mongo;
+
+	@Mock
+	private BulkOperations bulk;
+
+	@Mock
+	private DbRefResolver dbRefResolver;
+
+	@Mock
+	private MongoServiceInstanceRepository instanceRepository;
+
+	@Mock
+	private MongoServiceInstanceBindingRepository bindingRepository;
+
+	private MetadataJournal journal;
+
+	@Before
+	public void setup() throws Exception {
+		MockitoAnnotations.initMocks(this);
+		MappingMongoConverter converter = new MappingMongoConverter(dbRefResolver, new MongoMappingContext());
+		converter.afterPropertiesSet();
+		when(mongo.getConverter()).thenReturn(converter);
+		when(mongo.bulkOps(eq(BulkOperations.BulkMode.ORDERED), any(Class.class))).thenReturn(bulk);
+		journal = openJournal();
+	}
+
+	@After
+	public void teardown() throws Exception {
+		journal.destroy();
+	}
+
+	@Test
+	public void writesAreReadBackBeforeTheyAreApplied() {
+		JournaledRepository<ServiceInstance> instances = instances();
+		instances.save(Fixtures.getServiceInstance());
+
+		ServiceInstance instance = instances.findOne("service-instance-id");
+		assertEquals("plan-id", instance.getPlanId());
+		assertEquals("org-guid", instance.getOrganizationGuid());
+		verify(instanceRepository, never()).save(isA(ServiceInstance.class));
+		verify(instanceRepository, never()).findOne(any(String.class));
+	}
+
+	@Test
+	public void deletesHideUnappliedWrites() {
+		JournaledRepository<ServiceInstanceBinding> bindings = bindings();
+		bindings.save(Fixtures.getServiceInstanceBinding());
+		bindings.delete("binding-id");
+
+		assertNull(bindings.findOne("binding-id"));
+		verify(bindingRepository, never()).findOne(any(String.class));
+	}
+
+	@Test
+	public void flushAppliesPendingWritesInBulk() {
+		instances().save(Fixtures.getServiceInstance());
+		bindings().save(Fixtures.getServiceInstanceBinding());
+		assertEquals(2, journal.getPendingCount());
+
+		journal.flush();
+
+		verify(bulk, times(2)).remove(isA(Query.class));
+		verify(bulk).insert(isA(ServiceInstance.class));
+		verify(bulk).insert(isA(ServiceInstanceBinding.class));
+		verify(bulk, times(2)).execute();
+		assertEquals(0, journal.getPendingCount());
+	}
+
+	@Test
+	public void failedFlushKeepsWritesPending() {
+		when(bulk.execute()).thenThrow(new IllegalStateException("backend down"));
+		instances().save(Fixtures.getServiceInstance());
+
+		journal.flush();
+
+		assertEquals(1, journal.getPendingCount());
+		assertEquals("plan-id", instances().findOne("service-instance-id").getPlanId());
+	}
+
+	@Test
+	public void unappliedWritesAreRecoveredAfterRestart() throws Exception {
+		instances().save(Fixtures.getServiceInstance());
+		bindings().save(Fixtures.getServiceInstanceBinding());
+		when(bulk.execute()).thenThrow(new IllegalStateException("backend down"));
+		journal.destroy();
+
+		journal = openJournal();
+
+		assertEquals(2, journal.getPendingCount());
+		assertEquals("space-guid", instances().findOne("service-instance-id").getSpaceGuid());
+		assertEquals("app-guid", bindings().findOne("binding-id").getAppGuid());
+	}
+
+	@Test
+	public void restartsWithoutAFlushInBetweenKeepTheWrites() throws Exception {
+		instances().save(Fixtures.getServiceInstance());
+		when(bulk.execute()).thenThrow(new IllegalStateException("backend down"));
+		journal.destroy();
+		journal = openJournal();
+		journal.destroy();
+
+		journal = openJournal();
+
+		assertEquals(1, journal.getPendingCount());
+		assertEquals("space-guid", instances().findOne("service-instance-id").getSpaceGuid());
+	}
+
+	@Test
+	public void writesRacingTheCloseAreKeptOnlyIfAcknowledged() throws Exception {
+		when(bulk.execute()).thenThrow(new IllegalStateException("backend down"));
+		JournaledRepository<ServiceInstance> instances = instances();
+		AtomicInteger acknowledged = new AtomicInteger();
+		Thread writer = new Thread(() -> {
+			try {
+				while (true) {
+					instances.save(new ServiceInstance("instance-" + acknowledged.get(), "service-definition-id",
+							"plan-id", "org-guid", "space-guid", null));
+					acknowledged.incrementAndGet();
+				}
+			} catch (ServiceBrokerException e) {
+				// closed
+			}
+		});
+		writer.start();
+		Thread.sleep(50);
+		journal.destroy();
+		writer.join();
+
+		journal = openJournal();
+
+		assertEquals(acknowledged.get(), journal.getPendingCount());
+	}
+
+	@Test
+	public void appliedWritesAreNotReplayedAfterRestart() throws Exception {
+		instances().save(Fixtures.getServiceInstance());
+		journal.flush();
+		journal.destroy();
+
+		journal = openJournal();
+
+		assertEquals(0, journal.getPendingCount());
+	}
+
+	@Test
+	public void writesRollOverToNewSegments() throws Exception {
+		JournaledRepository<ServiceInstance> instances = instances();
+		for (int i = 0; i < 100; i++) {
+			instances.save(new ServiceInstance("instance-" + i, "service-definition-id", "plan-id",
+					"org-guid", "space-guid", null));
+		}
+		assertEquals(100, journal.getPendingCount());
+		journal.destroy();
+
+		journal = openJournal();
+
+		assertEquals(0, journal.getPendingCount());
+		assertEquals(1, folder.getRoot().list((dir, name) -> name.endsWith(JournalSegment.SUFFIX)).length);
+	}
+
+	@Test
+	public void disabledJournalWritesThroughToRepository() {
+		JournaledRepository<ServiceInstance> instances = new JournaledRepository<>(MetadataJournal.disabled(),
+				JournalRecord.Kind.SERVICE_INSTANCE, instanceRepository);
+		ServiceInstance instance = Fixtures.getServiceInstance();
+
+		instances.save(instance);
+		instances.delete(instance.getServiceInstanceId());
+
+		verify(instanceRepository).save(instance);
+		verify(instanceRepository).delete(instance.getServiceInstanceId());
+	}
+
+	private MetadataJournal openJournal() throws Exception {
+		MetadataJournal journal = new MetadataJournal(mongo, true, folder.getRoot().getPath(), 4096, 0);
+		journal.open();
+		return journal;
+	}
+
+	private JournaledRepository<ServiceInstance> instances() {
+		return new JournaledRepository<>(journal, JournalRecord.Kind.SERVICE_INSTANCE, instanceRepository);
+	}
+
+	private JournaledRepository<ServiceInstanceBinding> bindings() {
+		return new JournaledRepository<>(journal, JournalRecord.Kind.SERVICE_INSTANCE_BINDING, bindingRepository);
+	}
+
+}
@@ -0,0 +1,110 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cloud.servicebroker.mongodb.Fixtures;
+import org.springframework.cloud.servicebroker.mongodb.config.PlanProfiles;
+import org.springframework.cloud.servicebroker.mongodb.coordination.LeaseManager;
+import org.springframework.cloud.servicebroker.mongodb.model.ProvisioningProfile;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceBindingRepository;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ConnectionLimiterUnitTest {
+
+  @Mock
+  private MongoAdminService mongo;
+
+  @Mock
+  private MongoServiceInstanceBindingRepository bindingRepository;
+
+  @Mock
+  private MongoServiceInstanceRepository instanceRepository;
+
+  @Mock
+  private LeaseManager leases;
+
+  private AtomicLong now;
+
+  private ConnectionLimiter limiter;
+
+  @Before
+  public void setup() {
+    MockitoAnnotations.initMocks(this);
+    now = new AtomicLong(1_000_000);
+    limiter = new ConnectionLimiter(BackendClusters.single(mongo), bindingRepository, instanceRepository,
+        PlanProfiles.defaults().withProfile("plan-id", new ProvisioningProfile("limited").withMaxConnections(2)),
+        leases, 60_000, now::get, true);
+
+    when(leases.isLeader(ConnectionLimiter.JOB)).thenReturn(true);
+    when(bindingRepository.findOne("binding-id")).thenReturn(Fixtures.getServiceInstanceBinding());
+    when(instanceRepository.findOne("service-instance-id")).thenReturn(Fixtures.getServiceInstance());
+    List<Document> inprog = new ArrayList<>();
+    for (int connection = 1; connection <= 4; connection++) {
+      inprog.add(connection("binding-id", connection, connection % 2 == 0 ? 100 + connection : null));
+    }
+    inprog.add(connection("broker", 5, 105));
+    // internal threads carry no connection
+    inprog.add(new Document("desc", "WTJournalFlusher").append("active", true).append("opid", 1));
+    when(mongo.getConnections()).thenReturn(inprog);
+  }
+
+  @Test
+  public void connectionsAreCountedPerUser() {
+    limiter.check();
+
+    ConnectionCensus census = limiter.getCensuses().get(BackendClusters.DEFAULT);
+    assertEquals(Arrays.asList("binding-id", "broker"), new ArrayList<>(census.getCounts().keySet()));
+    assertEquals(4, census.getConnections("binding-id"));
+    assertEquals(1, census.getConnections("broker"));
+    assertEquals(0, census.getConnections("unknown"));
+  }
+
+  @Test
+  public void newestConnectionsOverTheLimitAreKilledAfterTheGracePeriod() {
+    limiter.check();
+    verify(mongo, never()).killOperations(anyListOf(Object.class));
+    assertEquals(Long.valueOf(1_000_000), limiter.getOverSince("binding-id"));
+
+    now.addAndGet(60_000);
+    limiter.check();
+    // connections 4 and 3 are beyond the limit, only 4 is running an operation
+    verify(mongo).killOperations(Collections.singletonList(104));
+    assertEquals(1, limiter.getKilledOperations());
+  }
+
+  @Test
+  public void bindingsBackWithinTheirLimitStartTheGracePeriodAfresh() {
+    limiter.check();
+    when(mongo.getConnections()).thenReturn(Collections.singletonList(connection("binding-id", 1, null)));
+    now.addAndGet(30_000);
+    limiter.check();
+    assertNull(limiter.getOverSince("binding-id"));
+  }
+
+  private static Document connection(String user, int connectionId, Integer opId) {
+    Document op = new Document("connectionId", connectionId)
+        .append("effectiveUsers", Collections.singletonList(new Document("user", user).append("db", "db")))
+        .append("active", opId != null);
+    if (opId != null) {
+      op.append("opid", opId);
+    }
+    return op;
+  }
+
+}
@@ -0,0 +1,52 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.junit.Test;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerInvalidParametersException;
+import org.springframework.cloud.servicebroker.mongodb.config.PlanProfiles;
+import org.springframework.cloud.servicebroker.mongodb.model.ProvisioningProfile;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ConnectionOptionsUnitTest {
+
+  private final ConnectionOptions options = new ConnectionOptions(PlanProfiles.defaults()
+      .withProfile("plan", new ProvisioningProfile("plan").withConcerns("majority", "majority")),
+      "secondaryPreferred", "nodeType:ANALYTICS");
+
+  @Test
+  public void analyticsBindingsReadFromTaggedSecondaries() {
+    Map<String, String> analytics = options.forBinding("plan", ConnectionOptions.Role.fromParameter("analytics"));
+
+    assertEquals("majority", analytics.get("readConcernLevel"));
+    assertEquals("secondaryPreferred", analytics.get("readPreference"));
+    assertEquals("nodeType:ANALYTICS", analytics.get("readPreferenceTags"));
+    assertFalse(analytics.containsKey("w"));
+  }
+
+  @Test
+  public void defaultBindingsGetThePlanConcerns() {
+    Map<String, String> readWrite = options.forBinding("plan", ConnectionOptions.Role.fromParameter(null));
+
+    assertEquals("majority", readWrite.get("w"));
+    assertFalse(readWrite.containsKey("readPreference"));
+    assertEquals(0, options.forBinding("other-plan", ConnectionOptions.Role.READ_WRITE).size());
+  }
+
+  @Test
+  public void reissuedConnectionStringsKeepTheirOptionsButTheReplicaSet() {
+    Map<String, String> kept = ConnectionOptions.optionsOf(
+        "mongodb://user:secret@a:27017,b:27017/db?replicaSet=rs0&readPreference=secondaryPreferred&w=majority");
+
+    assertEquals("{readPreference=secondaryPreferred, w=majority}", kept.toString());
+    assertEquals(0, ConnectionOptions.optionsOf("mongodb://user:secret@a:27017/db").size());
+  }
+
+  @Test(expected = ServiceBrokerInvalidParametersException.class)
+  public void unknownRolesAreRejected() {
+    ConnectionOptions.Role.fromParameter("admin");
+  }
+
+}
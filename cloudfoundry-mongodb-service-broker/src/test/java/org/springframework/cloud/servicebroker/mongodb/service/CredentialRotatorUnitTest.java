@@ -0,0 +1,219 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import com.mongodb.DBObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.mongodb.convert.LegacyDocumentMigration;
+import org.springframework.cloud.servicebroker.mongodb.exception.MongoServiceException;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournalRecord;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournaledRepository;
+import org.springframework.cloud.servicebroker.mongodb.journal.MetadataJournal;
+import org.springframework.cloud.servicebroker.mongodb.model.CredentialRotation;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstanceBinding;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceBindingRepository;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CredentialRotatorUnitTest {
+
+  @Mock
+  private MongoAdminService mongo;
+
+  @Mock
+  private MongoOperations operations;
+
+  @Mock
+  private MongoServiceInstanceBindingRepository bindingRepository;
+
+  private JournaledRepository<ServiceInstanceBinding> bindings;
+
+  private CredentialRotator rotator;
+
+  @Before
+  public void setup() {
+    MockitoAnnotations.initMocks(this);
+    bindings = new JournaledRepository<>(MetadataJournal.disabled(), JournalRecord.Kind.SERVICE_INSTANCE_BINDING,
+        bindingRepository);
+    when(mongo.getConnectionString(anyString(), anyString(), anyString(), anyMapOf(String.class, String.class)))
+        .thenAnswer(invocation ->
+        "mongodb://" + invocation.getArguments()[1] + ":" + invocation.getArguments()[2] + "@localhost/"
+            + invocation.getArguments()[0]);
+    rotator = new CredentialRotator(mongo, bindings, operations, LegacyDocumentMigration.completed(), 2, 1000, Runnable::run, System::nanoTime);
+  }
+
+  @Test
+  public void rotationWaitsForTheOldDocumentsToBeRewritten() {
+    LegacyDocumentMigration legacyDocuments = mock(LegacyDocumentMigration.class);
+    rotator = new CredentialRotator(mongo, bindings, operations, legacyDocuments, 2, 1000, Runnable::run,
+        System::nanoTime);
+
+    try {
+      rotator.start();
+      fail("the rotation started");
+    } catch (ServiceBrokerException e) {
+      assertFalse(rotator.isRunning());
+      verify(operations, never()).save(any(CredentialRotation.class));
+    }
+  }
+
+  @Test
+  public void savesEachBindingOnceItsUserIsUpdated() {
+    streamBindings(binding("a-1", "instance-a"), binding("a-2", "instance-a"), binding("b-1", "instance-b"));
+
+    assertTrue(rotator.start());
+
+    ArgumentCaptor<String> passwords = ArgumentCaptor.forClass(String.class);
+    verify(mongo, times(3)).updateUserPassword(anyString(), anyString(), passwords.capture());
+    verify(mongo).updateUserPassword(eq("instance-a"), eq("a-2"), anyString());
+    assertEquals(3, new HashSet<>(passwords.getAllValues()).size());
+    for (String password : passwords.getAllValues()) {
+      assertTrue(password.length() >= 32);
+    }
+    ArgumentCaptor<ServiceInstanceBinding> saved = ArgumentCaptor.forClass(ServiceInstanceBinding.class);
+    verify(bindingRepository, times(3)).save(saved.capture());
+    assertEquals("mongodb://a-1:" + passwords.getAllValues().get(0) + "@localhost/instance-a",
+        saved.getAllValues().get(0).getCredentials().get("uri"));
+    assertEquals("app", saved.getAllValues().get(0).getAppGuid());
+
+    CredentialRotation rotation = lastSaved();
+    assertEquals(CredentialRotation.State.COMPLETED, rotation.getState());
+    assertEquals("instance-b", rotation.getCheckpoint());
+    assertEquals(3, rotation.getRotated());
+    assertFalse(rotator.isRunning());
+  }
+
+  @Test
+  public void failedDatabaseHoldsTheCheckpointBack() {
+    streamBindings(binding("a-1", "instance-a"), binding("b-1", "instance-b"), binding("c-1", "instance-c"));
+    doThrow(new MongoServiceException("not authorized")).when(mongo)
+        .updateUserPassword(eq("instance-b"), anyString(), anyString());
+
+    rotator.start();
+
+    verify(mongo).updateUserPassword(eq("instance-c"), eq("c-1"), anyString());
+    verify(bindingRepository, times(2)).save(any(ServiceInstanceBinding.class));
+    CredentialRotation rotation = lastSaved();
+    assertEquals(CredentialRotation.State.FAILED, rotation.getState());
+    assertEquals("instance-a", rotation.getCheckpoint());
+    assertEquals(2, rotation.getRotated());
+    assertEquals(1, rotation.getFailed());
+  }
+
+  @Test
+  public void usersUpdatedBeforeAFailureAreStillWritten() {
+    streamBindings(binding("a-1", "instance-a"), binding("a-2", "instance-a"));
+    doThrow(new MongoServiceException("user not found")).when(mongo)
+        .updateUserPassword(eq("instance-a"), eq("a-2"), anyString());
+
+    rotator.start();
+
+    verify(bindingRepository, times(1)).save(any(ServiceInstanceBinding.class));
+    assertEquals(CredentialRotation.State.FAILED, lastSaved().getState());
+  }
+
+  @Test
+  public void bindingsRemovedSinceTheyWereReadAreSkipped() {
+    streamBindings(binding("a-1", "instance-a"), binding("a-2", "instance-a"));
+    when(bindingRepository.findOne("a-2")).thenReturn(null);
+
+    rotator.start();
+
+    verify(mongo, never()).updateUserPassword(anyString(), eq("a-2"), anyString());
+    CredentialRotation rotation = lastSaved();
+    assertEquals(CredentialRotation.State.COMPLETED, rotation.getState());
+    assertEquals(1, rotation.getRotated());
+    assertNull(bindings.findOne("a-2"));
+  }
+
+  @Test
+  public void resumesAfterTheCheckpoint() {
+    CredentialRotation previous = new CredentialRotation(0)
+        .withProgress("instance-a", 5, 1, 0)
+        .withState(CredentialRotation.State.FAILED, 0);
+    when(operations.findById(CredentialRotation.ID, CredentialRotation.class)).thenReturn(previous);
+    streamBindings(binding("b-1", "instance-b"));
+
+    rotator.start();
+
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    verify(operations).stream(query.capture(), eq(ServiceInstanceBinding.class));
+    DBObject criteria = (DBObject) query.getValue().getQueryObject().get("serviceInstanceId");
+    assertEquals("instance-a", criteria.get("$gt"));
+    CredentialRotation rotation = lastSaved();
+    assertEquals(CredentialRotation.State.COMPLETED, rotation.getState());
+    assertEquals(6, rotation.getRotated());
+    assertEquals(0, rotation.getFailed());
+  }
+
+  @Test
+  public void onlyOneRotationRunsAtATime() {
+    List<Runnable> tasks = new ArrayList<>();
+    rotator = new CredentialRotator(mongo, bindings, operations, LegacyDocumentMigration.completed(), 2, 1000, tasks::add, System::nanoTime);
+
+    assertTrue(rotator.start());
+    assertFalse(rotator.start());
+    assertEquals(1, tasks.size());
+  }
+
+  private CredentialRotation lastSaved() {
+    ArgumentCaptor<CredentialRotation> saved = ArgumentCaptor.forClass(CredentialRotation.class);
+    verify(operations, atLeastOnce()).save(saved.capture());
+    return saved.getValue();
+  }
+
+  private void streamBindings(ServiceInstanceBinding... bindings) {
+    for (ServiceInstanceBinding binding : bindings) {
+      when(bindingRepository.findOne(binding.getId())).thenReturn(binding);
+    }
+    Iterator<ServiceInstanceBinding> iterator = Arrays.asList(bindings).iterator();
+    when(operations.stream(any(Query.class), eq(ServiceInstanceBinding.class)))
+        .thenReturn(new CloseableIterator<ServiceInstanceBinding>() {
+          @Override
+          public boolean hasNext() {
+            return iterator.hasNext();
+          }
+
+          @Override
+          public ServiceInstanceBinding next() {
+            return iterator.next();
+          }
+
+          @Override
+          public void close() {
+          }
+        });
+  }
+
+  private static ServiceInstanceBinding binding(String id, String serviceInstanceId) {
+    return new ServiceInstanceBinding(id, serviceInstanceId, null, null, "app");
+  }
+
+}
@@ -0,0 +1,36 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DashboardLinksUnitTest {
+
+  private final DashboardLinks links = new DashboardLinks("https://broker.example.com/", "secret");
+
+  @Test
+  public void urlCarriesTheTokenOfItsInstance() {
+    String url = links.urlFor("instance-1");
+
+    assertEquals("https://broker.example.com/dashboard/instances/instance-1?token=" + links.token("instance-1"), url);
+    assertTrue(links.isValid("instance-1", links.token("instance-1")));
+  }
+
+  @Test
+  public void tokenOfOneInstanceDoesNotOpenAnother() {
+    assertFalse(links.isValid("instance-2", links.token("instance-1")));
+    assertFalse(links.isValid("instance-1", null));
+    assertFalse(new DashboardLinks("https://broker.example.com", "other").isValid("instance-1",
+        links.token("instance-1")));
+  }
+
+  @Test
+  public void noUrlIsHandedOutWithoutABaseUrl() {
+    assertNull(DashboardLinks.disabled().urlFor("instance-1"));
+    assertFalse(DashboardLinks.disabled().isValid("instance-1", ""));
+  }
+
+}
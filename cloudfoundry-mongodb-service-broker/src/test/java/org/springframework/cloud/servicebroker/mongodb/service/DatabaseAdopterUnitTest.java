@@ -0,0 +1,134 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cloud.servicebroker.model.Catalog;
+import org.springframework.cloud.servicebroker.model.Plan;
+import org.springframework.cloud.servicebroker.model.ServiceDefinition;
+import org.springframework.cloud.servicebroker.mongodb.config.PlanProfiles;
+import org.springframework.cloud.servicebroker.mongodb.model.Adoption;
+import org.springframework.cloud.servicebroker.mongodb.model.ProvisioningProfile;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstanceBinding;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DatabaseAdopterUnitTest {
+
+  private static final String MAPPING = "database,organization_guid,space_guid,plan_id\n"
+      + "legacy-a,org,space,plan-id\n"
+      + "# not on the backend\n"
+      + "legacy-c,org,space,plan-id\n"
+      + "legacy-b,org,other-space,plan-id\n";
+
+  @Mock
+  private MongoAdminService mongo;
+
+  @Mock
+  private MongoOperations operations;
+
+  @Mock
+  private BulkOperations instances;
+
+  @Mock
+  private BulkOperations bindings;
+
+  @Captor
+  private ArgumentCaptor<List<ServiceInstance>> adopted;
+
+  @Captor
+  private ArgumentCaptor<List<ServiceInstanceBinding>> users;
+
+  private DatabaseAdopter adopter;
+
+  @Before
+  public void setup() {
+    MockitoAnnotations.initMocks(this);
+    Catalog catalog = new Catalog(Collections.singletonList(new ServiceDefinition("service-id", "MongoDB",
+        "description", true, Arrays.asList(new Plan("plan-id", "standard", "description"),
+        new Plan("pooled-plan-id", "pooled", "description")))));
+    PlanProfiles profiles = PlanProfiles.defaults()
+        .withProfile("pooled-plan-id", new ProvisioningProfile("pooled").withPooledDatabase("pool"));
+    adopter = new DatabaseAdopter(mongo, operations, catalog, profiles, DashboardLinks.disabled(), 2, 10,
+        Runnable::run);
+
+    when(operations.bulkOps(BulkOperations.BulkMode.UNORDERED, ServiceInstance.class)).thenReturn(instances);
+    when(operations.bulkOps(BulkOperations.BulkMode.UNORDERED, ServiceInstanceBinding.class)).thenReturn(bindings);
+    when(mongo.getDatabaseNames()).thenReturn(Arrays.asList("admin", "legacy-a", "legacy-b", "other"));
+    when(mongo.getUserNames("legacy-a")).thenReturn(Arrays.asList("app", "reader"));
+    // the same name as a user of legacy-a
+    when(mongo.getUserNames("legacy-b")).thenReturn(Collections.singletonList("app"));
+  }
+
+  @Test
+  public void mappedDatabasesAndTheirUsersAreRecordedWithoutTouchingData() {
+    assertTrue(adopter.start(MAPPING, false));
+
+    verify(instances).insert(adopted.capture());
+    List<ServiceInstance> recorded = adopted.getValue();
+    assertEquals(2, recorded.size());
+    assertEquals("legacy-b", recorded.get(1).getServiceInstanceId());
+    assertEquals("other-space", recorded.get(1).getSpaceGuid());
+    assertEquals("service-id", recorded.get(1).getServiceDefinitionId());
+    verify(bindings).insert(users.capture());
+    assertEquals(2, users.getValue().size());
+    verify(mongo, never()).deleteDatabase(anyString());
+    verify(mongo, never()).getUserNames("other");
+
+    Adoption adoption = lastSaved();
+    assertEquals(Adoption.State.COMPLETED, adoption.getState());
+    assertEquals("other", adoption.getCheckpoint());
+    assertEquals(2, adoption.getAdopted());
+    assertEquals(2, adoption.getBindings());
+    assertEquals(1, adoption.getConflictingUsers());
+    assertEquals(2, adoption.getUnmapped());
+    assertEquals(1, adoption.getMissing());
+  }
+
+  @Test
+  public void dryRunsCountWithoutWritingRecordsAndSkipExistingInstances() {
+    when(operations.find(any(Query.class), eq(ServiceInstance.class))).thenReturn(Collections.singletonList(
+        new ServiceInstance("legacy-a", "service-id", "plan-id", "org", "space", null)));
+
+    assertTrue(adopter.start(MAPPING, true));
+
+    verify(operations, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(ServiceInstance.class));
+    verify(instances, never()).insert(anyListOf(Object.class));
+    Adoption adoption = lastSaved();
+    assertTrue(adoption.isDryRun());
+    assertEquals(1, adoption.getExisting());
+    assertEquals(1, adoption.getAdopted());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void pooledPlansCannotAdoptDatabases() {
+    adopter.start("legacy-a,org,space,pooled-plan-id", false);
+  }
+
+  private Adoption lastSaved() {
+    ArgumentCaptor<Adoption> saved = ArgumentCaptor.forClass(Adoption.class);
+    verify(operations, atLeastOnce()).save(saved.capture());
+    return saved.getValue();
+  }
+
+}
@@ -0,0 +1,249 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.mongodb.Fixtures;
+import org.springframework.cloud.servicebroker.mongodb.config.PlanProfiles;
+import org.springframework.cloud.servicebroker.mongodb.coordination.LeaseManager;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournalRecord;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournaledRepository;
+import org.springframework.cloud.servicebroker.mongodb.journal.MetadataJournal;
+import org.springframework.cloud.servicebroker.mongodb.model.ProvisioningProfile;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceRepository;
+import org.springframework.cloud.servicebroker.mongodb.snapshot.SnapshotManifest;
+import org.springframework.cloud.servicebroker.mongodb.snapshot.SnapshotStore;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.Metric;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.TelemetryStore;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class HibernatorUnitTest {
+
+  private static final String ID = "service-instance-id";
+
+  private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Mock
+  private MongoAdminService mongo;
+
+  @Mock
+  private MongoServiceInstanceRepository repository;
+
+  @Mock
+  private SnapshotService snapshots;
+
+  @Mock
+  private LeaseManager leases;
+
+  private SnapshotStore store;
+
+  private TelemetryStore telemetry;
+
+  private AtomicLong now;
+
+  private Hibernator hibernator;
+
+  @Before
+  public void setup() {
+    MockitoAnnotations.initMocks(this);
+    now = new AtomicLong(TimeUnit.DAYS.toMillis(1));
+    store = new SnapshotStore(folder.getRoot().toPath(), 256, 1024, true);
+    telemetry = new TelemetryStore(MINUTE, 24, 7, 90);
+    PlanProfiles profiles = PlanProfiles.defaults()
+        .withProfile("plan-id", new ProvisioningProfile("test").withHibernateAfter(10 * MINUTE));
+    hibernator = new Hibernator(mongo,
+        new JournaledRepository<>(MetadataJournal.disabled(), JournalRecord.Kind.SERVICE_INSTANCE, repository),
+        snapshots, store, telemetry, profiles, new OperationTracker(), leases, Runnable::run, now::get, true);
+    when(leases.isLeader(Hibernator.JOB)).thenReturn(true);
+    when(repository.findOne(ID)).thenReturn(Fixtures.getServiceInstance());
+    when(mongo.getTop()).thenReturn(new Document("totals", new Document()));
+  }
+
+  @Test
+  public void instancesIdleForThePlanPeriodAreHibernated() throws Exception {
+    hibernator.check();
+    sampleFor(5, 0);
+    hibernator.check();
+    verify(snapshots, never()).snapshot(any(SnapshotManifest.class));
+
+    sampleFor(6, 0);
+    hibernator.check();
+
+    ArgumentCaptor<ServiceInstance> saved = ArgumentCaptor.forClass(ServiceInstance.class);
+    verify(repository).save(saved.capture());
+    assertTrue(saved.getValue().isHibernated());
+    verify(mongo).deleteDatabase(ID);
+  }
+
+  @Test
+  public void usersAreLockedOutBeforeTheDatabaseIsDropped() throws Exception {
+    when(mongo.getUserNames(ID)).thenReturn(Collections.singletonList("binding-id"));
+    when(mongo.getUserRoles(ID, "binding-id")).thenReturn(Collections.singletonList("readWrite"));
+
+    hibernator.hibernate(Fixtures.getServiceInstance());
+
+    InOrder order = inOrder(mongo);
+    order.verify(mongo).setUserRoles(ID, "binding-id", Collections.emptyList());
+    order.verify(mongo).deleteDatabase(ID);
+    ArgumentCaptor<ServiceInstance> saved = ArgumentCaptor.forClass(ServiceInstance.class);
+    verify(repository).save(saved.capture());
+    assertEquals(Collections.singletonList("readWrite"), saved.getValue().getHibernatedRoles().get("binding-id"));
+  }
+
+  @Test
+  public void idleInstancesWithReadOnlyUsersAreNotHibernated() throws Exception {
+    when(mongo.getUserNames(ID)).thenReturn(Collections.singletonList("analytics-id"));
+    when(mongo.getUserRoles(ID, "analytics-id")).thenReturn(Collections.singletonList("read"));
+
+    hibernator.check();
+    sampleFor(11, 0);
+    hibernator.check();
+
+    verify(snapshots, never()).snapshot(any(SnapshotManifest.class));
+    verify(mongo, never()).deleteDatabase(ID);
+  }
+
+  @Test
+  public void nothingIsDroppedWithoutADurableSnapshotDirectory() throws Exception {
+    hibernator = new Hibernator(mongo,
+        new JournaledRepository<>(MetadataJournal.disabled(), JournalRecord.Kind.SERVICE_INSTANCE, repository),
+        snapshots, new SnapshotStore(folder.getRoot().toPath(), 256, 1024), telemetry, PlanProfiles.defaults()
+            .withProfile("plan-id", new ProvisioningProfile("test").withHibernateAfter(10 * MINUTE)),
+        new OperationTracker(), leases, Runnable::run, now::get, true);
+
+    hibernator.check();
+    sampleFor(11, 0);
+    hibernator.check();
+    hibernator.hibernate(Fixtures.getServiceInstance());
+
+    verify(snapshots, never()).snapshot(any(SnapshotManifest.class));
+    verify(mongo, never()).deleteDatabase(ID);
+  }
+
+  @Test(expected = ServiceBrokerException.class)
+  public void hibernatingOnRequestNeedsADurableSnapshotDirectory() {
+    new Hibernator(mongo,
+        new JournaledRepository<>(MetadataJournal.disabled(), JournalRecord.Kind.SERVICE_INSTANCE, repository),
+        snapshots, new SnapshotStore(folder.getRoot().toPath(), 256, 1024), telemetry, PlanProfiles.defaults(),
+        new OperationTracker(), leases, Runnable::run, now::get, true).startHibernate(ID);
+  }
+
+  @Test
+  public void activityRestartsTheIdlePeriod() throws Exception {
+    hibernator.check();
+    sampleFor(5, 0);
+    hibernator.check();
+    sampleFor(1, 3);
+    hibernator.check();
+    sampleFor(6, 0);
+    hibernator.check();
+
+    verify(snapshots, never()).snapshot(any(SnapshotManifest.class));
+  }
+
+  @Test
+  public void databaseWrittenWhileArchivedIsKept() throws Exception {
+    when(mongo.getTop()).thenReturn(top(1), top(2));
+
+    hibernator.hibernate(Fixtures.getServiceInstance());
+
+    verify(mongo, never()).deleteDatabase(ID);
+    verify(repository, never()).save(any(ServiceInstance.class));
+    assertTrue(store.list(ID).isEmpty());
+  }
+
+  @Test
+  public void usersGetTheirRolesBackWhenTheDatabaseWasWritten() throws Exception {
+    when(mongo.getUserNames(ID)).thenReturn(Collections.singletonList("binding-id"));
+    when(mongo.getUserRoles(ID, "binding-id")).thenReturn(Collections.singletonList("readWrite"));
+    when(mongo.getTop()).thenReturn(top(1), top(2));
+
+    hibernator.hibernate(Fixtures.getServiceInstance());
+
+    InOrder order = inOrder(mongo);
+    order.verify(mongo).setUserRoles(ID, "binding-id", Collections.emptyList());
+    order.verify(mongo).setUserRoles(ID, "binding-id", Collections.singletonList("readWrite"));
+    verify(mongo, never()).deleteDatabase(ID);
+  }
+
+  @Test
+  public void instancesOfShardedPlansAreNeitherHibernatedNorWoken() throws Exception {
+    hibernator = new Hibernator(mongo,
+        new JournaledRepository<>(MetadataJournal.disabled(), JournalRecord.Kind.SERVICE_INSTANCE, repository),
+        snapshots, store, telemetry, PlanProfiles.defaults().withProfile("plan-id",
+            new ProvisioningProfile("sharded").withSharding(null, null).withHibernateAfter(10 * MINUTE)),
+        new OperationTracker(), leases, Runnable::run, now::get, true);
+
+    hibernator.check();
+    sampleFor(11, 0);
+    hibernator.check();
+    hibernator.hibernate(Fixtures.getServiceInstance());
+    try {
+      hibernator.wake(Fixtures.getServiceInstance().withHibernation("archive-id", now.get()));
+      fail("the instance was woken");
+    } catch (ServiceBrokerException e) {
+      verify(snapshots, never()).restore(any(SnapshotManifest.class));
+    }
+
+    verify(snapshots, never()).snapshot(any(SnapshotManifest.class));
+    verify(mongo, never()).deleteDatabase(ID);
+  }
+
+  @Test
+  public void wakingRestoresTheArchiveAndDeletesIt() throws Exception {
+    SnapshotManifest archive = store.create(ID, now.get());
+    store.complete(archive);
+    ServiceInstance instance = Fixtures.getServiceInstance().withHibernation(archive.getId(), now.get())
+        .withHibernatedRoles(Collections.singletonMap("binding-id", Collections.singletonList("readWrite")));
+
+    hibernator.wake(instance);
+
+    InOrder order = inOrder(snapshots, mongo);
+    order.verify(snapshots).restore(any(SnapshotManifest.class));
+    order.verify(mongo).setUserRoles(ID, "binding-id", Collections.singletonList("readWrite"));
+    ArgumentCaptor<ServiceInstance> saved = ArgumentCaptor.forClass(ServiceInstance.class);
+    verify(repository).save(saved.capture());
+    assertFalse(saved.getValue().isHibernated());
+    assertTrue(saved.getValue().getHibernatedRoles().isEmpty());
+    assertNull(store.find(ID, archive.getId()));
+  }
+
+  private void sampleFor(int minutes, long writesPerMinute) {
+    for (int i = 0; i < minutes; i++) {
+      long[] values = new long[Metric.values().length];
+      values[Metric.WRITE_OPS.ordinal()] = writesPerMinute;
+      telemetry.record(ID, now.addAndGet(MINUTE), values);
+    }
+  }
+
+  private static Document top(long writes) {
+    return new Document("totals", new Document(ID + ".events",
+        new Document("insert", new Document("count", writes))));
+  }
+
+}
@@ -0,0 +1,137 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cloud.servicebroker.mongodb.Fixtures;
+import org.springframework.cloud.servicebroker.mongodb.config.PlanProfiles;
+import org.springframework.cloud.servicebroker.mongodb.coordination.LeaseManager;
+import org.springframework.cloud.servicebroker.mongodb.model.IndexAdvice;
+import org.springframework.cloud.servicebroker.mongodb.model.ProvisioningProfile;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceRepository;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.Metric;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.TelemetryStore;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class IndexAdvisorUnitTest {
+
+  private static final String ID = "service-instance-id";
+
+  @Mock
+  private MongoAdminService mongo;
+
+  @Mock
+  private MongoServiceInstanceRepository repository;
+
+  @Mock
+  private LeaseManager leases;
+
+  private TelemetryStore telemetry;
+
+  private AtomicLong now;
+
+  private IndexAdvisor advisor;
+
+  @Before
+  public void setup() {
+    MockitoAnnotations.initMocks(this);
+    now = new AtomicLong(TimeUnit.DAYS.toMillis(30));
+    telemetry = new TelemetryStore(TimeUnit.MINUTES.toMillis(5), 24, 7, 90);
+    advisor = new IndexAdvisor(mongo, repository, PlanProfiles.defaults().withProfile("plan-id",
+        new ProvisioningProfile("advised").withIndexAdvice(IndexAdvice.AUTO_CREATE)),
+        telemetry, leases, 100, 500, 100, 2, 0.5, now::get, true);
+
+    when(repository.findAll()).thenReturn(Collections.singletonList(Fixtures.getServiceInstance()));
+    when(leases.isLeader(IndexAdvisor.JOB)).thenReturn(true);
+    when(mongo.listIndexes(eq(ID), anyString())).thenReturn(Collections.emptyList());
+    when(mongo.getProfiledOperations(eq(ID), any(Date.class), eq(500))).thenReturn(Arrays.asList(
+        find(1, new Document("status", "A").append("qty", new Document("$gt", 5)), "COLLSCAN", 900),
+        find(2, new Document("status", "B").append("qty", new Document("$gt", 7)), "COLLSCAN", 300),
+        // already served by an index
+        find(3, new Document("sku", "x"), "IXSCAN { sku: 1 }", 150).append("docsExamined", 1)));
+  }
+
+  @Test
+  public void queryShapesPutEqualityBeforeSortBeforeRange() {
+    Document entry = new Document("op", "query").append("ns", ID + ".orders").append("command",
+        new Document("find", "orders")
+            .append("filter", new Document("qty", new Document("$lt", 10)).append("status", "A")
+                .append("$and", Collections.singletonList(
+                    new Document("tags", new Document("$in", Arrays.asList(1, 2))))))
+            .append("sort", new Document("createdAt", -1)));
+
+    QueryShape shape = QueryShape.of(entry);
+
+    assertEquals("orders", shape.getCollection());
+    assertEquals(Arrays.asList("status", "tags", "createdAt", "qty"),
+        Arrays.asList(shape.getKeys().keySet().toArray()));
+    assertEquals(-1, shape.getKeys().get("createdAt"));
+    assertEquals("status_1_tags_1_createdAt_-1_qty_1", shape.getIndexName());
+  }
+
+  @Test
+  public void slowQueriesAreRankedByTheTimeTheyTook() {
+    when(leases.isLeader(IndexAdvisor.JOB)).thenReturn(false);
+
+    advisor.check();
+
+    verify(mongo).setProfilingLevel(ID, 1, 100);
+    List<IndexRecommendation> recommendations = advisor.getRecommendations(ID);
+    assertEquals(1, recommendations.size());
+    IndexRecommendation top = recommendations.get(0);
+    assertEquals(new Document("status", 1).append("qty", 1), top.getKeys());
+    assertEquals(2, top.getOccurrences());
+    assertEquals(1200, top.getTotalMillis());
+    assertFalse(top.isExisting());
+    assertNull(advisor.getRecommendations("unknown"));
+  }
+
+  @Test
+  public void missingIndexesAreOnlyBuiltWhileTheBackendIsQuiet() {
+    advisor.check();
+    // no operation rates recorded yet
+    verify(mongo, never()).createIndexes(anyString(), anyString(), anyListOf(Document.class));
+
+    recordServerOps(now.get() - TimeUnit.DAYS.toMillis(2), 1000);
+    recordServerOps(now.get(), 10);
+    advisor.check();
+
+    verify(mongo).createIndexes(ID, "orders", Collections.singletonList(new Document("key",
+        new Document("status", 1).append("qty", 1)).append("name", "status_1_qty_1").append("background", true)));
+  }
+
+  private void recordServerOps(long time, long ops) {
+    long[] values = new long[Metric.values().length];
+    values[Metric.READ_OPS.ordinal()] = ops;
+    values[Metric.WRITE_OPS.ordinal()] = ops;
+    telemetry.recordServer(time, values);
+  }
+
+  private static Document find(int seconds, Document filter, String plan, int millis) {
+    return new Document("op", "query").append("ns", ID + ".orders")
+        .append("command", new Document("find", "orders").append("filter", filter))
+        .append("planSummary", plan)
+        .append("docsExamined", 10_000).append("nreturned", 1).append("millis", millis)
+        .append("ts", new Date(TimeUnit.SECONDS.toMillis(seconds)));
+  }
+
+}
@@ -0,0 +1,145 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cloud.servicebroker.mongodb.Fixtures;
+import org.springframework.cloud.servicebroker.mongodb.config.PlanProfiles;
+import org.springframework.cloud.servicebroker.mongodb.coordination.LeaseManager;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceRepository;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.Metric;
+import org.springframework.cloud.servicebroker.mongodb.telemetry.TelemetryStore;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MaintenanceSchedulerUnitTest {
+
+  private static final String ID = "service-instance-id";
+
+  private static final ZoneId UTC = ZoneId.of("UTC");
+
+  private static final long MB = 1024 * 1024;
+
+  @Mock
+  private MongoAdminService mongo;
+
+  @Mock
+  private MongoServiceInstanceRepository repository;
+
+  @Mock
+  private LeaseManager leases;
+
+  private TelemetryStore telemetry;
+
+  private AtomicLong now;
+
+  private MaintenanceScheduler scheduler;
+
+  @Before
+  public void setup() {
+    MockitoAnnotations.initMocks(this);
+    // a Wednesday
+    now = new AtomicLong(at("2026-10-21T02:30:00Z"));
+    telemetry = new TelemetryStore(TimeUnit.MINUTES.toMillis(5), 24, 7, 90);
+    scheduler = new MaintenanceScheduler(BackendClusters.single(mongo), repository, PlanProfiles.defaults(), telemetry,
+        leases, MaintenanceWindows.parse("wed 02:00-04:00", UTC), 1, 0.3, 64 * MB, 60, TimeUnit.DAYS.toMillis(7),
+        TimeUnit.HOURS.toMillis(1), false, Runnable::run, now::get, true);
+
+    when(repository.findAll()).thenReturn(Collections.singletonList(Fixtures.getServiceInstance()));
+    when(leases.isLeader(MaintenanceScheduler.JOB)).thenReturn(true);
+    when(mongo.listCollections(ID)).thenReturn(Arrays.asList(new Document("name", "events"),
+        new Document("name", "log"), new Document("name", "recent").append("type", "view")));
+    // sampled, then before and after the run
+    when(mongo.getCollectionStats(ID, "events")).thenReturn(stats(1000, 500, 100, 0, 300),
+        stats(1000, 500, 100, 0, 300), stats(500, 0, 100, 0, 40));
+    when(mongo.getCollectionStats(ID, "log")).thenReturn(stats(100, 0, 200, 100, 10));
+  }
+
+  @Test
+  public void windowsRunPastMidnightIntoTheNextDay() {
+    MaintenanceWindows windows = MaintenanceWindows.parse("sat 23:00-02:00, 12:00-12:30", UTC);
+
+    assertTrue(windows.isOpen(at("2026-10-24T23:30:00Z")));
+    // early on the Sunday
+    assertTrue(windows.isOpen(at("2026-10-25T01:59:00Z")));
+    assertFalse(windows.isOpen(at("2026-10-25T23:30:00Z")));
+    assertTrue(windows.isOpen(at("2026-10-21T12:00:00Z")));
+    assertFalse(windows.isOpen(at("2026-10-21T12:30:00Z")));
+  }
+
+  @Test
+  public void fragmentedCollectionsAreCompactedAndOnlyFragmentedIndexesRebuilt() {
+    scheduler.check();
+
+    verify(mongo).compact(ID, "events", false);
+    verify(mongo).reIndex(ID, "log", false);
+    verify(mongo, never()).getCollectionStats(ID, "recent");
+    List<MaintenanceRun> runs = scheduler.getRuns();
+    assertEquals(2, runs.size());
+    MaintenanceRun compact = runs.get(1);
+    assertEquals("compact", compact.getCommand());
+    assertEquals(500 * MB, compact.getReclaimedBytes());
+    assertEquals(300 * MB, compact.getCachedBytesBefore());
+    assertEquals(40 * MB, compact.getCachedBytesAfter());
+    assertTrue(scheduler.getInFlight().isEmpty());
+
+    // maintained instances wait for the interval
+    now.addAndGet(TimeUnit.HOURS.toMillis(1));
+    scheduler.check();
+    assertEquals(2, scheduler.getRuns().size());
+  }
+
+  @Test
+  public void busyInstancesAndClosedWindowsAreLeftAlone() {
+    long[] values = new long[Metric.values().length];
+    values[Metric.WRITE_OPS.ordinal()] = 1000;
+    telemetry.record(ID, now.get(), values);
+
+    scheduler.check();
+    verify(mongo, never()).compact(anyString(), anyString(), anyBoolean());
+
+    now.set(at("2026-10-21T04:00:00Z"));
+    telemetry.record(ID, now.get(), new long[Metric.values().length]);
+    scheduler.check();
+    verify(mongo, never()).compact(anyString(), anyString(), anyBoolean());
+    assertFalse(scheduler.isWindowOpen());
+  }
+
+  private static long at(String time) {
+    return ZonedDateTime.parse(time).toInstant().toEpochMilli();
+  }
+
+  /**
+   * collStats of a collection with one index, sizes in MB
+   */
+  private static Document stats(long collectionFile, long collectionReusable, long indexFile, long indexReusable,
+                                long cached) {
+    return new Document("storageSize", collectionFile * MB).append("totalIndexSize", indexFile * MB)
+        .append("wiredTiger", wiredTiger(collectionFile, collectionReusable, cached))
+        .append("indexDetails", new Document("_id_", wiredTiger(indexFile, indexReusable, 0)));
+  }
+
+  private static Document wiredTiger(long file, long reusable, long cached) {
+    return new Document("block-manager", new Document("file size in bytes", file * MB)
+        .append("file bytes available for reuse", reusable * MB))
+        .append("cache", new Document("bytes currently in the cache", cached * MB));
+  }
+
+}
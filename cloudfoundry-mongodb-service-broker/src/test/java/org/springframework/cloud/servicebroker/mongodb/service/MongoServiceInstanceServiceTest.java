@@ -6,29 +6,53 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerInvalidParametersException;
 import org.springframework.cloud.servicebroker.exception.ServiceInstanceDoesNotExistException;
 import org.springframework.cloud.servicebroker.exception.ServiceInstanceExistsException;
 import org.springframework.cloud.servicebroker.model.CreateServiceInstanceRequest;
 import org.springframework.cloud.servicebroker.model.CreateServiceInstanceResponse;
 import org.springframework.cloud.servicebroker.model.DeleteServiceInstanceRequest;
 import org.springframework.cloud.servicebroker.model.DeleteServiceInstanceResponse;
+import org.springframework.cloud.servicebroker.model.GetLastServiceOperationRequest;
+import org.springframework.cloud.servicebroker.model.GetLastServiceOperationResponse;
+import org.springframework.cloud.servicebroker.model.OperationState;
 import org.springframework.cloud.servicebroker.model.ServiceDefinition;
 import org.springframework.cloud.servicebroker.mongodb.Fixtures;
+import org.springframework.cloud.servicebroker.mongodb.cache.MetadataCache;
+import org.springframework.cloud.servicebroker.mongodb.config.PlanProfiles;
+import org.springframework.cloud.servicebroker.mongodb.coordination.LeaseManager;
+import org.springframework.cloud.servicebroker.mongodb.exception.RateLimitExceededException;
+import org.springframework.cloud.servicebroker.mongodb.journal.MetadataArchive;
+import org.springframework.cloud.servicebroker.mongodb.journal.MetadataJournal;
+import org.springframework.cloud.servicebroker.mongodb.model.CollectionProfile;
+import org.springframework.cloud.servicebroker.mongodb.model.ProvisioningProfile;
 import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
 import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceRepository;
+import org.springframework.cloud.servicebroker.mongodb.throttle.ProvisioningRateLimiter;
+import org.springframework.cloud.servicebroker.mongodb.throttle.RateLimitProperties;
+import org.springframework.cloud.servicebroker.mongodb.trace.Tracer;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.cloud.servicebroker.mongodb.Fixtures.DB_NAME;
@@ -75,7 +99,8 @@ public class MongoServiceInstanceServiceTest {
 
     when(repository.findOne(any(String.class))).thenReturn(null);
     when(mongo.databaseExists(any(String.class))).thenReturn(false);
-    when(mongo.createDatabase(any(String.class))).thenReturn(db);
+    when(mongo.createDatabase(any(String.class), any(ProvisioningProfile.class), anyListOf(CollectionProfile.class)))
+        .thenReturn(db);
 
     CreateServiceInstanceResponse response = service.createServiceInstance(buildCreateRequest());
 
@@ -91,7 +116,8 @@ public class MongoServiceInstanceServiceTest {
 
     when(repository.findOne(any(String.class))).thenReturn(null);
     when(mongo.databaseExists(any(String.class))).thenReturn(true);
-    when(mongo.createDatabase(any(String.class))).thenReturn(db);
+    when(mongo.createDatabase(any(String.class), any(ProvisioningProfile.class), anyListOf(CollectionProfile.class)))
+        .thenReturn(db);
 
     CreateServiceInstanceRequest request = buildCreateRequest();
     CreateServiceInstanceResponse response = service.createServiceInstance(request);
@@ -104,6 +130,26 @@ public class MongoServiceInstanceServiceTest {
     verify(repository).save(isA(ServiceInstance.class));
   }
 
+  @Test
+  public void newServiceInstanceIsGivenItsDashboardUrl() throws Exception {
+    DashboardLinks links = new DashboardLinks("https://broker.example.com", "secret");
+    service = new MongoServiceInstanceService(mongo, repository, MetadataJournal.disabled(), MetadataCache.disabled(),
+        MetadataArchive.disabled(), ProvisioningRateLimiter.unlimited(), PlanProfiles.defaults(),
+        TemplateSeeder.none(mongo), new OperationTracker(), TombstoneSweeper.inline(mongo), Hibernator.disabled(),
+        links, Tracer.disabled());
+    when(repository.findOne(any(String.class))).thenReturn(null);
+    when(mongo.createDatabase(any(String.class), any(ProvisioningProfile.class), anyListOf(CollectionProfile.class)))
+        .thenReturn(db);
+
+    CreateServiceInstanceRequest request = buildCreateRequest();
+    CreateServiceInstanceResponse response = service.createServiceInstance(request);
+
+    assertEquals(links.urlFor(request.getServiceInstanceId()), response.getDashboardUrl());
+    ArgumentCaptor<ServiceInstance> saved = ArgumentCaptor.forClass(ServiceInstance.class);
+    verify(repository).save(saved.capture());
+    assertEquals(response.getDashboardUrl(), saved.getValue().getDashboardUrl());
+  }
+
   @Test(expected = ServiceInstanceExistsException.class)
   public void serviceInstanceCreationFailsWithExistingInstance() throws Exception {
     when(repository.findOne(any(String.class))).thenReturn(Fixtures.getServiceInstance());
@@ -115,9 +161,114 @@ public class MongoServiceInstanceServiceTest {
   public void serviceInstanceCreationFailsWithDBCreationFailure() throws Exception {
     when(repository.findOne(any(String.class))).thenReturn(null);
     when(mongo.databaseExists(any(String.class))).thenReturn(false);
-    when(mongo.createDatabase(any(String.class))).thenReturn(null);
+    when(mongo.createDatabase(any(String.class), any(ProvisioningProfile.class), anyListOf(CollectionProfile.class)))
+        .thenReturn(null);
+
+    service.createServiceInstance(buildCreateRequest());
+  }
+
+  @Test
+  public void serviceInstanceCreationIsRateLimitedBeforeBackendWork() throws Exception {
+    RateLimitProperties properties = new RateLimitProperties();
+    properties.getDefaults().setSpaceBurst(1);
+    service = new MongoServiceInstanceService(mongo, repository, MetadataJournal.disabled(), MetadataCache.disabled(),
+        MetadataArchive.disabled(), new ProvisioningRateLimiter(properties), PlanProfiles.defaults(),
+        TemplateSeeder.none(mongo), new OperationTracker(), TombstoneSweeper.inline(mongo), Hibernator.disabled(),
+        DashboardLinks.disabled(), Tracer.disabled());
+    when(repository.findOne(any(String.class))).thenReturn(null);
+    when(mongo.createDatabase(any(String.class), any(ProvisioningProfile.class), anyListOf(CollectionProfile.class)))
+        .thenReturn(db);
 
     service.createServiceInstance(buildCreateRequest());
+    try {
+      service.createServiceInstance(buildCreateRequest());
+    } catch (RateLimitExceededException e) {
+      verify(mongo).createDatabase(any(String.class), any(ProvisioningProfile.class),
+          anyListOf(CollectionProfile.class));
+      verify(repository).findOne(any(String.class));
+      return;
+    }
+    throw new AssertionError("expected second provision in the space to be rate limited");
+  }
+
+  @Test
+  public void serviceInstanceSeededFromTemplateIsProvisionedAsynchronously() throws Exception {
+    OperationTracker operations = new OperationTracker();
+    service = new MongoServiceInstanceService(mongo, repository, MetadataJournal.disabled(), MetadataCache.disabled(),
+        MetadataArchive.disabled(), ProvisioningRateLimiter.unlimited(), PlanProfiles.defaults(),
+        new TemplateSeeder(mongo, operations, Collections.singleton("template"), Runnable::run), operations,
+        TombstoneSweeper.inline(mongo), Hibernator.disabled(), DashboardLinks.disabled(),
+        Tracer.disabled());
+    Map<String, ServiceInstance> saved = new HashMap<>();
+    when(repository.save(any(ServiceInstance.class))).thenAnswer(invocation -> {
+      ServiceInstance instance = (ServiceInstance) invocation.getArguments()[0];
+      saved.put(instance.getServiceInstanceId(), instance);
+      return instance;
+    });
+    when(repository.findOne(any(String.class))).thenAnswer(invocation -> saved.get(invocation.getArguments()[0]));
+    when(mongo.databaseExists("template")).thenReturn(true);
+    when(mongo.listCollections("template")).thenReturn(Collections.emptyList());
+
+    CreateServiceInstanceRequest request = buildCreateRequest(Collections.singletonMap("template", "template"))
+        .withAsyncAccepted(true);
+    CreateServiceInstanceResponse response = service.createServiceInstance(request);
+
+    assertTrue(response.isAsync());
+    verify(mongo, never()).createDatabase(any(String.class), any(ProvisioningProfile.class),
+        anyListOf(CollectionProfile.class));
+    assertNull(saved.get(request.getServiceInstanceId()).getOperationState());
+    assertEquals(OperationState.SUCCEEDED, service.getLastOperation(
+        new GetLastServiceOperationRequest(request.getServiceInstanceId())).getState());
+  }
+
+  @Test
+  public void failedSeedIsReportedFromTheInstanceRecord() throws Exception {
+    when(repository.findOne("service-instance-id")).thenReturn(Fixtures.getServiceInstance()
+        .withOperation(OperationState.FAILED, "Seeding from template template failed: $merge failed"));
+
+    GetLastServiceOperationResponse operation =
+        service.getLastOperation(new GetLastServiceOperationRequest("service-instance-id"));
+
+    assertEquals(OperationState.FAILED, operation.getState());
+    assertTrue(operation.getDescription().contains("$merge failed"));
+  }
+
+  @Test
+  public void seedThatNoNodeIsRunningAnyMoreHasFailed() throws Exception {
+    when(repository.findOne("service-instance-id")).thenReturn(Fixtures.getServiceInstance()
+        .withOperation(OperationState.IN_PROGRESS, "Seeding from template template"));
+
+    assertEquals(OperationState.FAILED, service.getLastOperation(
+        new GetLastServiceOperationRequest("service-instance-id")).getState());
+  }
+
+  @Test
+  public void lastOperationOfAMissingInstanceHasFailed() throws Exception {
+    when(repository.findOne("service-instance-id")).thenReturn(null);
+
+    assertEquals(OperationState.FAILED, service.getLastOperation(
+        new GetLastServiceOperationRequest("service-instance-id")).getState());
+  }
+
+  @Test
+  public void lastOperationRunningOnAnotherNodeIsInProgress() throws Exception {
+    LeaseManager leases = mock(LeaseManager.class);
+    when(leases.isLocked("service-instance-id")).thenReturn(true);
+    service = new MongoServiceInstanceService(mongo, repository, MetadataJournal.disabled(), MetadataCache.disabled(),
+        MetadataArchive.disabled(), ProvisioningRateLimiter.unlimited(), PlanProfiles.defaults(),
+        TemplateSeeder.none(mongo), new OperationTracker(leases), TombstoneSweeper.inline(mongo),
+        Hibernator.disabled(), DashboardLinks.disabled(), Tracer.disabled());
+
+    assertEquals(OperationState.IN_PROGRESS, service.getLastOperation(
+        new GetLastServiceOperationRequest("service-instance-id")).getState());
+  }
+
+  @Test(expected = ServiceBrokerInvalidParametersException.class)
+  public void serviceInstanceCreationFailsWithUnknownTemplate() throws Exception {
+    when(repository.findOne(any(String.class))).thenReturn(null);
+
+    service.createServiceInstance(buildCreateRequest(Collections.singletonMap("template", "other-tenant"))
+        .withAsyncAccepted(true));
   }
 
   @Test
@@ -162,6 +313,11 @@ public class MongoServiceInstanceServiceTest {
         .withServiceInstanceId(Fixtures.getServiceInstance().getServiceInstanceId());
   }
 
+  private CreateServiceInstanceRequest buildCreateRequest(Map<String, Object> parameters) {
+    return new CreateServiceInstanceRequest(SVC_DEF_ID, SVC_PLAN_ID, "organizationGuid", "spaceGuid", parameters)
+        .withServiceInstanceId(Fixtures.getServiceInstance().getServiceInstanceId());
+  }
+
   private DeleteServiceInstanceRequest buildDeleteRequest() {
     return new DeleteServiceInstanceRequest(Fixtures.getServiceInstance().getServiceInstanceId(),
         SVC_DEF_ID, SVC_PLAN_ID, serviceDefinition);
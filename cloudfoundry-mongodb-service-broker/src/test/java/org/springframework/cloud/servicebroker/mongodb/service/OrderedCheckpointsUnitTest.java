@@ -0,0 +1,113 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OrderedCheckpointsUnitTest {
+
+  private List<String> written;
+
+  private Boolean failed;
+
+  private OrderedCheckpoints checkpoints;
+
+  @Before
+  public void setup() {
+    written = new ArrayList<>();
+    failed = null;
+    checkpoints = new OrderedCheckpoints("test") {
+      @Override
+      protected void write(String checkpoint) {
+        written.add(checkpoint);
+      }
+
+      @Override
+      protected void finished(boolean failed) {
+        OrderedCheckpointsUnitTest.this.failed = failed;
+      }
+    };
+  }
+
+  @Test
+  public void theCheckpointWaitsForEveryEarlierUnit() {
+    checkpoints.submitted("a");
+    checkpoints.submitted("b");
+    checkpoints.submitted("c");
+
+    checkpoints.completed("b", true);
+    assertTrue(written.isEmpty());
+
+    checkpoints.completed("a", true);
+    assertEquals(Collections.singletonList("b"), written);
+
+    checkpoints.completed("c", true);
+    checkpoints.finish(false);
+
+    assertEquals(Arrays.asList("b", "c"), written);
+    assertFalse(failed);
+  }
+
+  @Test
+  public void aFailedUnitHoldsTheCheckpointBackAndFailsTheJob() {
+    checkpoints.submitted("a");
+    checkpoints.submitted("b");
+
+    checkpoints.completed("a", false);
+    checkpoints.completed("b", true);
+    checkpoints.finish(false);
+
+    assertEquals(1, written.size());
+    assertNull(written.get(0));
+    assertTrue(failed);
+  }
+
+  @Test
+  public void aStalledOrInterruptedJobFails() {
+    checkpoints.stall();
+    checkpoints.finish(false);
+    assertTrue(failed);
+
+    setup();
+    checkpoints.finish(true);
+    assertTrue(failed);
+  }
+
+  @Test
+  public void aFailedWriteIsLeftForALaterUnit() {
+    checkpoints = new OrderedCheckpoints("test") {
+      @Override
+      protected void write(String checkpoint) {
+        if (written.isEmpty()) {
+          written.add(null);
+          throw new IllegalStateException("unreachable");
+        }
+        written.add(checkpoint);
+      }
+
+      @Override
+      protected void finished(boolean failed) {
+        OrderedCheckpointsUnitTest.this.failed = failed;
+      }
+    };
+    checkpoints.submitted("a");
+    checkpoints.submitted("b");
+
+    checkpoints.completed("a", true);
+    checkpoints.completed("b", true);
+    checkpoints.finish(false);
+
+    assertEquals(Arrays.asList(null, "b"), written);
+    assertFalse(failed);
+  }
+
+}
@@ -0,0 +1,96 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.bson.Document;
+import org.junit.Test;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerInvalidParametersException;
+import org.springframework.cloud.servicebroker.mongodb.model.CollectionProfile;
+import org.springframework.cloud.servicebroker.mongodb.model.ProvisioningProfile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedCollectionsUnitTest {
+
+  private static final ProvisioningProfile SHARDED = new ProvisioningProfile("sharded").withSharding(null, null);
+
+  @Test
+  public void hashedAndRangedKeysAreReadFromTheParameters() {
+    Map<String, Object> orders = new LinkedHashMap<>();
+    orders.put("name", "orders");
+    Map<String, Object> key = new LinkedHashMap<>();
+    key.put("region", 1);
+    key.put("orderId", 1);
+    orders.put("key", key);
+    Map<String, Object> splitPoint = new LinkedHashMap<>();
+    // out of key order
+    splitPoint.put("orderId", 0);
+    splitPoint.put("region", "eu");
+    orders.put("splitPoints", Collections.singletonList(splitPoint));
+
+    List<CollectionProfile> collections = ShardedCollections.fromParameters(parameters(
+        collection("events", Collections.singletonMap("deviceId", "hashed"), "initialChunks", 64), orders), SHARDED);
+
+    assertEquals(2, collections.size());
+    CollectionProfile events = collections.get(0);
+    assertTrue(events.isHashedShardKey());
+    assertEquals(64, events.getInitialChunks());
+    CollectionProfile ranged = collections.get(1);
+    assertFalse(ranged.isHashedShardKey());
+    assertEquals(new Document("region", 1).append("orderId", 1), ranged.getShardKey());
+    assertEquals(Collections.singletonList(new Document("region", "eu").append("orderId", 0)),
+        ranged.getSplitPoints());
+  }
+
+  @Test(expected = ServiceBrokerInvalidParametersException.class)
+  public void unshardedPlansRejectShardedCollections() {
+    ShardedCollections.fromParameters(parameters(
+        collection("events", Collections.singletonMap("deviceId", "hashed"), "initialChunks", 64)),
+        ProvisioningProfile.DEFAULT);
+  }
+
+  @Test(expected = ServiceBrokerInvalidParametersException.class)
+  public void rangedKeysCannotSetInitialChunks() {
+    ShardedCollections.fromParameters(parameters(
+        collection("orders", Collections.singletonMap("region", 1), "initialChunks", 64)), SHARDED);
+  }
+
+  @Test(expected = ServiceBrokerInvalidParametersException.class)
+  public void theNumberOfCollectionsIsCapped() {
+    Object[] collections = new Object[ShardedCollections.MAX_COLLECTIONS + 1];
+    for (int i = 0; i < collections.length; i++) {
+      collections[i] = collection("events-" + i, Collections.singletonMap("deviceId", "hashed"), "initialChunks", 2);
+    }
+    ShardedCollections.fromParameters(parameters(collections), SHARDED);
+  }
+
+  @Test(expected = ServiceBrokerInvalidParametersException.class)
+  public void theNumberOfSplitPointsIsCapped() {
+    List<Object> splitPoints = new ArrayList<>();
+    for (int i = 0; i <= ShardedCollections.MAX_SPLIT_POINTS; i++) {
+      splitPoints.add(Collections.singletonMap("region", i));
+    }
+    ShardedCollections.fromParameters(parameters(
+        collection("orders", Collections.singletonMap("region", 1), "splitPoints", splitPoints)), SHARDED);
+  }
+
+  private static Map<String, Object> parameters(Object... collections) {
+    return Collections.singletonMap(ShardedCollections.PARAMETER, Arrays.asList(collections));
+  }
+
+  private static Map<String, Object> collection(String name, Map<String, Object> key, String option, Object value) {
+    Map<String, Object> collection = new LinkedHashMap<>();
+    collection.put("name", name);
+    collection.put("key", key);
+    collection.put(option, value);
+    return collection;
+  }
+
+}
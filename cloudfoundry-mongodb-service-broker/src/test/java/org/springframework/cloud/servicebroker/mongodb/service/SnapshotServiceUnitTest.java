@@ -0,0 +1,210 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.model.OperationState;
+import org.springframework.cloud.servicebroker.mongodb.Fixtures;
+import org.springframework.cloud.servicebroker.mongodb.config.PlanProfiles;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournalRecord;
+import org.springframework.cloud.servicebroker.mongodb.journal.JournaledRepository;
+import org.springframework.cloud.servicebroker.mongodb.journal.MetadataJournal;
+import org.springframework.cloud.servicebroker.mongodb.model.ProvisioningProfile;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceRepository;
+import org.springframework.cloud.servicebroker.mongodb.snapshot.SnapshotManifest;
+import org.springframework.cloud.servicebroker.mongodb.snapshot.SnapshotStore;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SnapshotServiceUnitTest {
+
+  private static final String ID = "service-instance-id";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Mock
+  private MongoAdminService mongo;
+
+  @Mock
+  private MongoServiceInstanceRepository repository;
+
+  private SnapshotStore store;
+
+  private OperationTracker operations;
+
+  private SnapshotService snapshots;
+
+  // stands in for the events collection of the instance database
+  private final List<Document> events = new ArrayList<>();
+
+  private final List<Document> restored = new ArrayList<>();
+
+  @Before
+  public void setup() throws Exception {
+    MockitoAnnotations.initMocks(this);
+    // small blocks and segments so a few documents span several of each
+    store = new SnapshotStore(folder.getRoot().toPath(), 256, 1024);
+    operations = new OperationTracker();
+    snapshots = new SnapshotService(mongo,
+        new JournaledRepository<>(MetadataJournal.disabled(), JournalRecord.Kind.SERVICE_INSTANCE, repository),
+        store, operations, PlanProfiles.defaults(), Runnable::run);
+    when(repository.findOne(ID)).thenReturn(Fixtures.getServiceInstance());
+
+    for (int i = 0; i < 200; i++) {
+      events.add(new Document("_id", i).append("type", "event-" + (i % 7)).append("payload", "x" + i));
+    }
+    // larger than a block
+    events.add(new Document("_id", "large").append("payload", String.join("", Collections.nCopies(600, "y"))));
+
+    when(mongo.listCollections(ID)).thenReturn(Arrays.asList(
+        new Document("name", "events").append("type", "collection").append("options", new Document()),
+        new Document("name", "recent").append("type", "view").append("options", new Document("viewOn", "events")),
+        new Document("name", "system.profile").append("type", "collection")));
+    when(mongo.listIndexes(ID, "events"))
+        .thenReturn(Collections.singletonList(new Document("key", new Document("type", 1)).append("name", "type_1")));
+    when(mongo.openRawCursor(ID, "events")).thenAnswer(invocation -> new StandInCursor(events));
+    doAnswer(invocation -> {
+      @SuppressWarnings("unchecked")
+      List<RawBsonDocument> batch = (List<RawBsonDocument>) invocation.getArguments()[2];
+      // the documents share the reader's block, decode them before it is reused
+      for (RawBsonDocument document : batch) {
+        restored.add(document.decode(new DocumentCodec()));
+      }
+      return null;
+    }).when(mongo).insertRaw(eq(ID), eq("events"), anyListOf(RawBsonDocument.class));
+  }
+
+  @Test
+  public void snapshotRoundTripsEveryDocumentInOrder() throws Exception {
+    String snapshotId = snapshots.startSnapshot(ID);
+    assertEquals(OperationState.SUCCEEDED, operations.get(ID).getState());
+
+    SnapshotManifest manifest = snapshots.find(ID, snapshotId);
+    assertEquals(2, manifest.getCollections().size());
+    assertEquals(events.size(), manifest.getCollections().get(0).getDocuments());
+    assertTrue(manifest.getCollections().get(0).getSegments().size() > 1);
+
+    assertTrue(snapshots.startRestore(ID, snapshotId));
+    assertEquals(OperationState.SUCCEEDED, operations.get(ID).getState());
+    assertEquals(events, restored);
+    verify(mongo).deleteDatabase(ID);
+    verify(mongo).createIndexes(ID, "events", manifest.getCollections().get(0).getIndexes());
+    verify(mongo).createCollection(ID, "recent", new Document("viewOn", "events"));
+  }
+
+  @Test
+  public void failedSnapshotIsNotListed() throws Exception {
+    when(mongo.openRawCursor(ID, "events")).thenThrow(new IllegalStateException("cursor killed"));
+
+    snapshots.startSnapshot(ID);
+
+    assertEquals(OperationState.FAILED, operations.get(ID).getState());
+    assertTrue(snapshots.list(ID).isEmpty());
+    assertEquals(0, folder.getRoot().toPath().resolve(ID).toFile().list().length);
+  }
+
+  @Test
+  public void corruptSegmentFailsTheRestore() throws Exception {
+    String snapshotId = snapshots.startSnapshot(ID);
+    SnapshotManifest manifest = snapshots.find(ID, snapshotId);
+    Path segment = folder.getRoot().toPath().resolve(ID).resolve(snapshotId)
+        .resolve(manifest.getCollections().get(0).getSegments().get(0));
+    try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+      file.seek(20);
+      file.write(file.read() ^ 0xff);
+    }
+
+    snapshots.startRestore(ID, snapshotId);
+
+    assertEquals(OperationState.FAILED, operations.get(ID).getState());
+  }
+
+  @Test
+  public void unknownSnapshotsAreNotRestored() {
+    assertEquals(false, snapshots.startRestore(ID, "20170101T000000000Z"));
+    assertNull(operations.get(ID));
+  }
+
+  @Test(expected = ServiceBrokerException.class)
+  public void instancesOfShardedPlansAreNotSnapshotted() {
+    snapshots = new SnapshotService(mongo,
+        new JournaledRepository<>(MetadataJournal.disabled(), JournalRecord.Kind.SERVICE_INSTANCE, repository),
+        store, operations, PlanProfiles.defaults()
+            .withProfile("plan-id", new ProvisioningProfile("sharded").withSharding(null, null)), Runnable::run);
+
+    snapshots.startSnapshot(ID);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void snapshotIdsCannotEscapeTheInstanceDirectory() throws IOException {
+    store.find(ID, "../other-instance");
+  }
+
+  private static class StandInCursor implements MongoCursor<RawBsonDocument> {
+
+    private final Iterator<Document> documents;
+
+    StandInCursor(List<Document> documents) {
+      this.documents = documents.iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return documents.hasNext();
+    }
+
+    @Override
+    public RawBsonDocument next() {
+      return new RawBsonDocument(documents.next(), new DocumentCodec());
+    }
+
+    @Override
+    public RawBsonDocument tryNext() {
+      return hasNext() ? next() : null;
+    }
+
+    @Override
+    public ServerCursor getServerCursor() {
+      return null;
+    }
+
+    @Override
+    public ServerAddress getServerAddress() {
+      return null;
+    }
+
+    @Override
+    public void close() {
+    }
+
+  }
+
+}
@@ -0,0 +1,111 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cloud.servicebroker.model.OperationState;
+import org.springframework.cloud.servicebroker.mongodb.exception.BackendUnavailableException;
+import org.springframework.cloud.servicebroker.mongodb.exception.MongoServiceException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TemplateSeederUnitTest {
+
+  @Mock
+  private MongoAdminService mongo;
+
+  private OperationTracker operations;
+
+  private TemplateSeeder seeder;
+
+  @Before
+  public void setup() {
+    MockitoAnnotations.initMocks(this);
+    operations = new OperationTracker();
+    seeder = new TemplateSeeder(mongo, operations, Collections.singleton("template"), Runnable::run);
+  }
+
+  @Test
+  public void onlyAllowedTemplatesAreAccepted() {
+    assertTrue(seeder.isAllowed("template"));
+    assertFalse(seeder.isAllowed("some-tenant"));
+  }
+
+  @Test
+  public void collectionsAreCopiedBeforeTheirIndexesAndViewsComeLast() {
+    Document options = new Document("capped", true).append("size", 1024);
+    when(mongo.listCollections("template")).thenReturn(Arrays.asList(
+        new Document("name", "recent").append("type", "view").append("options", new Document("viewOn", "events")),
+        new Document("name", "events").append("type", "collection").append("options", options),
+        new Document("name", "system.profile").append("type", "collection")));
+
+    operations.start("target", "seeding");
+    seeder.seedAsync("template", "target", () -> { }, failure -> { });
+
+    InOrder order = inOrder(mongo);
+    order.verify(mongo).createCollection("target", "events", options);
+    order.verify(mongo).copyCollection("template", "target", "events");
+    order.verify(mongo).copyIndexes("template", "target", "events");
+    order.verify(mongo).createCollection(eq("target"), eq("recent"), any(Document.class));
+    verify(mongo, never()).copyCollection("template", "target", "recent");
+    verify(mongo, never()).createCollection(eq("target"), eq("system.profile"), any(Document.class));
+    assertEquals(OperationState.SUCCEEDED, operations.get("target").getState());
+  }
+
+  @Test
+  public void failedSeedDropsTheDatabaseAndFailsTheOperation() {
+    when(mongo.listCollections("template"))
+        .thenReturn(Collections.singletonList(new Document("name", "events").append("type", "collection")));
+    doThrow(new MongoServiceException("$merge failed")).when(mongo).copyCollection("template", "target", "events");
+    AtomicReference<String> recorded = new AtomicReference<>();
+
+    operations.start("target", "seeding");
+    seeder.seedAsync("template", "target", () -> { }, recorded::set);
+
+    verify(mongo).deleteDatabase("target");
+    assertTrue(recorded.get().contains("$merge failed"));
+    assertEquals(OperationState.FAILED, operations.get("target").getState());
+    assertTrue(operations.get("target").getDescription().contains("$merge failed"));
+  }
+
+  @Test
+  public void shedCommandsAreSentAgain() {
+    when(mongo.listCollections("template"))
+        .thenReturn(Collections.singletonList(new Document("name", "events").append("type", "collection")));
+    doThrow(new BackendUnavailableException("busy", 0)).doNothing()
+        .when(mongo).copyCollection("template", "target", "events");
+
+    seeder.seed("template", "target");
+
+    verify(mongo, times(2)).copyCollection("template", "target", "events");
+    verify(mongo).copyIndexes("template", "target", "events");
+  }
+
+  @Test
+  public void onlyOneOperationRunsPerInstance() {
+    assertTrue(operations.start("target", "seeding"));
+    assertFalse(operations.start("target", "seeding again"));
+    operations.fail("target", "failed");
+    assertTrue(operations.start("target", "seeding again"));
+    verify(mongo, never()).deleteDatabase(anyString());
+  }
+
+}
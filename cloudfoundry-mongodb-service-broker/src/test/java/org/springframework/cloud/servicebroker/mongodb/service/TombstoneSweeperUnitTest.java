@@ -0,0 +1,168 @@
+package org.springframework.cloud.servicebroker.mongodb.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cloud.servicebroker.mongodb.Fixtures;
+import org.springframework.cloud.servicebroker.mongodb.coordination.LeaseManager;
+import org.springframework.cloud.servicebroker.mongodb.exception.MongoServiceException;
+import org.springframework.cloud.servicebroker.mongodb.model.Tombstone;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoTombstoneRepository;
+import org.springframework.data.domain.Pageable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TombstoneSweeperUnitTest {
+
+  @Mock
+  private MongoAdminService mongo;
+
+  @Mock
+  private MongoTombstoneRepository repository;
+
+  @Mock
+  private LeaseManager leases;
+
+  private AtomicLong now;
+
+  private List<Runnable> workers;
+
+  private TombstoneSweeper sweeper;
+
+  @Before
+  public void setup() {
+    MockitoAnnotations.initMocks(this);
+    now = new AtomicLong(1_000_000_000L);
+    workers = new ArrayList<>();
+    // 2 drops per second, and the workers only run when the test says so
+    when(leases.isLeader(TombstoneSweeper.JOB)).thenReturn(true);
+    sweeper = new TombstoneSweeper(mongo, repository, leases, 3, 2, 100, workers::add, now::get);
+    List<Tombstone> tombstones = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      tombstones.add(new Tombstone("instance-" + i, i));
+    }
+    when(repository.findByNotBeforeLessThanEqual(anyLong(), any(Pageable.class))).thenReturn(tombstones);
+    when(repository.count()).thenReturn(10L);
+  }
+
+  @Test
+  public void deprovisioningOnlyRecordsATombstone() {
+    sweeper.tombstone("instance");
+
+    verify(repository).save(any(Tombstone.class));
+    verify(mongo, never()).deleteDatabase(anyString());
+  }
+
+  @Test
+  public void dropsAreLimitedByTheBudget() {
+    sweeper.sweep();
+    assertEquals(2, workers.size());
+
+    now.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+    sweeper.sweep();
+    assertEquals(3, workers.size());
+    assertEquals(10, sweeper.getBacklog());
+  }
+
+  @Test
+  public void dropsAreLimitedByTheParallelism() {
+    for (int i = 0; i < 5; i++) {
+      now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+      sweeper.sweep();
+    }
+    assertEquals(3, workers.size());
+    assertEquals(3, sweeper.getInFlight());
+
+    workers.get(0).run();
+    now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    sweeper.sweep();
+    assertEquals(4, workers.size());
+  }
+
+  @Test
+  public void usersAreDroppedWithTheDatabaseAndTheTombstoneIsCleared() {
+    sweeper.sweep();
+    workers.get(0).run();
+
+    InOrder order = inOrder(mongo, repository);
+    order.verify(mongo).deleteAllUsers("instance-0");
+    order.verify(mongo).deleteDatabase("instance-0");
+    order.verify(repository).delete("instance-0");
+    assertEquals(1, sweeper.getSwept());
+  }
+
+  @Test
+  public void failedDropsAreRetriedLater() {
+    doThrow(new MongoServiceException("lock timeout")).when(mongo).deleteDatabase("instance-0");
+
+    sweeper.sweep();
+    workers.get(0).run();
+
+    ArgumentCaptor<Tombstone> saved = ArgumentCaptor.forClass(Tombstone.class);
+    verify(repository).save(saved.capture());
+    assertEquals(1, saved.getValue().getAttempts());
+    assertTrue(saved.getValue().getNotBefore() > System.currentTimeMillis());
+    verify(repository, never()).delete("instance-0");
+    assertEquals(1, sweeper.getFailed());
+    // the other dispatched drop has not run yet
+    assertEquals(1, sweeper.getInFlight());
+  }
+
+  @Test
+  public void onlyTheLeaderSweeps() {
+    when(leases.isLeader(TombstoneSweeper.JOB)).thenReturn(false);
+
+    sweeper.sweep();
+
+    assertTrue(workers.isEmpty());
+    verify(repository, never()).findByNotBeforeLessThanEqual(anyLong(), any(Pageable.class));
+  }
+
+  @Test
+  public void dropIsSkippedOnceTheLeadershipIsLost() {
+    sweeper.sweep();
+    when(leases.isLeader(TombstoneSweeper.JOB)).thenReturn(false);
+    workers.get(0).run();
+
+    verify(mongo, never()).deleteDatabase(anyString());
+    assertEquals(0, sweeper.getSwept());
+  }
+
+  @Test
+  public void inlineSweeperDropsImmediately() {
+    TombstoneSweeper inline = TombstoneSweeper.inline(mongo);
+    inline.tombstone("instance");
+
+    verify(mongo).deleteAllUsers("instance");
+    verify(mongo, times(1)).deleteDatabase("instance");
+  }
+
+  @Test
+  public void pooledInstancesOnlyLoseTheirOwnCollections() {
+    TombstoneSweeper inline = TombstoneSweeper.inline(mongo);
+    inline.tombstone(Fixtures.getServiceInstance().withTenancy("pool", "service-instance-id."));
+
+    verify(mongo).dropTenant("pool", "service-instance-id.");
+    verify(mongo, never()).deleteDatabase(anyString());
+    verify(mongo, never()).deleteAllUsers(anyString());
+  }
+
+}
@@ -0,0 +1,90 @@
+package org.springframework.cloud.servicebroker.mongodb.telemetry;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cloud.servicebroker.mongodb.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.repository.MongoServiceInstanceRepository;
+import org.springframework.cloud.servicebroker.mongodb.service.BackendClusters;
+import org.springframework.cloud.servicebroker.mongodb.service.MongoAdminService;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CapacitySamplerUnitTest {
+
+  private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+  @Mock
+  private BackendClusters clusters;
+
+  @Mock
+  private MongoAdminService west;
+
+  @Mock
+  private MongoAdminService east;
+
+  @Mock
+  private MongoServiceInstanceRepository repository;
+
+  private TelemetryStore store;
+
+  private CapacitySampler sampler;
+
+  @Before
+  public void setup() {
+    MockitoAnnotations.initMocks(this);
+    store = new TelemetryStore(MINUTE, 24, 7, 90);
+    when(clusters.exists(BackendClusters.DEFAULT)).thenReturn(true);
+    when(clusters.exists("east")).thenReturn(true);
+    when(clusters.admin(BackendClusters.DEFAULT)).thenReturn(west);
+    when(clusters.admin(null)).thenReturn(west);
+    when(clusters.admin("east")).thenReturn(east);
+    when(west.getTop()).thenReturn(new Document("totals", new Document()));
+    when(east.getTop()).thenReturn(new Document("totals", new Document()));
+    when(west.getServerStatus()).thenReturn(new Document("opcounters", new Document()));
+    sampler = new CapacitySampler(clusters, repository, store, true);
+  }
+
+  @Test
+  public void instancesAreSampledOnTheClusterTheyLiveOn() {
+    when(repository.findAll()).thenReturn(Arrays.asList(instance("home", null), instance("moved", "east")));
+    when(west.getDatabaseStats("home")).thenReturn(new Document("dataSize", 100L));
+    when(east.getDatabaseStats("moved")).thenReturn(new Document("dataSize", 200L));
+
+    sampler.sample();
+
+    assertEquals(100L, latestDataSize("home"));
+    assertEquals(200L, latestDataSize("moved"));
+    verify(west, never()).getDatabaseStats("moved");
+  }
+
+  @Test
+  public void instancesOfUnknownClustersAreNotSampled() {
+    when(repository.findAll()).thenReturn(Arrays.asList(instance("lost", "gone")));
+
+    sampler.sample();
+
+    assertNull(store.getSeries("lost"));
+    verify(west, never()).getDatabaseStats("lost");
+  }
+
+  private long latestDataSize(String id) {
+    long now = System.currentTimeMillis();
+    return store.getSeries(id).aggregate(Metric.DATA_SIZE, now - MINUTE, now + MINUTE, Aggregate.LATEST);
+  }
+
+  private static ServiceInstance instance(String id, String cluster) {
+    return new ServiceInstance(id, "service-definition-id", "plan-id", "org-guid", "space-guid", null)
+        .withCluster(cluster);
+  }
+
+}
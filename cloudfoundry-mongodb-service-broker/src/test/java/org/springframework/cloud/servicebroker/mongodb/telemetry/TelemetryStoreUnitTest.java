@@ -0,0 +1,155 @@
+package org.springframework.cloud.servicebroker.mongodb.telemetry;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TelemetryStoreUnitTest {
+
+  private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+  private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+  private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+  private static final long START = 100 * DAY;
+
+  private TelemetryStore store;
+
+  @Before
+  public void setup() {
+    // 5 minute samples for an hour, hourly for a day, daily for a week
+    store = new TelemetryStore(new long[] {5 * MINUTE, HOUR, DAY}, new int[] {12, 24, 7});
+  }
+
+  @Test
+  public void topReturnsLargestInstancesFirst() {
+    for (int i = 0; i < 100; i++) {
+      store.record("instance-" + i, START, sizes(i * 1000));
+    }
+
+    List<InstanceMetric> top = store.top(Metric.DATA_SIZE, START - HOUR, START, Aggregate.LATEST, 3);
+
+    assertEquals(3, top.size());
+    assertEquals("instance-99", top.get(0).getServiceInstanceId());
+    assertEquals(99000, top.get(0).getValue());
+    assertEquals("instance-98", top.get(1).getServiceInstanceId());
+    assertEquals("instance-97", top.get(2).getServiceInstanceId());
+  }
+
+  @Test
+  public void recentWindowsUseRawSamples() {
+    for (int i = 0; i < 12; i++) {
+      store.record("instance", START + i * 5 * MINUTE, sizes(i));
+    }
+    long end = START + 55 * MINUTE;
+    MetricSeries series = store.getSeries("instance");
+
+    assertEquals(11, series.aggregate(Metric.DATA_SIZE, START, end, Aggregate.LATEST));
+    assertEquals(11, series.aggregate(Metric.DATA_SIZE, START, end, Aggregate.MAX));
+    assertEquals(5, series.aggregate(Metric.DATA_SIZE, START, end, Aggregate.MEAN));
+    assertEquals(10, series.percentile(Metric.DATA_SIZE, START, end, 0.9));
+  }
+
+  @Test
+  public void olderWindowsUseDownSampledTiers() {
+    // one sample an hour for a week; raw samples are long gone
+    for (int h = 0; h < 7 * 24; h++) {
+      store.record("instance", START + h * HOUR, sizes(h < 24 ? 1000 : 10));
+    }
+    long end = START + (7 * 24 - 1) * HOUR;
+    MetricSeries series = store.getSeries("instance");
+
+    assertEquals(1000, series.aggregate(Metric.DATA_SIZE, START, end, Aggregate.MAX));
+    assertEquals(10, series.aggregate(Metric.DATA_SIZE, end - 12 * HOUR, end, Aggregate.MAX));
+  }
+
+  @Test
+  public void ringsGrowWithTheSamplesUpToTheirCapacity() {
+    MetricSeries series = new MetricSeries(new long[] {MINUTE, HOUR}, new int[] {60, 8});
+
+    series.record(START, sizes(1));
+    // the hourly tier is smaller than a new ring
+    assertEquals(MetricSeries.INITIAL_SLOTS + 8, series.getAllocatedSlots());
+
+    for (int m = 1; m < 30; m++) {
+      series.record(START + m * MINUTE, sizes(m));
+    }
+    assertEquals(2 * MetricSeries.INITIAL_SLOTS + 8, series.getAllocatedSlots());
+    assertEquals(1, series.aggregate(Metric.DATA_SIZE, START, START, Aggregate.MAX));
+
+    for (int m = 30; m < 90; m++) {
+      series.record(START + m * MINUTE, sizes(m));
+    }
+    assertEquals(60 + 8, series.getAllocatedSlots());
+    // the first half hour was replaced by the last one
+    assertEquals(89, series.aggregate(Metric.DATA_SIZE, START + 30 * MINUTE, START + 89 * MINUTE, Aggregate.MAX));
+    assertEquals(30, series.aggregate(Metric.DATA_SIZE, START + 30 * MINUTE, START + 30 * MINUTE, Aggregate.MAX));
+  }
+
+  @Test
+  public void samplesBeforeTheFirstOneAreKept() {
+    MetricSeries series = new MetricSeries(new long[] {MINUTE}, new int[] {60});
+
+    series.record(START + 10 * MINUTE, sizes(10));
+    series.record(START, sizes(1));
+
+    assertEquals(60, series.getAllocatedSlots());
+    assertEquals(1, series.aggregate(Metric.DATA_SIZE, START, START, Aggregate.MAX));
+    assertEquals(10, series.aggregate(Metric.DATA_SIZE, START, START + 10 * MINUTE, Aggregate.MAX));
+  }
+
+  @Test
+  public void percentileAcrossInstances() {
+    for (int i = 1; i <= 100; i++) {
+      store.record("instance-" + i, START, sizes(i));
+    }
+    assertEquals(95, store.percentile(Metric.DATA_SIZE, START - HOUR, START, Aggregate.MAX, 0.95));
+    assertEquals(50, store.percentile(Metric.DATA_SIZE, START - HOUR, START, Aggregate.MAX, 0.5));
+  }
+
+  @Test
+  public void windowsWithoutSamplesHaveNoValue() {
+    store.record("instance", START, sizes(1));
+    MetricSeries series = store.getSeries("instance");
+    assertEquals(-1, series.aggregate(Metric.DATA_SIZE, START + HOUR, START + 2 * HOUR, Aggregate.MAX));
+  }
+
+  @Test
+  public void retainForgetsDeprovisionedInstances() {
+    store.record("keep", START, sizes(1));
+    store.record("drop", START, sizes(1));
+    store.retain(Collections.singleton("keep"));
+    assertNull(store.getSeries("drop"));
+    assertEquals(Collections.singleton("keep"), store.getServiceInstanceIds());
+  }
+
+  @Test
+  public void topCountersAreSummedPerDatabase() {
+    Document top = new Document("totals", new Document("note", "all times in microseconds")
+        .append("tenant.a", new Document("queries", new Document("count", 5))
+            .append("getmore", new Document("count", 1))
+            .append("insert", new Document("count", 2)))
+        .append("tenant.b", new Document("update", new Document("count", 3))
+            .append("remove", new Document("count", 4))));
+
+    Map<String, long[]> counters = CapacitySampler.readOpCounters(top);
+
+    assertEquals(1, counters.size());
+    assertArrayEquals(new long[] {6, 9}, counters.get("tenant"));
+  }
+
+  private static long[] sizes(long dataSize) {
+    long[] values = new long[Metric.values().length];
+    values[Metric.DATA_SIZE.ordinal()] = dataSize;
+    return values;
+  }
+
+}
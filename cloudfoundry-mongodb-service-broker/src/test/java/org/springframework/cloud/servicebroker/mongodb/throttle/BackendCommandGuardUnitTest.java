@@ -0,0 +1,244 @@
+package org.springframework.cloud.servicebroker.mongodb.throttle;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoSocketReadTimeoutException;
+import com.mongodb.ServerAddress;
+import org.bson.BsonDocument;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.servicebroker.mongodb.exception.BackendUnavailableException;
+import org.springframework.http.HttpStatus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BackendCommandGuardUnitTest {
+
+  private AtomicLong now;
+
+  private CircuitBreaker breaker;
+
+  private AdaptiveConcurrencyLimiter cheap;
+
+  private AdaptiveConcurrencyLimiter expensive;
+
+  private BackendCommandGuard guard;
+
+  @Before
+  public void setup() {
+    now = new AtomicLong(1_000_000);
+    breaker = new CircuitBreaker(0.5, 4, 10, 5000, now::get);
+    cheap = new AdaptiveConcurrencyLimiter("cheap", 10, 1, 100, 2.0);
+    expensive = new AdaptiveConcurrencyLimiter("expensive", 1, 1, 8, 2.0);
+    guard = new BackendCommandGuard(cheap, expensive, breaker, 0);
+  }
+
+  @Test
+  public void limitShrinksWhenLatencyRises() {
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 50, 1, 100, 2.0);
+    for (int i = 0; i < 20; i++) {
+      limiter.release(TimeUnit.MILLISECONDS.toNanos(10), false);
+    }
+    int steady = limiter.getLimit();
+    for (int i = 0; i < 20; i++) {
+      limiter.release(TimeUnit.MILLISECONDS.toNanos(500), false);
+    }
+    assertTrue(limiter.getLimit() < steady / 2);
+  }
+
+  @Test
+  public void limitGrowsWhileLatencyIsStableAndSlotsAreUsed() throws Exception {
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 2, 1, 100, 2.0);
+    for (int i = 0; i < 50; i++) {
+      int limit = limiter.getLimit();
+      for (int j = 0; j < limit; j++) {
+        assertTrue(limiter.acquire(0, TimeUnit.MILLISECONDS));
+      }
+      for (int j = 0; j < limit; j++) {
+        limiter.release(TimeUnit.MILLISECONDS.toNanos(10), false);
+      }
+    }
+    assertTrue(limiter.getLimit() > 10);
+  }
+
+  @Test
+  public void overloadFailuresBackOffMultiplicatively() {
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 40, 1, 100, 2.0);
+    limiter.release(TimeUnit.MILLISECONDS.toNanos(10), true);
+    assertEquals(30, limiter.getLimit());
+  }
+
+  @Test
+  public void expensiveCommandsAreShedWhenTheirBudgetIsExhausted() throws Exception {
+    assertTrue(expensive.acquire(0, TimeUnit.MILLISECONDS));
+    try {
+      guard.run(CommandCost.EXPENSIVE, "dropDatabase", () -> { });
+      fail("expected the command to be shed");
+    } catch (BackendUnavailableException e) {
+      assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatus());
+    }
+    // cheap commands have their own budget
+    assertEquals("ok", guard.execute(CommandCost.CHEAP, "listDatabaseNames", () -> "ok"));
+  }
+
+  @Test
+  public void classesAreHeldToTheirShareOfTheLimit() throws Exception {
+    AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter("test", 4, 1, 4, 2.0, new SchedulingProperties());
+    assertTrue(limiter.acquire(WorkClass.BACKGROUND, 0, TimeUnit.MILLISECONDS));
+    assertTrue(limiter.acquire(WorkClass.BACKGROUND, 0, TimeUnit.MILLISECONDS));
+    assertFalse(limiter.acquire(WorkClass.BACKGROUND, 0, TimeUnit.MILLISECONDS));
+    // the rest of the slots are kept for more urgent work
+    assertTrue(limiter.acquire(WorkClass.INTERACTIVE, 0, TimeUnit.MILLISECONDS));
+
+    WorkClassStats background = limiter.getQueueStats().get(WorkClass.BACKGROUND);
+    assertEquals(2, background.getInFlight());
+    assertEquals(2, background.getMaxInFlight());
+    assertEquals(1, background.getShed());
+  }
+
+  @Test
+  public void interactiveWorkGoesBeforeBackgroundWorkThatQueuedFirst() throws Exception {
+    AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter("test", 1, 1, 1, 2.0, new SchedulingProperties());
+    assertTrue(limiter.acquire(WorkClass.INTERACTIVE, 0, TimeUnit.MILLISECONDS));
+    List<WorkClass> granted = Collections.synchronizedList(new ArrayList<>());
+    Thread background = waitFor(limiter, WorkClass.BACKGROUND, granted);
+    Thread interactive = waitFor(limiter, WorkClass.INTERACTIVE, granted);
+
+    limiter.release(WorkClass.INTERACTIVE, TimeUnit.MILLISECONDS.toNanos(10), false);
+    background.join(5000);
+    interactive.join(5000);
+    assertEquals(Arrays.asList(WorkClass.INTERACTIVE, WorkClass.BACKGROUND), granted);
+  }
+
+  @Test
+  public void breakerOpensOnBackendFailuresAndFailsFast() {
+    for (int i = 0; i < 4; i++) {
+      failWith(new MongoSocketReadTimeoutException("timeout", new ServerAddress(), new IOException()));
+    }
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+    try {
+      guard.execute(CommandCost.CHEAP, "listDatabaseNames", () -> "ok");
+      fail("expected the breaker to reject the command");
+    } catch (BackendUnavailableException e) {
+      assertEquals(5, e.getRetryAfterSeconds());
+    }
+  }
+
+  @Test
+  public void guardsOfOtherBackendsHaveABreakerOfTheirOwn() {
+    BackendCommandGuard failing = BackendCommandGuard.withDefaults();
+    BackendCommandGuard other = failing.newGuard();
+    for (int i = 0; i < 10; i++) {
+      try {
+        failing.execute(CommandCost.CHEAP, "listDatabaseNames", () -> {
+          throw new MongoSocketReadTimeoutException("timeout", new ServerAddress(), new IOException());
+        });
+      } catch (MongoSocketReadTimeoutException expected) {
+        // counted by the breaker
+      }
+    }
+
+    assertEquals(CircuitBreaker.State.OPEN, failing.getBreaker().getState());
+    assertEquals(CircuitBreaker.State.CLOSED, other.getBreaker().getState());
+    assertEquals("ok", other.execute(CommandCost.CHEAP, "listDatabaseNames", () -> "ok"));
+  }
+
+  @Test
+  public void commandErrorsDoNotTripTheBreaker() {
+    for (int i = 0; i < 10; i++) {
+      failWith(new MongoCommandException(new BsonDocument(), new ServerAddress()));
+    }
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void breakerLetsOneProbeThroughAfterTheOpenInterval() {
+    for (int i = 0; i < 4; i++) {
+      breaker.recordFailure();
+    }
+    assertFalse(breaker.allowRequest());
+
+    now.addAndGet(5000);
+    assertTrue(breaker.allowRequest());
+    assertFalse(breaker.allowRequest());
+    assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+    breaker.recordSuccess();
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    assertTrue(breaker.allowRequest());
+  }
+
+  @Test
+  public void shedProbeLetsTheNextCommandProbe() throws Exception {
+    for (int i = 0; i < 4; i++) {
+      breaker.recordFailure();
+    }
+    now.addAndGet(5000);
+    assertTrue(expensive.acquire(0, TimeUnit.MILLISECONDS));
+    try {
+      guard.run(CommandCost.EXPENSIVE, "dropDatabase", () -> { });
+      fail("expected the probe to be shed");
+    } catch (BackendUnavailableException expected) {
+    }
+    assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+    assertEquals("ok", guard.execute(CommandCost.CHEAP, "listDatabaseNames", () -> "ok"));
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void failuresOutsideTheWindowAreForgotten() {
+    for (int i = 0; i < 3; i++) {
+      breaker.recordFailure();
+    }
+    now.addAndGet(11_000);
+    breaker.recordFailure();
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  /**
+   * Starts a thread taking a slot for the class, and returns once it is queued.
+   */
+  private static Thread waitFor(AdaptiveConcurrencyLimiter limiter, WorkClass workClass, List<WorkClass> granted)
+      throws InterruptedException {
+    Thread thread = new Thread(() -> {
+      try {
+        if (limiter.acquire(workClass, 5, TimeUnit.SECONDS)) {
+          granted.add(workClass);
+          limiter.release(workClass, TimeUnit.MILLISECONDS.toNanos(10), false);
+        }
+      } catch (InterruptedException ignore) {
+      }
+    });
+    thread.start();
+    while (limiter.getQueueStats().get(workClass).getQueued() == 0) {
+      Thread.sleep(1);
+    }
+    return thread;
+  }
+
+  private void failWith(RuntimeException e) {
+    try {
+      guard.execute(CommandCost.EXPENSIVE, "createUser", () -> {
+        throw e;
+      });
+      fail("expected " + e);
+    } catch (RuntimeException expected) {
+      assertEquals(e, expected);
+    }
+  }
+
+}
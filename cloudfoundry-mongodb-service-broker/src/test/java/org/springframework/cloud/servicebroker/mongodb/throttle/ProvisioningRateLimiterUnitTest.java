@@ -0,0 +1,118 @@
+package org.springframework.cloud.servicebroker.mongodb.throttle;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.servicebroker.mongodb.exception.RateLimitExceededException;
+import org.springframework.http.HttpStatus;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ProvisioningRateLimiterUnitTest {
+
+  private AtomicLong now;
+
+  private RateLimitProperties properties;
+
+  private ProvisioningRateLimiter limiter;
+
+  @Before
+  public void setup() {
+    now = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+    properties = new RateLimitProperties();
+    properties.getDefaults().setOrgPerMinute(6);
+    properties.getDefaults().setOrgBurst(3);
+    properties.getDefaults().setSpacePerMinute(2);
+    properties.getDefaults().setSpaceBurst(2);
+    limiter = new ProvisioningRateLimiter(properties, now::get);
+  }
+
+  @Test
+  public void spaceIsLimitedAfterItsBurst() {
+    limiter.checkProvision("plan", "org", "space");
+    limiter.checkProvision("plan", "org", "space");
+
+    RateLimitExceededException e = expectRejection("plan", "org", "space");
+    assertEquals(HttpStatus.TOO_MANY_REQUESTS, e.getStatus());
+    assertEquals(30, e.getRetryAfterSeconds());
+
+    // other spaces in the org still have quota
+    limiter.checkProvision("plan", "org", "other-space");
+  }
+
+  @Test
+  public void rejectionBySpaceDoesNotConsumeOrgQuota() {
+    limiter.checkProvision("plan", "org", "space");
+    limiter.checkProvision("plan", "org", "space");
+    expectRejection("plan", "org", "space");
+    expectRejection("plan", "org", "space");
+
+    limiter.checkProvision("plan", "org", "space-2");
+    expectRejection("plan", "org", "space-3");
+  }
+
+  @Test
+  public void bucketsRefillOverTime() {
+    limiter.checkProvision("plan", "org", "space");
+    limiter.checkProvision("plan", "org", "space");
+    expectRejection("plan", "org", "space");
+
+    now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+    limiter.checkProvision("plan", "org", "space");
+  }
+
+  @Test
+  public void plansHaveTheirOwnQuotas() {
+    RateLimitProperties.Quota large = new RateLimitProperties.Quota();
+    large.setSpacePerMinute(0);
+    properties.getPlans().put("large", large);
+
+    for (int i = 0; i < 10; i++) {
+      limiter.checkProvision("large", "org-" + i, "space");
+    }
+    limiter.checkProvision("small", "org", "space");
+    limiter.checkProvision("small", "org", "space");
+    expectRejection("small", "org", "space");
+  }
+
+  @Test
+  public void fullBucketsAreEvicted() {
+    limiter.checkProvision("plan", "org", "space");
+    assertEquals(2, limiter.getTrackedKeys());
+
+    now.addAndGet(TimeUnit.MINUTES.toNanos(1));
+    limiter.evictFullBuckets();
+    assertEquals(0, limiter.getTrackedKeys());
+  }
+
+  @Test
+  public void trackedKeysAreBounded() {
+    properties.setMaxTrackedKeys(4);
+    for (int i = 0; i < 10; i++) {
+      limiter.checkProvision("plan", "org-" + i, "space-" + i);
+    }
+    assertEquals(4, limiter.getTrackedKeys());
+  }
+
+  @Test
+  public void disabledLimiterLetsEverythingThrough() {
+    ProvisioningRateLimiter unlimited = ProvisioningRateLimiter.unlimited();
+    for (int i = 0; i < 100; i++) {
+      unlimited.checkProvision("plan", "org", "space");
+    }
+  }
+
+  private RateLimitExceededException expectRejection(String plan, String org, String space) {
+    try {
+      limiter.checkProvision(plan, org, space);
+      fail("expected provision to be rate limited");
+      return null;
+    } catch (RateLimitExceededException e) {
+      return e;
+    }
+  }
+
+}
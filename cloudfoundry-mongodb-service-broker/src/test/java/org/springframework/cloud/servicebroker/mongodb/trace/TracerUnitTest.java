@@ -0,0 +1,124 @@
+package org.springframework.cloud.servicebroker.mongodb.trace;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.ServerAddress;
+import com.mongodb.connection.ClusterId;
+import com.mongodb.connection.ConnectionDescription;
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TracerUnitTest {
+
+  private static final ConnectionDescription CONNECTION =
+      new ConnectionDescription(new ServerId(new ClusterId(), new ServerAddress("db-1", 27017)));
+
+  private AtomicLong now;
+
+  private List<Span> slow;
+
+  private Tracer tracer;
+
+  private CommandListener listener;
+
+  @Before
+  public void setup() {
+    now = new AtomicLong();
+    slow = new ArrayList<>();
+    tracer = new Tracer(TimeUnit.MILLISECONDS.toNanos(100), now::get, slow::add);
+    listener = tracer.commandListener();
+  }
+
+  @Test
+  public void slowRequestIsReportedWithItsCommands() {
+    try (Tracer.Scope trace = tracer.start("createServiceInstance instance")) {
+      command(1, "mongodb-service-broker", new BsonDocument("find", new BsonString("serviceInstance")), 2);
+      command(2, "admin", new BsonDocument("listDatabases", new BsonInt32(1)), 150);
+    }
+
+    assertEquals(1, slow.size());
+    Span root = slow.get(0);
+    assertEquals("createServiceInstance instance", root.getName());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(152), root.getDurationNanos());
+    assertEquals(2, root.getChildren().size());
+    Span find = root.getChildren().get(0);
+    assertEquals("find mongodb-service-broker.serviceInstance", find.getName());
+    assertEquals("db-1:27017", find.getServer());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(2), find.getDurationNanos());
+    assertEquals("listDatabases admin", root.getChildren().get(1).getName());
+    assertTrue(root.format().contains("  +2.0 ms listDatabases admin @ db-1:27017 150.0 ms"));
+  }
+
+  @Test
+  public void fastRequestIsNotReported() {
+    try (Tracer.Scope trace = tracer.start("getLastOperation instance")) {
+      command(1, "admin", new BsonDocument("ping", new BsonInt32(1)), 5);
+    }
+
+    assertTrue(slow.isEmpty());
+  }
+
+  @Test
+  public void commandsOutsideARequestAreNotRecorded() {
+    command(1, "admin", new BsonDocument("ping", new BsonInt32(1)), 500);
+    try (Tracer.Scope trace = tracer.start("deleteServiceInstance instance")) {
+      now.addAndGet(TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    assertEquals(1, slow.size());
+    assertTrue(slow.get(0).getChildren().isEmpty());
+  }
+
+  @Test
+  public void failedCommandIsRecordedWithItsError() {
+    try (Tracer.Scope trace = tracer.start("createServiceInstanceBinding binding")) {
+      BsonDocument command = new BsonDocument("createUser", new BsonString("binding"));
+      listener.commandStarted(new CommandStartedEvent(1, CONNECTION, "instance", "createUser", command));
+      now.addAndGet(TimeUnit.MILLISECONDS.toNanos(200));
+      listener.commandFailed(new CommandFailedEvent(1, CONNECTION, "createUser", TimeUnit.MILLISECONDS.toNanos(200),
+          new MongoCommandException(new BsonDocument("errmsg", new BsonString("user exists")),
+              CONNECTION.getServerAddress())));
+    }
+
+    Span createUser = slow.get(0).getChildren().get(0);
+    assertEquals("createUser instance", createUser.getName());
+    assertTrue(createUser.getError().contains("user exists"));
+  }
+
+  @Test
+  public void nestedSpansBelongToTheRequest() {
+    try (Tracer.Scope trace = tracer.start("createServiceInstance instance")) {
+      try (Tracer.Scope seed = tracer.start("seed")) {
+        command(1, "instance", new BsonDocument("create", new BsonString("events")), 120);
+      }
+    }
+
+    Span seed = slow.get(0).getChildren().get(0);
+    assertEquals("seed", seed.getName());
+    assertEquals("create instance.events", seed.getChildren().get(0).getName());
+  }
+
+  private void command(int requestId, String database, BsonDocument command, long millis) {
+    String name = command.keySet().iterator().next();
+    listener.commandStarted(new CommandStartedEvent(requestId, CONNECTION, database, name, command));
+    now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    listener.commandSucceeded(new CommandSucceededEvent(requestId, CONNECTION, name, new BsonDocument(),
+        TimeUnit.MILLISECONDS.toNanos(millis)));
+  }
+
+}